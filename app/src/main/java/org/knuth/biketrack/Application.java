@@ -1,16 +1,126 @@
 package org.knuth.biketrack;
 
+import android.util.Log;
 import com.facebook.stetho.Stetho;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.elevation.ElevationService;
+import org.knuth.biketrack.heatmap.HeatmapCache;
+import org.knuth.biketrack.matching.MapMatchService;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.SpatialIndex;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.thumbnail.ThumbnailCache;
+import org.knuth.biketrack.track.TrackCache;
+
+import java.sql.SQLException;
 
 /**
  * Created by lukas on 20.03.16.
  */
 public class Application extends android.app.Application {
 
+    private TrackCache track_cache;
+    private Units units;
+    private PrecomputeQueue precompute_queue;
+    private ThumbnailCache thumbnail_cache;
+    private HeatmapCache heatmap_cache;
+    private ElevationService elevation_service;
+    private MapMatchService map_match_service;
+
     @Override
     public void onCreate() {
         super.onCreate();
         Stetho.initializeWithDefaults(this);
+        track_cache = new TrackCache(this);
+        registerComponentCallbacks(track_cache);
+        units = new Units(this);
+        thumbnail_cache = new ThumbnailCache(this);
+        registerComponentCallbacks(thumbnail_cache);
+        heatmap_cache = new HeatmapCache(this);
+        elevation_service = new ElevationService(this);
+        map_match_service = new MapMatchService(this);
+        precompute_queue = new PrecomputeQueue(this);
+        precompute_queue.start();
+        indexMissingTours();
+    }
+
+    /**
+     * Get the application-wide cache of loaded tracks.
+     * @see TrackCache#from(android.content.Context)
+     */
+    public TrackCache getTrackCache(){
+        return track_cache;
+    }
+
+    /**
+     * Get the application-wide units and formatting.
+     * @see Units#from(android.content.Context)
+     */
+    public Units getUnits(){
+        return units;
+    }
+
+    /**
+     * Get the application-wide queue of precompute-jobs.
+     * @see PrecomputeQueue#from(android.content.Context)
+     */
+    public PrecomputeQueue getPrecomputeQueue(){
+        return precompute_queue;
+    }
+
+    /**
+     * Get the application-wide cache of rendered track-thumbnails.
+     * @see ThumbnailCache#from(android.content.Context)
+     */
+    public ThumbnailCache getThumbnailCache(){
+        return thumbnail_cache;
     }
-    
+
+    /**
+     * Get the application-wide disk-cache of rendered heatmap-tiles.
+     * @see HeatmapCache#from(android.content.Context)
+     */
+    public HeatmapCache getHeatmapCache(){
+        return heatmap_cache;
+    }
+
+    /**
+     * Get the application-wide correction of the altitudes from terrain-data.
+     * @see ElevationService#from(android.content.Context)
+     */
+    public ElevationService getElevationService(){
+        return elevation_service;
+    }
+
+    /**
+     * Get the application-wide matching of the tracks onto the roads.
+     * @see MapMatchService#from(android.content.Context)
+     */
+    public MapMatchService getMapMatchService(){
+        return map_match_service;
+    }
+
+    /**
+     * Add tours which where recorded before the {@link SpatialIndex} existed to the index.
+     */
+    private void indexMissingTours(){
+        Thread indexer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DatabaseHelper helper = OpenHelperManager.getHelper(Application.this, DatabaseHelper.class);
+                    int indexed = new SpatialIndex(helper).indexMissingTours();
+                    if (indexed > 0) Log.v(Main.LOG_TAG, "Added "+indexed+" tours to the spatial index.");
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                } finally {
+                    OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                }
+            }
+        }, "SpatialIndexer");
+        indexer.setPriority(Thread.MIN_PRIORITY);
+        indexer.start();
+    }
+
 }
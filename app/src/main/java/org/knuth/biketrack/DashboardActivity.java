@@ -0,0 +1,116 @@
+package org.knuth.biketrack;
+
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ExpandableListView;
+import android.widget.Toast;
+import org.knuth.biketrack.adapter.statistic.ExpandableStatisticAdapter;
+import org.knuth.biketrack.async.DashboardLoader;
+import org.knuth.biketrack.persistent.RollupStore;
+
+import java.sql.SQLException;
+
+/**
+ * <p>Shows the totals of all tours in the current week, month and year.</p>
+ * <p>The totals can be rebuilt from the tour summaries, to check they're consistent.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class DashboardActivity extends BaseActivity implements LoaderManager.LoaderCallbacks<ExpandableStatisticAdapter> {
+
+    private ExpandableListView totals;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState){
+        super.onCreate(savedInstanceState);
+        this.setContentView(R.layout.dashboard);
+        totals = (ExpandableListView) findViewById(R.id.dashboard);
+        this.setTitle(R.string.dashboard_actionbar_title);
+        this.getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        // Set the empty-view for the list:
+        View empty_view = this.getLayoutInflater().inflate(R.layout.statistic_empty_view, null);
+        ((ViewGroup) totals.getParent()).addView(empty_view); // See http://stackoverflow.com/q/3727063/717341
+        totals.setEmptyView(empty_view);
+        getSupportLoaderManager().initLoader(DashboardLoader.DASHBOARD_LOADER_ID, null, this);
+    }
+
+    @Override
+    public Loader<ExpandableStatisticAdapter> onCreateLoader(int id, Bundle args) {
+        if (id == DashboardLoader.DASHBOARD_LOADER_ID){
+            return new DashboardLoader(this);
+        }
+        return null;
+    }
+
+    @Override
+    public void onLoadFinished(Loader<ExpandableStatisticAdapter> loader, ExpandableStatisticAdapter adapter) {
+        if (adapter != null){
+            totals.setAdapter(adapter);
+            for (int i = 0; i < adapter.getGroupCount(); i++)
+                totals.expandGroup(i);
+        } else {
+            totals.getEmptyView().setVisibility(View.GONE);
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<ExpandableStatisticAdapter> loader) {}
+
+    /**
+     * Rebuilds the totals from the tour summaries and reloads them.
+     */
+    private class RebuildTotals extends AsyncTask<Void, Void, Integer>{
+
+        @Override
+        protected Integer doInBackground(Void... nothing) {
+            try {
+                return new RollupStore(getHelper()).rebuild();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer corrected){
+            if (corrected == null){
+                Toast.makeText(DashboardActivity.this, R.string.dashboard_toast_rebuildFailed,
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(DashboardActivity.this, getString(R.string.dashboard_toast_rebuilt, corrected),
+                        Toast.LENGTH_SHORT).show();
+                getSupportLoaderManager().restartLoader(
+                        DashboardLoader.DASHBOARD_LOADER_ID, null, DashboardActivity.this
+                );
+            }
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        this.getMenuInflater().inflate(R.menu.dashboard_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected (MenuItem item){
+        super.onOptionsItemSelected(item);
+        switch (item.getItemId()){
+            // If the Logo in the ActionBar is pressed, simulate a "BACK"-button press.
+            case android.R.id.home:
+                onBackPressed();
+                return true;
+            case R.id.dashboard_menu_rebuild:
+                new RebuildTotals().execute();
+                return true;
+        }
+        return false;
+    }
+}
@@ -11,14 +11,12 @@ import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
 import android.widget.Toast;
-import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.stmt.QueryBuilder;
-import org.knuth.biketrack.persistent.LocationStamp;
 import org.knuth.biketrack.persistent.Tour;
 import org.knuth.biketrack.service.TrackingService;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
 
 import java.sql.SQLException;
-import java.util.List;
 
 /**
  * Description
@@ -89,17 +87,13 @@ public class DatabaseActivity extends BaseActivity {
         @Override
         protected Void doInBackground(Tour... tours) {
             try {
-                Dao<LocationStamp, Void> location_dao = DatabaseActivity.this.getHelper().getLocationStampDao();
-                QueryBuilder<LocationStamp, Void> builder = location_dao.queryBuilder();
-                builder.where().eq("tour_id", current_tour.getId());
-                builder.orderBy("timestamp", true);
-                List<LocationStamp> stamps = builder.query();
-                for (LocationStamp stamp : stamps){
+                Track track = TrackCache.from(DatabaseActivity.this).get(getHelper(), current_tour.getId());
+                for (int i = 0; i < track.size(); i++){
                     TableRow row = new TableRow(DatabaseActivity.this);
-                    row.addView( makeTextView(String.valueOf(stamp.getLatitude())) );
-                    row.addView( makeTextView(String.valueOf(stamp.getLongitude())) );
-                    row.addView( makeTextView(String.valueOf(stamp.getAltitude())) );
-                    row.addView( makeTextView(String.valueOf(stamp.getSpeed())) );
+                    row.addView( makeTextView(String.valueOf(track.getLatitudes()[i])) );
+                    row.addView( makeTextView(String.valueOf(track.getLongitudes()[i])) );
+                    row.addView( makeTextView(String.valueOf(track.getAltitudes()[i])) );
+                    row.addView( makeTextView(String.valueOf(track.getSpeeds()[i])) );
                     publishProgress(row);
                     // Check if cancelled.
                     if (isCancelled()) break;
@@ -1,11 +1,14 @@
 package org.knuth.biketrack;
 
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.ActionMode;
 import android.view.Menu;
@@ -16,29 +19,53 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 import com.j256.ormlite.dao.Dao;
 import org.knuth.biketrack.adapter.simple.TourListAdapter;
 import org.knuth.biketrack.async.ToursLoader;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.heatmap.HeatmapCache;
 import org.knuth.biketrack.persistent.LocationStamp;
+import org.knuth.biketrack.persistent.SegmentEngine;
+import org.knuth.biketrack.persistent.SpatialIndex;
 import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.persistent.TourFilter;
+import org.knuth.biketrack.persistent.TourSearch;
+import org.knuth.biketrack.precompute.ClusterBatch;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
 import org.knuth.biketrack.service.TrackingService;
+import org.knuth.biketrack.thumbnail.ThumbnailCache;
+import org.knuth.biketrack.track.TrackCache;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
-public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<Collection<Tour>>, AbsListView.MultiChoiceModeListener, AdapterView.OnItemClickListener, View.OnClickListener {
+public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<TourSearch.Page>, AbsListView.MultiChoiceModeListener, AdapterView.OnItemClickListener, View.OnClickListener {
 
     /** The Tag to use when logging from this application! */
     public static final String LOG_TAG = "BikeTrack";
 
     private ListView tourList;
     private View btnNewTour;
-    private ArrayAdapter<Tour> tourAdapter;
+    private TourListAdapter tourAdapter;
+
+    /** Load the next page when the user scrolls this close to the end of the list */
+    private static final int PAGE_PRELOAD = 10;
+    /** The filter for the shown tours */
+    private TourFilter filter = TourFilter.ALL;
+    /** The key of the page the loader loads next, {@code null} for the first page */
+    private TourSearch.Key requested_page;
+    /** The key of the page after the loaded ones, {@code null} if all pages are loaded */
+    private TourSearch.Key next_page;
+    private boolean loading_page;
+    /** The text to search the tours for */
+    private String search_text;
+    /** Whether only the newest tour of every ride is shown */
+    private boolean grouped;
+    /** The cluster whose tours are shown, {@code 0} to show all */
+    private int shown_cluster;
 
     /** Called when the activity is first created. */
     @Override
@@ -51,16 +78,69 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
         btnNewTour.setOnClickListener(this);
         tourList.setOnItemClickListener(this);
         tourList.setMultiChoiceModeListener(this);
+        tourList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScroll(AbsListView view, int first_visible, int visible_count, int total_count) {
+                if (next_page != null && !loading_page && first_visible + visible_count >= total_count - PAGE_PRELOAD){
+                    loadPage(next_page);
+                }
+            }
+
+            @Override public void onScrollStateChanged(AbsListView view, int state) {}
+        });
         tourAdapter = new TourListAdapter(this);
         tourList.setAdapter(tourAdapter);
         // Set the empty-view for the list:
         View empty_view = this.getLayoutInflater().inflate(R.layout.statistic_empty_view, null);
         ((ViewGroup) tourList.getParent()).addView(empty_view); // See http://stackoverflow.com/q/3727063/717341
         tourList.setEmptyView(empty_view);
+        // Keep the database open while the list is shown, so searching doesn't reopen it:
+        getHelper();
         // Load the content a-sync:
+        loading_page = true;
         this.getSupportLoaderManager().initLoader(ToursLoader.TOUR_LOADER_ID, null, this);
     }
 
+    /**
+     * Load the given page of the tours matching the current filter.
+     * @param page the key of the page or {@code null} to reload from the first page.
+     */
+    private void loadPage(TourSearch.Key page){
+        requested_page = page;
+        loading_page = true;
+        this.getSupportLoaderManager().restartLoader(ToursLoader.TOUR_LOADER_ID, null, this);
+    }
+
+    /**
+     * Build the filter from the search text and grouping and reload the list.
+     */
+    private void updateFilter(){
+        filter = TourFilter.ALL.withText(search_text);
+        if (shown_cluster != 0){
+            filter = filter.withCluster(shown_cluster);
+        } else {
+            filter = filter.grouped(grouped);
+        }
+        loadPage(null);
+    }
+
+    @Override
+    public void onBackPressed() {
+        if (shown_cluster != 0){
+            // Back to the grouped rides:
+            shown_cluster = 0;
+            updateFilter();
+            return;
+        }
+        super.onBackPressed();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        tourAdapter.cancelThumbnails();
+    }
+
     @Override
     public void onClick(View view) {
         switch (view.getId()){
@@ -74,28 +154,31 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
     // ------------------------------ LOADER -----------------------------
 
     @Override
-    public Loader<Collection<Tour>> onCreateLoader(int id, Bundle bundle) {
+    public Loader<TourSearch.Page> onCreateLoader(int id, Bundle bundle) {
         if (id == ToursLoader.TOUR_LOADER_ID){
-            return new ToursLoader(this);
+            return new ToursLoader(this, filter, requested_page);
         }
         return null;
     }
 
     @Override
-    public void onLoadFinished(Loader<Collection<Tour>> collectionLoader, Collection<Tour> tours) {
-        if (tours.size() > 0){
+    public void onLoadFinished(Loader<TourSearch.Page> loader, TourSearch.Page page) {
+        loading_page = false;
+        next_page = page.getNext();
+        if (((ToursLoader) loader).isFirstPage()){
             tourAdapter.clear();
-            for (Tour t : tours){
-                tourAdapter.add(t);
-            }
-        } else {
-            // There are no tours, yet.
+        }
+        // Adding them one by one would re-layout the list for every single tour:
+        tourAdapter.addAll(page.getTours());
+        tourAdapter.addGroups(page.getGroups());
+        if (tourAdapter.isEmpty()){
+            // There are no (matching) tours.
             tourList.getEmptyView().setVisibility(View.GONE);
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<Collection<Tour>> collectionLoader) {}
+    public void onLoaderReset(Loader<TourSearch.Page> loader) {}
 
     // ------------------------ Action Bar, tour selected ---------------------
 
@@ -150,6 +233,23 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         this.getMenuInflater().inflate(R.menu.main_menu, menu);
+        SearchView search = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.main_menu_search));
+        search.setQueryHint(getString(R.string.main_menu_search));
+        search.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                // Search as you type:
+                search_text = text;
+                updateFilter();
+                return true;
+            }
+        });
+        menu.findItem(R.id.main_menu_group).setChecked(grouped);
         return true;
     }
 
@@ -160,6 +260,18 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
             case R.id.main_menu_settings:
                 startActivity(new Intent(this, SettingsActivity.class));
                 return true;
+            case R.id.main_menu_dashboard:
+                startActivity(new Intent(this, DashboardActivity.class));
+                return true;
+            case R.id.main_menu_group:
+                grouped = !grouped;
+                item.setChecked(grouped);
+                shown_cluster = 0;
+                updateFilter();
+                return true;
+            case R.id.main_menu_recluster:
+                reclusterTours();
+                return true;
             default:
                 return false;
         }
@@ -171,11 +283,49 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
     @Override
     public void onItemClick(AdapterView<?> adapterView, View view, int pos, long l) {
         Tour tour = tourAdapter.getItem(pos);
+        TourSearch.Group group = tourAdapter.getGroup(tour);
+        if (group != null && group.getCount() > 1){
+            // Show all tours of this ride:
+            shown_cluster = tour.getClusterId();
+            updateFilter();
+            return;
+        }
         Intent intent = new Intent(Main.this, TourActivity.class);
         intent.putExtra(TrackingService.TOUR_KEY, tour);
         startActivity(intent);
     }
 
+    /**
+     * Find the tours which are the same ride again, showing the progress.
+     */
+    private void reclusterTours(){
+        final ProgressDialog progress = new ProgressDialog(this);
+        progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progress.setMessage(getString(R.string.main_progress_recluster));
+        progress.setCancelable(false);
+        progress.show();
+        new ClusterBatch(this, new ClusterBatch.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                progress.setMax(total);
+                progress.setProgress(done);
+            }
+
+            @Override
+            public void onFinished(int clusters) {
+                if (isFinishing()) return;
+                progress.dismiss();
+                if (clusters >= 0){
+                    Toast.makeText(Main.this, getString(R.string.main_toast_reclustered, clusters),
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(Main.this, R.string.main_toast_reclusterFailed, Toast.LENGTH_SHORT).show();
+                }
+                loadPage(null);
+            }
+        }).start();
+    }
+
     /**
      * Show the dialog to delete one or multiple tours.
      * @param tours the tours which are selected to be deleted.
@@ -190,12 +340,23 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
                             int deleted = Main.this.getHelper().getTourDao().delete(tours);
                             Dao<LocationStamp, Void> stamp_dao = Main.this.getHelper()
                                     .getLocationStampDao();
+                            SpatialIndex spatial_index = new SpatialIndex(Main.this.getHelper());
+                            SegmentEngine segment_engine = new SegmentEngine(Main.this.getHelper());
                             // Recursive delete all LocationStamps of that tour.
                             for (final Tour tour : tours) {
+                                // The heatmap needs to know where the tour was:
+                                BoundingBox bounds = Main.this.getHelper().queryBounds(tour.getId());
                                 // TODO Use the PDO here!
                                 int deleted2 = stamp_dao.executeRaw("DELETE FROM loc_stamp " +
                                         "WHERE tour_id = "+tour.getId());
                                 Log.v(LOG_TAG, "Deleted "+deleted2+" locationstamps from "+tour.toString());
+                                stamp_dao.executeRaw("DELETE FROM laps WHERE tour_id = "+tour.getId());
+                                spatial_index.remove(tour.getId());
+                                segment_engine.forgetTour(tour.getId());
+                                TrackCache.from(Main.this).invalidate(tour.getId());
+                                PrecomputeQueue.from(Main.this).forgetTour(tour.getId());
+                                ThumbnailCache.from(Main.this).invalidate(tour.getId());
+                                if (bounds != null) HeatmapCache.from(Main.this).invalidate(bounds);
                                 // Remove and animate:
                                 final View animate_me = tourList.getChildAt(tourAdapter.getPosition(tour));
                                 Animation animation = AnimationUtils.loadAnimation(Main.this, android.R.anim.slide_out_right); // TODO Make it slide out LEFT
@@ -214,9 +375,8 @@ public class Main extends BaseActivity implements LoaderManager.LoaderCallbacks<
                                             // The finished animation has been canceled and is no really done.
                                             tourAdapter.remove(tour);
                                             tourList.getEmptyView().setVisibility(View.GONE);
-                                            // Notify the Loader that the data has changed:
-                                            Main.this.getSupportLoaderManager().
-                                                    getLoader(ToursLoader.TOUR_LOADER_ID).onContentChanged();
+                                            // The data has changed, start over:
+                                            loadPage(null);
                                         }
                                     }
 
@@ -0,0 +1,231 @@
+package org.knuth.biketrack;
+
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.EditText;
+import android.widget.ExpandableListView;
+import android.widget.SeekBar;
+import android.widget.Toast;
+import org.knuth.biketrack.adapter.statistic.ExpandableStatisticAdapter;
+import org.knuth.biketrack.async.LeaderboardLoader;
+import org.knuth.biketrack.persistent.SegmentEngine;
+import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.precompute.RecordsBatch;
+import org.knuth.biketrack.service.TrackingService;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * <p>Shows the personal records, the best efforts of a tour and the leaderboards of all
+ *  segments, which where ridden on it.</p>
+ * <p>New segments can be created from a stretch of the tour. The records of all tours can
+ *  be recalculated.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RecordsActivity extends BaseActivity implements LoaderManager.LoaderCallbacks<ExpandableStatisticAdapter> {
+
+    private Tour current_tour;
+    private ExpandableListView records;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState){
+        super.onCreate(savedInstanceState);
+        this.setContentView(R.layout.records);
+        records = (ExpandableListView) findViewById(R.id.records);
+        // Get the current tour:
+        Bundle extras = this.getIntent().getExtras();
+        if (extras != null && extras.containsKey(TrackingService.TOUR_KEY)){
+            current_tour = extras.getParcelable(TrackingService.TOUR_KEY);
+        } else {
+            Log.e(Main.LOG_TAG, "No tour was supplied to RecordsActivity!");
+            finish();
+            return;
+        }
+        this.setTitle(getString(R.string.records_actionbar_title, current_tour.toString()));
+        this.getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        // Set the empty-view for the list:
+        View empty_view = this.getLayoutInflater().inflate(R.layout.statistic_empty_view, null);
+        ((ViewGroup) records.getParent()).addView(empty_view); // See http://stackoverflow.com/q/3727063/717341
+        records.setEmptyView(empty_view);
+        getSupportLoaderManager().initLoader(LeaderboardLoader.LEADERBOARD_LOADER_ID, null, this);
+    }
+
+    @Override
+    public Loader<ExpandableStatisticAdapter> onCreateLoader(int id, Bundle args) {
+        if (id == LeaderboardLoader.LEADERBOARD_LOADER_ID){
+            return new LeaderboardLoader(this, current_tour);
+        }
+        return null;
+    }
+
+    @Override
+    public void onLoadFinished(Loader<ExpandableStatisticAdapter> loader, ExpandableStatisticAdapter adapter) {
+        if (adapter != null){
+            records.setAdapter(adapter);
+            for (int i = 0; i < adapter.getGroupCount(); i++)
+                records.expandGroup(i);
+        } else {
+            // This tour didn't ride any segments:
+            records.getEmptyView().setVisibility(View.GONE);
+            Toast.makeText(this, R.string.records_toast_noSegments, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<ExpandableStatisticAdapter> loader) {}
+
+    /**
+     * Show the dialog to create a new segment from a stretch of the current tour.
+     */
+    private void showNewSegmentDialog(){
+        final View content = getLayoutInflater().inflate(R.layout.segment_dialog, null);
+        final SeekBar start = (SeekBar) content.findViewById(R.id.segment_dialog_start);
+        final SeekBar end = (SeekBar) content.findViewById(R.id.segment_dialog_end);
+        final EditText name = (EditText) content.findViewById(R.id.segment_dialog_name);
+        end.setProgress(end.getMax());
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.records_menu_newSegment)
+                .setView(content)
+                .setCancelable(true)
+                .setPositiveButton(R.string.tourActivity_dialog_save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        float from = start.getProgress() / (float) start.getMax();
+                        float to = end.getProgress() / (float) end.getMax();
+                        if (from >= to || name.getText().length() == 0){
+                            Toast.makeText(RecordsActivity.this, R.string.records_toast_invalidSegment,
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            new CreateSegment(name.getText().toString()).execute(from, to);
+                        }
+                        dialogInterface.dismiss();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .create().show();
+    }
+
+    /**
+     * Creates a segment between two fractions of the tours length and reloads the leaderboards.
+     */
+    private class CreateSegment extends AsyncTask<Float, Void, Boolean>{
+
+        private final String name;
+
+        public CreateSegment(String name){
+            this.name = name;
+        }
+
+        @Override
+        protected Boolean doInBackground(Float... range) {
+            try {
+                Track track = TrackCache.from(RecordsActivity.this).get(getHelper(), current_tour.getId());
+                if (track.size() < 2) return false;
+                double[] distances = track.getDistances();
+                int from = indexAt(distances, range[0] * track.getLength());
+                int to = indexAt(distances, range[1] * track.getLength()) + 1;
+                if (to - from < 2) return false;
+                new SegmentEngine(getHelper()).createSegment(name, current_tour, track, from, to);
+                return true;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        private int indexAt(double[] distances, double distance){
+            int index = Arrays.binarySearch(distances, distance);
+            return index >= 0 ? index : Math.min(distances.length - 1, -index - 1);
+        }
+
+        @Override
+        protected void onPostExecute(Boolean created){
+            if (created){
+                getSupportLoaderManager().restartLoader(
+                        LeaderboardLoader.LEADERBOARD_LOADER_ID, null, RecordsActivity.this
+                );
+            } else {
+                Toast.makeText(RecordsActivity.this, R.string.records_toast_invalidSegment,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /**
+     * Search all tours for their best efforts again, showing the progress.
+     */
+    private void recalculateRecords(){
+        final ProgressDialog progress = new ProgressDialog(this);
+        progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progress.setMessage(getString(R.string.records_progress_recalculate));
+        progress.setCancelable(false);
+        progress.show();
+        new RecordsBatch(this, new RecordsBatch.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                progress.setMax(total);
+                progress.setProgress(done);
+            }
+
+            @Override
+            public void onFinished(int failed) {
+                if (isFinishing()) return;
+                progress.dismiss();
+                if (failed == 0){
+                    Toast.makeText(RecordsActivity.this, R.string.records_toast_recalculated,
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(RecordsActivity.this, R.string.records_toast_recalculateFailed,
+                            Toast.LENGTH_SHORT).show();
+                }
+                getSupportLoaderManager().restartLoader(
+                        LeaderboardLoader.LEADERBOARD_LOADER_ID, null, RecordsActivity.this
+                );
+            }
+        }).start();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        this.getMenuInflater().inflate(R.menu.records_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected (MenuItem item){
+        super.onOptionsItemSelected(item);
+        switch (item.getItemId()){
+            // If the Logo in the ActionBar is pressed, simulate a "BACK"-button press.
+            case android.R.id.home:
+                onBackPressed();
+                return true;
+            case R.id.records_menu_new_segment:
+                showNewSegmentDialog();
+                return true;
+            case R.id.records_menu_recalculate:
+                recalculateRecords();
+                return true;
+        }
+        return false;
+    }
+}
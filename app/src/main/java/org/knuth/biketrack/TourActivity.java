@@ -6,9 +6,10 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.location.Location;
 import android.location.LocationManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.AsyncTaskLoader;
@@ -22,6 +23,8 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ExpandableListView;
+import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 import com.echo.holographlibrary.Bar;
 import com.echo.holographlibrary.Line;
@@ -29,24 +32,43 @@ import com.echo.holographlibrary.LineGraph;
 import com.echo.holographlibrary.LinePoint;
 import com.j256.ormlite.android.apptools.OpenHelperManager;
 import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
 import org.knuth.biketrack.adapter.statistic.BarGraphStatistic;
-import org.knuth.biketrack.adapter.statistic.Distance;
 import org.knuth.biketrack.adapter.statistic.ExpandableStatisticAdapter;
+import org.knuth.biketrack.adapter.statistic.LazyStatisticGroup;
 import org.knuth.biketrack.adapter.statistic.LineGraphStatistic;
-import org.knuth.biketrack.adapter.statistic.Speed;
 import org.knuth.biketrack.adapter.statistic.Statistic;
 import org.knuth.biketrack.adapter.statistic.StatisticGroup;
+import org.knuth.biketrack.adapter.statistic.UnitStatistic;
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.adapter.statistic.ZoneStatistics;
+import org.knuth.biketrack.async.LeaderboardLoader;
+import org.knuth.biketrack.async.ReferencePicker;
+import org.knuth.biketrack.elevation.ElevationService;
+import org.knuth.biketrack.geo.MapMatcher;
+import org.knuth.biketrack.matching.MapMatchService;
+import org.knuth.biketrack.persistent.ArtifactStore;
 import org.knuth.biketrack.persistent.DatabaseHelper;
-import org.knuth.biketrack.persistent.LocationStamp;
 import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.persistent.TourSummary;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.precompute.Task;
 import org.knuth.biketrack.service.TrackingService;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.GhostRider;
+import org.knuth.biketrack.track.Profile;
+import org.knuth.biketrack.track.RangeIndex;
+import org.knuth.biketrack.track.Splits;
+import org.knuth.biketrack.track.TimeInZones;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
+import org.knuth.biketrack.track.ZoneHistogram;
 
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 
@@ -67,8 +89,16 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
     private Button start_stop;
     private MenuItem menu_item_map;
     private MenuItem menu_item_records;
+    private MenuItem menu_item_raw;
     private MenuItem menu_item_live;
     private MenuItem menu_item_edit;
+    private MenuItem menu_item_section;
+    private MenuItem menu_item_compare;
+    private MenuItem menu_item_elevation;
+    private MenuItem menu_item_match;
+
+    /** The distance (in meters) between the points of a comparison with another tour */
+    private static final double COMPARE_STEP = 10;
 
     @Override
     public void onCreate(Bundle saved){
@@ -134,9 +164,12 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<ExpandableStatisticAdapter> loader, ExpandableStatisticAdapter adapter) {
+        long started = ((StatisticLoader) loader).started;
+        // The lazy groups log their own time once they're computed:
+        Log.v(Main.LOG_TAG, "First statistics after "+(SystemClock.elapsedRealtime() - started)+"ms");
         if (adapter != null){
             statistics.setAdapter(adapter);
-            // Expand all list entries:
+            // Expand all list entries, the lazy ones are only computed once they're on screen:
             for (int i = 0; i < adapter.getGroupCount(); i++)
                 statistics.expandGroup(i);
         } else {
@@ -158,6 +191,10 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
         public static final int STATISTIC_LOADER_ID = 1;
         private final Tour load_tour;
         private final Context context;
+        /** When loading was started, to measure how long it takes until statistics are shown */
+        private long started;
+        /** The key the lazy statistics of the current track are memoized with */
+        private Object memo_key;
 
         public StatisticLoader(Context context, Tour tour) {
             super(context);
@@ -167,32 +204,76 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
 
         @Override
         protected void onStartLoading() {
+            started = SystemClock.elapsedRealtime();
             forceLoad(); // This seems to be a bug in the SupportLibrary.
                          // See http://stackoverflow.com/q/8606048/717341
         }
 
         @Override
         public ExpandableStatisticAdapter loadInBackground() {
-            List<LocationStamp> stamps = getStamps();
-            Log.v(Main.LOG_TAG, "Got " + stamps.size() + " stamps for tour-ID: " + load_tour.getId());
-            if (stamps.isEmpty()) return null;
-            // Fill the Adapter:
-            ArrayList<StatisticGroup> groups = new ArrayList<StatisticGroup>(1);
-            groups.add( getSpeedGroup(stamps) );
-            groups.add( getTrackGroup(stamps) );
-            groups.add( getTimeGroup(stamps) );
+            PrecomputeQueue queue = PrecomputeQueue.from(context);
+            queue.beginInteractive();
+            try {
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                int tour_id = load_tour.getId();
+                memo_key = TrackCache.from(context).getKey(tour_id);
+                TourSummary summary = null;
+                Profile[] profiles = null;
+                List<ElevationProcessor.Climb> climbs = null;
+                byte[] split_data = null;
+                MapMatcher.Result matched = null;
+                ZoneHistogram[] zones = null;
+                if (!queue.isTracked(tour_id)){
+                    // A finished tour, use the precomputed data:
+                    ArtifactStore store = new ArtifactStore(helper);
+                    summary = store.loadSummary(tour_id);
+                    byte[] profile_data = Task.PROFILE.load(store, tour_id);
+                    if (profile_data != null) profiles = Task.decodeProfiles(profile_data);
+                    byte[] climb_data = Task.CLIMBS.load(store, tour_id);
+                    if (climb_data != null) climbs = Task.decodeClimbs(climb_data);
+                    split_data = Task.SPLITS.load(store, tour_id);
+                    byte[] zone_data = Task.ZONES.load(store, tour_id);
+                    if (zone_data != null) zones = Task.decodeZones(zone_data);
+                    matched = MapMatchService.from(context).loadResult(helper, tour_id);
+                }
+                if (summary == null){
+                    // Not precomputed (yet), so calculate it from the track:
+                    Track track = TrackCache.from(context).get(helper, tour_id);
+                    Log.v(Main.LOG_TAG, "Got " + track.size() + " stamps for tour-ID: " + tour_id);
+                    if (track.isEmpty()) return null;
+                    summary = TourSummary.of(tour_id, track);
+                    if (!queue.isTracked(tour_id)) queue.enqueue(tour_id, PrecomputeQueue.PRIORITY_OPENED);
+                }
+                // Fill the Adapter:
+                ArrayList<StatisticGroup> groups = new ArrayList<StatisticGroup>(7);
+                groups.add( getSpeedGroup(summary, profiles) );
+                groups.add( getTrackGroup(summary, matched) );
+                groups.add( getClimbGroup(summary, climbs) );
+                groups.add( getZoneGroup(summary, zones) );
+                groups.add( getSplitGroup(summary, split_data, false) );
+                if (helper.getLapDao().queryBuilder().where().eq("tour_id", tour_id).countOf() > 0){
+                    groups.add( getSplitGroup(summary, split_data, true) );
+                }
+                groups.add( getTimeGroup(summary) );
 
-            return new ExpandableStatisticAdapter(context, groups);
+                return new ExpandableStatisticAdapter(context, groups);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                queue.endInteractive();
+            }
         }
 
         /**
-         * Calculate the time spend riding.
+         * Calculate the time spend riding, overall and while moving.
          */
-        private StatisticGroup getTimeGroup(List<LocationStamp> stamps){
-            Date start = stamps.get(0).getTimestamp();
-            Date end = stamps.get( stamps.size()-1 ).getTimestamp();
+        private StatisticGroup getTimeGroup(TourSummary summary){
+            Date start = summary.getStart();
+            Date end = summary.getEnd();
             // Since the Java Date-API sucks...
-            long secs = (end.getTime() - start.getTime()) / 1000;
+            long secs = summary.getDuration() / 1000;
             int mins = (int)(secs / 60);
             SimpleDateFormat format = new SimpleDateFormat("HH:mm");
             SimpleDateFormat when = new SimpleDateFormat("d. MMM yyyy");
@@ -202,171 +283,262 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
             time_group.add(new Statistic<String>(format.format(start), "", "Start time"));
             time_group.add(new Statistic<String>(format.format(end), "", "End time"));
             time_group.add(new Statistic<Integer>(mins, "min", "Overall time"));
+            time_group.add(new Statistic<Integer>((int)(summary.getMovingTime() / 60000), "min",
+                    context.getString(R.string.tourActivity_statistics_movingTime)
+            ));
+            time_group.add(new Statistic<Integer>(summary.getPauses(), "",
+                    context.getString(R.string.tourActivity_statistics_pauses)
+            ));
             return time_group;
         }
 
         /**
-         * Calculate the length of the track
+         * Show the length of the track, the elevation gained and lost and the distance ridden
+         *  at each gradient.
+         * @param matched the track matched onto the roads, or {@code null} if it wasn't.
          */
-        private StatisticGroup getTrackGroup(List<LocationStamp> stamps){
-            // TODO New way (V2) available?
-            double total_distance = 0;
-            double current_distance = 0;
-            double downhill_distance = 0;
-            double uphill_distance = 0;
-            double flat_distance = 0;
-
-            final double flat_tolerance = 0.2;
-
-            double last_altitude = -1;
-            Location location1 = null;
-            Location location2 = new Location("pointB");
-            // Calculate:
-            for (LocationStamp s : stamps){
-                if (location1 == null){
-                    location1 = new Location("pointA");
-                    location1.setLatitude(s.getLatitude());
-                    location1.setLongitude(s.getLongitude());
-                    continue;
+        private StatisticGroup getTrackGroup(TourSummary summary, MapMatcher.Result matched){
+            StatisticGroup track_group = new StatisticGroup(context.getString(R.string.tourActivity_statistics_track));
+            track_group.add(new UnitStatistic(
+                    Units.Quantity.DISTANCE, summary.getDistance(),
+                    context.getString(R.string.tourActivity_statistics_distance)
+            ));
+            if (matched != null){
+                track_group.add(new UnitStatistic(
+                        Units.Quantity.DISTANCE, matched.getDistance(),
+                        context.getString(R.string.tourActivity_statistics_roadDistance)
+                ));
+            }
+            track_group.add(new Statistic<Long>(Math.round(summary.getAscent()), "m",
+                    context.getString(R.string.tourActivity_statistics_ascent)
+            ));
+            track_group.add(new Statistic<Long>(Math.round(summary.getDescent()), "m",
+                    context.getString(R.string.tourActivity_statistics_descent)
+            ));
+
+            // Set values (in meters, they're shown in the set system):
+            track_group.add(new BarGraphStatistic(
+                    context.getString(R.string.tourActivity_statistics_terrain),
+                    Units.Quantity.DISTANCE,
+                    makeBar(R.string.tourActivity_statistics_steepUphill, R.color.statistics_bar_steepUphill,
+                            summary.getSteepUphill()),
+                    makeBar(R.string.tourActivity_statistics_uphill, R.color.statistics_bar_uphill,
+                            summary.getUphill()),
+                    makeBar(R.string.tourActivity_statistics_flat, R.color.statistics_bar_flat,
+                            summary.getFlat()),
+                    makeBar(R.string.tourActivity_statistics_downhill, R.color.statistics_bar_downhill,
+                            summary.getDownhill()),
+                    makeBar(R.string.tourActivity_statistics_steepDownhill, R.color.statistics_bar_steepDownhill,
+                            summary.getSteepDownhill())
+            ));
+            return track_group;
+        }
+
+        private Bar makeBar(int name, int color, double value){
+            Bar bar = new Bar();
+            bar.setName(context.getString(name));
+            bar.setColor(context.getResources().getColor(color));
+            bar.setValue((float) value);
+            return bar;
+        }
+
+        /**
+         * Show the climbs of the tour.
+         * @param climbs the precomputed climbs, or {@code null} to detect them on the track.
+         */
+        private StatisticGroup getClimbGroup(TourSummary summary, final List<ElevationProcessor.Climb> climbs){
+            // The climbs are described in the current system:
+            final Units.Snapshot units = Units.from(context).get();
+            return new LazyStatisticGroup(context.getString(R.string.tourActivity_statistics_climbs), memo_key,
+                    units.getSystem()){
+                @Override
+                protected List<Statistic> compute() {
+                    List<ElevationProcessor.Climb> detected = climbs;
+                    if (detected == null) detected = ElevationProcessor.of(getTrack()).getClimbs();
+                    List<Statistic> result = new ArrayList<Statistic>(detected.size());
+                    for (ElevationProcessor.Climb climb : detected){
+                        String description = context.getString(R.string.tourActivity_statistics_climb,
+                                units.formatDistance(climb.getStartDistance()),
+                                units.formatDistance(climb.getLength()), units.getDistanceUnit(),
+                                climb.getAverageGradient() * 100, climb.getMaxGradient() * 100,
+                                Math.round(climb.getVam())
+                        );
+                        result.add(new Statistic<Long>(Math.round(climb.getGain()), "m", description));
+                    }
+                    if (result.isEmpty()){
+                        result.add(new Statistic<String>("-", "",
+                                context.getString(R.string.tourActivity_statistics_noClimbs)
+                        ));
+                    }
+                    return result;
                 }
-                // Set new goal-LatLon
-                location2.setLatitude(s.getLatitude());
-                location2.setLongitude(s.getLongitude());
-                // Calculate distance:
-                current_distance = location1.distanceTo(location2);
-                total_distance += current_distance;
-                // Set new start-location:
-                location1.set(location2);
-                // Update the bars:
-                if (last_altitude == -1){
-                    // First run:
-                    last_altitude = s.getAltitude();
-                } else {
-                    if ((s.getAltitude() - last_altitude) > flat_tolerance){
-                        uphill_distance += current_distance;
-                    } else if ((s.getAltitude() - last_altitude) < -flat_tolerance){
-                        downhill_distance += current_distance;
+            };
+        }
+
+        /**
+         * Show the time spent in the speed- and gradient-zones.
+         * @param zones the precomputed zones, or {@code null} to measure them on the track.
+         */
+        private StatisticGroup getZoneGroup(TourSummary summary, final ZoneHistogram[] zones){
+            // The speed-zones are named in the current system:
+            return new LazyStatisticGroup(context.getString(R.string.tourActivity_statistics_zones), memo_key,
+                    Units.from(context).get().getSystem()){
+                @Override
+                protected List<Statistic> compute() {
+                    if (zones != null) return ZoneStatistics.of(context, zones[0], zones[1]);
+                    TimeInZones measured = TimeInZones.of(getTrack());
+                    return ZoneStatistics.of(context, measured.getSpeed(), measured.getGradient());
+                }
+            };
+        }
+
+        /**
+         * Show the time, speed and elevation of each split and their speeds as a graph.
+         * @param split_data the precomputed splits, or {@code null} to split the track.
+         * @param laps whether to show the laps marked by the rider, instead of the splits
+         *  per kilometer or mile.
+         */
+        private StatisticGroup getSplitGroup(TourSummary summary, final byte[] split_data, final boolean laps){
+            int name = laps ? R.string.tourActivity_statistics_laps : R.string.tourActivity_statistics_splits;
+            // The splits are made and described in the current system:
+            final Units.Snapshot units = Units.from(context).get();
+            return new LazyStatisticGroup(context.getString(name), memo_key, units.getSystem()){
+                @Override
+                protected List<Statistic> compute() {
+                    List<Splits.Split> splits;
+                    if (split_data != null){
+                        splits = laps ? Task.decodeLaps(split_data) : Task.decodeSplits(split_data, units.getSystem());
                     } else {
-                        flat_distance += current_distance;
+                        splits = split(units.getSystem(), laps);
                     }
-                    last_altitude = s.getAltitude();
+                    List<Statistic> result = new ArrayList<Statistic>(splits.size() + 1);
+                    if (splits.isEmpty()) return result;
+                    int color = context.getResources().getColor(R.color.statistics_bar_flat);
+                    Bar[] bars = new Bar[splits.size()];
+                    for (int i = 0; i < bars.length; i++){
+                        Splits.Split split = splits.get(i);
+                        bars[i] = new Bar();
+                        bars[i].setName(String.valueOf(i + 1));
+                        bars[i].setColor(color);
+                        // In meters per second, they're shown in the set system:
+                        bars[i].setValue((float) split.getSpeed());
+                    }
+                    result.add(new BarGraphStatistic(
+                            context.getString(R.string.tourActivity_statistics_splitSpeeds), Units.Quantity.SPEED, bars
+                    ));
+                    for (int i = 0; i < splits.size(); i++){
+                        Splits.Split split = splits.get(i);
+                        String description = context.getString(R.string.tourActivity_statistics_split,
+                                i + 1, units.formatDistance(split.getLength()), units.getDistanceUnit(),
+                                units.formatSpeed(split.getSpeed()), units.getSpeedUnit(),
+                                Math.round(split.getElevation())
+                        );
+                        result.add(new Statistic<String>(LeaderboardLoader.formatElapsed(split.getElapsed()), "",
+                                description
+                        ));
+                    }
+                    return result;
                 }
-            }
-            // Calculate the distance depending on the set system:
-            StatisticGroup track_group = new StatisticGroup(context.getString(R.string.tourActivity_statistics_track));
+            };
+        }
 
-            Bar uphill_bar = new Bar();
-            uphill_bar.setName(context.getString(R.string.tourActivity_statistics_uphill));
-            uphill_bar.setColor(context.getResources().getColor(R.color.statistics_bar_uphill));
-            Bar downhill_bar = new Bar();
-            downhill_bar.setName(context.getString(R.string.tourActivity_statistics_downhill));
-            downhill_bar.setColor(context.getResources().getColor(R.color.statistics_bar_downhill));
-            Bar flat_bar = new Bar();
-            flat_bar.setName(context.getString(R.string.tourActivity_statistics_flat));
-            flat_bar.setColor(context.getResources().getColor(R.color.statistics_bar_flat));
-
-            // Set values:
-            uphill_bar.setValue((float)Distance.toCurrentUnit(uphill_distance, context));
-            downhill_bar.setValue((float)Distance.toCurrentUnit(downhill_distance, context));
-            flat_bar.setValue((float)Distance.toCurrentUnit(flat_distance, context));
-            track_group.add(new Statistic<String>(
-                            Distance.formatCurrentUnit(total_distance, context),
-                            context.getString(R.string.label_unit_kilometers),
-                            context.getString(R.string.tourActivity_statistics_distance))
-            );
-            track_group.add(new BarGraphStatistic(
-                            context.getString(R.string.tourActivity_statistics_terrain),
-                            Distance.getCurrentUnit(context),
-                            uphill_bar, flat_bar, downhill_bar)
-            );
-            return track_group;
+        /**
+         * Split the track of this tour, when the splits aren't precomputed.
+         */
+        private List<Splits.Split> split(Units.MeasurementSystem system, boolean laps){
+            Track track = getTrack();
+            if (!laps) return Splits.byDistance(track, system.getUnitLength());
+            try {
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                return Splits.byTime(track, helper.queryLaps(load_tour.getId()));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return Collections.emptyList();
+            } finally {
+                OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+            }
         }
 
         /**
-         * Calculate average- and top-speed
+         * Show average- and top-speed and the speed-profile.
+         * @param profiles the precomputed speed- and elevation-profile, or {@code null} to
+         *  calculate them from the track.
          */
-        private StatisticGroup getSpeedGroup(List<LocationStamp> stamps){
-            // setup:
-            float top_speed_ms = Collections.max(stamps, new Comparator<LocationStamp>() {
+        private StatisticGroup getSpeedGroup(final TourSummary summary, final Profile[] profiles){
+            StatisticGroup speed_group = new LazyStatisticGroup(
+                    context.getString(R.string.tourActivity_statistics_speed), memo_key
+            ){
                 @Override
-                public int compare(LocationStamp locationStamp, LocationStamp locationStamp2) {
-                    return Float.compare(locationStamp.getSpeed(), locationStamp2.getSpeed());
+                protected List<Statistic> compute() {
+                    Profile[] drawn = profiles;
+                    if (drawn == null){
+                        Track track = getTrack();
+                        drawn = new Profile[]{
+                                Profile.speedOverDistance(track), Profile.elevationOverDistance(track)
+                        };
+                    }
+                    return Collections.<Statistic>singletonList(
+                            getProfileStatistic(drawn[0], drawn[1], summary.getTopSpeed())
+                    );
                 }
-            }).getSpeed();
-            float all_speed = 0; // needed for average calculation. TODO Use "mittelwert" here?
+            };
+            speed_group.add(new UnitStatistic(
+                    Units.Quantity.SPEED, summary.getTopSpeed(),
+                    context.getString(R.string.tourActivity_statistics_topSpeed)
+            ));
+            speed_group.add(new UnitStatistic(
+                    Units.Quantity.SPEED, summary.getAverageSpeed(),
+                    context.getString(R.string.tourActivity_statistics_avgSpeed)
+            ));
+            return speed_group;
+        }
+
+        /**
+         * Draw the speed and elevation over the distance of the track.
+         */
+        private Statistic getProfileStatistic(Profile speed, Profile elevation, float top_speed_ms){
+            // The graph can't show more points than it has pixels:
+            int points = Math.max(3, context.getResources().getDisplayMetrics().widthPixels);
+            Profile speed_profile = speed.downsample(points);
+            Profile elevation_profile = elevation.downsample(points);
             Line speed_line = new Line();
             speed_line.setShowingPoints(false);
             speed_line.setColor(context.getResources().getColor(R.color.statistics_line_speed));
+            double[] x = speed_profile.getX();
+            double[] y = speed_profile.getY();
+            for (int i = 0; i < speed_profile.size(); i++){
+                speed_line.addPoint(new LinePoint((float) x[i], (float) y[i]));
+            }
             Line altitude_line = new Line(); // Uphill/Downhill
             altitude_line.setShowingPoints(false);
             altitude_line.setColor(context.getResources().getColor(R.color.statistics_line_altitude));
-            double last_altitude = -1;
-            double y = 0.0;
-
-            int x = 0;
-            boolean is_second = true;
-            // Process stamps:
-            for (LocationStamp s : stamps){
-                all_speed += s.getSpeed();
-                // Draw the speed-line:
-                if (is_second){
-                    // A little trick to add only every second time-stamp to the graph. looks clearer...
-                    speed_line.addPoint(new LinePoint(x, s.getSpeed()));
-                    x++;
-                    is_second = false;
-                } else is_second = true;
-                // Draw the uphil/downhil line:
-                if (last_altitude == -1){
-                    // first round:
-                    last_altitude = s.getAltitude();
-                } else {
-                    if (last_altitude > s.getAltitude()){
-                        // Downhill:
-                        y -= 0.1;
-                    } else if (last_altitude < s.getAltitude()){
-                        // Uphill:
-                        y += 0.1;
-                    }
-                    altitude_line.addPoint(new LinePoint(x, (float) y+top_speed_ms/2));
-                    last_altitude = s.getAltitude();
-                }
+            // Both lines share the y-axis, so the elevation is scaled into the speed-range:
+            x = elevation_profile.getX();
+            y = elevation_profile.getY();
+            double min_altitude = elevation_profile.getMinY();
+            double altitude_range = elevation_profile.getMaxY() - min_altitude;
+            for (int i = 0; i < elevation_profile.size(); i++){
+                double scaled = altitude_range > 0
+                        ? (y[i] - min_altitude) / altitude_range * top_speed_ms
+                        : top_speed_ms / 2;
+                altitude_line.addPoint(new LinePoint((float) x[i], (float) scaled));
             }
-            float average_speed_ms = all_speed / stamps.size();
-            // Calculate the statistics:
-            StatisticGroup speed_group = new StatisticGroup(context.getString(R.string.tourActivity_statistics_speed));
-            speed_group.add(new Statistic<String>(
-                            Speed.formatCurrentUnit(top_speed_ms, context),
-                            context.getString(R.string.label_unit_kmh),
-                            context.getString(R.string.tourActivity_statistics_topSpeed))
-            );
-            speed_group.add(new Statistic<String>(
-                            Speed.formatCurrentUnit(average_speed_ms, context),
-                            context.getString(R.string.label_unit_kmh),
-                            context.getString(R.string.tourActivity_statistics_avgSpeed))
-            );
-            speed_group.add(new LineGraphStatistic(
-                    context.getString(R.string.tourActivity_statistics_speedOverTime),
+            return new LineGraphStatistic(
+                    context.getString(R.string.tourActivity_statistics_speedOverDistance),
                     top_speed_ms, speed_line, altitude_line
-            ));
-
-            return speed_group;
+            );
         }
 
         /**
-         * Query the list of {@code LocationStamp}s for this tour from the DB.
+         * Get the track of this tour from the applications {@code TrackCache}.
          */
-        private List<LocationStamp> getStamps(){
+        private Track getTrack(){
             try {
-                Dao<LocationStamp, Void> location_dao = OpenHelperManager.getHelper(
-                        context, DatabaseHelper.class
-                ).getLocationStampDao();
-                QueryBuilder<LocationStamp, Void> builder = location_dao.queryBuilder();
-                builder.where().eq("tour_id", load_tour.getId());
-                builder.orderBy("timestamp", true);
-                return builder.query();
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                return TrackCache.from(context).get(helper, load_tour.getId());
             } catch (SQLException e) {
                 e.printStackTrace();
-                return Collections.emptyList();
+                return Track.EMPTY;
             } finally {
                 OpenHelperManager.releaseHelper(); //Decrease the ref-count!
             }
@@ -428,6 +600,11 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
             menu_item_map.setVisible(true);
             menu_item_edit.setVisible(true);
             menu_item_records.setVisible(true);
+            menu_item_raw.setVisible(true);
+            menu_item_section.setVisible(true);
+            menu_item_compare.setVisible(true);
+            menu_item_elevation.setVisible(true);
+            menu_item_match.setVisible(true);
             return true;
         } else {
             Log.e(Main.LOG_TAG, "Couldn't stopp tracking-service!");
@@ -493,7 +670,11 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
                         current_tour.setTitle(input.getText().toString());
                         try {
                             Dao<Tour, Integer> dao = getHelper().getTourDao();
-                            dao.update(current_tour);
+                            // Only the title, the cluster is maintained in the background:
+                            UpdateBuilder<Tour, Integer> update = dao.updateBuilder();
+                            update.updateColumnValue("title", new SelectArg(current_tour.getTitle()))
+                                    .where().idEq(current_tour.getId());
+                            update.update();
                             setTitle(current_tour.getTitle());
                         } catch (SQLException e) {
                             e.printStackTrace();
@@ -512,19 +693,245 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
         dialog.show();
     }
 
+    /**
+     * Loads the track (and its range index) and shows the dialog to analyze a section of it.
+     */
+    private class AnalyzeSection extends AsyncTask<Void, Void, Track>{
+
+        @Override
+        protected Track doInBackground(Void... nothing) {
+            try {
+                Track track = TrackCache.from(TourActivity.this).get(getHelper(), current_tour.getId());
+                track.getRangeIndex(); // Build it here, not on the UI-thread
+                return track;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return Track.EMPTY;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Track track){
+            if (track.size() < 2){
+                Toast.makeText(TourActivity.this, R.string.tourActivity_toast_emptyTrack, Toast.LENGTH_SHORT).show();
+            } else {
+                showSectionDialog(track);
+            }
+        }
+    }
+
+    /**
+     * Corrects the altitudes of the tour from the terrain-data and shows the new statistics.
+     */
+    private class CorrectElevation extends AsyncTask<Void, Void, int[]>{
+
+        @Override
+        protected int[] doInBackground(Void... nothing) {
+            try {
+                int size = TrackCache.from(TourActivity.this).get(getHelper(), current_tour.getId()).size();
+                int found = ElevationService.from(TourActivity.this).correctTour(getHelper(), current_tour.getId());
+                return new int[]{found, size};
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(int[] corrected){
+            if (corrected == null){
+                Toast.makeText(TourActivity.this, R.string.tourActivity_toast_elevationFailed, Toast.LENGTH_SHORT).show();
+            } else if (corrected[0] == 0){
+                Toast.makeText(TourActivity.this, getString(R.string.tourActivity_toast_noTerrain,
+                        ElevationService.from(TourActivity.this).getDirectory().getAbsolutePath()), Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(TourActivity.this, getString(R.string.tourActivity_toast_elevationCorrected,
+                        corrected[0], corrected[1]), Toast.LENGTH_SHORT).show();
+                getSupportLoaderManager().restartLoader(StatisticLoader.STATISTIC_LOADER_ID, null, TourActivity.this);
+            }
+        }
+    }
+
+    /**
+     * Matches the track of the tour onto the roads and shows the distance along them.
+     */
+    private class MatchRoads extends AsyncTask<Void, Void, MapMatcher.Result>{
+
+        private boolean failed;
+
+        @Override
+        protected MapMatcher.Result doInBackground(Void... nothing) {
+            try {
+                return MapMatchService.from(TourActivity.this).matchTour(getHelper(), current_tour.getId());
+            } catch (Exception e) {
+                e.printStackTrace();
+                failed = true;
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(MapMatcher.Result matched){
+            if (failed){
+                Toast.makeText(TourActivity.this, R.string.tourActivity_toast_matchFailed, Toast.LENGTH_SHORT).show();
+            } else if (matched == null){
+                Toast.makeText(TourActivity.this, getString(R.string.tourActivity_toast_noRoads,
+                        MapMatchService.from(TourActivity.this).getDirectory().getAbsolutePath()), Toast.LENGTH_LONG).show();
+            } else {
+                Units.Snapshot units = Units.from(TourActivity.this).get();
+                Toast.makeText(TourActivity.this, getString(R.string.tourActivity_toast_matched,
+                        matched.getMatched(), matched.getLatitudes().length,
+                        units.formatDistance(matched.getDistance()), units.getDistanceUnit()), Toast.LENGTH_LONG).show();
+                getSupportLoaderManager().restartLoader(StatisticLoader.STATISTIC_LOADER_ID, null, TourActivity.this);
+            }
+        }
+    }
+
+    /**
+     * Loads the tracks of this and another tour and compares them over the distance.
+     */
+    private class CompareTours extends AsyncTask<Void, Void, Profile>{
+
+        private final Tour reference;
+
+        private CompareTours(Tour reference){
+            this.reference = reference;
+        }
+
+        @Override
+        protected Profile doInBackground(Void... nothing) {
+            try {
+                TrackCache cache = TrackCache.from(TourActivity.this);
+                Track track = cache.get(getHelper(), current_tour.getId());
+                Track reference_track = cache.get(getHelper(), reference.getId());
+                // The graph can't show more points than it has pixels:
+                int points = Math.max(3, getResources().getDisplayMetrics().widthPixels);
+                return GhostRider.compare(track, reference_track, COMPARE_STEP).downsample(points);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Profile delta){
+            if (delta == null || delta.size() < 2){
+                Toast.makeText(TourActivity.this, R.string.ghost_toast_noTrack, Toast.LENGTH_SHORT).show();
+            } else {
+                showCompareDialog(reference, delta);
+            }
+        }
+    }
+
+    /**
+     * Show how much this tour was ahead or behind the other one along the distance.
+     * @param delta the time behind the other tour (in seconds) over the distance.
+     */
+    private void showCompareDialog(Tour reference, Profile delta){
+        View content = getLayoutInflater().inflate(R.layout.compare_dialog, null);
+        Line line = new Line();
+        line.setShowingPoints(false);
+        line.setColor(getResources().getColor(R.color.statistics_line_delta));
+        double[] x = delta.getX();
+        double[] y = delta.getY();
+        for (int i = 0; i < delta.size(); i++){
+            line.addPoint(new LinePoint((float) x[i], (float) y[i]));
+        }
+        LineGraph graph = (LineGraph) content.findViewById(R.id.compare_dialog_graph);
+        graph.addLine(line);
+        // Keep the zero-line in the graph:
+        graph.setRangeY((float) Math.min(0, delta.getMinY()), (float) Math.max(1, delta.getMaxY()));
+
+        Units.Snapshot units = Units.from(this).get();
+        long final_delta = Math.round(y[y.length - 1] * 1000);
+        int result = final_delta > 0 ? R.string.tourActivity_compare_behind : R.string.tourActivity_compare_ahead;
+        ((TextView) content.findViewById(R.id.compare_dialog_result)).setText(getString(result,
+                LeaderboardLoader.formatElapsed(Math.abs(final_delta)), reference.toString(),
+                units.formatDistance(x[x.length - 1]), units.getDistanceUnit()
+        ));
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tourActivity_menu_compare)
+                .setView(content)
+                .setCancelable(true)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .create().show();
+    }
+
+    /**
+     * Show the statistics of a section of the track, which are updated while the bounds
+     *  of the section are moved.
+     */
+    private void showSectionDialog(final Track track){
+        final View content = getLayoutInflater().inflate(R.layout.section_dialog, null);
+        final SeekBar start = (SeekBar) content.findViewById(R.id.section_dialog_start);
+        final SeekBar end = (SeekBar) content.findViewById(R.id.section_dialog_end);
+        final TextView result = (TextView) content.findViewById(R.id.section_dialog_result);
+        final RangeIndex index = track.getRangeIndex();
+        SeekBar.OnSeekBarChangeListener update = new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                double length = track.getLength();
+                RangeIndex.Range range = index.byDistance(
+                        start.getProgress() / (double) start.getMax() * length,
+                        end.getProgress() / (double) end.getMax() * length
+                );
+                Units.Snapshot units = Units.from(TourActivity.this).get();
+                result.setText(getString(R.string.tourActivity_section_result,
+                        units.formatDistance(range.getDistance()), units.getDistanceUnit(),
+                        LeaderboardLoader.formatElapsed(range.getElapsed()),
+                        units.formatSpeed(range.getAverageSpeed()), units.formatSpeed(range.getMaxSpeed()),
+                        units.getSpeedUnit(), Math.round(range.getAscent()),
+                        Math.round(range.getMinAltitude()), Math.round(range.getMaxAltitude())
+                ));
+            }
+
+            @Override public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override public void onStopTrackingTouch(SeekBar seekBar) {}
+        };
+        start.setOnSeekBarChangeListener(update);
+        end.setOnSeekBarChangeListener(update);
+        end.setProgress(end.getMax());
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tourActivity_menu_analyzeSection)
+                .setView(content)
+                .setCancelable(true)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .create().show();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         this.getMenuInflater().inflate(R.menu.tour_menu, menu);
 
         menu_item_map = menu.findItem(R.id.tour_menu_map);
         menu_item_records = menu.findItem(R.id.tour_menu_records);
+        menu_item_raw = menu.findItem(R.id.tour_menu_raw);
         menu_item_live = menu.findItem(R.id.tour_menu_live);
         menu_item_edit = menu.findItem(R.id.tour_menu_edit);
+        menu_item_section = menu.findItem(R.id.tour_menu_section);
+        menu_item_compare = menu.findItem(R.id.tour_menu_compare);
+        menu_item_elevation = menu.findItem(R.id.tour_menu_elevation);
+        menu_item_match = menu.findItem(R.id.tour_menu_match);
 
         if (current_tour == Tour.UNSTORED_TOUR){
             menu_item_map.setVisible(false);
             menu_item_records.setVisible(false);
+            menu_item_raw.setVisible(false);
             menu_item_edit.setVisible(false);
+            menu_item_section.setVisible(false);
+            menu_item_compare.setVisible(false);
+            menu_item_elevation.setVisible(false);
+            menu_item_match.setVisible(false);
         }
         if (isTrackingServiceRunning(this)){
             menu_item_live.setVisible(true);
@@ -549,10 +956,32 @@ public class TourActivity extends BaseActivity implements LoaderManager.LoaderCa
                 this.startActivity(map);
                 return true;
             case R.id.tour_menu_records:
-                Intent records = new Intent(this, DatabaseActivity.class);
+                Intent records = new Intent(this, RecordsActivity.class);
                 records.putExtra(TrackingService.TOUR_KEY, current_tour);
                 this.startActivity(records);
                 return true;
+            case R.id.tour_menu_raw:
+                Intent raw = new Intent(this, DatabaseActivity.class);
+                raw.putExtra(TrackingService.TOUR_KEY, current_tour);
+                this.startActivity(raw);
+                return true;
+            case R.id.tour_menu_section:
+                new AnalyzeSection().execute();
+                return true;
+            case R.id.tour_menu_compare:
+                new ReferencePicker(this, current_tour, new ReferencePicker.OnPickedListener() {
+                    @Override
+                    public void onPicked(Tour reference) {
+                        new CompareTours(reference).execute();
+                    }
+                }).execute();
+                return true;
+            case R.id.tour_menu_elevation:
+                new CorrectElevation().execute();
+                return true;
+            case R.id.tour_menu_match:
+                new MatchRoads().execute();
+                return true;
             case R.id.tour_menu_edit:
                 editTour();
         }
@@ -1,30 +1,78 @@
 package org.knuth.biketrack;
 
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
 import android.graphics.Color;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.Button;
+import android.widget.CompoundButton;
+import android.widget.ImageButton;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.ToggleButton;
+import android.widget.Toast;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
 import com.j256.ormlite.android.apptools.OpenHelperManager;
 import com.j256.ormlite.dao.Dao;
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.async.LeaderboardLoader;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.geo.ChunkedPolyline;
+import org.knuth.biketrack.geo.Geodesy;
+import org.knuth.biketrack.geo.PolylineCodec;
+import org.knuth.biketrack.geo.Simplifier;
+import org.knuth.biketrack.heatmap.HeatmapTileProvider;
+import org.knuth.biketrack.persistent.ArtifactStore;
 import org.knuth.biketrack.persistent.DatabaseHelper;
-import org.knuth.biketrack.persistent.LocationStamp;
+import org.knuth.biketrack.persistent.SpatialIndex;
 import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.precompute.Task;
 import org.knuth.biketrack.service.TrackingService;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
+import org.knuth.biketrack.track.TrackCursor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * The activity which shows a previously recorded track.
+ * <p>The activity which shows a previously recorded track.</p>
+ * <p>Long tracks are split into chunks (see {@link ChunkedPolyline}). Only the chunks near
+ *  the viewport are drawn, at a level of detail which fits the zoom, so zooming into one
+ *  street of a long ride doesn't draw (and keep) the whole track.</p>
+ * <p>The heatmap of all tours can be shown below the track, see {@link HeatmapTileProvider}.</p>
+ * <p>Once the whole track is loaded, the tour can be replayed (in real or accelerated time)
+ *  or scrubbed through. The position at any time is interpolated by a {@link TrackCursor}.
+ *  Only the marker and the trail behind it are redrawn on each frame: the trail is
+ *  simplified and split into chunks, of which only the last one changes while playing.</p>
  *
  * @author Lukas Knuth
  * @version 1.0
@@ -32,29 +80,62 @@ import java.util.List;
 public class TrackMapActivity extends FragmentActivity {
 
     private GoogleMap map;
-    private PolylineOptions track;
+    private View map_view;
+    /** The displayed track and the chunks of it currently on the map */
+    private ChunkedPolyline geometry;
+    private Map<ChunkedPolyline.Chunk, Polyline> shown_chunks = new HashMap<ChunkedPolyline.Chunk, Polyline>();
+    private TileOverlay heatmap;
 
     private ProgressDialog progress;
 
     private Tour current_tour;
 
-    // TODO Don't reload on Orientation-change
+    /** The radius (in meters) around a long-clicked point, to search for other tours */
+    private static final double NEARBY_TOURS_RADIUS = 100;
+    /** How far (as a fraction of its size) around the viewport chunks are drawn, for panning */
+    private static final double VIEWPORT_MARGIN = 0.5;
+    /** The maximum distance (in meters) of a point dropped from the replayed trail */
+    private static final double TRAIL_TOLERANCE = 2;
+    /** The number of points in one chunk (one polyline) of the replayed trail */
+    private static final int TRAIL_CHUNK_SIZE = 256;
+    /** The factors by which the replay is faster than real time */
+    private static final int[] REPLAY_SPEEDS = {1, 10, 60, 300};
+
+    // Replay:
+    private TrackCursor cursor;
+    /** The indices of the points on the (simplified) trail and their positions */
+    private int[] trail_indices;
+    private List<LatLng> trail_points;
+    private final List<Polyline> trail_chunks = new ArrayList<Polyline>();
+    private final List<LatLng> current_chunk = new ArrayList<LatLng>(TRAIL_CHUNK_SIZE + 1);
+    private Marker marker;
+    private boolean playing;
+    private int speed_index;
+    /** The time of the replay in milliseconds since the epoch, with the fractions of frames */
+    private double replay_time;
+    private long last_frame;
+    /** The second (since the start) the stats are shown for */
+    private long shown_second = -1;
+
+    private View replay_controls;
+    private TextView replay_stats;
+    private ImageButton replay_play;
+    private Button replay_speed;
+    private SeekBar replay_scrubber;
 
     @Override
     public void onCreate(Bundle saved){
         super.onCreate(saved);
         if (readyToGo()){
             this.setContentView(R.layout.trackmap);
-            map = ((SupportMapFragment) this.getSupportFragmentManager().findFragmentById(R.id.mapview)).getMap();
+            SupportMapFragment fragment = (SupportMapFragment) this.getSupportFragmentManager().findFragmentById(R.id.mapview);
+            map = fragment.getMap();
+            map_view = fragment.getView();
         } else {
             // No G-Play services on the device...
             Log.e(Main.LOG_TAG, "No Google Play Services on this device!");
             finish();
         }
-        // Setup the track-paint:
-        track = new PolylineOptions();
-        track.color(Color.GREEN).width(3);
-
         // Get the current tour:
         Bundle extras = this.getIntent().getExtras();
         if (extras != null && extras.containsKey(TrackingService.TOUR_KEY)){
@@ -68,6 +149,46 @@ public class TrackMapActivity extends FragmentActivity {
         progress = new ProgressDialog(this);
         progress.setIndeterminate(true);
         new LoadTrack().execute(current_tour);
+        // Then load the whole track for the replay:
+        setupReplayControls();
+        new LoadReplay().execute(current_tour);
+        // Find other tours through a long-clicked point:
+        map.setOnMapLongClickListener(new GoogleMap.OnMapLongClickListener() {
+            @Override
+            public void onMapLongClick(LatLng point) {
+                new FindNearbyTours().execute(point);
+            }
+        });
+        // Show the heatmap of all tours on demand:
+        ((ToggleButton) findViewById(R.id.trackmap_heatmap)).setOnCheckedChangeListener(
+                new CompoundButton.OnCheckedChangeListener() {
+                    @Override
+                    public void onCheckedChanged(CompoundButton button, boolean checked) {
+                        if (checked){
+                            heatmap = map.addTileOverlay(new TileOverlayOptions()
+                                    .tileProvider(new HeatmapTileProvider(TrackMapActivity.this))
+                                    .zIndex(-1)
+                            );
+                        } else if (heatmap != null){
+                            heatmap.remove();
+                            heatmap = null;
+                        }
+                    }
+                }
+        );
+        // Exchange the shown chunks, once the camera moved:
+        map.setOnCameraChangeListener(new GoogleMap.OnCameraChangeListener() {
+            @Override
+            public void onCameraChange(CameraPosition position) {
+                updateChunks();
+            }
+        });
+    }
+
+    @Override
+    public void onPause(){
+        super.onPause();
+        setPlaying(false);
     }
 
     /**
@@ -86,9 +207,10 @@ public class TrackMapActivity extends FragmentActivity {
     }
 
     /**
-     * Loads a specific track from the Database and displays it over the Map.
+     * Loads the precomputed geometry of a specific track (or the track from the
+     *  {@link TrackCache}, if there is none), splits it into chunks and displays it over the Map.
      */
-    private class LoadTrack extends AsyncTask<Tour, LatLng, LatLng>{
+    private class LoadTrack extends AsyncTask<Tour, Void, ChunkedPolyline>{
 
         @Override
         protected void onPreExecute(){
@@ -96,36 +218,319 @@ public class TrackMapActivity extends FragmentActivity {
         }
 
         @Override
-        protected LatLng doInBackground(Tour... tours) {
+        protected ChunkedPolyline doInBackground(Tour... tours) {
+            PrecomputeQueue queue = PrecomputeQueue.from(TrackMapActivity.this);
+            queue.beginInteractive();
             try {
-                Dao<LocationStamp, Void> location_dao = TrackMapActivity.this.getHelper().getLocationStampDao();
-                List<LocationStamp> stamps = location_dao.queryForEq("tour_id", tours[0].getId());
-                if (stamps.size() == 0) return null;
-                // Push the LatLng objects:
-                for (LocationStamp stamp : stamps){
-                    LatLng location = new LatLng(stamp.getLatitude(), stamp.getLongitude());
-                    this.publishProgress(location);
+                int tour_id = tours[0].getId();
+                double[] latitudes;
+                double[] longitudes;
+                byte[] geometry = queue.isTracked(tour_id)
+                        ? null : Task.GEOMETRY.load(new ArtifactStore(getHelper()), tour_id);
+                if (geometry != null){
+                    latitudes = PolylineCodec.decodeLatitudes(geometry);
+                    longitudes = PolylineCodec.decodeLongitudes(geometry);
+                } else {
+                    Track loaded = TrackCache.from(TrackMapActivity.this).get(getHelper(), tour_id);
+                    latitudes = loaded.getLatitudes();
+                    longitudes = loaded.getLongitudes();
                 }
-                return new LatLng(stamps.get(0).getLatitude(), stamps.get(0).getLongitude());
+                if (latitudes.length == 0) return null;
+                return new ChunkedPolyline(latitudes, longitudes);
             } catch (SQLException e) {
                 e.printStackTrace();
+            } finally {
+                queue.endInteractive();
             }
             return null;
         }
 
         @Override
-        protected void onProgressUpdate(LatLng... location){
-            // Append the new location:
-            track.add(location[0]);
+        protected void onPostExecute(ChunkedPolyline loaded){
+            progress.dismiss();
+            if (loaded == null) return;
+            geometry = loaded;
+            // Zoom out to see the full track (the chunks are shown once the camera moved):
+            BoundingBox bounds = loaded.getBounds();
+            LatLngBounds box = new LatLngBounds(
+                    new LatLng(bounds.getMinLatitude(), bounds.getMinLongitude()),
+                    new LatLng(bounds.getMaxLatitude(), bounds.getMaxLongitude())
+            );
+            // The map isn't laid out yet, so use the screen-size:
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            map.moveCamera(CameraUpdateFactory.newLatLngBounds(box,
+                    metrics.widthPixels, metrics.heightPixels,
+                    getResources().getDimensionPixelSize(R.dimen.map_boundsPadding)
+            ));
+            updateChunks();
         }
+    }
+
+    /**
+     * Shows the chunks of the track in (and around) the viewport at the level of detail for
+     *  the current zoom and removes all others from the map.
+     */
+    private void updateChunks(){
+        if (geometry == null || map_view.getHeight() == 0) return;
+        LatLngBounds visible = map.getProjection().getVisibleRegion().latLngBounds;
+        double south = visible.southwest.latitude;
+        double north = visible.northeast.latitude;
+        double west = visible.southwest.longitude;
+        double east = visible.northeast.longitude;
+        // The size of a pixel, measured along a meridian:
+        double pixel = Geodesy.distance(south, west, north, west) / map_view.getHeight();
+        int level = geometry.getLevel(pixel);
+
+        double lat_margin = (north - south) * VIEWPORT_MARGIN;
+        double min_lon = -180, max_lon = 180;
+        if (west <= east){
+            // The viewport doesn't cross the 180th meridian:
+            double lon_margin = (east - west) * VIEWPORT_MARGIN;
+            min_lon = west - lon_margin;
+            max_lon = east + lon_margin;
+        }
+        List<ChunkedPolyline.Chunk> wanted = geometry.query(level,
+                south - lat_margin, min_lon, north + lat_margin, max_lon
+        );
+        // Keep the chunks which are still wanted, add the missing ones and remove the rest:
+        Map<ChunkedPolyline.Chunk, Polyline> next = new HashMap<ChunkedPolyline.Chunk, Polyline>(wanted.size() * 2);
+        for (ChunkedPolyline.Chunk chunk : wanted){
+            Polyline line = shown_chunks.remove(chunk);
+            if (line == null){
+                double[] latitudes = chunk.getLatitudes();
+                double[] longitudes = chunk.getLongitudes();
+                PolylineOptions options = new PolylineOptions().color(Color.GREEN).width(3);
+                for (int i = 0; i < latitudes.length; i++){
+                    options.add(new LatLng(latitudes[i], longitudes[i]));
+                }
+                line = map.addPolyline(options);
+            }
+            next.put(chunk, line);
+        }
+        for (Polyline line : shown_chunks.values()) line.remove();
+        shown_chunks = next;
+    }
+
+    /**
+     * Loads the whole track (with the times) from the {@link TrackCache} and simplifies
+     *  the trail to draw behind the replayed position.
+     */
+    private class LoadReplay extends AsyncTask<Tour, Void, Track>{
+
+        private int[] indices;
+        private List<LatLng> points;
 
         @Override
-        protected void onPostExecute(LatLng start){
-            map.addPolyline(track);
-            map.moveCamera(CameraUpdateFactory.newLatLng(start));
-            map.moveCamera(CameraUpdateFactory.zoomTo(19.0f));
-            // TODO When entering, Zoom out to see the FULL track.
-            progress.dismiss();
+        protected Track doInBackground(Tour... tours) {
+            PrecomputeQueue queue = PrecomputeQueue.from(TrackMapActivity.this);
+            queue.beginInteractive();
+            try {
+                Track loaded = TrackCache.from(TrackMapActivity.this).get(getHelper(), tours[0].getId());
+                if (loaded.size() < 2) return null;
+                double[] latitudes = loaded.getLatitudes();
+                double[] longitudes = loaded.getLongitudes();
+                indices = Simplifier.simplify(latitudes, longitudes, 0, loaded.size(), TRAIL_TOLERANCE);
+                points = new ArrayList<LatLng>(indices.length);
+                for (int index : indices){
+                    points.add(new LatLng(latitudes[index], longitudes[index]));
+                }
+                return loaded;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                queue.endInteractive();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Track loaded){
+            if (loaded == null || isFinishing()) return;
+            cursor = new TrackCursor(loaded);
+            trail_indices = indices;
+            trail_points = points;
+            marker = map.addMarker(new MarkerOptions().position(points.get(0)));
+            replay_controls.setVisibility(View.VISIBLE);
+            moveCursor(cursor.getStartTime(), true);
+        }
+    }
+
+    private void setupReplayControls(){
+        replay_controls = findViewById(R.id.trackmap_replay);
+        replay_stats = (TextView) findViewById(R.id.trackmap_replay_stats);
+        replay_play = (ImageButton) findViewById(R.id.trackmap_replay_play);
+        replay_speed = (Button) findViewById(R.id.trackmap_replay_speed);
+        replay_scrubber = (SeekBar) findViewById(R.id.trackmap_replay_scrubber);
+        replay_speed.setText(getString(R.string.map_replay_speed, REPLAY_SPEEDS[speed_index]));
+
+        replay_play.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (!playing && cursor.getTime() >= cursor.getEndTime()){
+                    // Start over:
+                    moveCursor(cursor.getStartTime(), true);
+                }
+                setPlaying(!playing);
+            }
+        });
+        replay_speed.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                speed_index = (speed_index + 1) % REPLAY_SPEEDS.length;
+                replay_speed.setText(getString(R.string.map_replay_speed, REPLAY_SPEEDS[speed_index]));
+            }
+        });
+        replay_scrubber.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (!fromUser || cursor == null) return;
+                long duration = cursor.getEndTime() - cursor.getStartTime();
+                moveCursor(cursor.getStartTime() + duration * progress / seekBar.getMax(), false);
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {}
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+    }
+
+    /**
+     * Advances the replay on every frame, by the time since the last frame (times the speed).
+     */
+    private final Choreographer.FrameCallback replay_frame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frame_nanos) {
+            if (!playing) return;
+            if (last_frame != 0){
+                replay_time += (frame_nanos - last_frame) / 1000000.0 * REPLAY_SPEEDS[speed_index];
+            }
+            last_frame = frame_nanos;
+            if (replay_time >= cursor.getEndTime()){
+                moveCursor(cursor.getEndTime(), true);
+                setPlaying(false);
+                return;
+            }
+            moveCursor((long) replay_time, true);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    private void setPlaying(boolean playing){
+        if (cursor == null) return;
+        this.playing = playing;
+        replay_play.setImageResource(playing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
+        Choreographer.getInstance().removeFrameCallback(replay_frame);
+        if (playing){
+            last_frame = 0;
+            Choreographer.getInstance().postFrameCallback(replay_frame);
+        }
+    }
+
+    /**
+     * Moves the replay to the given time: the marker, the trail and (once per second) the stats.
+     */
+    private void moveCursor(long time, boolean update_scrubber){
+        cursor.seek(time);
+        replay_time = cursor.getTime();
+        LatLng position = new LatLng(cursor.getLatitude(), cursor.getLongitude());
+        marker.setPosition(position);
+        updateTrail(position);
+        long elapsed = cursor.getTime() - cursor.getStartTime();
+        if (update_scrubber){
+            long duration = cursor.getEndTime() - cursor.getStartTime();
+            replay_scrubber.setProgress((int) (elapsed * replay_scrubber.getMax() / Math.max(1, duration)));
+        }
+        if (elapsed / 1000 != shown_second){
+            shown_second = elapsed / 1000;
+            Units.Snapshot units = Units.from(this).get();
+            replay_stats.setText(getString(R.string.map_replay_stats,
+                    LeaderboardLoader.formatElapsed(elapsed),
+                    units.formatDistance(cursor.getDistance()), units.getDistanceUnit(),
+                    units.formatSpeed(cursor.getSpeed()), units.getSpeedUnit(),
+                    Math.round(cursor.getAltitude())
+            ));
+            // Follow the marker, once it leaves the screen:
+            if (!map.getProjection().getVisibleRegion().latLngBounds.contains(position)){
+                map.animateCamera(CameraUpdateFactory.newLatLng(position));
+            }
+        }
+    }
+
+    /**
+     * Draws the trail up to the given position. The chunks before the current one are only
+     *  set once, so a frame only updates the points of the current chunk.
+     */
+    private void updateTrail(LatLng position){
+        int found = Arrays.binarySearch(trail_indices, cursor.getIndex());
+        int last = found >= 0 ? found : -found - 2;
+        int chunk = last / TRAIL_CHUNK_SIZE;
+        // Moved back:
+        while (trail_chunks.size() > chunk + 1){
+            trail_chunks.remove(trail_chunks.size() - 1).remove();
+        }
+        // Moved on, complete the chunks before (they overlap by one point):
+        while (trail_chunks.size() < chunk + 1){
+            int done = trail_chunks.size() - 1;
+            if (done >= 0){
+                trail_chunks.get(done).setPoints(
+                        trail_points.subList(done * TRAIL_CHUNK_SIZE, (done + 1) * TRAIL_CHUNK_SIZE + 1)
+                );
+            }
+            trail_chunks.add(map.addPolyline(new PolylineOptions().zIndex(1)
+                    .color(getResources().getColor(R.color.map_trail))
+                    .width(getResources().getDimension(R.dimen.map_trailWidth))
+            ));
+        }
+        current_chunk.clear();
+        current_chunk.addAll(trail_points.subList(chunk * TRAIL_CHUNK_SIZE, last + 1));
+        current_chunk.add(position);
+        trail_chunks.get(chunk).setPoints(current_chunk);
+    }
+
+    /**
+     * Uses the {@link SpatialIndex} to find all other tours which passed near a point.
+     */
+    private class FindNearbyTours extends AsyncTask<LatLng, Void, List<Tour>>{
+
+        @Override
+        protected List<Tour> doInBackground(LatLng... points) {
+            try {
+                Set<Integer> ids = new SpatialIndex(getHelper()).queryRadius(
+                        points[0].latitude, points[0].longitude, NEARBY_TOURS_RADIUS
+                );
+                ids.remove(current_tour.getId());
+                if (ids.isEmpty()) return Collections.emptyList();
+                Dao<Tour, Integer> tour_dao = getHelper().getTourDao();
+                return tour_dao.queryBuilder().orderBy("date", false)
+                        .where().in("id", ids).query();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return Collections.emptyList();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(final List<Tour> tours){
+            if (tours.isEmpty()){
+                Toast.makeText(TrackMapActivity.this, R.string.map_toast_noNearbyTours, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            List<String> titles = new ArrayList<String>(tours.size());
+            for (Tour tour : tours) titles.add(tour.toString());
+            new AlertDialog.Builder(TrackMapActivity.this)
+                    .setTitle(R.string.map_dialog_nearbyTours)
+                    .setItems(titles.toArray(new String[titles.size()]), new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialogInterface, int i) {
+                            Intent intent = new Intent(TrackMapActivity.this, TourActivity.class);
+                            intent.putExtra(TrackingService.TOUR_KEY, tours.get(i));
+                            startActivity(intent);
+                        }
+                    })
+                    .setCancelable(true)
+                    .create().show();
         }
     }
 
@@ -4,6 +4,7 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
@@ -11,11 +12,23 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.async.LeaderboardLoader;
+import org.knuth.biketrack.async.ReferencePicker;
+import org.knuth.biketrack.geo.RouteFollower;
 import org.knuth.biketrack.persistent.LocationStamp;
+import org.knuth.biketrack.persistent.Tour;
 import org.knuth.biketrack.service.TrackingListener;
 import org.knuth.biketrack.service.TrackingService;
 import org.knuth.biketrack.service.TrackingService.TrackingBinder;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.GhostRider;
+import org.knuth.biketrack.track.MovingTime;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
 
+import java.sql.SQLException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -31,8 +44,21 @@ import java.util.concurrent.TimeUnit;
 public class TrackingActivity extends BaseActivity {
 
     private boolean isBound;
+    /** The binder of the tracking-service, or {@code null} while not connected */
+    private TrackingBinder tracking_binder;
 
     private TextView current_speed;
+    private TextView current_ascent;
+    private TextView ghost_delta;
+    /** The previous tour which is raced, {@code null} if there is none */
+    private Tour ghost_tour;
+    /** Rides the {@code ghost_tour}, {@code null} while it's loading */
+    private GhostRider ghost;
+    private static final String GHOST_KEY = "ghost_tour";
+    private TextView route_status;
+    private MenuItem stop_following;
+    /** Reused for formatting the current speed on every update */
+    private final StringBuilder speed_text = new StringBuilder(8);
     private ScheduledThreadPoolExecutor clock = new ScheduledThreadPoolExecutor(2);
     private ScheduledFuture hide_timer;
 
@@ -48,6 +74,12 @@ public class TrackingActivity extends BaseActivity {
         }
         this.setContentView(R.layout.tracking);
         current_speed = (TextView) findViewById(R.id.tracking_current_speed);
+        current_ascent = (TextView) findViewById(R.id.tracking_current_ascent);
+        ghost_delta = (TextView) findViewById(R.id.tracking_ghost_delta);
+        route_status = (TextView) findViewById(R.id.tracking_route_status);
+        if (savedInstanceState != null && savedInstanceState.containsKey(GHOST_KEY)){
+            startGhost((Tour) savedInstanceState.getParcelable(GHOST_KEY));
+        }
         // Show ActionBar if we click *somewhere*:
         this.findViewById(R.id.tracking_root).setOnClickListener(new View.OnClickListener() {
             @Override
@@ -91,13 +123,135 @@ public class TrackingActivity extends BaseActivity {
 
     private TrackingListener callback = new TrackingListener() {
         @Override
-        public void update(LocationStamp data) {
+        public void update(LocationStamp data, ElevationProcessor elevation, MovingTime moving) {
             // Last update on activity...
-            // TODO Add using the measurement system from application prefs here!
-            current_speed.setText(data.getSpeed()+" "+getString(R.string.label_unit_kmh));
+            Units.Snapshot units = Units.from(TrackingActivity.this).get();
+            speed_text.setLength(0);
+            units.format(Units.Quantity.SPEED, data.getSpeed(), speed_text)
+                    .append(' ').append(units.getSpeedUnit());
+            if (moving.isPaused()){
+                current_speed.setText(R.string.tracking_paused);
+            } else {
+                current_speed.setText(speed_text);
+            }
+            current_ascent.setText(getString(R.string.tracking_ascent, Math.round(elevation.getAscent())));
+            if (ghost != null){
+                if (ghost.update(data.getLatitude(), data.getLongitude(), moving.getElapsedTime())){
+                    long delta = ghost.getDelta();
+                    ghost_delta.setText(getString(delta > 0 ? R.string.tracking_ghost_behind : R.string.tracking_ghost_ahead,
+                            LeaderboardLoader.formatElapsed(Math.abs(delta)), ghost_tour.toString()
+                    ));
+                } else {
+                    ghost_delta.setText(getString(R.string.tracking_ghost_offRoute, ghost_tour.toString()));
+                }
+            }
+            if (tracking_binder != null && tracking_binder.getRouteFollower() != null){
+                showRoute(tracking_binder.getFollowedTour(), tracking_binder.getRouteFollower());
+            }
+        }
+
+        @Override
+        public void routeLoaded(Tour route, RouteFollower follower) {
+            if (follower == null){
+                route_status.setVisibility(View.GONE);
+                Toast.makeText(TrackingActivity.this, R.string.ghost_toast_noTrack, Toast.LENGTH_SHORT).show();
+            } else {
+                showRoute(route, follower);
+            }
+            invalidateOptionsMenu();
+        }
+
+        @Override
+        public void routeChanged(RouteFollower follower) {
+            Toast.makeText(TrackingActivity.this, follower.isOnRoute()
+                    ? R.string.tracking_toast_joinedRoute : R.string.tracking_toast_leftRoute,
+                    Toast.LENGTH_SHORT).show();
         }
     };
 
+    /**
+     * Show how much of the followed route is left, or how far off the route the rider is.
+     */
+    private void showRoute(Tour route, RouteFollower follower){
+        route_status.setVisibility(View.VISIBLE);
+        Units.Snapshot units = Units.from(this).get();
+        if (follower.isOnRoute()){
+            route_status.setText(getString(R.string.tracking_route_remaining,
+                    units.formatDistance(follower.getRemaining()), units.getDistanceUnit(), route.toString()
+            ));
+        } else if (Double.isInfinite(follower.getOffRouteDistance())){
+            route_status.setText(getString(R.string.tracking_route_far, route.toString()));
+        } else {
+            route_status.setText(getString(R.string.tracking_route_off,
+                    units.formatDistance(follower.getOffRouteDistance()), units.getDistanceUnit(), route.toString()
+            ));
+        }
+    }
+
+    /**
+     * Follow the route of the given saved tour, once the service loaded it.
+     */
+    private void startFollowing(Tour route){
+        if (tracking_binder == null) return;
+        tracking_binder.followRoute(route);
+        route_status.setVisibility(View.VISIBLE);
+        route_status.setText(getString(R.string.tracking_route_loading, route.toString()));
+        invalidateOptionsMenu();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (ghost_tour != null) outState.putParcelable(GHOST_KEY, ghost_tour);
+    }
+
+    /**
+     * Race the given previous tour, once its track is loaded.
+     */
+    private void startGhost(Tour reference){
+        ghost_tour = reference;
+        ghost = null;
+        ghost_delta.setVisibility(View.VISIBLE);
+        ghost_delta.setText(getString(R.string.tracking_ghost_loading, reference.toString()));
+        new LoadGhost(reference).execute();
+    }
+
+    /**
+     * Loads the track of a previous tour and builds the grid to match the fixes with.
+     */
+    private class LoadGhost extends AsyncTask<Void, Void, GhostRider>{
+
+        private final Tour reference;
+
+        private LoadGhost(Tour reference){
+            this.reference = reference;
+        }
+
+        @Override
+        protected GhostRider doInBackground(Void... nothing) {
+            try {
+                Track track = TrackCache.from(TrackingActivity.this).get(getHelper(), reference.getId());
+                return track.size() < 2 ? null : new GhostRider(track);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(GhostRider loaded){
+            // Another tour might have been picked in the meantime:
+            if (reference != ghost_tour) return;
+            if (loaded == null){
+                ghost_tour = null;
+                ghost_delta.setVisibility(View.GONE);
+                Toast.makeText(TrackingActivity.this, R.string.ghost_toast_noTrack, Toast.LENGTH_SHORT).show();
+            } else {
+                ghost = loaded;
+            }
+        }
+    }
+
     @Override
     public void onResume(){
         super.onResume();
@@ -115,6 +269,7 @@ public class TrackingActivity extends BaseActivity {
             // Unbind from the Service:
             unbindService(tracking_connection);
             isBound = false;
+            tracking_binder = null;
         }
     }
 
@@ -124,20 +279,95 @@ public class TrackingActivity extends BaseActivity {
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
             TrackingBinder binder = (TrackingBinder) iBinder;
             binder.requestUpdates(callback);
+            tracking_binder = binder;
             // Get the current tours information:
             String tour_name = binder.getTrackedTour().toString();
             ((TextView) findViewById(R.id.tracking_tour_name)).setText(tour_name);
+            // The service keeps following the route while the activity is gone:
+            if (binder.getFollowedTour() == null){
+                route_status.setVisibility(View.GONE);
+            } else if (binder.getRouteFollower() == null){
+                route_status.setVisibility(View.VISIBLE);
+                route_status.setText(getString(R.string.tracking_route_loading, binder.getFollowedTour().toString()));
+            } else {
+                showRoute(binder.getFollowedTour(), binder.getRouteFollower());
+            }
+            invalidateOptionsMenu();
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
             Log.e(Main.LOG_TAG, "Service connection Lost...");
+            tracking_binder = null;
         }
     };
 
     /** ---- ActionBar Magic ---- */
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(R.string.tracking_menu_lap).
+                setShowAsActionFlags(MenuItem.SHOW_AS_ACTION_IF_ROOM | MenuItem.SHOW_AS_ACTION_WITH_TEXT).
+                setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+                    @Override
+                    public boolean onMenuItemClick(MenuItem item) {
+                        if (tracking_binder == null) return false;
+                        int lap = tracking_binder.markLap();
+                        if (lap > 0){
+                            Toast.makeText(TrackingActivity.this, getString(R.string.tracking_toast_lap, lap),
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(TrackingActivity.this, R.string.tracking_toast_lapFailed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                        return true;
+                    }
+                });
+        menu.add(R.string.tracking_menu_ghost).
+                setShowAsActionFlags(MenuItem.SHOW_AS_ACTION_NEVER).
+                setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+                    @Override
+                    public boolean onMenuItemClick(MenuItem item) {
+                        if (tracking_binder == null) return false;
+                        new ReferencePicker(TrackingActivity.this, tracking_binder.getTrackedTour(),
+                                new ReferencePicker.OnPickedListener() {
+                                    @Override
+                                    public void onPicked(Tour reference) {
+                                        startGhost(reference);
+                                    }
+                                }
+                        ).execute();
+                        return true;
+                    }
+                });
+        menu.add(R.string.tracking_menu_follow).
+                setShowAsActionFlags(MenuItem.SHOW_AS_ACTION_NEVER).
+                setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+                    @Override
+                    public boolean onMenuItemClick(MenuItem item) {
+                        if (tracking_binder == null) return false;
+                        new ReferencePicker(TrackingActivity.this, tracking_binder.getTrackedTour(),
+                                R.string.follow_dialog_pick, new ReferencePicker.OnPickedListener() {
+                                    @Override
+                                    public void onPicked(Tour route) {
+                                        startFollowing(route);
+                                    }
+                                }
+                        ).execute();
+                        return true;
+                    }
+                });
+        stop_following = menu.add(R.string.tracking_menu_unfollow).
+                setShowAsActionFlags(MenuItem.SHOW_AS_ACTION_NEVER).
+                setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+                    @Override
+                    public boolean onMenuItemClick(MenuItem item) {
+                        if (tracking_binder == null) return false;
+                        tracking_binder.stopFollowing();
+                        route_status.setVisibility(View.GONE);
+                        invalidateOptionsMenu();
+                        return true;
+                    }
+                });
         if (getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA)){
             menu.add(R.string.tracking_menu_take_photo).
                     setShowAsActionFlags(MenuItem.SHOW_AS_ACTION_IF_ROOM).
@@ -153,6 +383,12 @@ public class TrackingActivity extends BaseActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        stop_following.setVisible(tracking_binder != null && tracking_binder.getFollowedTour() != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected (MenuItem item){
         super.onOptionsItemSelected(item);
@@ -5,12 +5,18 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 import org.knuth.biketrack.R;
+import org.knuth.biketrack.adapter.statistic.Units;
 import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.persistent.TourSearch;
+import org.knuth.biketrack.thumbnail.ThumbnailLoader;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by Lukas on 27.03.2016.
@@ -18,12 +24,45 @@ import java.text.SimpleDateFormat;
 public class TourListAdapter extends ArrayAdapter<Tour> {
 
     private final LayoutInflater inflater;
+    private final ThumbnailLoader thumbnails;
+    /** The totals of the clusters of the shown tours, by their cluster id */
+    private final Map<Integer, TourSearch.Group> groups = new HashMap<Integer, TourSearch.Group>();
     private static final DateFormat DATE_FORMAT = SimpleDateFormat.getDateInstance(DateFormat.MEDIUM);
     private static final DateFormat TIME_FORMAT = SimpleDateFormat.getTimeInstance(DateFormat.SHORT);
 
     public TourListAdapter(Context context) {
         super(context, -1);
         inflater = LayoutInflater.from(context);
+        thumbnails = new ThumbnailLoader(context);
+    }
+
+    /**
+     * Cancel loading the thumbnails, when the list is no longer shown.
+     */
+    public void cancelThumbnails(){
+        thumbnails.cancelAll();
+    }
+
+    /**
+     * Show the totals of the given clusters with their (newest) tour.
+     */
+    public void addGroups(Map<Integer, TourSearch.Group> groups){
+        this.groups.putAll(groups);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * The totals of the cluster the given tour is shown for.
+     * @return the group, or {@code null} if the tour isn't shown for a cluster.
+     */
+    public TourSearch.Group getGroup(Tour tour){
+        return tour.getClusterId() == 0 ? null : groups.get(tour.getClusterId());
+    }
+
+    @Override
+    public void clear() {
+        groups.clear();
+        super.clear();
     }
 
     @Override
@@ -33,26 +72,38 @@ public class TourListAdapter extends ArrayAdapter<Tour> {
             v = inflater.inflate(R.layout.tour_item, parent, false);
             TextView name = (TextView) v.findViewById(R.id.tour_item_name);
             TextView date = (TextView) v.findViewById(R.id.tour_item_date);
-            Holder holder = new Holder(name, date);
+            ImageView thumbnail = (ImageView) v.findViewById(R.id.tour_item_thumbnail);
+            Holder holder = new Holder(name, date, thumbnail);
             v.setTag(holder);
         }
         // Populate data:
         Holder holder = (Holder) v.getTag();
         Tour tour = getItem(position);
         holder.name.setText(tour.getTitle());
-        holder.date.setText(getContext().getString(R.string.main_listItem_tourDate,
-                DATE_FORMAT.format(tour.getDate()), TIME_FORMAT.format(tour.getDate()))
+        String date = getContext().getString(R.string.main_listItem_tourDate,
+                DATE_FORMAT.format(tour.getDate()), TIME_FORMAT.format(tour.getDate())
         );
+        TourSearch.Group group = getGroup(tour);
+        if (group != null && group.getCount() > 1){
+            Units.Snapshot units = Units.from(getContext()).get();
+            date = getContext().getString(R.string.main_listItem_cluster, date, group.getCount(),
+                    units.formatDistance(group.getDistance()), units.getDistanceUnit()
+            );
+        }
+        holder.date.setText(date);
+        thumbnails.load(holder.thumbnail, tour.getId());
         return v;
     }
 
     private static class Holder{
         public final TextView name;
         public final TextView date;
+        public final ImageView thumbnail;
 
-        public Holder(TextView name, TextView date) {
+        public Holder(TextView name, TextView date, ImageView thumbnail) {
             this.name = name;
             this.date = date;
+            this.thumbnail = thumbnail;
         }
     }
 }
@@ -18,12 +18,39 @@ import java.util.Arrays;
 public class BarGraphStatistic extends Statistic<Bar> {
 
     private final ArrayList<Bar> bars;
+    private final Units.Quantity quantity;
+    /** The unit of bars which aren't converted, or {@code null} */
     private final String unit;
+    /** The values of the bars in their SI-unit */
+    private final float[] values;
+    /** The system the bars are currently converted to */
+    private Units.MeasurementSystem system;
 
+    /**
+     * A new bar-graph.
+     * @param quantity the quantity of the bars, their values are in its SI-unit.
+     */
+    public BarGraphStatistic(String description, Units.Quantity quantity, Bar ...bars) {
+        super(null, null, description);
+        this.quantity = quantity;
+        this.unit = null;
+        this.bars = new ArrayList<Bar>(Arrays.asList(bars));
+        this.values = new float[bars.length];
+        for (int i = 0; i < bars.length; i++){
+            values[i] = bars[i].getValue();
+        }
+    }
+
+    /**
+     * A new bar-graph, which is shown as it is in every system.
+     * @param unit the unit of the bars (e.g. "min").
+     */
     public BarGraphStatistic(String description, String unit, Bar ...bars) {
         super(null, null, description);
+        this.quantity = null;
         this.unit = unit;
         this.bars = new ArrayList<Bar>(Arrays.asList(bars));
+        this.values = null;
     }
 
     @Override
@@ -41,9 +68,25 @@ public class BarGraphStatistic extends Statistic<Bar> {
         TextView desc = (TextView)v.findViewById(R.id.statistic_item_view_description);
         BarGraph graph = (BarGraph)v.findViewById(R.id.statistic_item_bargraph);
         desc.setText(getDescription());
-        if (graph.getBars().size() != this.bars.size()){
+        if (quantity == null){
+            if (graph.getBars() != this.bars){
+                graph.setBars(this.bars);
+                graph.setUnit(unit);
+                graph.appendUnit(true);
+            }
+            return v;
+        }
+        Units.Snapshot units = Units.from(v.getContext()).get();
+        boolean converted = units.getSystem() != system;
+        if (converted){
+            for (int i = 0; i < values.length; i++){
+                bars.get(i).setValue((float) units.convert(quantity, values[i]));
+            }
+            system = units.getSystem();
+        }
+        if (converted || graph.getBars() != this.bars){
             graph.setBars(this.bars);
-            graph.setUnit(this.unit);
+            graph.setUnit(units.getUnit(quantity));
             graph.appendUnit(true);
         }
         return v;
@@ -1,17 +1,30 @@
 package org.knuth.biketrack.adapter.statistic;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseExpandableListAdapter;
 import android.widget.TextView;
+import org.knuth.biketrack.Main;
 import org.knuth.biketrack.R;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * The data-binding adapter for the statistics list on the {@code TourActivity}.
+ * <p>The data-binding adapter for the statistics list on the {@code TourActivity}.</p>
+ * <p>{@link LazyStatisticGroup}s are computed on a background-thread once their group
+ *  is shown, that is when the list asks for the view of the expanded group or of its
+ *  placeholder (so only when they're on screen). Until then, a placeholder is shown
+ *  below their cheap statistics. Expanding a group which is off screen doesn't compute
+ *  it.</p>
  *
  * @author Lukas Knuth
  * @version 1.0
@@ -27,17 +40,60 @@ public class ExpandableStatisticAdapter extends BaseExpandableListAdapter{
         }
     }
 
+    /** Computes the lazy groups, shared by all adapters */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1)
+    );
+
     private final List<StatisticGroup> data;
     private final Context context;
+    private final Handler handler;
+    private final Statistic<String> placeholder;
 
     private final LayoutInflater inflater;
 
     public ExpandableStatisticAdapter(Context context, List<StatisticGroup> data){
         this.data = data;
         this.context = context;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.placeholder = new Statistic<String>("", "", context.getString(R.string.label_process_computing));
         this.inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
     }
 
+    /**
+     * Start computing the given group in the background, if it's lazy and wasn't computed yet.
+     */
+    private void compute(int group_pos){
+        StatisticGroup group = data.get(group_pos);
+        if (!(group instanceof LazyStatisticGroup)) return;
+        final LazyStatisticGroup lazy = (LazyStatisticGroup) group;
+        if (!lazy.startComputing()) return;
+        // Groups off screen are never computed, so each one is timed on its own:
+        final long started = SystemClock.elapsedRealtime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Statistic> result;
+                try {
+                    result = lazy.computeMemoized();
+                } catch (RuntimeException e) {
+                    Log.e(Main.LOG_TAG, "Couldn't compute the statistics for "+lazy.getName(), e);
+                    result = Collections.emptyList();
+                }
+                final List<Statistic> computed = result;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        lazy.finishComputing(computed);
+                        notifyDataSetChanged();
+                        Log.v(Main.LOG_TAG, "Statistics for "+lazy.getName()+" after "
+                                +(SystemClock.elapsedRealtime() - started)+"ms");
+                    }
+                });
+            }
+        });
+    }
+
     @Override
     public int getGroupCount() {
         return data.size();
@@ -45,7 +101,9 @@ public class ExpandableStatisticAdapter extends BaseExpandableListAdapter{
 
     @Override
     public int getChildrenCount(int group_pos) {
-        return data.get(group_pos).size();
+        StatisticGroup group = data.get(group_pos);
+        // Room for the placeholder:
+        return group.isComputed() ? group.size() : group.size() + 1;
     }
 
     @Override
@@ -55,7 +113,13 @@ public class ExpandableStatisticAdapter extends BaseExpandableListAdapter{
 
     @Override
     public Object getChild(int group_pos, int child_pos) {
-        return data.get(group_pos).get(child_pos);
+        return getStatistic(group_pos, child_pos);
+    }
+
+    private Statistic getStatistic(int group_pos, int child_pos){
+        StatisticGroup group = data.get(group_pos);
+        if (child_pos == group.size() && !group.isComputed()) return placeholder;
+        return group.get(child_pos);
     }
 
     @Override
@@ -85,6 +149,8 @@ public class ExpandableStatisticAdapter extends BaseExpandableListAdapter{
         // Bind the data:
         TextView value = (TextView)v.findViewById(R.id.statistic_group_view_name);
         value.setText( data.get(groupPosition).getName() );
+        // The group is in view now:
+        if (isExpanded) compute(groupPosition);
         return  v;
     }
 
@@ -93,7 +159,9 @@ public class ExpandableStatisticAdapter extends BaseExpandableListAdapter{
             int groupPosition, int childPosition, boolean isLastChild,
             View convertView, ViewGroup parent) {
         View v;
-        Statistic stat = data.get(groupPosition).get(childPosition);
+        Statistic stat = getStatistic(groupPosition, childPosition);
+        // The placeholder is in view now:
+        if (stat == placeholder) compute(groupPosition);
 
         if (convertView != null){
             v = convertView;
@@ -106,7 +174,7 @@ public class ExpandableStatisticAdapter extends BaseExpandableListAdapter{
 
     @Override
     public int getChildType(int groupPosition, int childPosition) {
-        return data.get(groupPosition).get(childPosition).getItemType().id;
+        return getStatistic(groupPosition, childPosition).getItemType().id;
     }
 
     @Override
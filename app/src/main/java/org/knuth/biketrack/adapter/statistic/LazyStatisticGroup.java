@@ -0,0 +1,128 @@
+package org.knuth.biketrack.adapter.statistic;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>A {@link StatisticGroup} with {@link Cost#EXPENSIVE expensive} statistics, which
+ *  are only calculated once the group is shown.</p>
+ * <p>Cheap statistics can be {@link #add(Statistic) added} right away and are shown
+ *  immediately. The expensive ones are calculated by {@link #compute()} on a background
+ *  thread, see {@link ExpandableStatisticAdapter}.</p>
+ * <p>The results are memoized for the {@code source} they where calculated from (e.g.
+ *  the key of a tours track, see {@code TrackCache#getKey(int)}), for as long as that
+ *  source is still in memory. The source is compared by identity, so it must be the same
+ *  object for every load of the same data. Statistics which depend on more than the
+ *  source (e.g. are formatted in the current measurement system) are memoized per
+ *  {@code variant} as well.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public abstract class LazyStatisticGroup extends StatisticGroup {
+
+    /** The computed statistics by source and group-name */
+    private static final Map<Object, Map<String, List<Statistic>>> memo =
+            new WeakHashMap<Object, Map<String, List<Statistic>>>();
+
+    private final Object source;
+    /** The key of this group in the memo of its source */
+    private final String memo_name;
+    private boolean computed;
+    private boolean computing;
+
+    /**
+     * A new lazy group.
+     * @param group_name the name for the group.
+     * @param source the data the statistics are calculated from, used to memoize them.
+     * @throws NullPointerException if {@code group_name} or {@code source} is null.
+     */
+    public LazyStatisticGroup(String group_name, Object source){
+        this(group_name, source, null);
+    }
+
+    /**
+     * A new lazy group, whose statistics also depend on the given variant.
+     * @param group_name the name for the group.
+     * @param source the data the statistics are calculated from, used to memoize them.
+     * @param variant whatever else the statistics depend on (e.g. the measurement system),
+     *  compared by its {@code toString()}. May be {@code null}.
+     * @throws NullPointerException if {@code group_name} or {@code source} is null.
+     */
+    public LazyStatisticGroup(String group_name, Object source, Object variant){
+        super(group_name);
+        if (source == null)
+            throw new NullPointerException("[source] can't be null!");
+        this.source = source;
+        this.memo_name = variant == null ? group_name : group_name + "/" + variant;
+        // Already calculated before?
+        List<Statistic> memoized = lookup();
+        if (memoized != null) finishComputing(memoized);
+    }
+
+    /**
+     * <p>Calculate the expensive statistics of this group.</p>
+     * <p>This is called on a background-thread, at most once per group.</p>
+     */
+    protected abstract List<Statistic> compute();
+
+    @Override
+    public Cost getCost() {
+        return Cost.EXPENSIVE;
+    }
+
+    @Override
+    public boolean isComputed() {
+        return computed;
+    }
+
+    /**
+     * Mark the group as being computed.
+     * @return {@code false} if the group is already (being) computed.
+     */
+    boolean startComputing(){
+        if (computed || computing) return false;
+        computing = true;
+        return true;
+    }
+
+    /**
+     * Get the statistics from the memo or {@link #compute()} them.
+     * This is called on a background-thread.
+     */
+    List<Statistic> computeMemoized(){
+        List<Statistic> memoized = lookup();
+        if (memoized != null) return memoized;
+        List<Statistic> result = Collections.unmodifiableList(compute());
+        synchronized (memo){
+            Map<String, List<Statistic>> groups = memo.get(source);
+            if (groups == null){
+                groups = new HashMap<String, List<Statistic>>(4);
+                memo.put(source, groups);
+            }
+            groups.put(memo_name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Add the computed statistics to this group. This is called on the UI-thread.
+     */
+    void finishComputing(List<Statistic> result){
+        for (Statistic stat : result){
+            add(stat);
+        }
+        computing = false;
+        computed = true;
+    }
+
+    private List<Statistic> lookup(){
+        synchronized (memo){
+            Map<String, List<Statistic>> groups = memo.get(source);
+            return groups == null ? null : groups.get(memo_name);
+        }
+    }
+}
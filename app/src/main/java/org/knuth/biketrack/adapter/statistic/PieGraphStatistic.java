@@ -39,7 +39,7 @@ public class PieGraphStatistic extends Statistic<PieSlice> {
         TextView desc = (TextView)v.findViewById(R.id.statistic_item_view_description);
         PieGraph graph = (PieGraph)v.findViewById(R.id.statistic_item_piegraph);
         desc.setText(getDescription());
-        if (graph.getSlices().size() != this.slices.size()){
+        if (graph.getSlices() != this.slices){
             graph.setSlices(this.slices);
         }
         return v;
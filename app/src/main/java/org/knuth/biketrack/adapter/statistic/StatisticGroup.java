@@ -11,6 +11,16 @@ import java.util.List;
  */
 public class StatisticGroup {
 
+    /**
+     * How expensive it is to calculate the statistics of a group.
+     */
+    public enum Cost{
+        /** Simple values, which are calculated before the group is shown */
+        CHEAP,
+        /** Graphs and the like, which are calculated in the background when needed */
+        EXPENSIVE
+    }
+
     private final List<Statistic> statistics;
     private final String group_name;
 
@@ -48,4 +58,15 @@ public class StatisticGroup {
     public int size(){
         return statistics.size();
     }
+
+    public Cost getCost(){
+        return Cost.CHEAP;
+    }
+
+    /**
+     * Whether all statistics of this group are available.
+     */
+    public boolean isComputed(){
+        return true;
+    }
 }
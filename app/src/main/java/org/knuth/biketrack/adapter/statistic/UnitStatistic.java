@@ -0,0 +1,43 @@
+package org.knuth.biketrack.adapter.statistic;
+
+import android.view.View;
+import android.widget.TextView;
+import org.knuth.biketrack.R;
+
+/**
+ * <p>A statistic for a distance or speed.</p>
+ * <p>The value is kept in its SI-unit and formatted in the current system of
+ *  measurement every time it's shown, so changing the system doesn't require
+ *  calculating it again.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class UnitStatistic extends Statistic<Double> {
+
+    private final Units.Quantity quantity;
+    /** Reused for formatting the value, only used on the UI-thread */
+    private final StringBuilder text = new StringBuilder(8);
+
+    public UnitStatistic(Units.Quantity quantity, double value, String description) {
+        super(value, null, description);
+        this.quantity = quantity;
+    }
+
+    public Units.Quantity getQuantity() {
+        return quantity;
+    }
+
+    @Override
+    public View getView(View v, boolean isLastChild) {
+        TextView value = (TextView)v.findViewById(R.id.statistic_item_view_value);
+        TextView unit = (TextView)v.findViewById(R.id.statistic_item_view_unit);
+        TextView desc = (TextView)v.findViewById(R.id.statistic_item_view_description);
+        Units.Snapshot units = Units.from(v.getContext()).get();
+        text.setLength(0);
+        value.setText(units.format(quantity, getValue(), text));
+        unit.setText(units.getUnit(quantity));
+        desc.setText(getDescription());
+        return v;
+    }
+}
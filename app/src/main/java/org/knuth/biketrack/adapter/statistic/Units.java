@@ -0,0 +1,197 @@
+package org.knuth.biketrack.adapter.statistic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.R;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * <p>Converts and formats distances and speeds in the system of measurement which is
+ *  set in the preferences.</p>
+ * <p>All values are stored in SI-units (meters and meters per second) and only converted
+ *  when they are shown. The current system is kept as an immutable {@link Snapshot},
+ *  which is replaced when the preference changes. A snapshot can be used from any
+ *  thread and formats into a given {@code StringBuilder}, without creating any objects.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Units implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    /**
+     * The kind of value which is converted.
+     */
+    public enum Quantity{
+        /** Meters, shown as kilometers or miles */
+        DISTANCE,
+        /** Meters per second, shown as kilometers- or miles-per-hour */
+        SPEED
+    }
+
+    /**
+     * The supported systems of measurement.
+     */
+    public enum MeasurementSystem{
+        METRIC(0.001, 3.6, R.string.label_unit_kilometers, R.string.label_unit_kmh),
+        IMPERIAL(0.000621371192, 2.23693629, R.string.label_unit_miles, R.string.label_unit_mph);
+
+        private final double meter_factor;
+        private final double ms_factor;
+        private final int distance_unit;
+        private final int speed_unit;
+
+        private MeasurementSystem(double meter_factor, double ms_factor, int distance_unit, int speed_unit){
+            this.meter_factor = meter_factor;
+            this.ms_factor = ms_factor;
+            this.distance_unit = distance_unit;
+            this.speed_unit = speed_unit;
+        }
+
+        /** The length of one kilometer or mile in meters. */
+        public double getUnitLength(){
+            return 1 / meter_factor;
+        }
+    }
+
+    private final Context context;
+    private final String preference_key;
+    private volatile Snapshot snapshot;
+
+    public Units(Context context){
+        this.context = context.getApplicationContext();
+        this.preference_key = context.getString(R.string.prefs_key_system_of_measurement);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this.context);
+        // The preferences only keep a weak reference to the listener!
+        prefs.registerOnSharedPreferenceChangeListener(this);
+        this.snapshot = load(prefs);
+    }
+
+    /**
+     * Get the units of the application.
+     */
+    public static Units from(Context context){
+        return ((Application) context.getApplicationContext()).getUnits();
+    }
+
+    /**
+     * Get the currently set system of measurement.
+     */
+    public Snapshot get(){
+        return snapshot;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (preference_key.equals(key)) snapshot = load(prefs);
+    }
+
+    private Snapshot load(SharedPreferences prefs){
+        String metric = context.getString(R.string.prefs_value_measure_system_metric);
+        MeasurementSystem system = prefs.getString(preference_key, metric).equals(metric)
+                ? MeasurementSystem.METRIC : MeasurementSystem.IMPERIAL;
+        return new Snapshot(system,
+                context.getString(system.distance_unit), context.getString(system.speed_unit),
+                DecimalFormatSymbols.getInstance().getDecimalSeparator()
+        );
+    }
+
+    /**
+     * An immutable view on the system of measurement.
+     */
+    public static final class Snapshot {
+
+        /** The number of decimals shown for a distance */
+        private static final int DISTANCE_DECIMALS = 2;
+        /** The number of decimals shown for a speed */
+        private static final int SPEED_DECIMALS = 0;
+
+        private final MeasurementSystem system;
+        private final String distance_unit;
+        private final String speed_unit;
+        private final char decimal_separator;
+
+        private Snapshot(MeasurementSystem system, String distance_unit, String speed_unit, char decimal_separator){
+            this.system = system;
+            this.distance_unit = distance_unit;
+            this.speed_unit = speed_unit;
+            this.decimal_separator = decimal_separator;
+        }
+
+        public MeasurementSystem getSystem() {
+            return system;
+        }
+
+        /** Convert meters to kilometers or miles. */
+        public double toDistance(double meters){
+            return meters * system.meter_factor;
+        }
+
+        /** Convert meters per second to kilometers- or miles-per-hour. */
+        public double toSpeed(double ms){
+            return ms * system.ms_factor;
+        }
+
+        /** Convert a value of the given quantity from its SI-unit. */
+        public double convert(Quantity quantity, double value){
+            return quantity == Quantity.DISTANCE ? toDistance(value) : toSpeed(value);
+        }
+
+        public String getDistanceUnit() {
+            return distance_unit;
+        }
+
+        public String getSpeedUnit() {
+            return speed_unit;
+        }
+
+        public String getUnit(Quantity quantity){
+            return quantity == Quantity.DISTANCE ? distance_unit : speed_unit;
+        }
+
+        /**
+         * Append the given value of the given quantity, converted to this system, to {@code out}.
+         * @return the given builder.
+         */
+        public StringBuilder format(Quantity quantity, double value, StringBuilder out){
+            if (quantity == Quantity.DISTANCE){
+                return appendDecimal(toDistance(value), DISTANCE_DECIMALS, out);
+            } else {
+                return appendDecimal(toSpeed(value), SPEED_DECIMALS, out);
+            }
+        }
+
+        /** Format meters as kilometers or miles. */
+        public String formatDistance(double meters){
+            return format(Quantity.DISTANCE, meters, new StringBuilder(8)).toString();
+        }
+
+        /** Format meters per second as kilometers- or miles-per-hour. */
+        public String formatSpeed(double ms){
+            return format(Quantity.SPEED, ms, new StringBuilder(4)).toString();
+        }
+
+        /**
+         * Append the value with at most {@code decimals} decimals (without trailing zeros).
+         */
+        private StringBuilder appendDecimal(double value, int decimals, StringBuilder out){
+            if (Double.isNaN(value) || Double.isInfinite(value)) return out.append('-');
+            long scale = 1;
+            for (int i = 0; i < decimals; i++) scale *= 10;
+            long scaled = Math.round(Math.abs(value) * scale);
+            if (value < 0 && scaled != 0) out.append('-');
+            out.append(scaled / scale);
+            long fraction = scaled % scale;
+            if (fraction != 0){
+                out.append(decimal_separator);
+                // Leading zeros, then the digits without the trailing zeros:
+                for (long digit = scale / 10; digit > fraction; digit /= 10) out.append('0');
+                while (fraction % 10 == 0) fraction /= 10;
+                out.append(fraction);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.knuth.biketrack.adapter.statistic;
+
+import android.content.Context;
+import com.echo.holographlibrary.Bar;
+import com.echo.holographlibrary.PieSlice;
+import org.knuth.biketrack.R;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.ZoneHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Shows the time spent in the speed- and gradient-zones (of a tour or a period) as
+ *  statistics: the speed-zones as a bar-graph, the gradient-zones as a pie-graph with
+ *  the minutes of every zone below it.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ZoneStatistics {
+
+    /** The colors of the default gradient-zones, the same as the terrain types */
+    private static final int[] GRADIENT_COLORS = {
+            R.color.statistics_bar_steepDownhill, R.color.statistics_bar_downhill, R.color.statistics_bar_flat,
+            R.color.statistics_bar_uphill, R.color.statistics_bar_steepUphill
+    };
+    /** The names of the default gradient-zones */
+    private static final int[] GRADIENT_NAMES = {
+            R.string.tourActivity_statistics_steepDownhill, R.string.tourActivity_statistics_downhill,
+            R.string.tourActivity_statistics_flat, R.string.tourActivity_statistics_uphill,
+            R.string.tourActivity_statistics_steepUphill
+    };
+
+    private ZoneStatistics(){}
+
+    /**
+     * Make the statistics for the given zones.
+     */
+    public static List<Statistic> of(Context context, ZoneHistogram speed, ZoneHistogram gradient){
+        List<Statistic> result = new ArrayList<Statistic>(gradient.size() + 2);
+        Units.Snapshot units = Units.from(context).get();
+        int bar_color = context.getResources().getColor(R.color.statistics_bar_flat);
+        Bar[] bars = new Bar[speed.size()];
+        for (int zone = 0; zone < bars.length; zone++){
+            bars[zone] = new Bar();
+            bars[zone].setName(speedName(units, speed, zone));
+            bars[zone].setColor(bar_color);
+            bars[zone].setValue(minutes(speed.getTime(zone)));
+        }
+        result.add(new BarGraphStatistic(
+                context.getString(R.string.zones_statistics_speed, units.getSpeedUnit()), "min", bars
+        ));
+
+        boolean terrain = isTerrain(gradient);
+        PieSlice[] slices = new PieSlice[gradient.size()];
+        List<Statistic> minutes = new ArrayList<Statistic>(gradient.size());
+        for (int zone = 0; zone < slices.length; zone++){
+            String name = terrain ? context.getString(GRADIENT_NAMES[zone]) : context.getString(
+                    R.string.zones_gradient_range, gradient.getFrom(zone) * 100, gradient.getTo(zone) * 100
+            );
+            slices[zone] = new PieSlice();
+            slices[zone].setTitle(name);
+            slices[zone].setColor(context.getResources().getColor(GRADIENT_COLORS[zone % GRADIENT_COLORS.length]));
+            slices[zone].setValue(minutes(gradient.getTime(zone)));
+            minutes.add(new Statistic<Long>((long) minutes(gradient.getTime(zone)), "min", name));
+        }
+        result.add(new PieGraphStatistic(context.getString(R.string.zones_statistics_gradient), slices));
+        result.addAll(minutes);
+        return result;
+    }
+
+    private static String speedName(Units.Snapshot units, ZoneHistogram speed, int zone){
+        if (zone == 0) return "< " + units.formatSpeed(speed.getTo(zone));
+        if (zone == speed.size() - 1) return units.formatSpeed(speed.getFrom(zone)) + "+";
+        return units.formatSpeed(speed.getFrom(zone)) + "-" + units.formatSpeed(speed.getTo(zone));
+    }
+
+    /**
+     * Whether the given zones are the {@link ElevationProcessor.Gradient}s.
+     */
+    private static boolean isTerrain(ZoneHistogram gradient){
+        ElevationProcessor.Gradient[] all = ElevationProcessor.Gradient.values();
+        if (gradient.size() != all.length) return false;
+        for (int zone = 0; zone < all.length; zone++){
+            if (gradient.getFrom(zone) != all[zone].getFrom()) return false;
+        }
+        return true;
+    }
+
+    private static float minutes(long time){
+        return Math.round(time / 60000.0);
+    }
+}
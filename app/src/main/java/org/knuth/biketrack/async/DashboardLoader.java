@@ -0,0 +1,130 @@
+package org.knuth.biketrack.async;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.Log;
+import com.echo.holographlibrary.Bar;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.R;
+import org.knuth.biketrack.adapter.statistic.BarGraphStatistic;
+import org.knuth.biketrack.adapter.statistic.ExpandableStatisticAdapter;
+import org.knuth.biketrack.adapter.statistic.Statistic;
+import org.knuth.biketrack.adapter.statistic.StatisticGroup;
+import org.knuth.biketrack.adapter.statistic.UnitStatistic;
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.adapter.statistic.ZoneStatistics;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.Rollup;
+import org.knuth.biketrack.persistent.RollupStore;
+import org.knuth.biketrack.precompute.Task;
+import org.knuth.biketrack.track.TimeInZones;
+import org.knuth.biketrack.track.ZoneHistogram;
+
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Loads the totals of the current week, month and year and of the last months. Only the
+ *  {@link Rollup}s and the precomputed zones are read, never the tours themselves.
+ */
+public class DashboardLoader extends AsyncTaskLoader<ExpandableStatisticAdapter> {
+
+    public static final int DASHBOARD_LOADER_ID = 4;
+    /** How many months are shown in the history */
+    private static final int HISTORY_MONTHS = 12;
+
+    private final Context context;
+
+    public DashboardLoader(Context context) {
+        super(context);
+        this.context = context;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        forceLoad(); // This seems to be a bug in the SupportLibrary.
+        // See http://stackoverflow.com/q/8606048/717341
+    }
+
+    @Override
+    public ExpandableStatisticAdapter loadInBackground() {
+        try {
+            DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+            RollupStore rollups = new RollupStore(helper);
+            long now = System.currentTimeMillis();
+            List<StatisticGroup> groups = new ArrayList<StatisticGroup>(5);
+            groups.add(makeTotals(R.string.dashboard_group_week, rollups.get(Rollup.Period.WEEK, now)));
+            groups.add(makeTotals(R.string.dashboard_group_month, rollups.get(Rollup.Period.MONTH, now)));
+            groups.add(makeTotals(R.string.dashboard_group_year, rollups.get(Rollup.Period.YEAR, now)));
+            groups.add(makeHistory(rollups.getRecent(Rollup.Period.MONTH, now, HISTORY_MONTHS)));
+            groups.add(makeZones(new ArtifactStore(helper), Rollup.Period.YEAR.startOf(now)));
+            return new ExpandableStatisticAdapter(context, groups);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+        }
+    }
+
+    private StatisticGroup makeTotals(int title, Rollup rollup){
+        StatisticGroup group = new StatisticGroup(context.getString(title));
+        group.add(new UnitStatistic(Units.Quantity.DISTANCE, rollup.getDistance(),
+                context.getString(R.string.dashboard_statistics_distance)
+        ));
+        group.add(new Statistic<String>(LeaderboardLoader.formatElapsed(rollup.getDuration()), "",
+                context.getString(R.string.dashboard_statistics_time)
+        ));
+        group.add(new Statistic<Long>(Math.round(rollup.getAscent()), "m",
+                context.getString(R.string.dashboard_statistics_ascent)
+        ));
+        group.add(new Statistic<Integer>(rollup.getRides(), "",
+                context.getString(R.string.dashboard_statistics_rides)
+        ));
+        return group;
+    }
+
+    /**
+     * Show the time spent in the zones of all tours since the given time, merged from their
+     *  precomputed zones.
+     */
+    private StatisticGroup makeZones(ArtifactStore store, long since) throws SQLException {
+        List<byte[]> data = store.loadAll(Task.ZONES.name(), Task.ZONES.getVersion(), since, Long.MAX_VALUE);
+        long start = System.nanoTime();
+        ZoneHistogram speed = new ZoneHistogram(TimeInZones.SPEED_ZONES);
+        ZoneHistogram gradient = new ZoneHistogram(TimeInZones.GRADIENT_ZONES);
+        for (byte[] tour : data){
+            ZoneHistogram[] zones = Task.decodeZones(tour);
+            speed.merge(zones[0]);
+            gradient.merge(zones[1]);
+        }
+        Log.v(Main.LOG_TAG, "Merged the zones of "+data.size()+" tours in "+(System.nanoTime() - start) / 1000+"us");
+        StatisticGroup group = new StatisticGroup(context.getString(R.string.dashboard_group_zones));
+        for (Statistic statistic : ZoneStatistics.of(context, speed, gradient)) group.add(statistic);
+        return group;
+    }
+
+    private StatisticGroup makeHistory(List<Rollup> months){
+        StatisticGroup group = new StatisticGroup(context.getString(R.string.dashboard_group_history));
+        SimpleDateFormat month_format = new SimpleDateFormat("MMM");
+        int color = context.getResources().getColor(R.color.statistics_bar_flat);
+        Bar[] bars = new Bar[months.size()];
+        for (int i = 0; i < bars.length; i++){
+            Rollup month = months.get(i);
+            bars[i] = new Bar();
+            bars[i].setName(month_format.format(new Date(month.getPeriodStart())));
+            bars[i].setColor(color);
+            // In meters, they're shown in the set system:
+            bars[i].setValue((float) month.getDistance());
+        }
+        group.add(new BarGraphStatistic(
+                context.getString(R.string.dashboard_statistics_distancePerMonth), Units.Quantity.DISTANCE, bars
+        ));
+        return group;
+    }
+}
@@ -0,0 +1,182 @@
+package org.knuth.biketrack.async;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.Log;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.R;
+import org.knuth.biketrack.adapter.statistic.ExpandableStatisticAdapter;
+import org.knuth.biketrack.adapter.statistic.Statistic;
+import org.knuth.biketrack.adapter.statistic.StatisticGroup;
+import org.knuth.biketrack.adapter.statistic.UnitStatistic;
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.persistent.BestEffort;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.PersonalRecord;
+import org.knuth.biketrack.persistent.RecordStore;
+import org.knuth.biketrack.persistent.Segment;
+import org.knuth.biketrack.persistent.SegmentEffort;
+import org.knuth.biketrack.persistent.SegmentEngine;
+import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.track.BestEfforts;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
+
+import java.sql.SQLException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the personal records and the best efforts of a tour, then matches the tour against
+ *  all segments and loads the leaderboards of the segments it rode.
+ */
+public class LeaderboardLoader extends AsyncTaskLoader<ExpandableStatisticAdapter> {
+
+    public static final int LEADERBOARD_LOADER_ID = 3;
+    /** How many efforts are shown per leaderboard (plus the one of the current tour) */
+    private static final int LEADERBOARD_SIZE = 10;
+
+    private final Context context;
+    private final Tour tour;
+
+    public LeaderboardLoader(Context context, Tour tour) {
+        super(context);
+        this.context = context;
+        this.tour = tour;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        forceLoad(); // This seems to be a bug in the SupportLibrary.
+        // See http://stackoverflow.com/q/8606048/717341
+    }
+
+    @Override
+    public ExpandableStatisticAdapter loadInBackground() {
+        PrecomputeQueue queue = PrecomputeQueue.from(context);
+        queue.beginInteractive();
+        try {
+            DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+            SegmentEngine engine = new SegmentEngine(helper);
+            RecordStore records = new RecordStore(helper);
+            Track track = TrackCache.from(context).get(helper, tour.getId());
+            List<StatisticGroup> groups = new ArrayList<StatisticGroup>();
+            StatisticGroup personal = makePersonalRecords(records.getRecords());
+            if (personal.size() > 0) groups.add(personal);
+            StatisticGroup tour_efforts = makeTourEfforts(records, track, queue.isTracked(tour.getId()));
+            if (tour_efforts.size() > 0) groups.add(tour_efforts);
+
+            long start = System.currentTimeMillis();
+            List<SegmentEffort> efforts = engine.matchTour(tour, track);
+            Log.v(Main.LOG_TAG, "Matched tour against segments in "+(System.currentTimeMillis() - start)+"ms");
+            for (SegmentEffort effort : efforts){
+                Segment segment = helper.getSegmentDao().queryForId(effort.getSegmentId());
+                if (segment == null) continue;
+                groups.add(makeLeaderboard(segment, engine.getLeaderboard(segment)));
+            }
+            if (groups.isEmpty()) return null;
+            return new ExpandableStatisticAdapter(context, groups);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+            queue.endInteractive();
+        }
+    }
+
+    private StatisticGroup makePersonalRecords(List<PersonalRecord> records){
+        StatisticGroup group = new StatisticGroup(context.getString(R.string.records_group_personal));
+        DateFormat date_format = DateFormat.getDateInstance(DateFormat.MEDIUM);
+        for (PersonalRecord record : records){
+            String description = context.getString(R.string.records_item_record,
+                    describe(record.getKind()), date_format.format(record.getStart())
+            );
+            if (record.getTourId() == tour.getId()){
+                description = context.getString(R.string.records_item_currentTour, description);
+            }
+            group.add(makeEffort(record.getKind(), record.getValue(), description));
+        }
+        return group;
+    }
+
+    /**
+     * The best efforts of the tour are searched once and stored, unless it's still tracked.
+     */
+    private StatisticGroup makeTourEfforts(RecordStore records, Track track, boolean is_tracked)
+            throws SQLException {
+        StatisticGroup group = new StatisticGroup(context.getString(R.string.records_group_tour));
+        if (is_tracked){
+            for (BestEfforts.Effort effort : BestEfforts.find(track)){
+                group.add(makeEffort(effort.getKind(), effort.getValue(), describe(effort.getKind())));
+            }
+            return group;
+        }
+        if (!records.hasEfforts(tour.getId())){
+            records.storeEfforts(tour.getId(), BestEfforts.find(track), true);
+        }
+        for (BestEffort effort : records.getEfforts(tour.getId())){
+            group.add(makeEffort(effort.getKind(), effort.getValue(), describe(effort.getKind())));
+        }
+        return group;
+    }
+
+    private Statistic<?> makeEffort(BestEfforts.Kind kind, double value, String description){
+        if (kind.isTime()){
+            return new Statistic<String>(formatElapsed((long) value), "", description);
+        } else if (kind == BestEfforts.Kind.CLIMB){
+            return new Statistic<Long>(Math.round(value), "m", description);
+        } else {
+            return new UnitStatistic(Units.Quantity.SPEED, value, description);
+        }
+    }
+
+    private String describe(BestEfforts.Kind kind){
+        if (kind.isTime()){
+            Units.Snapshot units = Units.from(context).get();
+            return context.getString(R.string.records_kind_distance,
+                    units.formatDistance(kind.getDistance()), units.getDistanceUnit()
+            );
+        } else if (kind == BestEfforts.Kind.CLIMB){
+            return context.getString(R.string.records_kind_climb);
+        } else {
+            return context.getString(R.string.records_kind_sustainedSpeed,
+                    BestEfforts.SUSTAINED_WINDOW / (60 * 1000)
+            );
+        }
+    }
+
+    private StatisticGroup makeLeaderboard(Segment segment, List<SegmentEffort> board){
+        Units.Snapshot units = Units.from(context).get();
+        StatisticGroup group = new StatisticGroup(context.getString(R.string.records_group_segment,
+                segment.getName(), units.formatDistance(segment.getLength()), units.getDistanceUnit()
+        ));
+        DateFormat date_format = DateFormat.getDateInstance(DateFormat.MEDIUM);
+        for (int rank = 0; rank < board.size(); rank++){
+            SegmentEffort effort = board.get(rank);
+            boolean is_current = effort.getTourId() == tour.getId();
+            if (rank >= LEADERBOARD_SIZE && !is_current) continue;
+            String description = context.getString(R.string.records_item_rank,
+                    rank + 1, date_format.format(effort.getStart())
+            );
+            if (is_current) description = context.getString(R.string.records_item_currentTour, description);
+            group.add(new Statistic<String>(formatElapsed(effort.getElapsed()), "", description));
+        }
+        return group;
+    }
+
+    /**
+     * Format milliseconds as {@code h:mm:ss} or {@code m:ss}.
+     */
+    public static String formatElapsed(long millis){
+        long secs = millis / 1000;
+        if (secs >= 3600){
+            return String.format("%d:%02d:%02d", secs / 3600, (secs / 60) % 60, secs % 60);
+        } else {
+            return String.format("%d:%02d", secs / 60, secs % 60);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.knuth.biketrack.async;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.widget.Toast;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import org.knuth.biketrack.R;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.persistent.TourFilter;
+import org.knuth.biketrack.persistent.TourSearch;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Lets the user pick a previous tour to compare a tour with (e.g. to race its ghost or
+ *  to follow its route).</p>
+ * <p>If the tour is clustered, the other rides of the same route are offered. Otherwise
+ *  the newest tour of every route is offered.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ReferencePicker extends AsyncTask<Void, Void, List<Tour>> {
+
+    /**
+     * Informed about the tour the user picked, on the UI-thread.
+     */
+    public interface OnPickedListener {
+        void onPicked(Tour reference);
+    }
+
+    /** The maximum number of tours offered */
+    private static final int MAX_TOURS = 20;
+
+    private final Activity activity;
+    private final Tour tour;
+    private final int title;
+    private final OnPickedListener listener;
+
+    /**
+     * @param tour the tour to compare, which isn't offered itself.
+     */
+    public ReferencePicker(Activity activity, Tour tour, OnPickedListener listener){
+        this(activity, tour, R.string.ghost_dialog_pick, listener);
+    }
+
+    /**
+     * @param tour the tour to compare, which isn't offered itself.
+     * @param title the string-resource for the title of the dialog.
+     */
+    public ReferencePicker(Activity activity, Tour tour, int title, OnPickedListener listener){
+        if (listener == null) throw new NullPointerException("listener can't be null!");
+        this.activity = activity;
+        this.tour = tour;
+        this.title = title;
+        this.listener = listener;
+    }
+
+    @Override
+    protected List<Tour> doInBackground(Void... nothing) {
+        try {
+            DatabaseHelper helper = OpenHelperManager.getHelper(activity, DatabaseHelper.class);
+            TourSearch search = new TourSearch(helper);
+            List<Tour> tours = new ArrayList<Tour>(MAX_TOURS);
+            if (tour.getClusterId() != 0){
+                addOthers(search.search(TourFilter.ALL.withCluster(tour.getClusterId()), MAX_TOURS + 1), tours);
+            }
+            if (tours.isEmpty()){
+                addOthers(search.search(TourFilter.ALL.grouped(true), MAX_TOURS + 1), tours);
+            }
+            return tours;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<Tour>(0);
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+        }
+    }
+
+    private void addOthers(TourSearch.Page page, List<Tour> tours){
+        for (Tour found : page.getTours()){
+            if (found.getId() != tour.getId() && tours.size() < MAX_TOURS) tours.add(found);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(final List<Tour> tours){
+        if (activity.isFinishing()) return;
+        if (tours.isEmpty()){
+            Toast.makeText(activity, R.string.ghost_toast_noTours, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] titles = new String[tours.size()];
+        for (int i = 0; i < titles.length; i++) titles[i] = tours.get(i).toString();
+        new AlertDialog.Builder(activity)
+                .setTitle(title)
+                .setItems(titles, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        listener.onPicked(tours.get(which));
+                    }
+                })
+                .setCancelable(true)
+                .create().show();
+    }
+}
@@ -7,26 +7,45 @@ package org.knuth.biketrack.async;
 import android.content.Context;
 import android.support.v4.content.AsyncTaskLoader;
 import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.stmt.QueryBuilder;
 import org.knuth.biketrack.persistent.DatabaseHelper;
-import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.persistent.TourFilter;
+import org.knuth.biketrack.persistent.TourSearch;
 
 import java.sql.SQLException;
-import java.util.Collection;
-import java.util.Collections;
 
 /**
- * This will asynchronously load all current tours from the database.
+ * This will asynchronously load one page of the tours matching a filter from the database.
  */
-public class ToursLoader extends AsyncTaskLoader<Collection<Tour>> {
+public class ToursLoader extends AsyncTaskLoader<TourSearch.Page> {
 
     public static final int TOUR_LOADER_ID = 2;
     private final Context context;
+    private final TourFilter filter;
+    private final TourSearch.Key after;
 
+    /**
+     * Load the first page of all tours.
+     */
     public ToursLoader(Context context) {
+        this(context, TourFilter.ALL, null);
+    }
+
+    /**
+     * Load the page of tours matching the filter, which follows the given key.
+     * @param after the key of the previous page, or {@code null} for the first page.
+     */
+    public ToursLoader(Context context, TourFilter filter, TourSearch.Key after) {
         super(context);
         this.context = context;
+        this.filter = filter;
+        this.after = after;
+    }
+
+    /**
+     * Whether this loads the first page, which replaces all previously loaded tours.
+     */
+    public boolean isFirstPage(){
+        return after == null;
     }
 
     @Override
@@ -36,17 +55,15 @@ public class ToursLoader extends AsyncTaskLoader<Collection<Tour>> {
     }
 
     @Override
-    public Collection<Tour> loadInBackground() {
+    public TourSearch.Page loadInBackground() {
         try {
-            Dao<Tour, Integer> tour_dao = OpenHelperManager.getHelper(
-                    context, DatabaseHelper.class
-            ).getTourDao();
-            QueryBuilder<Tour, Integer> builder = tour_dao.queryBuilder();
-            builder.orderBy("date", false);
-            return builder.query();
+            DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+            return new TourSearch(helper).search(filter, after, TourSearch.DEFAULT_PAGE_SIZE);
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
         }
-        return Collections.emptyList();
+        return TourSearch.Page.EMPTY;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,143 @@
+package org.knuth.biketrack.elevation;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.misc.TransactionManager;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.geo.HgtTile;
+import org.knuth.biketrack.geo.TerrainModel;
+import org.knuth.biketrack.matching.MapMatchService;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.track.TrackCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>The application-wide correction of the recorded (noisy) GPS-altitudes from the
+ *  elevation of the terrain.</p>
+ * <p>The terrain-data are {@link HgtTile}s, which the user copies to the {@code srtm}-directory
+ *  in the apps external files-directory. The corrected altitudes are stored as the
+ *  {@code elevation} of every {@code LocationStamp}, next to the recorded ones, and are
+ *  used for the track from then on.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ElevationService {
+
+    private static final String DIRECTORY = "srtm";
+
+    private final Context context;
+    private final TerrainModel terrain;
+
+    public ElevationService(Context context){
+        this.context = context.getApplicationContext();
+        File root = context.getExternalFilesDir(null);
+        File directory = new File(root != null ? root : context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            Log.e(Main.LOG_TAG, "Couldn't create the directory for the terrain-data: "+directory);
+        }
+        this.terrain = new TerrainModel(directory);
+    }
+
+    /**
+     * Get the elevation-service of the application.
+     */
+    public static ElevationService from(Context context){
+        return ((Application) context.getApplicationContext()).getElevationService();
+    }
+
+    /**
+     * The directory the user should copy the {@code .hgt}-tiles to.
+     */
+    public File getDirectory(){
+        return terrain.getDirectory();
+    }
+
+    /**
+     * <p>Correct the altitudes of all stamps of the given tour in one pass and store them.
+     *  Must not be called on the UI-thread.</p>
+     * <p>Stamps without terrain-data are interpolated between their neighbours. The track
+     *  of the tour changes, so it's precomputed again.</p>
+     * @return the number of stamps with terrain-data, {@code 0} if there was none and
+     *  nothing was stored.
+     */
+    public int correctTour(DatabaseHelper helper, int tour_id) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        List<double[]> rows = helper.getLocationStampDao().queryRaw(
+                "SELECT rowid, latitude, longitude FROM loc_stamp WHERE tour_id = ? ORDER BY timestamp",
+                ROW_MAPPER, String.valueOf(tour_id)
+        ).getResults();
+        int size = rows.size();
+        final long[] row_ids = new long[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++){
+            double[] row = rows.get(i);
+            row_ids[i] = (long) row[0];
+            latitudes[i] = row[1];
+            longitudes[i] = row[2];
+        }
+        final double[] elevations = new double[size];
+        int found = terrain.elevations(latitudes, longitudes, elevations);
+        if (found == 0) return 0;
+        TerrainModel.fillGaps(elevations);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // A compiled statement, ORMLite would prepare it for every stamp:
+                SQLiteStatement update = db.compileStatement("UPDATE loc_stamp SET elevation = ? WHERE rowid = ?");
+                try {
+                    for (int i = 0; i < row_ids.length; i++){
+                        update.bindDouble(1, elevations[i]);
+                        update.bindLong(2, row_ids[i]);
+                        update.execute();
+                    }
+                } finally {
+                    update.close();
+                }
+                return null;
+            }
+        });
+        // The statistics reloaded right after this must not find the old results. The
+        // matched track only depends on the positions, matching it again is expensive:
+        new ArtifactStore(helper).forgetTour(tour_id, MapMatchService.ARTIFACT);
+        TrackCache.from(context).invalidate(tour_id);
+        PrecomputeQueue queue = PrecomputeQueue.from(context);
+        queue.forgetTour(tour_id, MapMatchService.ARTIFACT);
+        queue.enqueue(tour_id, PrecomputeQueue.PRIORITY_OPENED);
+        Log.v(Main.LOG_TAG, "Corrected "+found+" of "+size+" altitudes of tour "+tour_id+" in "
+                +(System.currentTimeMillis() - start)+"ms");
+        return found;
+    }
+
+    /**
+     * Forget the corrected altitudes of the given tour, e.g. when it's continued and new
+     *  stamps without correction are added.
+     */
+    public void forgetTour(DatabaseHelper helper, int tour_id) throws SQLException {
+        helper.getLocationStampDao().executeRaw(
+                "UPDATE loc_stamp SET elevation = NULL WHERE tour_id = ?", String.valueOf(tour_id)
+        );
+    }
+
+    private static final RawRowMapper<double[]> ROW_MAPPER = new RawRowMapper<double[]>() {
+        @Override
+        public double[] mapRow(String[] columns, String[] results) {
+            return new double[]{
+                    Long.parseLong(results[0]), Double.parseDouble(results[1]), Double.parseDouble(results[2])
+            };
+        }
+    };
+}
@@ -0,0 +1,114 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * An immutable rectangle in latitude/longitude, which does <b>not</b> cross the 180th meridian.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class BoundingBox implements GeoRegion {
+
+    /** Mean earth radius in meters */
+    /** The smallest radius of curvature of the earth, so boxes are never expanded too little */
+    private static final double MIN_RADIUS = Geodesy.meridionalRadius(0);
+
+    private final double min_lat;
+    private final double min_lon;
+    private final double max_lat;
+    private final double max_lon;
+
+    /**
+     * A new box with the given corners.
+     * @throws IllegalArgumentException if the minimum is greater than the maximum.
+     */
+    public BoundingBox(double min_lat, double min_lon, double max_lat, double max_lon){
+        if (min_lat > max_lat || min_lon > max_lon)
+            throw new IllegalArgumentException("[min] can't be greater than [max]!");
+        this.min_lat = min_lat;
+        this.min_lon = min_lon;
+        this.max_lat = max_lat;
+        this.max_lon = max_lon;
+    }
+
+    /**
+     * Create the smallest box containing all the given points.
+     * @throws IllegalArgumentException if there are no points.
+     */
+    public static BoundingBox of(double[] latitudes, double[] longitudes, int from, int to){
+        if (to <= from)
+            throw new IllegalArgumentException("Can't create an empty BoundingBox!");
+        double min_lat = latitudes[from], max_lat = latitudes[from];
+        double min_lon = longitudes[from], max_lon = longitudes[from];
+        for (int i = from + 1; i < to; i++){
+            if (latitudes[i] < min_lat) min_lat = latitudes[i];
+            else if (latitudes[i] > max_lat) max_lat = latitudes[i];
+            if (longitudes[i] < min_lon) min_lon = longitudes[i];
+            else if (longitudes[i] > max_lon) max_lon = longitudes[i];
+        }
+        return new BoundingBox(min_lat, min_lon, max_lat, max_lon);
+    }
+
+    public double getMinLatitude() {
+        return min_lat;
+    }
+
+    public double getMinLongitude() {
+        return min_lon;
+    }
+
+    public double getMaxLatitude() {
+        return max_lat;
+    }
+
+    public double getMaxLongitude() {
+        return max_lon;
+    }
+
+    public boolean contains(double latitude, double longitude){
+        return latitude >= min_lat && latitude <= max_lat
+                && longitude >= min_lon && longitude <= max_lon;
+    }
+
+    public boolean intersects(BoundingBox other){
+        return intersects(other.min_lat, other.min_lon, other.max_lat, other.max_lon);
+    }
+
+    public boolean intersects(double min_lat, double min_lon, double max_lat, double max_lon){
+        return min_lat <= this.max_lat && max_lat >= this.min_lat
+                && min_lon <= this.max_lon && max_lon >= this.min_lon;
+    }
+
+    /**
+     * Grow the box by the given distance (in meters) into every direction.
+     */
+    public BoundingBox expand(double meters){
+        double d_lat = Math.toDegrees(meters / MIN_RADIUS);
+        double widest = Math.max(Math.abs(min_lat), Math.abs(max_lat));
+        double d_lon = widest + d_lat >= 90
+                ? 180 : Math.toDegrees(meters / (MIN_RADIUS * Math.cos(Math.toRadians(widest + d_lat))));
+        return new BoundingBox(
+                Math.max(-90, min_lat - d_lat), Math.max(-180, min_lon - d_lon),
+                Math.min(90, max_lat + d_lat), Math.min(180, max_lon + d_lon)
+        );
+    }
+
+    @Override
+    public BoundingBox getBounds() {
+        return this;
+    }
+
+    @Override
+    public Relation classify(double min_lat, double min_lon, double max_lat, double max_lon) {
+        if (!intersects(min_lat, min_lon, max_lat, max_lon)) return Relation.OUTSIDE;
+        if (min_lat >= this.min_lat && max_lat <= this.max_lat
+                && min_lon >= this.min_lon && max_lon <= this.max_lon){
+            return Relation.INSIDE;
+        }
+        return Relation.PARTIAL;
+    }
+
+    @Override
+    public String toString(){
+        return "["+min_lat+", "+min_lon+" - "+max_lat+", "+max_lon+"]";
+    }
+}
@@ -0,0 +1,120 @@
+package org.knuth.biketrack.geo;
+
+import java.util.Arrays;
+
+/**
+ * <p>The set of grid-cells covering a {@link GeoRegion}, expressed as ranges of cell-ids
+ *  on {@link CellGrid#LEVEL}.</p>
+ * <p>The region is covered with cells of the finest level at which no more than
+ *  {@link #MAX_CELLS} cells are needed. Cells which lie completely within the region
+ *  are collected in the "inner" ranges, every tour with a cell in there is a hit. Cells
+ *  at the border are collected in the "border" ranges, where each stored cell must be
+ *  checked against the region again.</p>
+ * <p>The cells don't wrap around at the 180th meridian, so a region must not cross it
+ *  (see {@link BoundingBox}); one which does must be searched for as two regions, one
+ *  on either side.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class CellCover {
+
+    /** The maximum number of cells (on the chosen level) used to cover a region */
+    public static final int MAX_CELLS = 256;
+
+    private final long[] inner;
+    private final long[] border;
+
+    private CellCover(long[] inner, long[] border){
+        this.inner = inner;
+        this.border = border;
+    }
+
+    /**
+     * Compute the cover for the given region.
+     * @throws IllegalArgumentException if the bounds of the region cross the 180th meridian.
+     */
+    public static CellCover of(GeoRegion region){
+        BoundingBox bounds = region.getBounds();
+        if (bounds.getMinLongitude() > bounds.getMaxLongitude())
+            throw new IllegalArgumentException("The region can't cross the 180th meridian: "+bounds);
+        // Find the finest level at which the region fits into the cell-budget:
+        int level = CellGrid.LEVEL;
+        int shift = 0;
+        int min_col, max_col, min_row, max_row;
+        while (true){
+            min_col = CellGrid.column(bounds.getMinLongitude()) >> shift;
+            max_col = CellGrid.column(bounds.getMaxLongitude()) >> shift;
+            min_row = CellGrid.row(bounds.getMinLatitude()) >> shift;
+            max_row = CellGrid.row(bounds.getMaxLatitude()) >> shift;
+            long count = (long)(max_col - min_col + 1) * (max_row - min_row + 1);
+            if (count <= MAX_CELLS || level == 0) break;
+            level--;
+            shift++;
+        }
+        // Classify all cells on that level:
+        long[] inner_cells = new long[MAX_CELLS];
+        long[] border_cells = new long[MAX_CELLS];
+        int inner_count = 0, border_count = 0;
+        for (int row = min_row; row <= max_row; row++){
+            double south = CellGrid.rowLatitude(row, level);
+            double north = CellGrid.rowLatitude(row + 1, level);
+            for (int col = min_col; col <= max_col; col++){
+                double west = CellGrid.columnLongitude(col, level);
+                double east = CellGrid.columnLongitude(col + 1, level);
+                switch (region.classify(south, west, north, east)){
+                    case INSIDE:
+                        inner_cells[inner_count++] = CellGrid.interleave(col, row);
+                        break;
+                    case PARTIAL:
+                        border_cells[border_count++] = CellGrid.interleave(col, row);
+                        break;
+                }
+            }
+        }
+        return new CellCover(
+                toRanges(inner_cells, inner_count, shift),
+                toRanges(border_cells, border_count, shift)
+        );
+    }
+
+    /**
+     * Merge neighbouring cells of a coarse level into ranges of cell-ids on the finest level.
+     */
+    private static long[] toRanges(long[] cells, int count, int shift){
+        Arrays.sort(cells, 0, count);
+        long[] ranges = new long[count * 2];
+        int size = 0;
+        for (int i = 0; i < count; i++){
+            long from = cells[i] << (2 * shift);
+            long to = ((cells[i] + 1) << (2 * shift)) - 1;
+            if (size > 0 && ranges[size - 1] + 1 == from){
+                ranges[size - 1] = to; // Extend the last range.
+            } else {
+                ranges[size++] = from;
+                ranges[size++] = to;
+            }
+        }
+        return Arrays.copyOf(ranges, size);
+    }
+
+    /**
+     * The ranges of cells which are completely within the region, as pairs
+     *  of {@code [from, to]} (both inclusive).
+     */
+    public long[] getInnerRanges() {
+        return inner;
+    }
+
+    /**
+     * The ranges of cells which are only partially within the region, as pairs
+     *  of {@code [from, to]} (both inclusive).
+     */
+    public long[] getBorderRanges() {
+        return border;
+    }
+
+    public boolean isEmpty(){
+        return inner.length == 0 && border.length == 0;
+    }
+}
@@ -0,0 +1,170 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>Static helper-class for the fixed latitude/longitude grid, which is used to
+ *  index the recorded tracks.</p>
+ * <p>The world is divided into {@code 2^LEVEL} rows and columns. A cell is identified
+ *  by its row and column, interleaved bit by bit (a "Morton"- or "Z-order"-code). All
+ *  cells which share a common prefix of the code are contained in the same cell of
+ *  a coarser level, which means that every cell of a coarser level is a continuous
+ *  <b>range</b> of cell-ids on {@link #LEVEL}.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class CellGrid {
+
+    // This is a static helper-class!
+    private CellGrid(){}
+
+    /**
+     * The level at which cells are stored. A cell is {@code 360/2^16} degrees wide
+     *  (~610m at the equator) and {@code 180/2^16} degrees high (~305m).
+     */
+    public static final int LEVEL = 16;
+
+    private static final int CELLS = 1 << LEVEL;
+
+    /**
+     * Get the id of the cell (on {@link #LEVEL}) which contains the given point.
+     */
+    public static long cellOf(double latitude, double longitude){
+        return interleave(column(longitude), row(latitude));
+    }
+
+    /**
+     * Get the column on {@link #LEVEL} for the given longitude.
+     */
+    public static int column(double longitude){
+        int col = (int) Math.floor((longitude + 180.0) / 360.0 * CELLS);
+        return clamp(col);
+    }
+
+    /**
+     * Get the row on {@link #LEVEL} for the given latitude.
+     */
+    public static int row(double latitude){
+        int row = (int) Math.floor((latitude + 90.0) / 180.0 * CELLS);
+        return clamp(row);
+    }
+
+    /**
+     * Get the column of the given cell.
+     */
+    public static int columnOf(long cell){
+        return compact(cell);
+    }
+
+    /**
+     * Get the row of the given cell.
+     */
+    public static int rowOf(long cell){
+        return compact(cell >>> 1);
+    }
+
+    /** The southern border of the given row on the given level. */
+    public static double rowLatitude(int row, int level){
+        return row * (180.0 / (1 << level)) - 90.0;
+    }
+
+    /** The western border of the given column on the given level. */
+    public static double columnLongitude(int column, int level){
+        return column * (360.0 / (1 << level)) - 180.0;
+    }
+
+    /**
+     * Get the bounds of a cell on {@link #LEVEL}.
+     */
+    public static BoundingBox boundsOf(long cell){
+        int col = columnOf(cell);
+        int row = rowOf(cell);
+        return new BoundingBox(
+                rowLatitude(row, LEVEL), columnLongitude(col, LEVEL),
+                rowLatitude(row + 1, LEVEL), columnLongitude(col + 1, LEVEL)
+        );
+    }
+
+    /**
+     * Interleave the bits of {@code column} (even bits) and {@code row} (odd bits).
+     */
+    static long interleave(int column, int row){
+        return spread(column) | (spread(row) << 1);
+    }
+
+    /**
+     * <p>Call {@code visitor} for every cell which is touched by the straight line
+     *  between the two given points (including the cells of the points themselves).</p>
+     * <p>The line is walked in the grid-space, so no cell in between is skipped,
+     *  even if the two points are far apart (e.g. after a lost GPS fix).</p>
+     */
+    public static void walkSegment(double lat1, double lon1, double lat2, double lon2, CellVisitor visitor){
+        // Work in continuous grid-coordinates:
+        double x1 = (lon1 + 180.0) / 360.0 * CELLS;
+        double y1 = (lat1 + 90.0) / 180.0 * CELLS;
+        double x2 = (lon2 + 180.0) / 360.0 * CELLS;
+        double y2 = (lat2 + 90.0) / 180.0 * CELLS;
+        int col = clamp((int) Math.floor(x1));
+        int row = clamp((int) Math.floor(y1));
+        int end_col = clamp((int) Math.floor(x2));
+        int end_row = clamp((int) Math.floor(y2));
+        visitor.visit(interleave(col, row));
+        if (col == end_col && row == end_row) return;
+        // Amanatides & Woo traversal:
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        int step_col = dx > 0 ? 1 : -1;
+        int step_row = dy > 0 ? 1 : -1;
+        double t_delta_x = dx != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double t_delta_y = dy != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double t_max_x = dx != 0
+                ? ((step_col > 0 ? Math.floor(x1) + 1 - x1 : x1 - Math.floor(x1)) * t_delta_x)
+                : Double.POSITIVE_INFINITY;
+        double t_max_y = dy != 0
+                ? ((step_row > 0 ? Math.floor(y1) + 1 - y1 : y1 - Math.floor(y1)) * t_delta_y)
+                : Double.POSITIVE_INFINITY;
+        int steps = Math.abs(end_col - col) + Math.abs(end_row - row);
+        for (int i = 0; i < steps; i++){
+            if (t_max_x < t_max_y){
+                col += step_col;
+                t_max_x += t_delta_x;
+            } else {
+                row += step_row;
+                t_max_y += t_delta_y;
+            }
+            visitor.visit(interleave(clamp(col), clamp(row)));
+        }
+    }
+
+    /**
+     * Callback for {@link #walkSegment(double, double, double, double, CellVisitor)}.
+     */
+    public interface CellVisitor {
+        void visit(long cell);
+    }
+
+    private static int clamp(int value){
+        if (value < 0) return 0;
+        if (value >= CELLS) return CELLS - 1;
+        return value;
+    }
+
+    private static long spread(int value){
+        long x = value & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    private static int compact(long value){
+        long x = value & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+}
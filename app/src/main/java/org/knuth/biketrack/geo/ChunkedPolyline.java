@@ -0,0 +1,132 @@
+package org.knuth.biketrack.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A long polyline, split into short chunks with their bounding boxes, at multiple levels of
+ *  detail. A map only needs to draw the chunks in (or near) its viewport, at the coarsest
+ *  level which still looks exact on the screen.</p>
+ * <p>Level {@code 0} holds the points as given. Each further level is simplified from the
+ *  one before with the {@link Simplifier}, with a tolerance four times as big. Neighboring
+ *  chunks share their end-points, so the drawn line has no gaps.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ChunkedPolyline {
+
+    /** The maximum number of points in one chunk */
+    public static final int CHUNK_SIZE = 256;
+    /** The tolerance (in meters) of every level of detail */
+    private static final double[] TOLERANCES = {0, 8, 32, 128, 512, 2048};
+
+    private final List<List<Chunk>> levels = new ArrayList<List<Chunk>>(TOLERANCES.length);
+    private final BoundingBox bounds;
+
+    /**
+     * Split the given polyline.
+     * @throws IllegalArgumentException if the line has no points.
+     */
+    public ChunkedPolyline(double[] latitudes, double[] longitudes){
+        if (latitudes.length == 0)
+            throw new IllegalArgumentException("Can't chunk an empty polyline!");
+        bounds = BoundingBox.of(latitudes, longitudes, 0, latitudes.length);
+        for (int level = 0; level < TOLERANCES.length; level++){
+            if (level > 0){
+                int[] kept = Simplifier.simplify(latitudes, longitudes, 0, latitudes.length, TOLERANCES[level]);
+                double[] simplified_lat = new double[kept.length];
+                double[] simplified_lon = new double[kept.length];
+                for (int i = 0; i < kept.length; i++){
+                    simplified_lat[i] = latitudes[kept[i]];
+                    simplified_lon[i] = longitudes[kept[i]];
+                }
+                latitudes = simplified_lat;
+                longitudes = simplified_lon;
+            }
+            levels.add(split(level, latitudes, longitudes));
+        }
+    }
+
+    private static List<Chunk> split(int level, double[] latitudes, double[] longitudes){
+        int last = latitudes.length - 1;
+        List<Chunk> chunks = new ArrayList<Chunk>(last / CHUNK_SIZE + 1);
+        // Chunk i has the points [i * SIZE, (i + 1) * SIZE], the last one is shared with the next:
+        for (int from = 0; from == 0 || from < last; from += CHUNK_SIZE){
+            int to = Math.min(last, from + CHUNK_SIZE) + 1;
+            double[] chunk_lat = new double[to - from];
+            double[] chunk_lon = new double[to - from];
+            System.arraycopy(latitudes, from, chunk_lat, 0, chunk_lat.length);
+            System.arraycopy(longitudes, from, chunk_lon, 0, chunk_lon.length);
+            chunks.add(new Chunk(level, chunks.size(), chunk_lat, chunk_lon));
+        }
+        return chunks;
+    }
+
+    /**
+     * The coarsest level, on which no dropped point is further than the given distance
+     *  (e.g. the size of a pixel on the screen, in meters) from the line.
+     */
+    public int getLevel(double max_error){
+        int level = 0;
+        while (level + 1 < TOLERANCES.length && TOLERANCES[level + 1] <= max_error) level++;
+        return level;
+    }
+
+    /**
+     * All chunks on the given level, which intersect the given box.
+     */
+    public List<Chunk> query(int level, double min_lat, double min_lon, double max_lat, double max_lon){
+        List<Chunk> found = new ArrayList<Chunk>();
+        for (Chunk chunk : levels.get(level)){
+            if (chunk.bounds.intersects(min_lat, min_lon, max_lat, max_lon)) found.add(chunk);
+        }
+        return found;
+    }
+
+    /** The smallest box containing the whole line */
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * A part of the line on one level of detail.
+     */
+    public static class Chunk {
+
+        private final int level;
+        private final int index;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final BoundingBox bounds;
+
+        private Chunk(int level, int index, double[] latitudes, double[] longitudes){
+            this.level = level;
+            this.index = index;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.bounds = BoundingBox.of(latitudes, longitudes, 0, latitudes.length);
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /** The position of the chunk along the line, on its level */
+        public int getIndex() {
+            return index;
+        }
+
+        public double[] getLatitudes() {
+            return latitudes;
+        }
+
+        public double[] getLongitudes() {
+            return longitudes;
+        }
+
+        public BoundingBox getBounds() {
+            return bounds;
+        }
+    }
+}
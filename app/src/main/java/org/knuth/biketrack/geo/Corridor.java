@@ -0,0 +1,94 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>All points which are no further than a given distance away from a polyline.</p>
+ * <p>A circle is a corridor around a single point, see {@link #around(double, double, double)}.</p>
+ * <p>Distances are measured in a local equirectangular projection around the center
+ *  of the polyline, which is accurate enough for the size of a typical bike-tour.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Corridor implements GeoRegion {
+
+    private final double[] x;
+    private final double[] y;
+    private final double radius;
+    private final LocalProjection projection;
+    private final BoundingBox bounds;
+
+    /**
+     * A new corridor around the given polyline.
+     * @param latitudes the latitudes of the polylines points.
+     * @param longitudes the longitudes of the polylines points.
+     * @param radius the maximum distance in meters from the polyline.
+     * @throws IllegalArgumentException if there are no points or the radius is negative.
+     */
+    public Corridor(double[] latitudes, double[] longitudes, double radius){
+        if (latitudes.length == 0 || latitudes.length != longitudes.length)
+            throw new IllegalArgumentException("The polyline needs at least one point!");
+        if (radius < 0)
+            throw new IllegalArgumentException("[radius] can't be negative!");
+        this.radius = radius;
+        BoundingBox box = BoundingBox.of(latitudes, longitudes, 0, latitudes.length);
+        this.bounds = box.expand(radius);
+        this.projection = LocalProjection.around(box);
+        this.x = new double[latitudes.length];
+        this.y = new double[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++){
+            x[i] = projection.x(longitudes[i]);
+            y[i] = projection.y(latitudes[i]);
+        }
+    }
+
+    /**
+     * A circle with the given radius (in meters) around the given point.
+     */
+    public static Corridor around(double latitude, double longitude, double radius){
+        return new Corridor(new double[]{latitude}, new double[]{longitude}, radius);
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * The distance in meters from the given point to the polyline.
+     */
+    public double distanceTo(double latitude, double longitude){
+        return distanceProjected(projection.x(longitude), projection.y(latitude));
+    }
+
+    @Override
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    @Override
+    public Relation classify(double min_lat, double min_lon, double max_lat, double max_lon) {
+        if (!bounds.intersects(min_lat, min_lon, max_lat, max_lon)) return Relation.OUTSIDE;
+        double cx = projection.x((min_lon + max_lon) / 2);
+        double cy = projection.y((min_lat + max_lat) / 2);
+        // The cells width differs along its latitude, use the wider edge:
+        double wide_lat = Math.abs(min_lat) < Math.abs(max_lat) ? min_lat : max_lat;
+        double half_w = Math.toRadians(max_lon - min_lon) / 2
+                * Geodesy.primeVerticalRadius(wide_lat) * Math.cos(Math.toRadians(wide_lat));
+        double half_h = Math.toRadians(max_lat - min_lat) / 2
+                * Geodesy.meridionalRadius(Math.max(Math.abs(min_lat), Math.abs(max_lat)));
+        double half_diagonal = Math.sqrt(half_w * half_w + half_h * half_h);
+        double distance = distanceProjected(cx, cy);
+        if (distance - half_diagonal > radius) return Relation.OUTSIDE;
+        if (distance + half_diagonal <= radius) return Relation.INSIDE;
+        return Relation.PARTIAL;
+    }
+
+    private double distanceProjected(double px, double py){
+        if (x.length == 1) return Math.hypot(px - x[0], py - y[0]);
+        double best = Double.MAX_VALUE;
+        for (int i = 1; i < x.length; i++){
+            double d = LocalProjection.segmentDistance(px, py, x[i - 1], y[i - 1], x[i], y[i]);
+            if (d < best) best = d;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,32 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>A region on the globe, which can be searched for in the {@code SpatialIndex}.</p>
+ * <p>The index only knows about grid-cells, so a region needs to tell how a
+ *  rectangular cell relates to it.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public interface GeoRegion {
+
+    enum Relation{
+        /** The cell doesn't touch the region at all */
+        OUTSIDE,
+        /** Some, but not all parts of the cell are within the region */
+        PARTIAL,
+        /** The whole cell is within the region */
+        INSIDE
+    }
+
+    /**
+     * The smallest box, containing the whole region.
+     */
+    BoundingBox getBounds();
+
+    /**
+     * Check how the given rectangle relates to this region. Implementations may
+     *  answer {@link Relation#PARTIAL} if they can't tell for sure.
+     */
+    Relation classify(double min_lat, double min_lon, double max_lat, double max_lon);
+}
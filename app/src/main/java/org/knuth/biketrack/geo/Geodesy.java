@@ -0,0 +1,224 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>Static helper-class to measure distances on the WGS84-ellipsoid, without
+ *  depending on the Android framework.</p>
+ * <p>There are three {@link Kernel}s, from fast and approximate to slow and exact.
+ *  Every kernel states an upper bound for its error at a given distance, so callers
+ *  can ask for a maximum error and get the cheapest kernel which satisfies it (see
+ *  {@link Kernel#select(double, double)}). GPS-fixes of a track are only a few meters
+ *  apart, so the cheapest kernel is almost always good enough.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Geodesy {
+
+    // This is a static helper-class!
+    private Geodesy(){}
+
+    /** The semi-major axis of the WGS84-ellipsoid in meters */
+    public static final double WGS84_A = 6378137.0;
+    /** The flattening of the WGS84-ellipsoid */
+    public static final double WGS84_F = 1 / 298.257223563;
+    /** The semi-minor axis of the WGS84-ellipsoid in meters */
+    public static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+    /** The mean radius of the earth in meters, for spherical calculations */
+    public static final double MEAN_RADIUS = 6371008.8;
+
+    private static final double E2 = WGS84_F * (2 - WGS84_F);
+
+    /** The default maximum error (in meters) for a single step of a track */
+    public static final double DEFAULT_MAX_ERROR = 0.01;
+
+    /**
+     * The available algorithms to measure the distance between two points.
+     */
+    public enum Kernel{
+        /**
+         * Euclidean distance in the tangent plane at the mid-latitude, scaled with the
+         *  radii of curvature of the ellipsoid. The error grows with the cube of the
+         *  distance: below 0.1mm up to 1km, about 4cm at 10km and 40m at 100km.
+         */
+        EQUIRECTANGULAR{
+            @Override
+            public double distance(double lat1, double lon1, double lat2, double lon2) {
+                return equirectangular(lat1, lon1, lat2, lon2);
+            }
+
+            @Override
+            public double errorBound(double distance) {
+                double ratio = distance / MEAN_RADIUS;
+                return 3 * distance * ratio * ratio + 1e-5;
+            }
+        },
+        /**
+         * Great-circle distance on a sphere with the mean radius of the earth. Works for
+         *  any distance, but the sphere differs from the ellipsoid by up to 0.6%.
+         */
+        HAVERSINE{
+            @Override
+            public double distance(double lat1, double lon1, double lat2, double lon2) {
+                return haversine(lat1, lon1, lat2, lon2);
+            }
+
+            @Override
+            public double errorBound(double distance) {
+                return distance * 0.006;
+            }
+        },
+        /**
+         * Vincenty's inverse formula on the ellipsoid, exact to less than a millimeter
+         *  (this is what {@code android.location.Location#distanceTo} uses).
+         */
+        VINCENTY{
+            @Override
+            public double distance(double lat1, double lon1, double lat2, double lon2) {
+                return vincenty(lat1, lon1, lat2, lon2);
+            }
+
+            @Override
+            public double errorBound(double distance) {
+                return 0.001;
+            }
+        };
+
+        /**
+         * The distance in meters between the two given points.
+         */
+        public abstract double distance(double lat1, double lon1, double lat2, double lon2);
+
+        /**
+         * The maximum error (in meters) of this kernel for the given distance.
+         */
+        public abstract double errorBound(double distance);
+
+        /**
+         * Get the cheapest kernel, which measures the given distance with at most {@code max_error}.
+         * @param distance the (approximate) distance in meters.
+         * @param max_error the maximum error in meters.
+         */
+        public static Kernel select(double distance, double max_error){
+            if (EQUIRECTANGULAR.errorBound(distance) <= max_error) return EQUIRECTANGULAR;
+            if (HAVERSINE.errorBound(distance) <= max_error) return HAVERSINE;
+            return VINCENTY;
+        }
+    }
+
+    /**
+     * The distance in meters between the two given points, with an error of at most
+     *  {@link #DEFAULT_MAX_ERROR}.
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2){
+        return distance(lat1, lon1, lat2, lon2, DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * The distance in meters between the two given points, with an error of at most
+     *  {@code max_error} meters.
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2, double max_error){
+        double estimate = equirectangular(lat1, lon1, lat2, lon2);
+        Kernel kernel = Kernel.select(estimate, max_error);
+        return kernel == Kernel.EQUIRECTANGULAR ? estimate : kernel.distance(lat1, lon1, lat2, lon2);
+    }
+
+    /**
+     * Calculate the cumulative distance from the first point to every point of the
+     *  polyline {@code [from, to)}, each step with an error of at most {@code max_error}.
+     * @param out receives the distances, {@code out[from]} is always {@code 0}.
+     */
+    public static void cumulativeDistances(double[] latitudes, double[] longitudes, int from, int to,
+                                           double max_error, double[] out){
+        if (from >= to) return;
+        out[from] = 0;
+        for (int i = from + 1; i < to; i++){
+            out[i] = out[i - 1] + distance(
+                    latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i], max_error
+            );
+        }
+    }
+
+    /**
+     * The radius of curvature of the ellipsoid along the meridian at the given latitude.
+     *  This is the number of meters per radian of latitude.
+     */
+    public static double meridionalRadius(double latitude){
+        double sin = Math.sin(Math.toRadians(latitude));
+        double w = Math.sqrt(1 - E2 * sin * sin);
+        return WGS84_A * (1 - E2) / (w * w * w);
+    }
+
+    /**
+     * The radius of curvature of the ellipsoid perpendicular to the meridian at the given
+     *  latitude. Multiplied with the cosine of the latitude, this is the number of meters
+     *  per radian of longitude.
+     */
+    public static double primeVerticalRadius(double latitude){
+        double sin = Math.sin(Math.toRadians(latitude));
+        return WGS84_A / Math.sqrt(1 - E2 * sin * sin);
+    }
+
+    private static double equirectangular(double lat1, double lon1, double lat2, double lon2){
+        double mid = (lat1 + lat2) / 2;
+        double d_lon = lon2 - lon1;
+        if (d_lon > 180) d_lon -= 360;
+        else if (d_lon < -180) d_lon += 360;
+        double sin = Math.sin(Math.toRadians(mid));
+        double w2 = 1 - E2 * sin * sin;
+        double n = WGS84_A / Math.sqrt(w2);
+        double m = n * (1 - E2) / w2;
+        double x = Math.toRadians(d_lon) * n * Math.cos(Math.toRadians(mid));
+        double y = Math.toRadians(lat2 - lat1) * m;
+        return Math.sqrt(x * x + y * y);
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2){
+        double sin_lat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sin_lon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sin_lat * sin_lat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sin_lon * sin_lon;
+        return 2 * MEAN_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /** The maximum number of iterations for Vincenty's formula */
+    private static final int VINCENTY_ITERATIONS = 20;
+
+    private static double vincenty(double lat1, double lon1, double lat2, double lon2){
+        double l = Math.toRadians(lon2 - lon1);
+        double u1 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat2)));
+        double sin_u1 = Math.sin(u1), cos_u1 = Math.cos(u1);
+        double sin_u2 = Math.sin(u2), cos_u2 = Math.cos(u2);
+        double lambda = l;
+        double sin_sigma = 0, cos_sigma = 0, sigma = 0, cos_sq_alpha = 0, cos_2sigma_m = 0;
+        for (int i = 0; i < VINCENTY_ITERATIONS; i++){
+            double sin_lambda = Math.sin(lambda);
+            double cos_lambda = Math.cos(lambda);
+            double t1 = cos_u2 * sin_lambda;
+            double t2 = cos_u1 * sin_u2 - sin_u1 * cos_u2 * cos_lambda;
+            sin_sigma = Math.sqrt(t1 * t1 + t2 * t2);
+            if (sin_sigma == 0) return 0; // Same point.
+            cos_sigma = sin_u1 * sin_u2 + cos_u1 * cos_u2 * cos_lambda;
+            sigma = Math.atan2(sin_sigma, cos_sigma);
+            double sin_alpha = cos_u1 * cos_u2 * sin_lambda / sin_sigma;
+            cos_sq_alpha = 1 - sin_alpha * sin_alpha;
+            cos_2sigma_m = cos_sq_alpha == 0 ? 0 : cos_sigma - 2 * sin_u1 * sin_u2 / cos_sq_alpha;
+            double c = WGS84_F / 16 * cos_sq_alpha * (4 + WGS84_F * (4 - 3 * cos_sq_alpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * WGS84_F * sin_alpha * (sigma + c * sin_sigma
+                    * (cos_2sigma_m + c * cos_sigma * (-1 + 2 * cos_2sigma_m * cos_2sigma_m)));
+            if (Math.abs(lambda - previous) < 1e-12){
+                double u_sq = cos_sq_alpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+                double a = 1 + u_sq / 16384 * (4096 + u_sq * (-768 + u_sq * (320 - 175 * u_sq)));
+                double b = u_sq / 1024 * (256 + u_sq * (-128 + u_sq * (74 - 47 * u_sq)));
+                double delta_sigma = b * sin_sigma * (cos_2sigma_m + b / 4 * (cos_sigma
+                        * (-1 + 2 * cos_2sigma_m * cos_2sigma_m) - b / 6 * cos_2sigma_m
+                        * (-3 + 4 * sin_sigma * sin_sigma) * (-3 + 4 * cos_2sigma_m * cos_2sigma_m)));
+                return WGS84_B * a * (sigma - delta_sigma);
+            }
+        }
+        // Doesn't converge for (nearly) antipodal points, the sphere is the best we can do:
+        return haversine(lat1, lon1, lat2, lon2);
+    }
+}
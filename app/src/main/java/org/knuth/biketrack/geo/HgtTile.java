@@ -0,0 +1,113 @@
+package org.knuth.biketrack.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>One SRTM-tile in the {@code .hgt}-format: the elevation of the terrain over one
+ *  degree of latitude and longitude.</p>
+ * <p>The file is a square grid of big-endian 16-bit samples (in meters), row by row
+ *  from north to south and west to east in every row. SRTM3-tiles have 1201 samples per
+ *  row, SRTM1-tiles 3601. The tile is named by its south-west corner, e.g.
+ *  {@code N48E011.hgt}, see {@link #nameOf(int, int)}.</p>
+ * <p>The file is memory-mapped instead of read, so only the pages of the samples which
+ *  are actually looked up are loaded and they can be dropped again by the OS.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class HgtTile {
+
+    /** The value of a sample where the elevation is unknown */
+    public static final short VOID = -32768;
+
+    private final int latitude;
+    private final int longitude;
+    private final int size;
+    private final ShortBuffer samples;
+
+    private HgtTile(int latitude, int longitude, int size, ShortBuffer samples){
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.size = size;
+        this.samples = samples;
+    }
+
+    /**
+     * Map the given file into memory.
+     * @param latitude the latitude of the south-west corner of the tile.
+     * @param longitude the longitude of the south-west corner of the tile.
+     * @throws IOException if the file couldn't be mapped or isn't a square grid of samples.
+     */
+    public static HgtTile open(File file, int latitude, int longitude) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            int size = (int) Math.round(Math.sqrt(length / 2.0));
+            if (size < 2 || (long) size * size * 2 != length)
+                throw new IOException("Not an HGT-tile: "+file);
+            // The mapping stays valid after the file is closed:
+            ShortBuffer samples = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length).asShortBuffer();
+            return new HgtTile(latitude, longitude, size, samples);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The name of the tile with the given south-west corner, e.g. {@code N48E011.hgt}.
+     */
+    public static String nameOf(int latitude, int longitude){
+        StringBuilder name = new StringBuilder(11);
+        name.append(latitude < 0 ? 'S' : 'N');
+        if (Math.abs(latitude) < 10) name.append('0');
+        name.append(Math.abs(latitude));
+        name.append(longitude < 0 ? 'W' : 'E');
+        if (Math.abs(longitude) < 100) name.append('0');
+        if (Math.abs(longitude) < 10) name.append('0');
+        name.append(Math.abs(longitude));
+        return name.append(".hgt").toString();
+    }
+
+    /**
+     * The number of samples per row (and column) of this tile.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * <p>The elevation (in meters) of the terrain at the given point, interpolated
+     *  bilinear between the four samples around it.</p>
+     * <p>Void samples are left out of the interpolation. Points outside the tile are
+     *  clamped onto its edge.</p>
+     * @return the elevation, or {@link Double#NaN} if all four samples are void.
+     */
+    public double elevation(double lat, double lon){
+        double y = (latitude + 1 - lat) * (size - 1);
+        double x = (lon - longitude) * (size - 1);
+        int row = Math.max(0, Math.min(size - 2, (int) Math.floor(y)));
+        int column = Math.max(0, Math.min(size - 2, (int) Math.floor(x)));
+        double fy = Math.max(0, Math.min(1, y - row));
+        double fx = Math.max(0, Math.min(1, x - column));
+        int index = row * size + column;
+        // Sum up the valid corners with their weights:
+        double sum = 0, weights = 0, plain_sum = 0;
+        int valid = 0;
+        for (int corner = 0; corner < 4; corner++){
+            short sample = samples.get(index + (corner >> 1) * size + (corner & 1));
+            if (sample == VOID) continue;
+            double weight = ((corner & 1) == 0 ? 1 - fx : fx) * ((corner >> 1) == 0 ? 1 - fy : fy);
+            sum += sample * weight;
+            weights += weight;
+            plain_sum += sample;
+            valid++;
+        }
+        if (valid == 0) return Double.NaN;
+        // Right on a void sample, the valid corners count the same:
+        return weights > 0 ? sum / weights : plain_sum / valid;
+    }
+}
@@ -0,0 +1,84 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>A local equirectangular projection of latitude/longitude into a plane, measured in meters.</p>
+ * <p>Within a few dozen kilometers around the reference-latitude, distances in the plane
+ *  are accurate enough for matching and searching tracks, while being much cheaper
+ *  to work with than distances on the ellipsoid. The plane is scaled with the radii of
+ *  curvature at the reference-latitude, like {@link Geodesy.Kernel#EQUIRECTANGULAR}.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class LocalProjection {
+
+    /** Meters per radian of longitude */
+    private final double x_scale;
+    /** Meters per radian of latitude */
+    private final double y_scale;
+
+    /**
+     * A new projection, which is most accurate around the given latitude.
+     */
+    public LocalProjection(double reference_latitude){
+        this.x_scale = Geodesy.primeVerticalRadius(reference_latitude) * Math.cos(Math.toRadians(reference_latitude));
+        this.y_scale = Geodesy.meridionalRadius(reference_latitude);
+    }
+
+    /**
+     * A projection, which is most accurate for the given box.
+     */
+    public static LocalProjection around(BoundingBox box){
+        return new LocalProjection((box.getMinLatitude() + box.getMaxLatitude()) / 2);
+    }
+
+    public double x(double longitude){
+        return Math.toRadians(longitude) * x_scale;
+    }
+
+    public double y(double latitude){
+        return Math.toRadians(latitude) * y_scale;
+    }
+
+    /**
+     * Project all given longitudes into {@code out}.
+     */
+    public void x(double[] longitudes, double[] out){
+        for (int i = 0; i < longitudes.length; i++) out[i] = x(longitudes[i]);
+    }
+
+    /**
+     * Project all given latitudes into {@code out}.
+     */
+    public void y(double[] latitudes, double[] out){
+        for (int i = 0; i < latitudes.length; i++) out[i] = y(latitudes[i]);
+    }
+
+    /**
+     * The distance from point {@code p} to the segment {@code a -> b} in the plane.
+     */
+    public static double segmentDistance(double px, double py, double ax, double ay, double bx, double by){
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length_sq = dx * dx + dy * dy;
+        double t = length_sq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / length_sq;
+        if (t < 0) t = 0;
+        else if (t > 1) t = 1;
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    /**
+     * The position of the point on segment {@code a -> b} which is nearest to {@code p},
+     *  as a fraction of the segments length (between 0 and 1).
+     */
+    public static double segmentFraction(double px, double py, double ax, double ay, double bx, double by){
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length_sq = dx * dx + dy * dy;
+        if (length_sq == 0) return 0;
+        double t = ((px - ax) * dx + (py - ay) * dy) / length_sq;
+        if (t < 0) return 0;
+        if (t > 1) return 1;
+        return t;
+    }
+}
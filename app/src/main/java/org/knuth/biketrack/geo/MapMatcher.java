@@ -0,0 +1,450 @@
+package org.knuth.biketrack.geo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>Matches a recorded track onto the roads of a {@link RoadGraph}, which takes out the
+ *  zig-zag of the GPS-fixes and so the distance it adds.</p>
+ * <p>This is a hidden Markov model, solved with the Viterbi-algorithm: the candidates of
+ *  every point are the nearest positions on the roads within {@link #SEARCH_RADIUS}. A
+ *  candidate is more likely the closer it is to the point (a normal distribution of the
+ *  GPS-error) and a transition between two candidates is more likely the closer the
+ *  distance along the roads is to the straight distance between the two points. The
+ *  distance along the roads is found with a Dijkstra-search, which stops once it's much
+ *  further than the straight distance.</p>
+ * <p>Points which are closer than {@link #MIN_SPACING} to the last used one aren't used
+ *  (their error would make the matched track go back and forth), they're snapped onto the
+ *  road of the point before. The track is matched in windows of {@link #WINDOW} used
+ *  points, so the memory needed doesn't grow with the track. The windows overlap, the
+ *  points at the end of a window are only decided in the next one. Points without a road
+ *  nearby keep their recorded position; if no route connects two points, a new match
+ *  starts.</p>
+ * <p>A matcher reuses its state between tracks and isn't thread-safe.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class MapMatcher {
+
+    /** The version of the matching, stored with the result */
+    public static final int VERSION = 1;
+    /** How far (in meters) from a point the roads are searched for candidates */
+    public static final double SEARCH_RADIUS = 50;
+    /** The number of points which are matched at once */
+    public static final int WINDOW = 256;
+    /** The number of points at the end of a window, which are decided in the next one */
+    private static final int OVERLAP = 32;
+    /** The maximum number of candidates per point, the nearest ones are kept */
+    private static final int MAX_CANDIDATES = 8;
+    /** The standard deviation (in meters) of the GPS-error */
+    private static final double SIGMA = 10;
+    /** How much (in meters) a route may differ from the straight distance to be half as likely */
+    private static final double BETA = 10;
+    /** How much (in meters) longer than twice the straight distance a route may be */
+    private static final double MAX_DETOUR = 200;
+    /** How far (in meters) apart the points used for matching are, the ones between are snapped */
+    private static final double MIN_SPACING = 4 * SIGMA;
+
+    private final RoadGraph graph;
+    private final SegmentGrid grid;
+    // The candidates of the window, by column (the point in the window) and candidate:
+    private final int[] counts = new int[WINDOW];
+    private final int[][] edges = new int[WINDOW][MAX_CANDIDATES];
+    private final double[][] fractions = new double[WINDOW][MAX_CANDIDATES];
+    private final double[][] distances = new double[WINDOW][MAX_CANDIDATES];
+    private final double[][] scores = new double[WINDOW][MAX_CANDIDATES];
+    private final int[][] back = new int[WINDOW][MAX_CANDIDATES];
+    private final double[][] routes = new double[WINDOW][MAX_CANDIDATES];
+    /** The last column before every column which has candidates, or -1 */
+    private final int[] previous = new int[WINDOW];
+    /** The decided candidate of every column, or -1 */
+    private final int[] path = new int[WINDOW];
+    private int column;
+    // The Dijkstra-search, the distances are only valid for nodes with the current stamp:
+    private final double[] node_distances;
+    private final int[] node_stamps;
+    private int stamp;
+    private int[] heap_nodes = new int[64];
+    private double[] heap_keys = new double[64];
+    private int heap_size;
+
+    private final SegmentGrid.SegmentVisitor collector = new SegmentGrid.SegmentVisitor() {
+        @Override
+        public void visit(int segment, double distance, double fraction) {
+            int[] edge = edges[column];
+            double[] near = distances[column];
+            double[] along = fractions[column];
+            int count = counts[column];
+            if (count == MAX_CANDIDATES && distance >= near[count - 1]) return;
+            // Insert it, so the candidates stay ordered by distance:
+            int i = count == MAX_CANDIDATES ? count - 1 : count++;
+            while (i > 0 && near[i - 1] > distance){
+                edge[i] = edge[i - 1];
+                near[i] = near[i - 1];
+                along[i] = along[i - 1];
+                i--;
+            }
+            edge[i] = segment;
+            near[i] = distance;
+            along[i] = fraction;
+            counts[column] = count;
+        }
+    };
+
+    public MapMatcher(RoadGraph graph){
+        this.graph = graph;
+        this.grid = graph.getGrid();
+        this.node_distances = new double[graph.getNodeCount()];
+        this.node_stamps = new int[graph.getNodeCount()];
+    }
+
+    /**
+     * Match the given track onto the roads.
+     */
+    public Result match(double[] latitudes, double[] longitudes){
+        int size = latitudes.length;
+        // Points closer than MIN_SPACING to the last used one only add the GPS-error:
+        int[] used = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++){
+            if (count == 0 || Geodesy.distance(latitudes[used[count - 1]], longitudes[used[count - 1]],
+                    latitudes[i], longitudes[i]) >= MIN_SPACING){
+                used[count++] = i;
+            }
+        }
+        double[] matched_lat = new double[size];
+        double[] matched_lon = new double[size];
+        int matched = 0;
+        double distance = 0;
+        int start = 0;
+        int fixed_edge = -1;
+        double fixed_fraction = 0;
+        while (start < count){
+            int end = Math.min(count, start + WINDOW);
+            solve(latitudes, longitudes, used, start, end, fixed_edge, fixed_fraction);
+            // Only the last window is decided up to its end:
+            int decided = end == count ? count : end - OVERLAP;
+            int last = end == count ? count - 1 : decided;
+            for (int t = start; t <= last; t++){
+                int c = t - start;
+                int candidate = path[c];
+                if (t < decided){
+                    // The used point and the skipped ones up to the next used point:
+                    int next = t + 1 < count ? used[t + 1] : size;
+                    for (int i = used[t]; i < next; i++){
+                        if (candidate >= 0){
+                            snap(c, candidate, i == used[t], latitudes[i], longitudes[i], matched_lat, matched_lon, i);
+                            matched++;
+                        } else {
+                            matched_lat[i] = latitudes[i];
+                            matched_lon[i] = longitudes[i];
+                        }
+                    }
+                }
+                // The step to the first point of a window was counted in the one before:
+                if (c == 0) continue;
+                if (candidate >= 0 && previous[c] == c - 1 && back[c][candidate] >= 0
+                        && back[c][candidate] == path[c - 1]){
+                    distance += routes[c][candidate];
+                } else {
+                    int i = used[t];
+                    double lat = candidate >= 0 ? latitudeOf(edges[c][candidate], fractions[c][candidate]) : latitudes[i];
+                    double lon = candidate >= 0 ? longitudeOf(edges[c][candidate], fractions[c][candidate]) : longitudes[i];
+                    distance += Geodesy.distance(matched_lat[used[t - 1]], matched_lon[used[t - 1]], lat, lon);
+                }
+            }
+            if (end == count) break;
+            // The next window starts where this one was decided:
+            int candidate = path[decided - start];
+            fixed_edge = candidate >= 0 ? edges[decided - start][candidate] : -1;
+            fixed_fraction = candidate >= 0 ? fractions[decided - start][candidate] : 0;
+            start = decided;
+        }
+        return new Result(matched_lat, matched_lon, distance, matched);
+    }
+
+    /**
+     * Find the most likely candidates for the used points {@code [start, end)} into {@link #path}.
+     * @param fixed_edge the edge the first point was decided on before, or -1.
+     */
+    private void solve(double[] latitudes, double[] longitudes, int[] used, int start, int end,
+                       int fixed_edge, double fixed_fraction){
+        int prev = -1;
+        for (int t = start; t < end; t++){
+            int c = t - start;
+            int i = used[t];
+            if (c == 0 && fixed_edge >= 0){
+                counts[0] = 1;
+                edges[0][0] = fixed_edge;
+                fractions[0][0] = fixed_fraction;
+                distances[0][0] = 0;
+            } else {
+                findCandidates(c, latitudes[i], longitudes[i]);
+            }
+            previous[c] = prev;
+            if (counts[c] == 0) continue;
+            boolean connected = false;
+            if (prev >= 0){
+                int p_i = used[start + prev];
+                double straight = Geodesy.distance(latitudes[p_i], longitudes[p_i], latitudes[i], longitudes[i]);
+                double bound = straight * 2 + MAX_DETOUR;
+                for (int s = 0; s < counts[c]; s++){
+                    scores[c][s] = Double.NEGATIVE_INFINITY;
+                    back[c][s] = -1;
+                }
+                for (int p = 0; p < counts[prev]; p++){
+                    searchFrom(edges[prev][p], fractions[prev][p], bound);
+                    for (int s = 0; s < counts[c]; s++){
+                        double route = routeTo(edges[prev][p], fractions[prev][p], edges[c][s], fractions[c][s]);
+                        if (route > bound) continue;
+                        double score = scores[prev][p] - Math.abs(route - straight) / BETA + emission(distances[c][s]);
+                        if (score > scores[c][s]){
+                            scores[c][s] = score;
+                            back[c][s] = p;
+                            routes[c][s] = route;
+                            connected = true;
+                        }
+                    }
+                }
+            }
+            if (!connected){
+                // A new match starts here:
+                for (int s = 0; s < counts[c]; s++){
+                    scores[c][s] = emission(distances[c][s]);
+                    back[c][s] = -1;
+                }
+            }
+            prev = c;
+        }
+        // Follow the best candidates back, match by match:
+        int columns = end - start;
+        Arrays.fill(path, 0, columns, -1);
+        int c = prev;
+        while (c >= 0){
+            int s = best(c);
+            path[c] = s;
+            while (back[c][s] >= 0){
+                s = back[c][s];
+                c = previous[c];
+                path[c] = s;
+            }
+            c = previous[c];
+        }
+    }
+
+    private void findCandidates(int c, double latitude, double longitude){
+        counts[c] = 0;
+        if (grid == null) return;
+        column = c;
+        grid.query(latitude, longitude, SEARCH_RADIUS, collector);
+    }
+
+    private int best(int c){
+        int best = 0;
+        for (int s = 1; s < counts[c]; s++){
+            if (scores[c][s] > scores[c][best]) best = s;
+        }
+        return best;
+    }
+
+    /**
+     * The log-likelihood of a candidate at the given distance (in meters) from its point.
+     */
+    private static double emission(double distance){
+        double z = distance / SIGMA;
+        return -0.5 * z * z;
+    }
+
+    /**
+     * Search the distances along the roads from the given position up to the given bound.
+     */
+    private void searchFrom(int edge, double fraction, double bound){
+        if (++stamp == Integer.MAX_VALUE){
+            // Start over, before the stamps overflow:
+            Arrays.fill(node_stamps, 0);
+            stamp = 1;
+        }
+        heap_size = 0;
+        double length = graph.getLength(edge);
+        relax(graph.getFrom(edge), fraction * length);
+        relax(graph.getTo(edge), (1 - fraction) * length);
+        while (heap_size > 0){
+            int node = heap_nodes[0];
+            double distance = heap_keys[0];
+            pop();
+            if (distance > node_distances[node]) continue; // Found shorter before
+            if (distance > bound) break;
+            for (int i = graph.firstEdgeAt(node), end = graph.endEdgeAt(node); i < end; i++){
+                int next = graph.getEdgeAt(i);
+                relax(graph.otherNode(next, node), distance + graph.getLength(next));
+            }
+        }
+    }
+
+    /**
+     * The distance along the roads from the searched position to the given one.
+     * @return the distance, or {@link Double#POSITIVE_INFINITY} if it's further than the bound.
+     */
+    private double routeTo(int from_edge, double from_fraction, int edge, double fraction){
+        double length = graph.getLength(edge);
+        double route = Math.min(
+                distanceTo(graph.getFrom(edge)) + fraction * length,
+                distanceTo(graph.getTo(edge)) + (1 - fraction) * length
+        );
+        if (edge == from_edge) route = Math.min(route, Math.abs(fraction - from_fraction) * length);
+        return route;
+    }
+
+    private double distanceTo(int node){
+        return node_stamps[node] == stamp ? node_distances[node] : Double.POSITIVE_INFINITY;
+    }
+
+    private void relax(int node, double distance){
+        if (node_stamps[node] == stamp && node_distances[node] <= distance) return;
+        node_stamps[node] = stamp;
+        node_distances[node] = distance;
+        push(node, distance);
+    }
+
+    private void push(int node, double key){
+        if (heap_size == heap_nodes.length){
+            heap_nodes = Arrays.copyOf(heap_nodes, heap_size * 2);
+            heap_keys = Arrays.copyOf(heap_keys, heap_size * 2);
+        }
+        int i = heap_size++;
+        while (i > 0 && heap_keys[(i - 1) / 2] > key){
+            heap_nodes[i] = heap_nodes[(i - 1) / 2];
+            heap_keys[i] = heap_keys[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap_nodes[i] = node;
+        heap_keys[i] = key;
+    }
+
+    private void pop(){
+        int node = heap_nodes[--heap_size];
+        double key = heap_keys[heap_size];
+        int i = 0;
+        while (2 * i + 1 < heap_size){
+            int child = 2 * i + 1;
+            if (child + 1 < heap_size && heap_keys[child + 1] < heap_keys[child]) child++;
+            if (heap_keys[child] >= key) break;
+            heap_nodes[i] = heap_nodes[child];
+            heap_keys[i] = heap_keys[child];
+            i = child;
+        }
+        heap_nodes[i] = node;
+        heap_keys[i] = key;
+    }
+
+    /**
+     * Write the position of the given point, snapped onto the edge of the given candidate.
+     * @param used whether it's the point of the candidate, or a skipped one after it.
+     */
+    private void snap(int c, int candidate, boolean used, double lat, double lon,
+                      double[] matched_lat, double[] matched_lon, int i){
+        int edge = edges[c][candidate];
+        double fraction = fractions[c][candidate];
+        if (!used){
+            // Project onto the edge, on a plane scaled to the latitude:
+            double from_lat = graph.getLatitude(graph.getFrom(edge));
+            double from_lon = graph.getLongitude(graph.getFrom(edge));
+            double scale = Math.cos(Math.toRadians(from_lat));
+            double dx = (graph.getLongitude(graph.getTo(edge)) - from_lon) * scale;
+            double dy = graph.getLatitude(graph.getTo(edge)) - from_lat;
+            double length = dx * dx + dy * dy;
+            fraction = length == 0 ? 0 : ((lon - from_lon) * scale * dx + (lat - from_lat) * dy) / length;
+            fraction = Math.max(0, Math.min(1, fraction));
+        }
+        matched_lat[i] = latitudeOf(edge, fraction);
+        matched_lon[i] = longitudeOf(edge, fraction);
+    }
+
+    private double latitudeOf(int edge, double fraction){
+        double from = graph.getLatitude(graph.getFrom(edge));
+        return from + (graph.getLatitude(graph.getTo(edge)) - from) * fraction;
+    }
+
+    private double longitudeOf(int edge, double fraction){
+        double from = graph.getLongitude(graph.getFrom(edge));
+        return from + (graph.getLongitude(graph.getTo(edge)) - from) * fraction;
+    }
+
+    /**
+     * The track matched onto the roads.
+     */
+    public static class Result {
+
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double distance;
+        private final int matched;
+
+        public Result(double[] latitudes, double[] longitudes, double distance, int matched){
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.distance = distance;
+            this.matched = matched;
+        }
+
+        /**
+         * The latitudes of the matched points, the recorded ones where no road was nearby.
+         */
+        public double[] getLatitudes() {
+            return latitudes;
+        }
+
+        /**
+         * The longitudes of the matched points, the recorded ones where no road was nearby.
+         */
+        public double[] getLongitudes() {
+            return longitudes;
+        }
+
+        /**
+         * The distance (in meters) along the roads, straight where no road was nearby.
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * The number of points which were matched onto a road.
+         */
+        public int getMatched() {
+            return matched;
+        }
+
+        /**
+         * Write the result, to be {@link #read(DataInputStream) read} again.
+         */
+        public void write(DataOutputStream out) throws IOException {
+            out.writeDouble(distance);
+            out.writeInt(matched);
+            out.writeInt(latitudes.length);
+            for (int i = 0; i < latitudes.length; i++){
+                out.writeDouble(latitudes[i]);
+                out.writeDouble(longitudes[i]);
+            }
+        }
+
+        /**
+         * Read a result which was {@link #write(DataOutputStream) written} before.
+         */
+        public static Result read(DataInputStream in) throws IOException {
+            double distance = in.readDouble();
+            int matched = in.readInt();
+            int size = in.readInt();
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            for (int i = 0; i < size; i++){
+                latitudes[i] = in.readDouble();
+                longitudes[i] = in.readDouble();
+            }
+            return new Result(latitudes, longitudes, distance, matched);
+        }
+    }
+}
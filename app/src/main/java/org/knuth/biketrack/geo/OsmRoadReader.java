@@ -0,0 +1,263 @@
+package org.knuth.biketrack.geo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Reads the roads which can be ridden by bike from an OSM-extract in the XML-format
+ *  (e.g. exported from openstreetmap.org or cut with osmosis) into a {@link RoadGraph}.</p>
+ * <p>The file is read as a stream, only the {@code node}-, {@code way}-, {@code nd}- and
+ *  {@code tag}-elements are looked at. Every way with a {@code highway}-tag (except the
+ *  ones in {@link #EXCLUDED}) becomes one edge per pair of consecutive nodes. Nodes which
+ *  aren't on any road are dropped.</p>
+ * <p>The nodes must come before the ways, like in every OSM-file.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class OsmRoadReader {
+
+    /** The kinds of highways which can't be ridden by bike */
+    private static final Set<String> EXCLUDED = new HashSet<String>(Arrays.asList(
+            "motorway", "motorway_link", "construction", "proposed", "abandoned", "platform",
+            "raceway", "bus_guideway", "elevator", "corridor", "steps"
+    ));
+
+    private final Reader in;
+    private final StringBuilder tag = new StringBuilder(256);
+    // All nodes, by their id:
+    private final LongIntMap node_index = new LongIntMap();
+    private double[] latitudes = new double[1024];
+    private double[] longitudes = new double[1024];
+    private int nodes;
+    // The edges, by the index of their nodes:
+    private int[] edge_from = new int[1024];
+    private int[] edge_to = new int[1024];
+    private int edges;
+    // The way which is read:
+    private int[] way_nodes = new int[64];
+    private int way_size;
+    private boolean way_is_road;
+
+    private OsmRoadReader(Reader in){
+        this.in = in;
+    }
+
+    /**
+     * Read the roads from the given OSM-XML. The reader isn't closed.
+     * @throws IOException if the XML couldn't be read.
+     */
+    public static RoadGraph read(Reader in) throws IOException {
+        return new OsmRoadReader(in).readGraph();
+    }
+
+    private RoadGraph readGraph() throws IOException {
+        boolean in_way = false;
+        while (nextTag()){
+            String name = tagName();
+            if (name.equals("node")){
+                String id = attribute("id"), lat = attribute("lat"), lon = attribute("lon");
+                if (id != null && lat != null && lon != null){
+                    addNode(Long.parseLong(id), Double.parseDouble(lat), Double.parseDouble(lon));
+                }
+            } else if (name.equals("way")){
+                way_size = 0;
+                way_is_road = false;
+                in_way = !isEmptyElement();
+            } else if (in_way && name.equals("nd")){
+                String ref = attribute("ref");
+                // Nodes outside of the extract (-1) cut the way:
+                addWayNode(ref == null ? -1 : node_index.get(Long.parseLong(ref)));
+            } else if (in_way && name.equals("tag")){
+                String value = attribute("v");
+                if ("highway".equals(attribute("k")) && value != null && !EXCLUDED.contains(value)){
+                    way_is_road = true;
+                }
+            } else if (name.equals("/way")){
+                if (way_is_road){
+                    for (int i = 1; i < way_size; i++) addEdge(way_nodes[i - 1], way_nodes[i]);
+                }
+                in_way = false;
+            }
+        }
+        return compact();
+    }
+
+    /**
+     * Only keep the nodes which are on a road.
+     */
+    private RoadGraph compact(){
+        int[] new_index = new int[nodes];
+        Arrays.fill(new_index, -1);
+        int kept = 0;
+        for (int e = 0; e < edges; e++){
+            if (new_index[edge_from[e]] < 0) new_index[edge_from[e]] = kept++;
+            if (new_index[edge_to[e]] < 0) new_index[edge_to[e]] = kept++;
+        }
+        double[] lat = new double[kept];
+        double[] lon = new double[kept];
+        for (int n = 0; n < nodes; n++){
+            if (new_index[n] < 0) continue;
+            lat[new_index[n]] = latitudes[n];
+            lon[new_index[n]] = longitudes[n];
+        }
+        int[] from = new int[edges];
+        int[] to = new int[edges];
+        for (int e = 0; e < edges; e++){
+            from[e] = new_index[edge_from[e]];
+            to[e] = new_index[edge_to[e]];
+        }
+        return new RoadGraph(lat, lon, from, to);
+    }
+
+    private void addNode(long id, double lat, double lon){
+        if (nodes == latitudes.length){
+            latitudes = Arrays.copyOf(latitudes, nodes * 2);
+            longitudes = Arrays.copyOf(longitudes, nodes * 2);
+        }
+        latitudes[nodes] = lat;
+        longitudes[nodes] = lon;
+        node_index.put(id, nodes++);
+    }
+
+    private void addWayNode(int node){
+        if (way_size == way_nodes.length) way_nodes = Arrays.copyOf(way_nodes, way_size * 2);
+        way_nodes[way_size++] = node;
+    }
+
+    private void addEdge(int from, int to){
+        if (from == to || from < 0 || to < 0) return;
+        if (edges == edge_from.length){
+            edge_from = Arrays.copyOf(edge_from, edges * 2);
+            edge_to = Arrays.copyOf(edge_to, edges * 2);
+        }
+        edge_from[edges] = from;
+        edge_to[edges++] = to;
+    }
+
+    /**
+     * Read the next element-tag (without the angle brackets) into {@code tag}, skipping
+     *  the text, comments and processing-instructions in between.
+     * @return whether there was another tag.
+     */
+    private boolean nextTag() throws IOException {
+        int c;
+        while ((c = in.read()) != -1){
+            if (c != '<') continue;
+            tag.setLength(0);
+            while ((c = in.read()) != -1 && c != '>') tag.append((char) c);
+            if (c == -1) return false;
+            if (tag.length() >= 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-'){
+                // A comment might contain a '>', read up to its real end:
+                while (!(tag.length() >= 5 && tag.charAt(tag.length() - 1) == '-' && tag.charAt(tag.length() - 2) == '-')){
+                    tag.append('>');
+                    while ((c = in.read()) != -1 && c != '>') tag.append((char) c);
+                    if (c == -1) return false;
+                }
+                continue;
+            }
+            if (tag.length() > 0 && (tag.charAt(0) == '?' || tag.charAt(0) == '!')) continue;
+            return true;
+        }
+        return false;
+    }
+
+    private String tagName(){
+        int end = 0;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && tag.charAt(end) != '/'){
+            end++;
+        }
+        // Closing tags keep their slash:
+        if (end == 0 && tag.length() > 0 && tag.charAt(0) == '/'){
+            end = 1;
+            while (end < tag.length() && !Character.isWhitespace(tag.charAt(end))) end++;
+        }
+        return tag.substring(0, end);
+    }
+
+    private boolean isEmptyElement(){
+        return tag.length() > 0 && tag.charAt(tag.length() - 1) == '/';
+    }
+
+    /**
+     * The value of the given attribute of the current tag.
+     * @return the value, or {@code null} if the tag doesn't have the attribute.
+     */
+    private String attribute(String name){
+        int length = tag.length();
+        int i = 0;
+        while (i < length){
+            // Find the next name="value" pair:
+            while (i < length && tag.charAt(i) != '=') i++;
+            if (i >= length) return null;
+            int name_end = i;
+            while (name_end > 0 && Character.isWhitespace(tag.charAt(name_end - 1))) name_end--;
+            int name_start = name_end;
+            while (name_start > 0 && !Character.isWhitespace(tag.charAt(name_start - 1))) name_start--;
+            i++;
+            while (i < length && Character.isWhitespace(tag.charAt(i))) i++;
+            if (i >= length) return null;
+            char quote = tag.charAt(i);
+            int value_start = i + 1;
+            int value_end = value_start;
+            while (value_end < length && tag.charAt(value_end) != quote) value_end++;
+            if (name_end - name_start == name.length() && tag.indexOf(name, name_start) == name_start){
+                return tag.substring(value_start, value_end);
+            }
+            i = value_end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * An open-addressing map from the (long) ids of the nodes to their index.
+     */
+    private static class LongIntMap {
+
+        private long[] keys = new long[2048];
+        private int[] values = new int[2048];
+        private boolean[] used = new boolean[2048];
+        private int size;
+
+        void put(long key, int value){
+            if (size * 4 >= keys.length * 3) grow();
+            int slot = slotOf(key, keys.length);
+            while (used[slot] && keys[slot] != key) slot = (slot + 1) & (keys.length - 1);
+            if (!used[slot]) size++;
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        /**
+         * @return the value, or {@code -1} if the key isn't in the map.
+         */
+        int get(long key){
+            for (int slot = slotOf(key, keys.length); used[slot]; slot = (slot + 1) & (keys.length - 1)){
+                if (keys[slot] == key) return values[slot];
+            }
+            return -1;
+        }
+
+        private void grow(){
+            long[] old_keys = keys;
+            int[] old_values = values;
+            boolean[] old_used = used;
+            keys = new long[old_keys.length * 2];
+            values = new int[old_keys.length * 2];
+            used = new boolean[old_keys.length * 2];
+            size = 0;
+            for (int i = 0; i < old_keys.length; i++){
+                if (old_used[i]) put(old_keys[i], old_values[i]);
+            }
+        }
+
+        private static int slotOf(long key, int capacity){
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.knuth.biketrack.geo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Static helper-class to store polylines compactly in the database.</p>
+ * <p>Every point is stored as two fixed-point integers with 6 decimal places (about
+ *  10cm precision), which needs 8 bytes per point.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class PolylineCodec {
+
+    // This is a static helper-class!
+    private PolylineCodec(){}
+
+    private static final double FACTOR = 1e6;
+
+    /**
+     * Encode the points {@code [from, to)} of the given polyline.
+     */
+    public static byte[] encode(double[] latitudes, double[] longitudes, int from, int to){
+        ByteBuffer buffer = ByteBuffer.allocate((to - from) * 8);
+        for (int i = from; i < to; i++){
+            buffer.putInt((int) Math.round(latitudes[i] * FACTOR));
+            buffer.putInt((int) Math.round(longitudes[i] * FACTOR));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode only the points at the given indices of the polyline (e.g. after simplifying it).
+     */
+    public static byte[] encode(double[] latitudes, double[] longitudes, int[] indices){
+        ByteBuffer buffer = ByteBuffer.allocate(indices.length * 8);
+        for (int i : indices){
+            buffer.putInt((int) Math.round(latitudes[i] * FACTOR));
+            buffer.putInt((int) Math.round(longitudes[i] * FACTOR));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * The number of points in the encoded polyline.
+     */
+    public static int size(byte[] encoded){
+        return encoded.length / 8;
+    }
+
+    /**
+     * Decode the latitudes of an encoded polyline.
+     */
+    public static double[] decodeLatitudes(byte[] encoded){
+        return decode(encoded, 0);
+    }
+
+    /**
+     * Decode the longitudes of an encoded polyline.
+     */
+    public static double[] decodeLongitudes(byte[] encoded){
+        return decode(encoded, 4);
+    }
+
+    private static double[] decode(byte[] encoded, int offset){
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        double[] values = new double[size(encoded)];
+        for (int i = 0; i < values.length; i++){
+            values[i] = buffer.getInt(i * 8 + offset) / FACTOR;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,174 @@
+package org.knuth.biketrack.geo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>The roads of a region as a graph, stored as primitive arrays: the nodes with their
+ *  position and the (undirected) edges between them with their length.</p>
+ * <p>The edges at every node are kept in one array, indexed by node (like a compressed
+ *  sparse row). A {@link SegmentGrid} over the edges finds the roads near a point.</p>
+ * <p>A graph is read from an OSM-extract once by the {@link OsmRoadReader} and then
+ *  {@link #write(DataOutputStream) written} in this compact form.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RoadGraph {
+
+    /** The version of the written format */
+    private static final int FORMAT = 1;
+    /** The size (in meters) of the cells of the grid over the edges */
+    private static final double CELL_SIZE = 100;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] edge_from;
+    private final int[] edge_to;
+    private final double[] lengths;
+    // The edges at node n are edges[offsets[n]] to edges[offsets[n + 1] - 1]:
+    private final int[] offsets;
+    private final int[] edges;
+    private SegmentGrid grid;
+
+    /**
+     * A graph with the given nodes and edges, edge {@code i} connects node {@code edge_from[i]}
+     *  with node {@code edge_to[i]}.
+     * @throws IllegalArgumentException if the edges don't have two nodes each.
+     */
+    public RoadGraph(double[] latitudes, double[] longitudes, int[] edge_from, int[] edge_to){
+        if (latitudes.length != longitudes.length || edge_from.length != edge_to.length)
+            throw new IllegalArgumentException("Every node needs a position and every edge two nodes!");
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.edge_from = edge_from;
+        this.edge_to = edge_to;
+        this.lengths = new double[edge_from.length];
+        this.offsets = new int[latitudes.length + 1];
+        this.edges = new int[edge_from.length * 2];
+        for (int e = 0; e < edge_from.length; e++){
+            lengths[e] = Geodesy.distance(latitudes[edge_from[e]], longitudes[edge_from[e]],
+                    latitudes[edge_to[e]], longitudes[edge_to[e]]);
+            offsets[edge_from[e] + 1]++;
+            offsets[edge_to[e] + 1]++;
+        }
+        for (int n = 0; n < latitudes.length; n++) offsets[n + 1] += offsets[n];
+        int[] filled = new int[latitudes.length];
+        for (int e = 0; e < edge_from.length; e++){
+            edges[offsets[edge_from[e]] + filled[edge_from[e]]++] = e;
+            edges[offsets[edge_to[e]] + filled[edge_to[e]]++] = e;
+        }
+    }
+
+    public int getNodeCount(){
+        return latitudes.length;
+    }
+
+    public int getEdgeCount(){
+        return edge_from.length;
+    }
+
+    public double getLatitude(int node){
+        return latitudes[node];
+    }
+
+    public double getLongitude(int node){
+        return longitudes[node];
+    }
+
+    public int getFrom(int edge){
+        return edge_from[edge];
+    }
+
+    public int getTo(int edge){
+        return edge_to[edge];
+    }
+
+    /**
+     * The length (in meters) of the given edge.
+     */
+    public double getLength(int edge){
+        return lengths[edge];
+    }
+
+    /**
+     * The index of the first edge at the given node in {@link #getEdgeAt(int)}.
+     */
+    public int firstEdgeAt(int node){
+        return offsets[node];
+    }
+
+    /**
+     * The index after the last edge at the given node in {@link #getEdgeAt(int)}.
+     */
+    public int endEdgeAt(int node){
+        return offsets[node + 1];
+    }
+
+    /**
+     * The edge at the given index, between {@link #firstEdgeAt(int)} and {@link #endEdgeAt(int)}.
+     */
+    public int getEdgeAt(int index){
+        return edges[index];
+    }
+
+    /**
+     * The node at the other end of the given edge.
+     */
+    public int otherNode(int edge, int node){
+        return edge_from[edge] == node ? edge_to[edge] : edge_from[edge];
+    }
+
+    /**
+     * The grid over the edges (as segments from their first to their second node), built
+     *  the first time it's needed.
+     * @return the grid, or {@code null} if the graph has no nodes.
+     */
+    public synchronized SegmentGrid getGrid(){
+        if (grid == null && latitudes.length > 0){
+            grid = new SegmentGrid(latitudes, longitudes, edge_from, edge_to, CELL_SIZE);
+        }
+        return grid;
+    }
+
+    /**
+     * Write the graph, to be {@link #read(DataInputStream) read} again.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT);
+        out.writeInt(latitudes.length);
+        for (int n = 0; n < latitudes.length; n++){
+            out.writeDouble(latitudes[n]);
+            out.writeDouble(longitudes[n]);
+        }
+        out.writeInt(edge_from.length);
+        for (int e = 0; e < edge_from.length; e++){
+            out.writeInt(edge_from[e]);
+            out.writeInt(edge_to[e]);
+        }
+    }
+
+    /**
+     * Read a graph which was {@link #write(DataOutputStream) written} before.
+     * @throws IOException if it was written in another format.
+     */
+    public static RoadGraph read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT) throw new IOException("The road-graph was written in another format!");
+        int nodes = in.readInt();
+        double[] latitudes = new double[nodes];
+        double[] longitudes = new double[nodes];
+        for (int n = 0; n < nodes; n++){
+            latitudes[n] = in.readDouble();
+            longitudes[n] = in.readDouble();
+        }
+        int edges = in.readInt();
+        int[] edge_from = new int[edges];
+        int[] edge_to = new int[edges];
+        for (int e = 0; e < edges; e++){
+            edge_from[e] = in.readInt();
+            edge_to[e] = in.readInt();
+        }
+        return new RoadGraph(latitudes, longitudes, edge_from, edge_to);
+    }
+}
@@ -0,0 +1,124 @@
+package org.knuth.biketrack.geo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Static helper-class to check whether two routes are the same ride: every point of
+ *  each route must be within a distance of the other route (their Hausdorff-distance is
+ *  bounded).</p>
+ * <p>Both routes are projected into a plane and walked in steps of a quarter of the
+ *  distance. The points of one route are put into a grid with cells as big as the
+ *  distance, so each point of the other route only looks at the nine cells around it.
+ *  The check takes linear time and stops at the first point which is too far off.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RouteDistance {
+
+    // This is a static helper-class!
+    private RouteDistance(){}
+
+    /**
+     * Whether no point of either route is further than {@code max_distance} (in meters)
+     *  from the other route. The check is exact to a quarter of the distance.
+     */
+    public static boolean isWithin(double[] latitudes_a, double[] longitudes_a,
+                                   double[] latitudes_b, double[] longitudes_b, double max_distance){
+        if (max_distance <= 0) throw new IllegalArgumentException("[max_distance] must be positive!");
+        if (latitudes_a.length == 0 || latitudes_b.length == 0) return false;
+        BoundingBox a = BoundingBox.of(latitudes_a, longitudes_a, 0, latitudes_a.length);
+        BoundingBox b = BoundingBox.of(latitudes_b, longitudes_b, 0, latitudes_b.length);
+        // Boxes which don't overlap (with the distance) can't be close:
+        if (!a.expand(max_distance).intersects(b)) return false;
+        LocalProjection projection = LocalProjection.around(new BoundingBox(
+                Math.min(a.getMinLatitude(), b.getMinLatitude()), Math.min(a.getMinLongitude(), b.getMinLongitude()),
+                Math.max(a.getMaxLatitude(), b.getMaxLatitude()), Math.max(a.getMaxLongitude(), b.getMaxLongitude())
+        ));
+        double[][] points_a = densify(projection, latitudes_a, longitudes_a, max_distance / 4);
+        double[][] points_b = densify(projection, latitudes_b, longitudes_b, max_distance / 4);
+        return covers(points_a, points_b, max_distance) && covers(points_b, points_a, max_distance);
+    }
+
+    /**
+     * Whether every point of {@code points} is within the distance of a point in {@code other}.
+     */
+    private static boolean covers(double[][] other, double[][] points, double max_distance){
+        double[] other_x = other[0], other_y = other[1];
+        Map<Long, List<Integer>> grid = new HashMap<Long, List<Integer>>();
+        for (int i = 0; i < other_x.length; i++){
+            long key = key(cell(other_x[i], max_distance), cell(other_y[i], max_distance));
+            List<Integer> cell = grid.get(key);
+            if (cell == null){
+                cell = new ArrayList<Integer>();
+                grid.put(key, cell);
+            }
+            cell.add(i);
+        }
+        double max_squared = max_distance * max_distance;
+        for (int i = 0; i < points[0].length; i++){
+            if (!isNear(points[0][i], points[1][i], other_x, other_y, grid, max_distance, max_squared)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a point in the nine cells around the given point is within the distance.
+     */
+    private static boolean isNear(double x, double y, double[] other_x, double[] other_y,
+                                  Map<Long, List<Integer>> grid, double max_distance, double max_squared){
+        long column = cell(x, max_distance), row = cell(y, max_distance);
+        for (long c = column - 1; c <= column + 1; c++){
+            for (long r = row - 1; r <= row + 1; r++){
+                List<Integer> cell = grid.get(key(c, r));
+                if (cell == null) continue;
+                for (int j : cell){
+                    double dx = other_x[j] - x, dy = other_y[j] - y;
+                    if (dx * dx + dy * dy <= max_squared) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Project the route and add points, so no two neighbors are further apart than the step.
+     * @return the x- and the y-coordinates.
+     */
+    private static double[][] densify(LocalProjection projection, double[] latitudes, double[] longitudes, double step){
+        double[] x = new double[latitudes.length];
+        double[] y = new double[latitudes.length];
+        projection.x(longitudes, x);
+        projection.y(latitudes, y);
+        int count = 1;
+        for (int i = 1; i < x.length; i++){
+            count += Math.max(1, (int) Math.ceil(Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]) / step));
+        }
+        double[] dense_x = new double[count];
+        double[] dense_y = new double[count];
+        dense_x[0] = x[0];
+        dense_y[0] = y[0];
+        int next = 1;
+        for (int i = 1; i < x.length; i++){
+            int parts = Math.max(1, (int) Math.ceil(Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]) / step));
+            for (int part = 1; part <= parts; part++){
+                double fraction = part / (double) parts;
+                dense_x[next] = x[i - 1] + (x[i] - x[i - 1]) * fraction;
+                dense_y[next] = y[i - 1] + (y[i] - y[i - 1]) * fraction;
+                next++;
+            }
+        }
+        return new double[][]{dense_x, dense_y};
+    }
+
+    private static long cell(double coordinate, double size){
+        return (long) Math.floor(coordinate / size);
+    }
+
+    private static long key(long column, long row){
+        return (column << 32) ^ (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,239 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>Follows a rider along a route (e.g. a previous tour which is ridden again): where on
+ *  the route the rider is, how far is left and how far off the route the rider went.</p>
+ * <p>Every fix is matched to the nearest segment of the route through a {@link SegmentGrid},
+ *  which takes constant time no matter how long the route is. The match must not go back
+ *  along the route by more than {@link #MAX_BACKTRACK}, so routes which cross or double
+ *  back on themselves are followed in the right order. Once the rider can't be matched
+ *  within reach of the last match, the earliest point of the route ahead is taken (e.g.
+ *  after a shortcut).</p>
+ * <p>The rider leaves the route when further away than {@link #CORRIDOR} and only joins
+ *  it again when closer than {@link #REJOIN}, so a fix jumping around the edge of the
+ *  corridor doesn't report a change every time.</p>
+ * <p>An update doesn't allocate any memory. Updates aren't thread-safe.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RouteFollower {
+
+    /**
+     * Informed when the rider leaves or joins the route, from within
+     *  {@link #update(double, double, long)}.
+     */
+    public interface Listener {
+        /** The rider went further than {@link #CORRIDOR} away from the route. */
+        void onLeftRoute(RouteFollower follower);
+        /** The rider came closer than {@link #REJOIN} to the route, for the first time or again. */
+        void onJoinedRoute(RouteFollower follower);
+    }
+
+    /** The maximum distance (in meters) of a fix from the route to be matched on it */
+    public static final double CORRIDOR = 50;
+    /** The distance (in meters) from the route to get closer than, to join the route again */
+    public static final double REJOIN = 30;
+    /** How far (in meters) from the route the distance is measured, when off the route */
+    public static final double SEARCH_DISTANCE = 500;
+    /** How far (in meters) a match may go back along the route */
+    public static final double MAX_BACKTRACK = 100;
+    /** The fastest (in meters per second) the rider is assumed to move along the route */
+    private static final double MAX_SPEED = 30;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] distances;
+    private final SegmentGrid grid;
+    private Listener listener;
+
+    private boolean matched;
+    private boolean on_route;
+    private int segment;
+    private double fraction;
+    private double progress;
+    private double off_route = Double.POSITIVE_INFINITY;
+    private long matched_time;
+    // The best candidates of the current fix:
+    private double window_from;
+    private double window_to;
+    private int best_segment;
+    private double best_fraction;
+    private double best_distance;
+    private int earliest_segment;
+    private double earliest_fraction;
+    private double nearest_distance;
+
+    private final SegmentGrid.SegmentVisitor matcher = new SegmentGrid.SegmentVisitor() {
+        @Override
+        public void visit(int segment, double distance, double fraction) {
+            if (distance < nearest_distance) nearest_distance = distance;
+            if (distance > CORRIDOR) return;
+            double along = distances[segment] + (distances[segment + 1] - distances[segment]) * fraction;
+            if (along < window_from) return;
+            // The nearest segment within reach of the last match:
+            if (along <= window_to && distance < best_distance){
+                best_segment = segment;
+                best_fraction = fraction;
+                best_distance = distance;
+            }
+            // Otherwise the earliest one ahead:
+            if (earliest_segment < 0 || segment < earliest_segment
+                    || (segment == earliest_segment && fraction < earliest_fraction)){
+                earliest_segment = segment;
+                earliest_fraction = fraction;
+            }
+        }
+    };
+
+    /**
+     * Follow the given route, measuring the distances along it.
+     * @throws IllegalArgumentException if the route has less than two points.
+     */
+    public RouteFollower(double[] latitudes, double[] longitudes){
+        this(latitudes, longitudes, distancesOf(latitudes, longitudes));
+    }
+
+    /**
+     * Follow the given route.
+     * @param distances the distance (in meters) along the route to every point.
+     * @throws IllegalArgumentException if the route has less than two points.
+     */
+    public RouteFollower(double[] latitudes, double[] longitudes, double[] distances){
+        if (latitudes.length < 2)
+            throw new IllegalArgumentException("The route needs at least two points!");
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.distances = distances;
+        this.grid = new SegmentGrid(latitudes, longitudes, CORRIDOR);
+    }
+
+    private static double[] distancesOf(double[] latitudes, double[] longitudes){
+        double[] distances = new double[latitudes.length];
+        Geodesy.cumulativeDistances(latitudes, longitudes, 0, latitudes.length, Geodesy.DEFAULT_MAX_ERROR, distances);
+        return distances;
+    }
+
+    /**
+     * Set the listener to inform about leaving and joining the route, or {@code null}.
+     */
+    public void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Match the next fix of the rider to the route.
+     * @param time the time of the fix (in milliseconds), on any clock which doesn't go back.
+     * @return whether the fix was matched on the route, so the progress is current.
+     */
+    public boolean update(double latitude, double longitude, long time){
+        if (matched){
+            window_from = progress - MAX_BACKTRACK;
+            window_to = progress + MAX_BACKTRACK + MAX_SPEED * Math.max(0, time - matched_time) / 1000.0;
+        } else {
+            // The first match is the earliest point on the route:
+            window_from = Double.NEGATIVE_INFINITY;
+            window_to = Double.NEGATIVE_INFINITY;
+        }
+        best_segment = -1;
+        best_distance = Double.MAX_VALUE;
+        earliest_segment = -1;
+        nearest_distance = Double.POSITIVE_INFINITY;
+        grid.query(latitude, longitude, CORRIDOR, matcher);
+        if (nearest_distance > CORRIDOR){
+            // Nothing close, only look how far off the route the rider is:
+            grid.query(latitude, longitude, SEARCH_DISTANCE, matcher);
+        }
+        off_route = nearest_distance;
+        boolean found = best_segment >= 0 || earliest_segment >= 0;
+        if (found){
+            matched = true;
+            segment = best_segment >= 0 ? best_segment : earliest_segment;
+            fraction = best_segment >= 0 ? best_fraction : earliest_fraction;
+            progress = distances[segment] + (distances[segment + 1] - distances[segment]) * fraction;
+            matched_time = time;
+        }
+        // Leave and join with some hysteresis:
+        if (on_route && off_route > CORRIDOR){
+            on_route = false;
+            if (listener != null) listener.onLeftRoute(this);
+        } else if (!on_route && off_route <= REJOIN){
+            on_route = true;
+            if (listener != null) listener.onJoinedRoute(this);
+        }
+        return found;
+    }
+
+    /**
+     * Whether the rider is on the route. Before the rider first joined it, this is {@code false}.
+     */
+    public boolean isOnRoute() {
+        return on_route;
+    }
+
+    /**
+     * Whether any fix was matched on the route yet.
+     */
+    public boolean isMatched() {
+        return matched;
+    }
+
+    /**
+     * The distance (in meters) from the last fix to the route. This is
+     *  {@link Double#POSITIVE_INFINITY} if the route is further than {@link #SEARCH_DISTANCE}.
+     */
+    public double getOffRouteDistance() {
+        return off_route;
+    }
+
+    /**
+     * Where the rider was last matched, in meters along the route.
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    /**
+     * The distance (in meters) left along the route from where the rider was last matched.
+     */
+    public double getRemaining() {
+        return distances[distances.length - 1] - progress;
+    }
+
+    /**
+     * The length (in meters) of the route.
+     */
+    public double getLength() {
+        return distances[distances.length - 1] - distances[0];
+    }
+
+    /**
+     * The segment the rider was last matched on, which goes from point {@code segment} to
+     *  point {@code segment + 1} of the route.
+     */
+    public int getSegment() {
+        return segment;
+    }
+
+    /**
+     * Where on {@link #getSegment()} the rider was last matched, from {@code 0} at its
+     *  start to {@code 1} at its end.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * The latitude of the point on the route the rider was last matched to.
+     */
+    public double getMatchedLatitude() {
+        return latitudes[segment] + (latitudes[segment + 1] - latitudes[segment]) * fraction;
+    }
+
+    /**
+     * The longitude of the point on the route the rider was last matched to.
+     */
+    public double getMatchedLongitude() {
+        return longitudes[segment] + (longitudes[segment + 1] - longitudes[segment]) * fraction;
+    }
+}
@@ -0,0 +1,110 @@
+package org.knuth.biketrack.geo;
+
+import java.util.Arrays;
+
+/**
+ * <p>A MinHash-signature of the route of a track, to find tours which are the same ride
+ *  (e.g. the daily commute) without comparing every pair of tours.</p>
+ * <p>The route is reduced to the sequence of {@link CellGrid}-cells it passes through.
+ *  Every step from one cell to the next is a "shingle", so the order (and direction) of
+ *  the route counts. The signature keeps the smallest hash of all shingles for each of
+ *  {@link #HASHES} hash-functions; the share of equal values estimates the Jaccard
+ *  similarity of the two sets of steps.</p>
+ * <p>For locality sensitive hashing, the signature is cut into {@link #BANDS} bands. Routes
+ *  which share any band are candidates: with 8 bands of 4 rows, routes with a similarity
+ *  of 0.8 are found 96% of the time, routes with 0.3 only 6% of the time.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RouteSignature {
+
+    /** The number of hash-functions (and values in the signature) */
+    public static final int HASHES = 32;
+    /** The number of bands for locality sensitive hashing */
+    public static final int BANDS = 8;
+    private static final int ROWS = HASHES / BANDS;
+
+    /** The seeds of the hash-functions, fixed so stored bands stay comparable */
+    private static final long[] SEEDS = new long[HASHES];
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < HASHES; i++){
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final long[] values;
+
+    private RouteSignature(long[] values){
+        this.values = values;
+    }
+
+    /**
+     * Compute the signature of the given route.
+     * @throws IllegalArgumentException if the route has no points.
+     */
+    public static RouteSignature of(double[] latitudes, double[] longitudes){
+        if (latitudes.length == 0)
+            throw new IllegalArgumentException("Can't sign an empty route!");
+        final long[] values = new long[HASHES];
+        Arrays.fill(values, Long.MAX_VALUE);
+        CellGrid.CellVisitor shingler = new CellGrid.CellVisitor() {
+            private long last = -1;
+
+            @Override
+            public void visit(long cell) {
+                if (cell == last) return;
+                // The step from the last cell to this one (or just the first cell):
+                long shingle = mix(last * 31 + cell);
+                last = cell;
+                for (int i = 0; i < HASHES; i++){
+                    long hash = mix(shingle ^ SEEDS[i]);
+                    if (hash < values[i]) values[i] = hash;
+                }
+            }
+        };
+        shingler.visit(CellGrid.cellOf(latitudes[0], longitudes[0]));
+        for (int i = 1; i < latitudes.length; i++){
+            CellGrid.walkSegment(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i], shingler);
+        }
+        return new RouteSignature(values);
+    }
+
+    /**
+     * The hash of every band of the signature. Two routes are candidates for the same ride,
+     *  if they have the same hash in the same band.
+     */
+    public long[] getBands(){
+        long[] bands = new long[BANDS];
+        for (int band = 0; band < BANDS; band++){
+            long hash = band;
+            for (int row = 0; row < ROWS; row++){
+                hash = mix(hash * 31 + values[band * ROWS + row]);
+            }
+            bands[band] = hash;
+        }
+        return bands;
+    }
+
+    /**
+     * The estimated Jaccard similarity of the routes, between {@code 0} and {@code 1}.
+     */
+    public double similarity(RouteSignature other){
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++){
+            if (values[i] == other.values[i]) equal++;
+        }
+        return equal / (double) HASHES;
+    }
+
+    /**
+     * The finalizer of SplitMix64, which spreads every bit of the input over the output.
+     */
+    private static long mix(long x){
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,230 @@
+package org.knuth.biketrack.geo;
+
+import java.util.Arrays;
+
+/**
+ * <p>A grid over the segments of a polyline, to find the segments near a point without
+ *  looking at all of them (e.g. to match every new fix against a reference track). The
+ *  segments can also connect any two points, e.g. the edges of a {@link RoadGraph}.</p>
+ * <p>The polyline is projected into a plane, which is split into square cells. Every
+ *  segment is registered in all cells its bounding box touches. A query only looks at
+ *  the cells within the searched distance, so it takes constant time for a fixed
+ *  distance, no matter how long the polyline is.</p>
+ * <p>The cells are kept in an open-addressing table over plain arrays, so the grid is
+ *  compact even for routes with 100k points and a query doesn't box any keys.</p>
+ * <p>Queries reuse internal state and aren't thread-safe.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class SegmentGrid {
+
+    /**
+     * Visits the segments found by a query.
+     */
+    public interface SegmentVisitor {
+        /**
+         * A segment near the point.
+         * @param segment the index of the segment, which goes from point {@code segment}
+         *  to point {@code segment + 1} of a polyline.
+         * @param distance the distance (in meters) from the point to the segment.
+         * @param fraction the position of the nearest point on the segment, from {@code 0}
+         *  at its start to {@code 1} at its end.
+         */
+        void visit(int segment, double distance, double fraction);
+    }
+
+    /** Marks an empty slot in the table of cells, no cell has this key */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final LocalProjection projection;
+    private final double[] x;
+    private final double[] y;
+    // The points of every segment, null for a polyline:
+    private final int[] starts_at;
+    private final int[] ends_at;
+    private final double cell_size;
+    // An open-addressing table from the key of a cell to its segments in "entries":
+    private final long[] keys;
+    private final int[] starts;
+    private final int[] counts;
+    private final int[] entries;
+    private final int mask;
+    /** The last query, which visited each segment */
+    private final int[] visited;
+    private int query;
+
+    /**
+     * Build the grid over the given polyline.
+     * @param cell_size the size (in meters) of the cells, about the distance usually searched.
+     * @throws IllegalArgumentException if the line has no points or the cell size isn't positive.
+     */
+    public SegmentGrid(double[] latitudes, double[] longitudes, double cell_size){
+        this(latitudes, longitudes, null, null, cell_size);
+    }
+
+    /**
+     * Build the grid over the given segments, segment {@code i} goes from point
+     *  {@code starts_at[i]} to point {@code ends_at[i]}.
+     * @param cell_size the size (in meters) of the cells, about the distance usually searched.
+     * @throws IllegalArgumentException if there are no points or the cell size isn't positive.
+     */
+    public SegmentGrid(double[] latitudes, double[] longitudes, int[] starts_at, int[] ends_at, double cell_size){
+        if (latitudes.length == 0)
+            throw new IllegalArgumentException("Can't index an empty polyline!");
+        if (cell_size <= 0)
+            throw new IllegalArgumentException("[cell_size] must be positive!");
+        if ((starts_at == null) != (ends_at == null) || (starts_at != null && starts_at.length != ends_at.length))
+            throw new IllegalArgumentException("Every segment needs a start and an end!");
+        this.starts_at = starts_at;
+        this.ends_at = ends_at;
+        this.cell_size = cell_size;
+        this.projection = LocalProjection.around(BoundingBox.of(latitudes, longitudes, 0, latitudes.length));
+        this.x = new double[latitudes.length];
+        this.y = new double[latitudes.length];
+        projection.x(longitudes, x);
+        projection.y(latitudes, y);
+        int segments = starts_at == null ? x.length - 1 : starts_at.length;
+        this.visited = new int[segments];
+
+        // The cells of every segment, in order:
+        int total = 0;
+        for (int i = 0; i < segments; i++) total += cellCount(i);
+        long[] segment_cells = new long[total];
+        int next = 0;
+        for (int i = 0; i < segments; i++) next = cellsOf(i, segment_cells, next);
+        // Size the table for the distinct cells, so it's at most three quarters full:
+        long[] sorted = segment_cells.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++){
+            if (i == 0 || sorted[i] != sorted[i - 1]) distinct++;
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, distinct * 4 / 3)) * 2;
+        this.mask = capacity - 1;
+        this.keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        this.counts = new int[capacity];
+        for (long key : segment_cells) counts[insert(key)]++;
+        this.starts = new int[capacity];
+        for (int slot = 0, start = 0; slot < capacity; slot++){
+            starts[slot] = start;
+            start += counts[slot];
+        }
+        this.entries = new int[total];
+        int[] filled = new int[capacity];
+        next = 0;
+        for (int i = 0; i < segments; i++){
+            for (int end = next + cellCount(i); next < end; next++){
+                int slot = find(segment_cells[next]);
+                entries[starts[slot] + filled[slot]++] = i;
+            }
+        }
+    }
+
+    private int start(int segment){
+        return starts_at == null ? segment : starts_at[segment];
+    }
+
+    private int end(int segment){
+        return ends_at == null ? segment + 1 : ends_at[segment];
+    }
+
+    /**
+     * The number of cells the bounding box of the given segment touches.
+     */
+    private int cellCount(int segment){
+        int a = start(segment), b = end(segment);
+        long columns = cell(Math.max(x[a], x[b])) - cell(Math.min(x[a], x[b])) + 1;
+        long rows = cell(Math.max(y[a], y[b])) - cell(Math.min(y[a], y[b])) + 1;
+        return (int) (columns * rows);
+    }
+
+    /**
+     * Write the keys of the cells the given segment touches to {@code out}, from {@code next}.
+     * @return the index after the last written key.
+     */
+    private int cellsOf(int segment, long[] out, int next){
+        int a = start(segment), b = end(segment);
+        long min_column = cell(Math.min(x[a], x[b])), max_column = cell(Math.max(x[a], x[b]));
+        long min_row = cell(Math.min(y[a], y[b])), max_row = cell(Math.max(y[a], y[b]));
+        for (long column = min_column; column <= max_column; column++){
+            for (long row = min_row; row <= max_row; row++){
+                out[next++] = key(column, row);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The slot of the given key, which is claimed if it's not in the table yet.
+     */
+    private int insert(long key){
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & mask;
+        keys[slot] = key;
+        return slot;
+    }
+
+    /**
+     * The slot of the given key, or {@code -1} if no segment touches the cell.
+     */
+    private int find(long key){
+        for (int slot = slotOf(key); keys[slot] != EMPTY; slot = (slot + 1) & mask){
+            if (keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    private int slotOf(long key){
+        // Spread the bits of column and row over the slot:
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * The number of segments in the grid.
+     */
+    public int size(){
+        return visited.length;
+    }
+
+    /**
+     * Visit every segment within the given distance (in meters) of the point, once. This
+     *  doesn't allocate any memory.
+     */
+    public void query(double latitude, double longitude, double max_distance, SegmentVisitor visitor){
+        if (++query == Integer.MAX_VALUE){
+            // Start over, before the marks overflow:
+            Arrays.fill(visited, 0);
+            query = 1;
+        }
+        double px = projection.x(longitude), py = projection.y(latitude);
+        long min_column = cell(px - max_distance), max_column = cell(px + max_distance);
+        long min_row = cell(py - max_distance), max_row = cell(py + max_distance);
+        for (long column = min_column; column <= max_column; column++){
+            for (long row = min_row; row <= max_row; row++){
+                int slot = find(key(column, row));
+                if (slot < 0) continue;
+                for (int i = starts[slot], end = starts[slot] + counts[slot]; i < end; i++){
+                    int segment = entries[i];
+                    if (visited[segment] == query) continue;
+                    visited[segment] = query;
+                    int a = start(segment), b = end(segment);
+                    double distance = LocalProjection.segmentDistance(px, py, x[a], y[a], x[b], y[b]);
+                    if (distance <= max_distance){
+                        visitor.visit(segment, distance, LocalProjection.segmentFraction(px, py, x[a], y[a], x[b], y[b]));
+                    }
+                }
+            }
+        }
+    }
+
+    private long cell(double coordinate){
+        return (long) Math.floor(coordinate / cell_size);
+    }
+
+    private static long key(long column, long row){
+        return (column << 32) ^ (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,93 @@
+package org.knuth.biketrack.geo;
+
+/**
+ * <p>Static helper-class to simplify polylines with the Douglas-Peucker algorithm.</p>
+ * <p>The simplified line keeps the first and the last point and every point which
+ *  is further than the tolerance from the simplified line. Distances are measured in
+ *  a {@link LocalProjection} of the line.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Simplifier {
+
+    // This is a static helper-class!
+    private Simplifier(){}
+
+    /**
+     * Simplify the polyline {@code [from, to)}.
+     * @param tolerance the maximum distance (in meters) of a dropped point from the simplified line.
+     * @return the indices of the kept points, in ascending order.
+     */
+    public static int[] simplify(double[] latitudes, double[] longitudes, int from, int to, double tolerance){
+        int size = to - from;
+        if (size <= 2){
+            int[] all = new int[Math.max(0, size)];
+            for (int i = 0; i < all.length; i++) all[i] = from + i;
+            return all;
+        }
+        LocalProjection projection = LocalProjection.around(BoundingBox.of(latitudes, longitudes, from, to));
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++){
+            x[i] = projection.x(longitudes[from + i]);
+            y[i] = projection.y(latitudes[from + i]);
+        }
+        boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[size - 1] = true;
+        int kept = 2;
+        // Work through the ranges with an explicit stack, tracks can be very long:
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0){
+            int last = stack[--top];
+            int first = stack[--top];
+            double max_distance = -1;
+            int max_index = -1;
+            for (int i = first + 1; i < last; i++){
+                double d = LocalProjection.segmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d > max_distance){
+                    max_distance = d;
+                    max_index = i;
+                }
+            }
+            if (max_distance > tolerance){
+                keep[max_index] = true;
+                kept++;
+                if (top + 4 > stack.length){
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                }
+                stack[top++] = first;
+                stack[top++] = max_index;
+                stack[top++] = max_index;
+                stack[top++] = last;
+            }
+        }
+        int[] indices = new int[kept];
+        int n = 0;
+        for (int i = 0; i < size; i++){
+            if (keep[i]) indices[n++] = from + i;
+        }
+        return indices;
+    }
+
+    /**
+     * Simplify the polyline {@code [from, to)} to at most (about) {@code max_points} points,
+     *  by doubling the tolerance until the line is small enough.
+     * @param tolerance the initial tolerance in meters.
+     */
+    public static int[] simplify(double[] latitudes, double[] longitudes, int from, int to,
+                                 double tolerance, int max_points){
+        int[] indices = simplify(latitudes, longitudes, from, to, tolerance);
+        while (indices.length > max_points && tolerance < 1e7){
+            tolerance *= 2;
+            indices = simplify(latitudes, longitudes, from, to, tolerance);
+        }
+        return indices;
+    }
+}
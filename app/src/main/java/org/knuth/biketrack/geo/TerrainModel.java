@@ -0,0 +1,142 @@
+package org.knuth.biketrack.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>The elevation of the terrain, from the {@link HgtTile}s in a directory (which the
+ *  user puts there, e.g. from the SRTM-data).</p>
+ * <p>The least recently used tiles are kept mapped, up to {@link #MAX_TILES}. Tiles which
+ *  aren't in the directory are remembered until the next batch, so looking up points
+ *  without terrain-data is cheap as well.</p>
+ * <p>All methods are thread-safe.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TerrainModel {
+
+    /** The maximum number of tiles which are kept mapped */
+    public static final int MAX_TILES = 4;
+
+    private final File directory;
+    private final Map<Integer, HgtTile> tiles = new LinkedHashMap<Integer, HgtTile>(MAX_TILES * 2, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, HgtTile> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+    private final Set<Integer> missing = new HashSet<Integer>();
+
+    /**
+     * @param directory the directory with the tiles, named like {@link HgtTile#nameOf(int, int)}.
+     */
+    public TerrainModel(File directory){
+        if (directory == null) throw new NullPointerException("[directory] can't be null!");
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The elevation (in meters) of the terrain at the given point.
+     * @return the elevation, or {@link Double#NaN} if there is no terrain-data for the point.
+     * @throws IOException if the tile of the point is broken.
+     */
+    public synchronized double elevation(double lat, double lon) throws IOException {
+        HgtTile tile = tileFor(lat, lon);
+        return tile == null ? Double.NaN : tile.elevation(lat, lon);
+    }
+
+    /**
+     * <p>Look up the elevation of all given points in one pass.</p>
+     * <p>The tile of the last point is reused for the next one, so the tiles are only
+     *  looked up where the points cross into another one. Tiles which where missing
+     *  before are looked for again.</p>
+     * @param out receives the elevations (in meters), {@link Double#NaN} for points
+     *  without terrain-data.
+     * @return the number of points with terrain-data.
+     * @throws IOException if the tile of any point is broken.
+     */
+    public synchronized int elevations(double[] latitudes, double[] longitudes, double[] out) throws IOException {
+        missing.clear();
+        int found = 0;
+        int tile_lat = Integer.MIN_VALUE, tile_lon = Integer.MIN_VALUE;
+        HgtTile tile = null;
+        for (int i = 0; i < latitudes.length; i++){
+            int lat = (int) Math.floor(latitudes[i]), lon = (int) Math.floor(longitudes[i]);
+            if (lat != tile_lat || lon != tile_lon){
+                tile = tile(lat, lon);
+                tile_lat = lat;
+                tile_lon = lon;
+            }
+            if (tile == null && (latitudes[i] == lat || longitudes[i] == lon)){
+                out[i] = elevation(latitudes[i], longitudes[i]);
+            } else {
+                out[i] = tile == null ? Double.NaN : tile.elevation(latitudes[i], longitudes[i]);
+            }
+            if (!Double.isNaN(out[i])) found++;
+        }
+        return found;
+    }
+
+    /**
+     * The mapped tile which covers the given point.
+     * @return the tile, or {@code null} if it's not in the directory.
+     */
+    private HgtTile tileFor(double lat, double lon) throws IOException {
+        int lat_floor = (int) Math.floor(lat), lon_floor = (int) Math.floor(lon);
+        HgtTile tile = tile(lat_floor, lon_floor);
+        // Points on the northern or eastern edge of a tile are also on the next one, which might be missing:
+        if (tile == null && lat == lat_floor) tile = tile(lat_floor - 1, lon_floor);
+        if (tile == null && lon == lon_floor) tile = tile(lat_floor, lon_floor - 1);
+        return tile;
+    }
+
+    /**
+     * The mapped tile with the given south-west corner.
+     * @return the tile, or {@code null} if it's not in the directory.
+     */
+    private HgtTile tile(int lat, int lon) throws IOException {
+        Integer key = (lat + 90) * 360 + (lon + 180);
+        HgtTile tile = tiles.get(key);
+        if (tile != null || missing.contains(key)) return tile;
+        File file = new File(directory, HgtTile.nameOf(lat, lon));
+        if (!file.isFile()){
+            missing.add(key);
+            return null;
+        }
+        tile = HgtTile.open(file, lat, lon);
+        tiles.put(key, tile);
+        return tile;
+    }
+
+    /**
+     * Fill the gaps (values which are {@link Double#NaN}) in the given values, interpolated
+     *  linear between the values around them. Gaps at the start or end take the nearest
+     *  value. If there is no value at all, nothing changes.
+     */
+    public static void fillGaps(double[] values){
+        int last = -1;
+        for (int i = 0; i < values.length; i++){
+            if (Double.isNaN(values[i])) continue;
+            if (last < 0){
+                for (int k = 0; k < i; k++) values[k] = values[i];
+            } else {
+                for (int k = last + 1; k < i; k++){
+                    values[k] = values[last] + (values[i] - values[last]) * (k - last) / (i - last);
+                }
+            }
+            last = i;
+        }
+        if (last >= 0){
+            for (int k = last + 1; k < values.length; k++) values[k] = values[last];
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.knuth.biketrack.heatmap;
+
+import android.content.Context;
+import android.util.Log;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.precompute.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The application-wide disk-cache of rendered heatmap-tiles.</p>
+ * <p>Tiles are stored as PNGs in the apps cache-directory, keyed by their position and the
+ *  versions of the {@link Task#GEOMETRY}-artifact and the {@link HeatmapRasterizer}. The
+ *  cache is bounded by the size of the files; the least recently used tiles are removed
+ *  first. Tiles without any track are stored as empty files, so they're found right away
+ *  as well.</p>
+ * <p>When a tour is added, changed or deleted, the tiles it passes through <b>must</b> be
+ *  {@link #invalidate(BoundingBox) invalidated}. Tiles rendered while the cache was
+ *  invalidated are dropped, see {@link #getGeneration()}.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class HeatmapCache {
+
+    /** The maximum size of all cached tiles in bytes */
+    private static final long MAX_BYTES = 32 * 1024 * 1024;
+    /** The smallest size a file takes on disk (one block), so empty tiles count as well */
+    private static final long MIN_FILE_BYTES = 4096;
+    private static final String DIRECTORY = "heatmap";
+
+    private final File directory;
+    private final String suffix;
+    /** The size of all cached tiles, by file-name, in the order they were used */
+    private Map<String, Long> index;
+    private long size;
+    private long generation;
+
+    public HeatmapCache(Context context){
+        this.directory = new File(context.getCacheDir(), DIRECTORY);
+        this.suffix = "_" + Task.GEOMETRY.getVersion() + "_" + HeatmapRasterizer.VERSION + ".png";
+    }
+
+    /**
+     * Get the cache of the application.
+     */
+    public static HeatmapCache from(Context context){
+        return ((Application) context.getApplicationContext()).getHeatmapCache();
+    }
+
+    /**
+     * Get a tile from disk. Must not be called on the UI-thread.
+     * @return the PNG of the tile (empty, if no track passes through it) or {@code null} if
+     *  it isn't cached.
+     */
+    public byte[] get(int x, int y, int zoom){
+        String name = nameOf(x, y, zoom);
+        synchronized (this){
+            // Marks the tile as used:
+            if (getIndex().get(name) == null) return null;
+        }
+        File file = new File(directory, name);
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            byte[] tile = new byte[(int) in.length()];
+            in.readFully(tile);
+            // Keeps the order of use for the next start:
+            file.setLastModified(System.currentTimeMillis());
+            return tile;
+        } catch (IOException e) {
+            // Removed in the meantime...
+            return null;
+        } finally {
+            if (in != null){
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing to do here...
+                }
+            }
+        }
+    }
+
+    /**
+     * Put a freshly rendered tile on disk, unless the cache was invalidated since the
+     *  rendering started. Must not be called on the UI-thread.
+     * @param tile the PNG of the tile, or an empty array if no track passes through it.
+     * @param generation the {@link #getGeneration() generation} before the tile was rendered.
+     */
+    public void put(int x, int y, int zoom, byte[] tile, long generation){
+        if (!directory.exists() && !directory.mkdirs()) return;
+        String name = nameOf(x, y, zoom);
+        File file = new File(directory, name);
+        // Write to a temporary file first, so a half-written tile is never read:
+        File temp = new File(directory, name + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(tile);
+            out.close();
+            out = null;
+            synchronized (this){
+                if (generation != this.generation || !temp.renameTo(file)){
+                    temp.delete();
+                    return;
+                }
+                Long replaced = getIndex().put(name, sizeOf(tile.length));
+                size += sizeOf(tile.length) - (replaced != null ? replaced : 0);
+                evict();
+            }
+        } catch (IOException e) {
+            Log.w(Main.LOG_TAG, "Couldn't store the heatmap-tile "+name, e);
+            temp.delete();
+        } finally {
+            if (out != null){
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing to do here...
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes whenever the cache is invalidated.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Remove all tiles which intersect the given box, because a tour in it was added,
+     *  changed or deleted.
+     */
+    public synchronized void invalidate(BoundingBox bounds){
+        generation++;
+        Iterator<Map.Entry<String, Long>> entries = getIndex().entrySet().iterator();
+        while (entries.hasNext()){
+            Map.Entry<String, Long> entry = entries.next();
+            String[] parts = entry.getKey().split("_");
+            BoundingBox tile = HeatmapRasterizer.boundsOf(
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[0])
+            );
+            if (tile.intersects(bounds)){
+                new File(directory, entry.getKey()).delete();
+                size -= entry.getValue();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used tiles, until the cache fits its size again.
+     */
+    private void evict(){
+        Iterator<Map.Entry<String, Long>> entries = index.entrySet().iterator();
+        while (size > MAX_BYTES && entries.hasNext()){
+            Map.Entry<String, Long> entry = entries.next();
+            new File(directory, entry.getKey()).delete();
+            size -= entry.getValue();
+            entries.remove();
+        }
+    }
+
+    /**
+     * The index of the cached tiles, read from the directory on first use. Tiles of other
+     *  versions are deleted.
+     */
+    private Map<String, Long> getIndex(){
+        if (index != null) return index;
+        index = new LinkedHashMap<String, Long>(64, 0.75f, true);
+        File[] files = directory.listFiles();
+        if (files == null) return index;
+        // The oldest first, so they're evicted first:
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        List<File> outdated = new ArrayList<File>();
+        for (File file : files){
+            if (file.getName().endsWith(suffix)){
+                long bytes = sizeOf(file.length());
+                index.put(file.getName(), bytes);
+                size += bytes;
+            } else {
+                outdated.add(file);
+            }
+        }
+        for (File file : outdated) file.delete();
+        evict();
+        return index;
+    }
+
+    private String nameOf(int x, int y, int zoom){
+        return zoom + "_" + x + "_" + y + suffix;
+    }
+
+    private static long sizeOf(long bytes){
+        return Math.max(MIN_FILE_BYTES, bytes);
+    }
+}
@@ -0,0 +1,178 @@
+package org.knuth.biketrack.heatmap;
+
+import org.knuth.biketrack.geo.BoundingBox;
+
+/**
+ * <p>Rasterizes tracks into one tile of the heatmap, in the Web-Mercator tiling used by
+ *  the map ({@code 2^zoom} tiles on each axis, tile {@code (0, 0)} in the north-west).</p>
+ * <p>Every pixel counts the tracks which pass through it. A track counts only once per
+ *  pixel, so riding slowly (with many fixes) doesn't make a street any "hotter". The counts
+ *  are mapped to colors on a logarithmic scale, which is the same on all tiles and zooms.</p>
+ * <p>The rasterizer doesn't use any Android-classes, so it can be benchmarked on a JVM.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class HeatmapRasterizer {
+
+    /** The width and height of a tile in pixels */
+    public static final int TILE_SIZE = 256;
+    /** Incremented whenever the look of the tiles changes, so cached ones are replaced */
+    public static final int VERSION = 1;
+
+    /** The number of tracks through a pixel, at which it gets the "hottest" color */
+    private static final int SATURATION = 16;
+    /** The colors (ARGB) from one track to {@link #SATURATION} tracks */
+    private static final int[] RAMP = {0x803070FF, 0xC0E02060, 0xE0FF6020, 0xFFFFF040};
+    /** The northern- and southern-most latitude of the Web-Mercator projection */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    private final double world_size;
+    private final double origin_x;
+    private final double origin_y;
+    private final int[] counts = new int[TILE_SIZE * TILE_SIZE];
+    /** The last track which was counted for every pixel */
+    private final int[] marks = new int[TILE_SIZE * TILE_SIZE];
+    private int mark;
+    private boolean empty = true;
+    // Reused for clipping every line:
+    private final double[] clip_p = new double[4];
+    private final double[] clip_q = new double[4];
+
+    /**
+     * An empty raster for the given tile.
+     */
+    public HeatmapRasterizer(int x, int y, int zoom){
+        this.world_size = (double) TILE_SIZE * (1L << zoom);
+        this.origin_x = (double) x * TILE_SIZE;
+        this.origin_y = (double) y * TILE_SIZE;
+    }
+
+    /**
+     * The area covered by the given tile.
+     */
+    public static BoundingBox boundsOf(int x, int y, int zoom){
+        double tiles = 1L << zoom;
+        return new BoundingBox(
+                latitudeOf((y + 1) / tiles), x / tiles * 360 - 180,
+                latitudeOf(y / tiles), (x + 1) / tiles * 360 - 180
+        );
+    }
+
+    /** The latitude at the given (fractional) position from the northern edge of the map */
+    private static double latitudeOf(double y){
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    /** The (fractional) position of the given latitude from the northern edge of the map */
+    private static double mercatorY(double latitude){
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * Draw the given track into the tile.
+     */
+    public void add(double[] latitudes, double[] longitudes){
+        mark++;
+        double last_x = 0, last_y = 0;
+        for (int i = 0; i < latitudes.length; i++){
+            double x = (longitudes[i] + 180) / 360 * world_size - origin_x;
+            double y = mercatorY(latitudes[i]) * world_size - origin_y;
+            if (i == 0){
+                plot(x, y);
+            } else {
+                line(last_x, last_y, x, y);
+            }
+            last_x = x;
+            last_y = y;
+        }
+    }
+
+    /**
+     * Draw the line between the given points (in pixels on the tile), clipped to the tile.
+     */
+    private void line(double x0, double y0, double x1, double y1){
+        // Most lines of a track are far off the tile:
+        if ((x0 < -1 && x1 < -1) || (x0 > TILE_SIZE && x1 > TILE_SIZE)
+                || (y0 < -1 && y1 < -1) || (y0 > TILE_SIZE && y1 > TILE_SIZE)) return;
+        // Liang-Barsky: clip the line to [-1, TILE_SIZE] (the plotted dots are two pixels wide)
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double t0 = 0, t1 = 1;
+        double[] p = clip_p, q = clip_q;
+        p[0] = -dx; p[1] = dx; p[2] = -dy; p[3] = dy;
+        q[0] = x0 + 1; q[1] = TILE_SIZE - x0; q[2] = y0 + 1; q[3] = TILE_SIZE - y0;
+        for (int i = 0; i < 4; i++){
+            if (p[i] == 0){
+                if (q[i] < 0) return; // Parallel and outside.
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0){
+                    if (t > t1) return;
+                    if (t > t0) t0 = t;
+                } else {
+                    if (t < t0) return;
+                    if (t < t1) t1 = t;
+                }
+            }
+        }
+        double from_x = x0 + dx * t0, from_y = y0 + dy * t0;
+        double length_x = dx * (t1 - t0), length_y = dy * (t1 - t0);
+        int steps = (int) Math.ceil(Math.max(Math.abs(length_x), Math.abs(length_y)));
+        for (int s = 0; s <= steps; s++){
+            double fraction = steps == 0 ? 0 : (double) s / steps;
+            plot(from_x + length_x * fraction, from_y + length_y * fraction);
+        }
+    }
+
+    /**
+     * Count the current track for the two-by-two pixels at the given position.
+     */
+    private void plot(double x, double y){
+        int px = (int) Math.floor(x);
+        int py = (int) Math.floor(y);
+        for (int row = py; row <= py + 1; row++){
+            if (row < 0 || row >= TILE_SIZE) continue;
+            for (int col = px; col <= px + 1; col++){
+                if (col < 0 || col >= TILE_SIZE) continue;
+                int index = row * TILE_SIZE + col;
+                if (marks[index] != mark){
+                    marks[index] = mark;
+                    counts[index]++;
+                    empty = false;
+                }
+            }
+        }
+    }
+
+    /** Whether no track passed through the tile */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * The colors (ARGB, row by row) of the tile. Pixels without any track are transparent.
+     */
+    public int[] toColors(){
+        int[] colors = new int[counts.length];
+        double scale = (RAMP.length - 1) / Math.log(1 + SATURATION);
+        for (int i = 0; i < counts.length; i++){
+            if (counts[i] == 0) continue;
+            double position = Math.min(RAMP.length - 1, Math.log(counts[i]) * scale);
+            int stop = Math.min(RAMP.length - 2, (int) position);
+            colors[i] = blend(RAMP[stop], RAMP[stop + 1], position - stop);
+        }
+        return colors;
+    }
+
+    private static int blend(int from, int to, double fraction){
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8){
+            int a = (from >>> shift) & 0xFF;
+            int b = (to >>> shift) & 0xFF;
+            color |= ((int) Math.round(a + (b - a) * fraction)) << shift;
+        }
+        return color;
+    }
+}
@@ -0,0 +1,112 @@
+package org.knuth.biketrack.heatmap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.geo.PolylineCodec;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.SpatialIndex;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.precompute.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * <p>Provides the tiles of a heatmap of all tours, for a {@code TileOverlay}.</p>
+ * <p>Tiles are taken from the {@link HeatmapCache} if possible. Otherwise, the
+ *  {@link SpatialIndex} finds the tours passing through the tile and only their precomputed
+ *  {@link Task#GEOMETRY} is drawn by the {@link HeatmapRasterizer}. The stamps of a tour are
+ *  never queried. A tile which misses a tour (because it is tracked right now or wasn't
+ *  precomputed yet) is shown, but not cached.</p>
+ * <p>The map requests tiles on its own pool of background-threads, so all of this happens
+ *  off the UI-thread.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class HeatmapTileProvider implements TileProvider {
+
+    /** The memory (in bytes) for the decoded geometries, which are shared between tiles */
+    private static final int GEOMETRY_BUDGET = 4 * 1024 * 1024;
+    private static final byte[] EMPTY_TILE = new byte[0];
+
+    private final Context context;
+    private final HeatmapCache cache;
+    /** The latitudes and longitudes of recently drawn tours */
+    private final LruCache<Integer, double[][]> geometries = new LruCache<Integer, double[][]>(GEOMETRY_BUDGET){
+        @Override
+        protected int sizeOf(Integer tour_id, double[][] geometry) {
+            return geometry[0].length * 16;
+        }
+    };
+
+    public HeatmapTileProvider(Context context){
+        this.context = context.getApplicationContext();
+        this.cache = HeatmapCache.from(context);
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        byte[] cached = cache.get(x, y, zoom);
+        if (cached != null) return toTile(cached);
+        DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+        try {
+            long generation = cache.getGeneration();
+            Set<Integer> tours = new SpatialIndex(helper).queryBoundingBox(HeatmapRasterizer.boundsOf(x, y, zoom));
+            HeatmapRasterizer rasterizer = new HeatmapRasterizer(x, y, zoom);
+            PrecomputeQueue queue = PrecomputeQueue.from(context);
+            ArtifactStore store = new ArtifactStore(helper);
+            boolean complete = true;
+            for (int tour_id : tours){
+                double[][] geometry = queue.isTracked(tour_id) ? null : loadGeometry(store, tour_id);
+                if (geometry == null){
+                    complete = false;
+                    continue;
+                }
+                rasterizer.add(geometry[0], geometry[1]);
+            }
+            byte[] tile = rasterizer.isEmpty() ? EMPTY_TILE : encode(rasterizer);
+            if (complete) cache.put(x, y, zoom, tile, generation);
+            return toTile(tile);
+        } catch (SQLException e) {
+            Log.e(Main.LOG_TAG, "Couldn't render the heatmap-tile "+zoom+"/"+x+"/"+y, e);
+            return NO_TILE;
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+        }
+    }
+
+    private double[][] loadGeometry(ArtifactStore store, int tour_id) throws SQLException {
+        double[][] geometry = geometries.get(tour_id);
+        if (geometry != null) return geometry;
+        byte[] encoded = Task.GEOMETRY.load(store, tour_id);
+        if (encoded == null) return null;
+        geometry = new double[][]{
+                PolylineCodec.decodeLatitudes(encoded), PolylineCodec.decodeLongitudes(encoded)
+        };
+        geometries.put(tour_id, geometry);
+        return geometry;
+    }
+
+    private static byte[] encode(HeatmapRasterizer rasterizer){
+        int size = HeatmapRasterizer.TILE_SIZE;
+        Bitmap bitmap = Bitmap.createBitmap(rasterizer.toColors(), size, size, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static Tile toTile(byte[] tile){
+        if (tile.length == 0) return NO_TILE;
+        return new Tile(HeatmapRasterizer.TILE_SIZE, HeatmapRasterizer.TILE_SIZE, tile);
+    }
+}
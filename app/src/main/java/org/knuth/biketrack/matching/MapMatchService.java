@@ -0,0 +1,205 @@
+package org.knuth.biketrack.matching;
+
+import android.content.Context;
+import android.util.Log;
+import com.j256.ormlite.dao.RawRowMapper;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.geo.MapMatcher;
+import org.knuth.biketrack.geo.OsmRoadReader;
+import org.knuth.biketrack.geo.RoadGraph;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * <p>The application-wide matching of the recorded tracks onto the roads, offline.</p>
+ * <p>The roads are an OSM-extract ({@code .osm}, in XML), which the user copies to the
+ *  {@code roads}-directory in the apps external files-directory. The extract is read into
+ *  a {@link RoadGraph} once, which is then kept in its compact form in the apps
+ *  files-directory until the extract changes. The compact form starts with the name, size
+ *  and modification-time of the extract it was compiled from.</p>
+ * <p>The matched track and its distance are stored as the {@link #ARTIFACT}-artifact of
+ *  the tour.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class MapMatchService {
+
+    /** The kind of the artifact with the matched track */
+    public static final String ARTIFACT = "MATCHED";
+    private static final String DIRECTORY = "roads";
+    private static final String GRAPH_FILE = "roads.graph";
+
+    private final Context context;
+    private final File directory;
+    private RoadGraph graph;
+    private File graph_source;
+    private long graph_source_length;
+    private long graph_source_modified;
+    private MapMatcher matcher;
+
+    public MapMatchService(Context context){
+        this.context = context.getApplicationContext();
+        File root = context.getExternalFilesDir(null);
+        this.directory = new File(root != null ? root : context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            Log.e(Main.LOG_TAG, "Couldn't create the directory for the roads: "+directory);
+        }
+    }
+
+    /**
+     * Get the map-matching of the application.
+     */
+    public static MapMatchService from(Context context){
+        return ((Application) context.getApplicationContext()).getMapMatchService();
+    }
+
+    /**
+     * The directory the user should copy the {@code .osm}-extract to.
+     */
+    public File getDirectory(){
+        return directory;
+    }
+
+    /**
+     * Match the track of the given tour onto the roads and store the result. Must not be
+     *  called on the UI-thread.
+     * @return the result, or {@code null} if there is no road-extract or the tour has no track.
+     */
+    public synchronized MapMatcher.Result matchTour(DatabaseHelper helper, int tour_id) throws SQLException, IOException {
+        if (!loadGraph()) return null;
+        List<double[]> rows = helper.getLocationStampDao().queryRaw(
+                "SELECT latitude, longitude FROM loc_stamp WHERE tour_id = ? ORDER BY timestamp",
+                ROW_MAPPER, String.valueOf(tour_id)
+        ).getResults();
+        int size = rows.size();
+        if (size == 0) return null;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++){
+            latitudes[i] = rows.get(i)[0];
+            longitudes[i] = rows.get(i)[1];
+        }
+        long start = System.currentTimeMillis();
+        MapMatcher.Result result = matcher.match(latitudes, longitudes);
+        long took = Math.max(1, System.currentTimeMillis() - start);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 16 + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        result.write(out);
+        out.flush();
+        new ArtifactStore(helper).store(tour_id, ARTIFACT, MapMatcher.VERSION, bytes.toByteArray());
+        Log.v(Main.LOG_TAG, "Matched "+result.getMatched()+" of "+size+" points of tour "+tour_id+" in "
+                +took+"ms ("+(size * 1000L / took)+" points/s)");
+        return result;
+    }
+
+    /**
+     * Load the stored result of matching the given tour.
+     * @return the result, or {@code null} if the tour wasn't matched (since it changed).
+     */
+    public MapMatcher.Result loadResult(DatabaseHelper helper, int tour_id) throws SQLException {
+        byte[] data = new ArtifactStore(helper).load(tour_id, ARTIFACT, MapMatcher.VERSION);
+        if (data == null) return null;
+        try {
+            return MapMatcher.Result.read(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            Log.e(Main.LOG_TAG, "Couldn't read the matched track of tour "+tour_id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the road-graph of the newest extract in the directory, from the compact form if
+     *  it was compiled from that extract.
+     * @return whether there is a road-graph.
+     */
+    private boolean loadGraph() throws IOException {
+        File extract = newestExtract();
+        if (extract == null) return false;
+        if (graph != null && extract.equals(graph_source) && extract.length() == graph_source_length
+                && extract.lastModified() == graph_source_modified) return true;
+        File compiled = new File(context.getFilesDir(), GRAPH_FILE);
+        long start = System.currentTimeMillis();
+        RoadGraph loaded = null;
+        if (compiled.isFile()){
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(compiled)));
+            try {
+                if (isCompiledFrom(in, extract)) loaded = RoadGraph.read(in);
+            } catch (IOException e) {
+                Log.e(Main.LOG_TAG, "Couldn't read the compiled road-graph, reading the extract.", e);
+            } finally {
+                in.close();
+            }
+        }
+        if (loaded == null){
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(extract), "UTF-8"));
+            try {
+                loaded = OsmRoadReader.read(reader);
+            } finally {
+                reader.close();
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compiled)));
+            try {
+                out.writeUTF(extract.getName());
+                out.writeLong(extract.length());
+                out.writeLong(extract.lastModified());
+                loaded.write(out);
+            } finally {
+                out.close();
+            }
+        }
+        Log.v(Main.LOG_TAG, "Loaded "+loaded.getEdgeCount()+" roads from "+extract.getName()+" in "
+                +(System.currentTimeMillis() - start)+"ms");
+        graph = loaded;
+        graph_source = extract;
+        graph_source_length = extract.length();
+        graph_source_modified = extract.lastModified();
+        matcher = new MapMatcher(graph);
+        return true;
+    }
+
+    /**
+     * Read the header of the compiled road-graph and check if it was compiled from the given
+     *  extract. The modification-time alone misses an extract copied with its time preserved.
+     */
+    private static boolean isCompiledFrom(DataInputStream in, File extract) throws IOException {
+        String name = in.readUTF();
+        long length = in.readLong();
+        long modified = in.readLong();
+        return name.equals(extract.getName()) && length == extract.length() && modified == extract.lastModified();
+    }
+
+    private File newestExtract(){
+        File[] files = directory.listFiles();
+        if (files == null) return null;
+        File newest = null;
+        for (File file : files){
+            if (!file.isFile() || !file.getName().endsWith(".osm")) continue;
+            if (newest == null || file.lastModified() > newest.lastModified()) newest = file;
+        }
+        return newest;
+    }
+
+    private static final RawRowMapper<double[]> ROW_MAPPER = new RawRowMapper<double[]>() {
+        @Override
+        public double[] mapRow(String[] columns, String[] results) {
+            return new double[]{Double.parseDouble(results[0]), Double.parseDouble(results[1])};
+        }
+    };
+}
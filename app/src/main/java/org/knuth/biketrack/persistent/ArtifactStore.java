@@ -0,0 +1,133 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.QueryBuilder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Stores and loads the precomputed {@link TourArtifact}s and {@link TourSummary}s of tours.</p>
+ * <p>Storing is idempotent: storing the same kind of artifact twice replaces the first one.
+ *  The {@link Rollup}s are kept consistent with the stored summaries.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ArtifactStore {
+
+    private final DatabaseHelper helper;
+
+    public ArtifactStore(DatabaseHelper helper){
+        this.helper = helper;
+    }
+
+    /**
+     * Load the data of an artifact.
+     * @return the data, or {@code null} if there is no artifact of the given kind and version.
+     */
+    public byte[] load(int tour_id, String kind, int version) throws SQLException {
+        TourArtifact artifact = helper.getTourArtifactDao().queryBuilder().where()
+                .eq("tour_id", tour_id).and().eq("kind", kind).and().eq("version", version)
+                .queryForFirst();
+        return artifact == null ? null : artifact.getData();
+    }
+
+    /**
+     * Load the data of the artifacts of the given kind and version of all tours which
+     *  started in the given period.
+     * @param from the start of the period, in milliseconds since the epoch.
+     * @param to the end of the period (exclusive), in milliseconds since the epoch.
+     */
+    public List<byte[]> loadAll(String kind, int version, long from, long to) throws SQLException {
+        QueryBuilder<TourSummary, Integer> started = helper.getTourSummaryDao().queryBuilder();
+        started.selectColumns("tour_id").where().ge("start_time", new Date(from)).and().lt("start_time", new Date(to));
+        List<TourArtifact> artifacts = helper.getTourArtifactDao().queryBuilder().selectColumns("data").where()
+                .eq("kind", kind).and().eq("version", version).and().in("tour_id", started)
+                .query();
+        List<byte[]> data = new ArrayList<byte[]>(artifacts.size());
+        for (TourArtifact artifact : artifacts) data.add(artifact.getData());
+        return data;
+    }
+
+    /**
+     * Store (or replace) the artifact of the given kind.
+     */
+    public void store(final int tour_id, final String kind, final int version, final byte[] data) throws SQLException {
+        final Dao<TourArtifact, Void> dao = helper.getTourArtifactDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                dao.executeRaw("DELETE FROM tour_artifacts WHERE tour_id = ? AND kind = ?",
+                        String.valueOf(tour_id), kind);
+                dao.create(new TourArtifact(tour_id, kind, version, data));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Load the summary of the given tour.
+     * @return the summary, or {@code null} if there is none for the current version.
+     */
+    public TourSummary loadSummary(int tour_id) throws SQLException {
+        TourSummary summary = helper.getTourSummaryDao().queryForId(tour_id);
+        return summary != null && summary.isCurrent() ? summary : null;
+    }
+
+    /**
+     * Store (or replace) the summary of a tour and update the {@link Rollup}s with it.
+     */
+    public void storeSummary(final TourSummary summary) throws SQLException {
+        final Dao<TourSummary, Integer> dao = helper.getTourSummaryDao();
+        final RollupStore rollups = new RollupStore(helper);
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                TourSummary old = dao.queryForId(summary.getTourId());
+                if (old != null) rollups.remove(old);
+                dao.createOrUpdate(summary);
+                rollups.add(summary);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * <p>Forget the summary and the artifacts of the given tour.</p>
+     * <p>This must be called when the track of a tour changes, or the tour is deleted.</p>
+     * @param keep the kinds of artifacts which don't depend on what changed, and are kept.
+     */
+    public void forgetTour(final int tour_id, String... keep) throws SQLException {
+        StringBuilder sql = new StringBuilder("DELETE FROM tour_artifacts WHERE tour_id = ?");
+        String[] arguments = new String[keep.length + 1];
+        arguments[0] = String.valueOf(tour_id);
+        if (keep.length > 0){
+            sql.append(" AND kind NOT IN (");
+            for (int i = 0; i < keep.length; i++){
+                if (i > 0) sql.append(", ");
+                sql.append('?');
+                arguments[i + 1] = keep[i];
+            }
+            sql.append(')');
+        }
+        helper.getTourArtifactDao().executeRaw(sql.toString(), arguments);
+        final Dao<TourSummary, Integer> dao = helper.getTourSummaryDao();
+        final RollupStore rollups = new RollupStore(helper);
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                TourSummary old = dao.queryForId(tour_id);
+                if (old != null){
+                    rollups.remove(old);
+                    dao.deleteById(tour_id);
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import org.knuth.biketrack.track.BestEfforts;
+
+import java.util.Date;
+
+/**
+ * <p>ORMlite mapper class for the best effort of one kind on one tour.</p>
+ * <p>Every tour which was searched for efforts has at least the {@link BestEfforts.Kind#CLIMB}
+ *  effort (which might be {@code 0}), so it's never searched again.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see RecordStore
+ */
+@DatabaseTable(tableName = "best_efforts")
+public class BestEffort {
+
+    /** Incremented whenever the search changes, so all tours are searched again */
+    public static final int VERSION = 2;
+
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField
+    private String kind;
+    @DatabaseField
+    private int version;
+    @DatabaseField
+    private double value;
+    @DatabaseField(dataType = DataType.DATE_LONG)
+    private Date start_time;
+
+    public BestEffort(){}
+
+    public BestEffort(int tour_id, BestEfforts.Effort effort){
+        this.tour_id = tour_id;
+        this.kind = effort.getKind().name();
+        this.version = VERSION;
+        this.value = effort.getValue();
+        this.start_time = new Date(effort.getStartTime());
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    public BestEfforts.Kind getKind() {
+        return BestEfforts.Kind.valueOf(kind);
+    }
+
+    /** The time in milliseconds, the climb in meters or the speed in meters per second */
+    public double getValue() {
+        return value;
+    }
+
+    /** When the effort started */
+    public Date getStart() {
+        return start_time;
+    }
+}
@@ -1,16 +1,21 @@
 package org.knuth.biketrack.persistent;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 import org.knuth.biketrack.Main;
 import org.knuth.biketrack.R;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.track.Track;
 
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * Description
@@ -21,10 +26,21 @@ import java.sql.SQLException;
 public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
     private final static String DB_NAME = "bike_track.db";
-    private final static int DB_VERSION = 7;
+    private final static int DB_VERSION = 18;
 
     private Dao<LocationStamp, Void> location_dao;
     private Dao<Tour, Integer> tour_dao;
+    private Dao<TourCell, Void> tour_cell_dao;
+    private Dao<Segment, Integer> segment_dao;
+    private Dao<SegmentEffort, Void> segment_effort_dao;
+    private Dao<TourSummary, Integer> tour_summary_dao;
+    private Dao<TourArtifact, Void> tour_artifact_dao;
+    private Dao<PrecomputeJob, Integer> precompute_job_dao;
+    private Dao<Rollup, Void> rollup_dao;
+    private Dao<BestEffort, Void> best_effort_dao;
+    private Dao<PersonalRecord, String> personal_record_dao;
+    private Dao<Lap, Void> lap_dao;
+    private Dao<RouteBand, Void> route_band_dao;
 
     public DatabaseHelper(Context context){
         super(context, DB_NAME, null, DB_VERSION, R.raw.ormlite_config);
@@ -48,11 +64,162 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return tour_dao;
     }
 
+    /**
+     * Get a (cached) DAO-instance to work with the {@code TourCell}s of the {@link SpatialIndex}.
+     * @return the (cached) DAO.
+     */
+    public Dao<TourCell, Void> getTourCellDao() throws SQLException{
+        if (tour_cell_dao == null) tour_cell_dao = getDao(TourCell.class);
+        return tour_cell_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code Segment}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<Segment, Integer> getSegmentDao() throws SQLException{
+        if (segment_dao == null) segment_dao = getDao(Segment.class);
+        return segment_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code SegmentEffort}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<SegmentEffort, Void> getSegmentEffortDao() throws SQLException{
+        if (segment_effort_dao == null) segment_effort_dao = getDao(SegmentEffort.class);
+        return segment_effort_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code TourSummary}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<TourSummary, Integer> getTourSummaryDao() throws SQLException{
+        if (tour_summary_dao == null) tour_summary_dao = getDao(TourSummary.class);
+        return tour_summary_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code TourArtifact}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<TourArtifact, Void> getTourArtifactDao() throws SQLException{
+        if (tour_artifact_dao == null) tour_artifact_dao = getDao(TourArtifact.class);
+        return tour_artifact_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code PrecomputeJob}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<PrecomputeJob, Integer> getPrecomputeJobDao() throws SQLException{
+        if (precompute_job_dao == null) precompute_job_dao = getDao(PrecomputeJob.class);
+        return precompute_job_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code Rollup}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<Rollup, Void> getRollupDao() throws SQLException{
+        if (rollup_dao == null) rollup_dao = getDao(Rollup.class);
+        return rollup_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code BestEffort}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<BestEffort, Void> getBestEffortDao() throws SQLException{
+        if (best_effort_dao == null) best_effort_dao = getDao(BestEffort.class);
+        return best_effort_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code PersonalRecord}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<PersonalRecord, String> getPersonalRecordDao() throws SQLException{
+        if (personal_record_dao == null) personal_record_dao = getDao(PersonalRecord.class);
+        return personal_record_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code Lap}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<Lap, Void> getLapDao() throws SQLException{
+        if (lap_dao == null) lap_dao = getDao(Lap.class);
+        return lap_dao;
+    }
+
+    /**
+     * Get a (cached) DAO-instance to work with {@code RouteBand}-classes.
+     * @return the (cached) DAO.
+     */
+    public Dao<RouteBand, Void> getRouteBandDao() throws SQLException{
+        if (route_band_dao == null) route_band_dao = getDao(RouteBand.class);
+        return route_band_dao;
+    }
+
+    /**
+     * Query the times (in milliseconds since the epoch) at which laps where marked on the
+     *  tour with the given id.
+     * @return the times in ascending order.
+     */
+    public long[] queryLaps(int tour_id) throws SQLException {
+        QueryBuilder<Lap, Void> builder = getLapDao().queryBuilder();
+        builder.where().eq("tour_id", tour_id);
+        builder.orderBy("time", true);
+        List<Lap> laps = builder.query();
+        long[] times = new long[laps.size()];
+        for (int i = 0; i < times.length; i++) times[i] = laps.get(i).getTime().getTime();
+        return times;
+    }
+
+    /**
+     * Query the area in which the tour with the given id was ridden.
+     * @return the bounds, or {@code null} if the tour has no {@code LocationStamp}s.
+     */
+    public BoundingBox queryBounds(int tour_id) throws SQLException {
+        String[] bounds = getLocationStampDao().queryRaw(
+                "SELECT MIN(latitude), MIN(longitude), MAX(latitude), MAX(longitude) FROM loc_stamp WHERE tour_id = ?",
+                String.valueOf(tour_id)
+        ).getFirstResult();
+        if (bounds == null || bounds[0] == null) return null;
+        return new BoundingBox(Double.parseDouble(bounds[0]), Double.parseDouble(bounds[1]),
+                Double.parseDouble(bounds[2]), Double.parseDouble(bounds[3])
+        );
+    }
+
+    /**
+     * Query the complete track of the tour with the given id.
+     * @return the track, which is empty if the tour has no {@code LocationStamp}s.
+     */
+    public Track queryTrack(int tour_id) throws SQLException {
+        QueryBuilder<LocationStamp, Void> builder = getLocationStampDao().queryBuilder();
+        builder.where().eq("tour_id", tour_id);
+        builder.orderBy("timestamp", true);
+        return Track.of(builder.query());
+    }
+
     @Override
     public void close() {
         super.close();
         location_dao = null;
         tour_dao = null;
+        tour_cell_dao = null;
+        segment_dao = null;
+        segment_effort_dao = null;
+        tour_summary_dao = null;
+        tour_artifact_dao = null;
+        precompute_job_dao = null;
+        rollup_dao = null;
+        best_effort_dao = null;
+        personal_record_dao = null;
+        lap_dao = null;
+        route_band_dao = null;
     }
 
     @Override
@@ -60,30 +227,229 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         try {
             TableUtils.createTable(connectionSource, LocationStamp.class);
             TableUtils.createTable(connectionSource, Tour.class);
+            createSpatialIndex(connectionSource);
+            createSegments(connectionSource);
+            createPrecompute(connectionSource);
+            createSearch();
+            createRollups();
+            createRecords();
+            createLaps();
+            createClusters();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Create the table (and the range-index) for the {@link SpatialIndex}.
+     */
+    private void createSpatialIndex(ConnectionSource connectionSource) throws SQLException {
+        TableUtils.createTable(connectionSource, TourCell.class);
+        Dao<TourCell, Void> dao = getTourCellDao();
+        dao.executeRaw("CREATE UNIQUE INDEX tour_cells_cell_idx ON tour_cells (cell, tour_id)");
+        dao.executeRaw("CREATE INDEX tour_cells_tour_idx ON tour_cells (tour_id)");
+    }
+
+    /**
+     * Create the tables for the {@link SegmentEngine}.
+     */
+    private void createSegments(ConnectionSource connectionSource) throws SQLException {
+        TableUtils.createTable(connectionSource, Segment.class);
+        TableUtils.createTable(connectionSource, SegmentEffort.class);
+        getSegmentEffortDao().executeRaw(
+                "CREATE UNIQUE INDEX segment_efforts_idx ON segment_efforts (segment_id, tour_id)"
+        );
+        getSegmentEffortDao().executeRaw("CREATE INDEX segment_efforts_tour_idx ON segment_efforts (tour_id)");
+    }
+
+    /**
+     * Create the tables for the precompute-queue and its results.
+     */
+    private void createPrecompute(ConnectionSource connectionSource) throws SQLException {
+        TableUtils.createTable(connectionSource, TourSummary.class);
+        TableUtils.createTable(connectionSource, TourArtifact.class);
+        TableUtils.createTable(connectionSource, PrecomputeJob.class);
+        getTourArtifactDao().executeRaw("CREATE UNIQUE INDEX tour_artifacts_idx ON tour_artifacts (tour_id, kind)");
+        getPrecomputeJobDao().executeRaw("CREATE UNIQUE INDEX precompute_jobs_idx ON precompute_jobs (tour_id, task)");
+    }
+
+    /**
+     * Create the full-text index and the other indices for the {@link TourSearch}.
+     */
+    private void createSearch() throws SQLException {
+        TourSearch.createIndex(getTourDao());
+        TourSearch.createSummaryIndex(getTourSummaryDao());
+    }
+
+    /**
+     * Create the table for the {@link RollupStore}.
+     */
+    private void createRollups() throws SQLException {
+        TableUtils.createTable(getConnectionSource(), Rollup.class);
+        getRollupDao().executeRaw("CREATE UNIQUE INDEX rollups_idx ON rollups (period, period_start)");
+    }
+
+    /**
+     * Create the tables for the {@link RecordStore}.
+     */
+    private void createRecords() throws SQLException {
+        TableUtils.createTable(getConnectionSource(), BestEffort.class);
+        TableUtils.createTable(getConnectionSource(), PersonalRecord.class);
+        getBestEffortDao().executeRaw("CREATE UNIQUE INDEX best_efforts_idx ON best_efforts (tour_id, kind)");
+        getBestEffortDao().executeRaw("CREATE INDEX best_efforts_kind_idx ON best_efforts (kind, value)");
+    }
+
+    /**
+     * Create the table for the {@link Lap}s.
+     */
+    private void createLaps() throws SQLException {
+        TableUtils.createTable(getConnectionSource(), Lap.class);
+        getLapDao().executeRaw("CREATE INDEX laps_idx ON laps (tour_id, time)");
+    }
+
+    /**
+     * Create the table for the route-signatures and the index on the clusters of the tours.
+     */
+    private void createClusters() throws SQLException {
+        TableUtils.createTable(getConnectionSource(), RouteBand.class);
+        getRouteBandDao().executeRaw("CREATE INDEX route_bands_idx ON route_bands (band, hash)");
+        getRouteBandDao().executeRaw("CREATE INDEX route_bands_tour_idx ON route_bands (tour_id)");
+        getTourDao().executeRaw("CREATE INDEX tours_cluster_idx ON tours (cluster_id, date)");
+    }
+
+    /**
+     * Add a column to a table, unless it already has it. Tables which where created by a
+     *  later step of the upgrade already have all their current columns.
+     */
+    private static void addColumn(SQLiteDatabase db, String table, String column, String definition){
+        Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int name = columns.getColumnIndex("name");
+            while (columns.moveToNext()){
+                if (column.equals(columns.getString(name))) return;
+            }
+        } finally {
+            columns.close();
+        }
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, ConnectionSource conSource, int oldVersion, int newVersion) {
-        if (newVersion == 7){
-            /*
-                This added titles to the Tour-table!
-            */
+        if (oldVersion >= 6){
             try {
-                Dao<Tour, Integer> dao = getDao(Tour.class);
-                dao.executeRaw("ALTER TABLE tours ADD COLUMN title TEXT");
-                dao.executeRaw("UPDATE tours SET title = \"Tour #\" || id");
+                if (oldVersion < 7){
+                    /*
+                        This added titles to the Tour-table!
+                    */
+                    Dao<Tour, Integer> dao = getDao(Tour.class);
+                    dao.executeRaw("ALTER TABLE tours ADD COLUMN title TEXT");
+                    dao.executeRaw("UPDATE tours SET title = \"Tour #\" || id");
+                }
+                if (oldVersion < 8){
+                    /*
+                        This added the spatial index. Existing tours are indexed on the next start.
+                    */
+                    createSpatialIndex(conSource);
+                }
+                if (oldVersion < 9){
+                    /*
+                        This added segments and their leaderboards.
+                    */
+                    createSegments(conSource);
+                }
+                if (oldVersion < 10){
+                    /*
+                        This added the precompute-queue. Existing tours are queued on the next start.
+                    */
+                    createPrecompute(conSource);
+                }
+                if (oldVersion < 11){
+                    /*
+                        This added the full-text index and the indices for searching tours.
+                    */
+                    createSearch();
+                }
+                if (oldVersion < 12){
+                    /*
+                        This added the rollups and the ascent to the summaries. The rollups are
+                        filled from the existing summaries, which are calculated again later
+                        (their version changed) to add the ascent.
+                    */
+                    addColumn(db, "tour_summaries", "ascent", "DOUBLE PRECISION DEFAULT 0");
+                    createRollups();
+                }
+                if (oldVersion < 13){
+                    /*
+                        This added the best efforts and personal records. Existing tours are queued on the next start.
+                    */
+                    createRecords();
+                }
+                if (oldVersion < 14){
+                    /*
+                        This added the descent and the steep gradients to the summaries. They're
+                        calculated again later (their version changed), which also corrects the rollups.
+                    */
+                    addColumn(db, "tour_summaries", "descent", "DOUBLE PRECISION DEFAULT 0");
+                    addColumn(db, "tour_summaries", "steep_uphill", "DOUBLE PRECISION DEFAULT 0");
+                    addColumn(db, "tour_summaries", "steep_downhill", "DOUBLE PRECISION DEFAULT 0");
+                }
+                if (oldVersion < 15){
+                    /*
+                        This added the moving time and the pauses to the summaries. They're
+                        calculated again later (their version changed).
+                    */
+                    addColumn(db, "tour_summaries", "moving_time", "BIGINT DEFAULT 0");
+                    addColumn(db, "tour_summaries", "pauses", "INTEGER DEFAULT 0");
+                }
+                if (oldVersion < 16){
+                    /*
+                        This added the laps.
+                    */
+                    createLaps();
+                }
+                if (oldVersion < 17){
+                    /*
+                        This added the clusters of tours which are the same ride. Existing tours
+                        are queued on the next start. The full-text trigger now ignores updates
+                        of the clusters.
+                    */
+                    getTourDao().executeRaw("ALTER TABLE tours ADD COLUMN cluster_id INTEGER DEFAULT 0");
+                    createClusters();
+                    getTourDao().executeRaw("DROP TRIGGER tours_fts_update");
+                    TourSearch.createUpdateTrigger(getTourDao());
+                }
+                if (oldVersion < 18){
+                    /*
+                        This added the altitudes corrected from terrain-data, next to the
+                        recorded ones.
+                    */
+                    getLocationStampDao().executeRaw("ALTER TABLE loc_stamp ADD COLUMN elevation REAL");
+                }
+                if (oldVersion < 12){
+                    // Only now all columns of the summaries exist, which are read for the rollups:
+                    new RollupStore(this).rebuild();
+                }
             } catch (SQLException e) {
-                e.printStackTrace();
+                throw new RuntimeException(e);
             }
-
         } else {
             // Older versions of the DB don't have an update routine!
             try {
                 TableUtils.dropTable(conSource, LocationStamp.class, true);
                 TableUtils.dropTable(conSource, Tour.class, true);
+                TableUtils.dropTable(conSource, TourCell.class, true);
+                TableUtils.dropTable(conSource, Segment.class, true);
+                TableUtils.dropTable(conSource, SegmentEffort.class, true);
+                TableUtils.dropTable(conSource, TourSummary.class, true);
+                TableUtils.dropTable(conSource, TourArtifact.class, true);
+                TableUtils.dropTable(conSource, PrecomputeJob.class, true);
+                TableUtils.dropTable(conSource, Rollup.class, true);
+                TableUtils.dropTable(conSource, BestEffort.class, true);
+                TableUtils.dropTable(conSource, PersonalRecord.class, true);
+                TableUtils.dropTable(conSource, Lap.class, true);
+                TableUtils.dropTable(conSource, RouteBand.class, true);
+                getTourDao().executeRaw("DROP TABLE IF EXISTS tours_fts");
                 onCreate(db, conSource);
             } catch (SQLException e){
                 throw new RuntimeException(e);
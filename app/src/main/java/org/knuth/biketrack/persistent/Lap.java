@@ -0,0 +1,38 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Date;
+
+/**
+ * ORMlite mapper class for a lap, which was marked by the rider while tracking a tour.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+@DatabaseTable(tableName = "laps")
+public class Lap {
+
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField(dataType = DataType.DATE_LONG)
+    private Date time;
+
+    public Lap(){}
+
+    public Lap(int tour_id, Date time){
+        this.tour_id = tour_id;
+        this.time = time;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    /** When the lap was marked (and the next one started) */
+    public Date getTime() {
+        return time;
+    }
+}
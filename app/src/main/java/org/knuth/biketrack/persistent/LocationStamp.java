@@ -19,6 +19,9 @@ public class LocationStamp {
     private double longitude;
     @DatabaseField
     private double altitude;
+    /** The altitude corrected from terrain-data, {@code null} if it wasn't corrected */
+    @DatabaseField
+    private Double elevation;
     @DatabaseField
     private Date timestamp;
     @DatabaseField
@@ -49,6 +52,14 @@ public class LocationStamp {
         return altitude;
     }
 
+    /**
+     * The altitude corrected from terrain-data, or {@code null} if it wasn't corrected.
+     * @see #getAltitude()
+     */
+    public Double getElevation(){
+        return elevation;
+    }
+
     public Date getTimestamp() {
         return timestamp;
     }
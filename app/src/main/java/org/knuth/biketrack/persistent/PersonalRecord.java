@@ -0,0 +1,50 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import org.knuth.biketrack.track.BestEfforts;
+
+import java.util.Date;
+
+/**
+ * <p>ORMlite mapper class for the all-time best effort of one kind, over all tours.</p>
+ * <p>There is at most one record per kind. It's updated incrementally by the
+ *  {@link RecordStore} whenever the efforts of a tour are stored or forgotten.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+@DatabaseTable(tableName = "personal_records")
+public class PersonalRecord {
+
+    @DatabaseField(id = true)
+    private String kind;
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField
+    private double value;
+    @DatabaseField(dataType = DataType.DATE_LONG)
+    private Date start_time;
+
+    public PersonalRecord(){}
+
+    public BestEfforts.Kind getKind() {
+        return BestEfforts.Kind.valueOf(kind);
+    }
+
+    /** The tour in which the record was set */
+    public int getTourId() {
+        return tour_id;
+    }
+
+    /** The time in milliseconds, the climb in meters or the speed in meters per second */
+    public double getValue() {
+        return value;
+    }
+
+    /** When the record was set */
+    public Date getStart() {
+        return start_time;
+    }
+}
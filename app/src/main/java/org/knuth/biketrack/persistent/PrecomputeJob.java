@@ -0,0 +1,59 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * <p>ORMlite mapper class for a pending job of the precompute-queue.</p>
+ * <p>There is at most one job per tour and task. A job is deleted once it's done, so
+ *  everything left in the table after the process died is run again on the next start.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see org.knuth.biketrack.precompute.PrecomputeQueue
+ */
+@DatabaseTable(tableName = "precompute_jobs")
+public class PrecomputeJob {
+
+    @DatabaseField(generatedId = true)
+    private int id;
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField
+    private String task;
+    @DatabaseField
+    private int priority;
+    @DatabaseField
+    private int attempts;
+
+    public PrecomputeJob(){}
+
+    public PrecomputeJob(int id, int tour_id, String task, int priority, int attempts){
+        this.id = id;
+        this.tour_id = tour_id;
+        this.task = task;
+        this.priority = priority;
+        this.attempts = attempts;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /** How often the job failed before. */
+    public int getAttempts() {
+        return attempts;
+    }
+}
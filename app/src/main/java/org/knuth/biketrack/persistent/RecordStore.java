@@ -0,0 +1,160 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import org.knuth.biketrack.track.BestEfforts;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Stores the {@link BestEffort}s of every tour and maintains the all-time
+ *  {@link PersonalRecord}s.</p>
+ * <p>When the efforts of a tour are stored, a record is only replaced if the tour beat it.
+ *  Only if the tour that held a record changes or is forgotten, the record is looked up
+ *  again, using the index over the efforts of all tours.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RecordStore {
+
+    private final DatabaseHelper helper;
+
+    public RecordStore(DatabaseHelper helper){
+        this.helper = helper;
+    }
+
+    /**
+     * Get all personal records, in the order of their {@link BestEfforts.Kind}.
+     */
+    public List<PersonalRecord> getRecords() throws SQLException {
+        List<PersonalRecord> records = new ArrayList<PersonalRecord>(helper.getPersonalRecordDao().queryForAll());
+        Collections.sort(records, new Comparator<PersonalRecord>() {
+            @Override
+            public int compare(PersonalRecord a, PersonalRecord b) {
+                return a.getKind().compareTo(b.getKind());
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Get the best efforts of the given tour, in the order of their {@link BestEfforts.Kind}.
+     */
+    public List<BestEffort> getEfforts(int tour_id) throws SQLException {
+        List<BestEffort> efforts = new ArrayList<BestEffort>(
+                helper.getBestEffortDao().queryBuilder().where().eq("tour_id", tour_id).query()
+        );
+        Collections.sort(efforts, new Comparator<BestEffort>() {
+            @Override
+            public int compare(BestEffort a, BestEffort b) {
+                return a.getKind().compareTo(b.getKind());
+            }
+        });
+        return efforts;
+    }
+
+    /**
+     * Whether the given tour was already searched for efforts (with the current version).
+     */
+    public boolean hasEfforts(int tour_id) throws SQLException {
+        return helper.getBestEffortDao().queryBuilder().where()
+                .eq("tour_id", tour_id).and().eq("kind", BestEfforts.Kind.CLIMB.name())
+                .and().eq("version", BestEffort.VERSION).countOf() > 0;
+    }
+
+    /**
+     * Store (or replace) the best efforts of a tour.
+     * @param update_records whether the personal records should be updated right away. When
+     *  storing the efforts of many tours, it's cheaper to {@link #rebuildRecords()} once after.
+     */
+    public void storeEfforts(final int tour_id, final List<BestEfforts.Effort> efforts,
+                             final boolean update_records) throws SQLException {
+        final Dao<BestEffort, Void> dao = helper.getBestEffortDao();
+        final Dao<PersonalRecord, String> record_dao = helper.getPersonalRecordDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                dao.executeRaw("DELETE FROM best_efforts WHERE tour_id = ?", String.valueOf(tour_id));
+                Map<BestEfforts.Kind, BestEfforts.Effort> by_kind =
+                        new EnumMap<BestEfforts.Kind, BestEfforts.Effort>(BestEfforts.Kind.class);
+                for (BestEfforts.Effort effort : efforts){
+                    dao.create(new BestEffort(tour_id, effort));
+                    by_kind.put(effort.getKind(), effort);
+                }
+                if (!update_records) return null;
+                for (BestEfforts.Kind kind : BestEfforts.Kind.values()){
+                    PersonalRecord record = record_dao.queryForId(kind.name());
+                    BestEfforts.Effort effort = by_kind.get(kind);
+                    if (record == null || record.getTourId() == tour_id){
+                        // The tours old effort might have been the record:
+                        lookupRecord(kind);
+                    } else if (effort != null && kind.isBetter(effort.getValue(), record.getValue())){
+                        storeRecord(kind, tour_id, effort.getValue(), effort.getStartTime());
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * <p>Forget the efforts of the given tour and look up the records it held again.</p>
+     * <p>This must be called when the track of a tour changes, or the tour is deleted.</p>
+     */
+    public void forgetTour(final int tour_id) throws SQLException {
+        final Dao<PersonalRecord, String> record_dao = helper.getPersonalRecordDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                helper.getBestEffortDao().executeRaw(
+                        "DELETE FROM best_efforts WHERE tour_id = ?", String.valueOf(tour_id)
+                );
+                for (PersonalRecord record : record_dao.queryForEq("tour_id", tour_id)){
+                    lookupRecord(record.getKind());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Look up all records from the efforts of all tours again.
+     */
+    public void rebuildRecords() throws SQLException {
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (BestEfforts.Kind kind : BestEfforts.Kind.values()){
+                    lookupRecord(kind);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Replace the record of the given kind with the best effort of all tours.
+     */
+    private void lookupRecord(BestEfforts.Kind kind) throws SQLException {
+        Dao<PersonalRecord, String> dao = helper.getPersonalRecordDao();
+        dao.executeRaw("DELETE FROM personal_records WHERE kind = ?", kind.name());
+        dao.executeRaw("INSERT INTO personal_records (kind, tour_id, value, start_time) " +
+                "SELECT kind, tour_id, value, start_time FROM best_efforts WHERE kind = ? " +
+                "ORDER BY value " + (kind.isTime() ? "ASC" : "DESC") + " LIMIT 1", kind.name());
+    }
+
+    private void storeRecord(BestEfforts.Kind kind, int tour_id, double value, long start) throws SQLException {
+        helper.getPersonalRecordDao().executeRaw(
+                "INSERT OR REPLACE INTO personal_records (kind, tour_id, value, start_time) VALUES (?, ?, ?, ?)",
+                kind.name(), String.valueOf(tour_id), String.valueOf(value), String.valueOf(start)
+        );
+    }
+}
@@ -0,0 +1,153 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Calendar;
+
+/**
+ * <p>ORMlite mapper class for the totals of all tours in one week, month or year.</p>
+ * <p>Rollups are maintained incrementally from the {@link TourSummary}s by the
+ *  {@link RollupStore}, so reading the totals of a period never touches the tours
+ *  themselves. All values are stored in SI-units (meters, milliseconds).</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+@DatabaseTable(tableName = "rollups")
+public class Rollup {
+
+    /**
+     * The length of a rollup. Periods start at midnight in the local time zone, weeks
+     *  on the locales first day of the week.
+     */
+    public enum Period {
+        WEEK, MONTH, YEAR;
+
+        /**
+         * Get the start of the period containing the given time.
+         * @param time milliseconds since the epoch.
+         * @return the start of the period, in milliseconds since the epoch.
+         */
+        public long startOf(long time){
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            switch (this){
+                case WEEK:
+                    int days = calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek();
+                    if (days < 0) days += 7;
+                    calendar.add(Calendar.DAY_OF_MONTH, -days);
+                    break;
+                case YEAR:
+                    calendar.set(Calendar.MONTH, Calendar.JANUARY);
+                    // Fall through, the year starts on the first of the month.
+                case MONTH:
+                    calendar.set(Calendar.DAY_OF_MONTH, 1);
+                    break;
+            }
+            return calendar.getTimeInMillis();
+        }
+
+        /**
+         * Get the start of the period before the one starting at the given time.
+         */
+        public long previous(long start){
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(start);
+            switch (this){
+                case WEEK:
+                    calendar.add(Calendar.WEEK_OF_YEAR, -1);
+                    break;
+                case MONTH:
+                    calendar.add(Calendar.MONTH, -1);
+                    break;
+                case YEAR:
+                    calendar.add(Calendar.YEAR, -1);
+                    break;
+            }
+            return startOf(calendar.getTimeInMillis());
+        }
+    }
+
+    @DatabaseField
+    private String period;
+    @DatabaseField
+    private long period_start;
+    @DatabaseField
+    private double distance;
+    @DatabaseField
+    private long duration;
+    @DatabaseField
+    private double ascent;
+    @DatabaseField
+    private int rides;
+
+    public Rollup(){}
+
+    public Rollup(Period period, long period_start, double distance, long duration, double ascent, int rides){
+        this.period = period.name();
+        this.period_start = period_start;
+        this.distance = distance;
+        this.duration = duration;
+        this.ascent = ascent;
+        this.rides = rides;
+    }
+
+    /**
+     * An empty rollup, for a period without tours.
+     */
+    public static Rollup empty(Period period, long period_start){
+        return new Rollup(period, period_start, 0, 0, 0, 0);
+    }
+
+    public Period getPeriod() {
+        return Period.valueOf(period);
+    }
+
+    /** The start of the period in milliseconds since the epoch */
+    public long getPeriodStart() {
+        return period_start;
+    }
+
+    /** The total distance in meters */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** The total duration in milliseconds */
+    public long getDuration() {
+        return duration;
+    }
+
+    /** The total elevation gained in meters */
+    public double getAscent() {
+        return ascent;
+    }
+
+    /** The number of tours in the period */
+    public int getRides() {
+        return rides;
+    }
+
+    /**
+     * Add a tour to the totals. Only used for rebuilding the rollups.
+     */
+    void add(TourSummary summary){
+        distance += summary.getDistance();
+        duration += summary.getDuration();
+        ascent += summary.getAscent();
+        rides++;
+    }
+
+    /**
+     * Whether both rollups have the same totals (with some tolerance for rounding).
+     */
+    boolean sameTotals(Rollup other){
+        return rides == other.rides && duration == other.duration
+                && Math.abs(distance - other.distance) < 0.5 && Math.abs(ascent - other.ascent) < 0.5;
+    }
+}
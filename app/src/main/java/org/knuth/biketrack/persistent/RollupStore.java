@@ -0,0 +1,150 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Maintains and reads the weekly, monthly and yearly {@link Rollup}s.</p>
+ * <p>The rollups are updated whenever a {@link TourSummary} is stored or removed (see
+ *  {@link ArtifactStore}), in the same transaction. Reading the totals of a period is a
+ *  single lookup in a unique index, no matter how many tours there are.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RollupStore {
+
+    private final DatabaseHelper helper;
+
+    public RollupStore(DatabaseHelper helper){
+        this.helper = helper;
+    }
+
+    /**
+     * Get the totals of the period containing the given time.
+     * @param time milliseconds since the epoch.
+     * @return the totals, which are empty if there where no tours in the period.
+     */
+    public Rollup get(Rollup.Period period, long time) throws SQLException {
+        long start = period.startOf(time);
+        Rollup rollup = helper.getRollupDao().queryBuilder().where()
+                .eq("period", period.name()).and().eq("period_start", start).queryForFirst();
+        return rollup == null ? Rollup.empty(period, start) : rollup;
+    }
+
+    /**
+     * Get the totals of the given number of periods up to (and including) the one
+     *  containing the given time.
+     * @return the totals, oldest first. Periods without tours are empty.
+     */
+    public List<Rollup> getRecent(Rollup.Period period, long time, int count) throws SQLException {
+        long last = period.startOf(time);
+        long first = last;
+        for (int i = 1; i < count; i++) first = period.previous(first);
+        Map<Long, Rollup> stored = new HashMap<Long, Rollup>();
+        for (Rollup rollup : helper.getRollupDao().queryBuilder().where()
+                .eq("period", period.name()).and().between("period_start", first, last).query()){
+            stored.put(rollup.getPeriodStart(), rollup);
+        }
+        Rollup[] recent = new Rollup[count];
+        long start = last;
+        for (int i = count - 1; i >= 0; i--){
+            Rollup rollup = stored.get(start);
+            recent[i] = rollup == null ? Rollup.empty(period, start) : rollup;
+            start = period.previous(start);
+        }
+        List<Rollup> result = new ArrayList<Rollup>(count);
+        for (Rollup rollup : recent) result.add(rollup);
+        return result;
+    }
+
+    /**
+     * Add a tour to the totals of its periods. Must be called within the transaction
+     *  storing its summary.
+     */
+    void add(TourSummary summary) throws SQLException {
+        update(summary, 1);
+    }
+
+    /**
+     * Remove a tour from the totals of its periods. Must be called within the transaction
+     *  removing its summary.
+     */
+    void remove(TourSummary summary) throws SQLException {
+        update(summary, -1);
+    }
+
+    private void update(TourSummary summary, int sign) throws SQLException {
+        Dao<Rollup, Void> dao = helper.getRollupDao();
+        long time = summary.getStart().getTime();
+        for (Rollup.Period period : Rollup.Period.values()){
+            String name = period.name();
+            String start = String.valueOf(period.startOf(time));
+            dao.executeRaw("INSERT OR IGNORE INTO rollups (period, period_start, distance, duration, ascent, rides) " +
+                    "VALUES (?, ?, 0, 0, 0, 0)", name, start);
+            dao.executeRaw("UPDATE rollups SET distance = distance + ?, duration = duration + ?, " +
+                    "ascent = ascent + ?, rides = rides + ? WHERE period = ? AND period_start = ?",
+                    String.valueOf(sign * summary.getDistance()), String.valueOf(sign * summary.getDuration()),
+                    String.valueOf(sign * summary.getAscent()), String.valueOf(sign), name, start
+            );
+            if (sign < 0){
+                dao.executeRaw("DELETE FROM rollups WHERE period = ? AND period_start = ? AND rides <= 0",
+                        name, start);
+            }
+        }
+    }
+
+    /**
+     * <p>Rebuild all rollups from the stored summaries.</p>
+     * <p>The rollups should always be consistent with the summaries; this is for checking
+     *  that they are and for repairing them (e.g. after the time zone changed).</p>
+     * @return the number of periods which had to be corrected.
+     */
+    public int rebuild() throws SQLException {
+        final Dao<Rollup, Void> dao = helper.getRollupDao();
+        return TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Map<String, Rollup> expected = new HashMap<String, Rollup>();
+                for (TourSummary summary : helper.getTourSummaryDao().queryForAll()){
+                    long time = summary.getStart().getTime();
+                    for (Rollup.Period period : Rollup.Period.values()){
+                        long start = period.startOf(time);
+                        String key = period.name() + start;
+                        Rollup rollup = expected.get(key);
+                        if (rollup == null){
+                            rollup = Rollup.empty(period, start);
+                            expected.put(key, rollup);
+                        }
+                        rollup.add(summary);
+                    }
+                }
+                // Compare them to the stored ones:
+                int corrected = 0;
+                int found = 0;
+                for (Rollup stored : dao.queryForAll()){
+                    Rollup rollup = expected.get(stored.getPeriod().name() + stored.getPeriodStart());
+                    if (rollup == null){
+                        corrected++;
+                    } else {
+                        found++;
+                        if (!rollup.sameTotals(stored)) corrected++;
+                    }
+                }
+                corrected += expected.size() - found; // The missing ones.
+                dao.executeRaw("DELETE FROM rollups");
+                for (Rollup rollup : expected.values()){
+                    dao.create(rollup);
+                }
+                return corrected;
+            }
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * <p>ORMlite mapper class for one band of the route-signature of a tour: tours with the
+ *  same hash in the same band are candidates for the same ride.</p>
+ * <p>This table is maintained by the {@code RouteClusters}, don't write to it directly.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see org.knuth.biketrack.geo.RouteSignature
+ */
+@DatabaseTable(tableName = "route_bands")
+public class RouteBand {
+
+    /** Incremented whenever the signature changes, so all tours are clustered again */
+    public static final int VERSION = 1;
+
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField
+    private int band;
+    @DatabaseField
+    private long hash;
+    @DatabaseField
+    private int version;
+
+    public RouteBand(){}
+
+    public RouteBand(int tour_id, int band, long hash){
+        this.tour_id = tour_id;
+        this.band = band;
+        this.hash = hash;
+        this.version = VERSION;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    public int getBand() {
+        return band;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+}
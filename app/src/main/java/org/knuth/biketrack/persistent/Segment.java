@@ -0,0 +1,93 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import org.knuth.biketrack.geo.PolylineCodec;
+import org.knuth.biketrack.track.SegmentMatcher;
+
+import java.util.Date;
+
+/**
+ * <p>ORMlite mapper class for a segment: a stretch of road (taken from a tour), on
+ *  which all rides are compared against each other.</p>
+ * <p>The segment keeps its own copy of the geometry, so it stays valid even if the
+ *  tour it was taken from is deleted.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see SegmentEngine
+ */
+@DatabaseTable(tableName = "segments")
+public class Segment {
+
+    @DatabaseField(generatedId = true)
+    private int id;
+    @DatabaseField
+    private String name;
+    @DatabaseField
+    private int source_tour_id;
+    @DatabaseField
+    private Date created;
+    @DatabaseField
+    private double length;
+    @DatabaseField(dataType = DataType.BYTE_ARRAY)
+    private byte[] geometry;
+
+    private SegmentMatcher matcher;
+
+    public Segment(){}
+
+    public Segment(String name, Tour source, double[] latitudes, double[] longitudes, int from, int to){
+        this.name = name;
+        this.source_tour_id = source.getId();
+        this.created = new Date();
+        this.geometry = PolylineCodec.encode(latitudes, longitudes, from, to);
+        this.length = getMatcher().getLength();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** The id of the tour, this segment was taken from. */
+    public int getSourceTourId() {
+        return source_tour_id;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    /** The length of the segment in meters. */
+    public double getLength() {
+        return length;
+    }
+
+    public double[] getLatitudes(){
+        return PolylineCodec.decodeLatitudes(geometry);
+    }
+
+    public double[] getLongitudes(){
+        return PolylineCodec.decodeLongitudes(geometry);
+    }
+
+    /**
+     * Get the (cached) matcher for this segments geometry.
+     */
+    public synchronized SegmentMatcher getMatcher(){
+        if (matcher == null){
+            matcher = new SegmentMatcher(getLatitudes(), getLongitudes(), SegmentMatcher.DEFAULT_CORRIDOR);
+        }
+        return matcher;
+    }
+
+    @Override
+    public String toString(){
+        return this.name;
+    }
+}
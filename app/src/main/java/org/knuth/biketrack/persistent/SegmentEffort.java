@@ -0,0 +1,63 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Date;
+
+/**
+ * <p>ORMlite mapper class for the (cached) result of matching one tour against one segment.</p>
+ * <p>If the tour didn't ride the segment, the entry is still stored (with
+ *  {@link #NO_EFFORT} as the elapsed time), so the tour is never matched again.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see SegmentEngine
+ */
+@DatabaseTable(tableName = "segment_efforts")
+public class SegmentEffort {
+
+    /** The elapsed time of a tour that didn't ride the segment */
+    public static final long NO_EFFORT = -1;
+
+    @DatabaseField
+    private int segment_id;
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField
+    private long elapsed;
+    @DatabaseField(dataType = DataType.DATE_LONG)
+    private Date start;
+
+    public SegmentEffort(){}
+
+    public SegmentEffort(int segment_id, int tour_id, long elapsed, Date start){
+        this.segment_id = segment_id;
+        this.tour_id = tour_id;
+        this.elapsed = elapsed;
+        this.start = start;
+    }
+
+    public int getSegmentId() {
+        return segment_id;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    /** How long the effort took in milliseconds, or {@link #NO_EFFORT}. */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /** When the effort started, or {@code null} if there is {@link #NO_EFFORT}. */
+    public Date getStart() {
+        return start;
+    }
+
+    public boolean isEffort(){
+        return elapsed != NO_EFFORT;
+    }
+}
@@ -0,0 +1,167 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.misc.TransactionManager;
+import org.knuth.biketrack.track.SegmentMatcher;
+import org.knuth.biketrack.track.Track;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Creates {@link Segment}s and matches tours against them to build leaderboards.</p>
+ * <p>The result of matching a tour against a segment is cached as a {@link SegmentEffort},
+ *  so every tour is only ever matched once per segment. Candidate tours for a segment
+ *  are found with the {@link SpatialIndex}, candidate segments for a tour by comparing
+ *  their bounds.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class SegmentEngine {
+
+    private final DatabaseHelper helper;
+
+    public SegmentEngine(DatabaseHelper helper){
+        this.helper = helper;
+    }
+
+    /**
+     * Get all stored segments.
+     */
+    public List<Segment> getSegments() throws SQLException {
+        return helper.getSegmentDao().queryForAll();
+    }
+
+    /**
+     * Create a new segment from the points {@code [from, to)} of the given tours track.
+     * @throws IllegalArgumentException if the range contains less than two points.
+     */
+    public Segment createSegment(String name, Tour tour, Track track, int from, int to) throws SQLException {
+        if (to - from < 2)
+            throw new IllegalArgumentException("A segment needs at least two points!");
+        Segment segment = new Segment(name, tour, track.getLatitudes(), track.getLongitudes(), from, to);
+        helper.getSegmentDao().create(segment);
+        return segment;
+    }
+
+    /**
+     * Delete a segment and all its efforts.
+     */
+    public void deleteSegment(Segment segment) throws SQLException {
+        helper.getSegmentEffortDao().executeRaw(
+                "DELETE FROM segment_efforts WHERE segment_id = ?", String.valueOf(segment.getId())
+        );
+        helper.getSegmentDao().delete(segment);
+    }
+
+    /**
+     * Match the given tour against all segments it wasn't matched against yet.
+     * @return the efforts of the tour on all segments it rode.
+     */
+    public List<SegmentEffort> matchTour(Tour tour, Track track) throws SQLException {
+        Set<Integer> matched = new HashSet<Integer>(helper.getSegmentEffortDao().queryRaw(
+                "SELECT segment_id FROM segment_efforts WHERE tour_id = ?", ID_MAPPER,
+                String.valueOf(tour.getId())
+        ).getResults());
+        List<SegmentEffort> found = new ArrayList<SegmentEffort>();
+        if (!track.isEmpty()){
+            for (Segment segment : getSegments()){
+                if (matched.contains(segment.getId())) continue;
+                if (!segment.getMatcher().getBounds().intersects(track.getBounds())) continue;
+                found.add(match(segment, tour.getId(), track));
+            }
+            store(found);
+        }
+        return helper.getSegmentEffortDao().queryBuilder().where()
+                .eq("tour_id", tour.getId()).and().ge("elapsed", 0).query();
+    }
+
+    /**
+     * <p>Get the leaderboard for the given segment: the fastest effort of every tour
+     *  which rode it, fastest first.</p>
+     * <p>All tours which pass through the start and the end of the segment and weren't
+     *  matched against it yet, are matched now.</p>
+     */
+    public List<SegmentEffort> getLeaderboard(Segment segment) throws SQLException {
+        SegmentMatcher matcher = segment.getMatcher();
+        double[] lat = segment.getLatitudes();
+        double[] lon = segment.getLongitudes();
+        int last = lat.length - 1;
+        // Find the candidates:
+        SpatialIndex index = new SpatialIndex(helper);
+        Set<Integer> candidates = index.queryRadius(lat[0], lon[0], SegmentMatcher.DEFAULT_CORRIDOR);
+        candidates.retainAll(index.queryRadius(lat[last], lon[last], SegmentMatcher.DEFAULT_CORRIDOR));
+        candidates.removeAll(helper.getSegmentEffortDao().queryRaw(
+                "SELECT tour_id FROM segment_efforts WHERE segment_id = ?", ID_MAPPER,
+                String.valueOf(segment.getId())
+        ).getResults());
+        // Match them:
+        List<SegmentEffort> found = new ArrayList<SegmentEffort>(candidates.size());
+        for (int tour_id : candidates){
+            Track track = helper.queryTrack(tour_id);
+            if (track.isEmpty() || !matcher.getBounds().intersects(track.getBounds())){
+                found.add(new SegmentEffort(segment.getId(), tour_id, SegmentEffort.NO_EFFORT, null));
+            } else {
+                found.add(match(segment, tour_id, track));
+            }
+        }
+        store(found);
+        return helper.getSegmentEffortDao().queryBuilder().orderBy("elapsed", true).where()
+                .eq("segment_id", segment.getId()).and().ge("elapsed", 0).query();
+    }
+
+    /**
+     * <p>Forget all efforts of the given tour.</p>
+     * <p>This must be called when the track of a tour changes, or the tour is deleted.</p>
+     */
+    public void forgetTour(int tour_id) throws SQLException {
+        helper.getSegmentEffortDao().executeRaw(
+                "DELETE FROM segment_efforts WHERE tour_id = ?", String.valueOf(tour_id)
+        );
+    }
+
+    private static SegmentEffort match(Segment segment, int tour_id, Track track){
+        SegmentMatcher.Effort effort = segment.getMatcher().match(track);
+        if (effort == null){
+            return new SegmentEffort(segment.getId(), tour_id, SegmentEffort.NO_EFFORT, null);
+        } else {
+            return new SegmentEffort(
+                    segment.getId(), tour_id, effort.getElapsed(), new Date(effort.getStartTime())
+            );
+        }
+    }
+
+    private void store(final List<SegmentEffort> efforts) throws SQLException {
+        if (efforts.isEmpty()) return;
+        final Dao<SegmentEffort, Void> dao = helper.getSegmentEffortDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (SegmentEffort effort : efforts){
+                    // Another loader might have matched the same tour in the meantime:
+                    dao.executeRaw("INSERT OR REPLACE INTO segment_efforts " +
+                            "(segment_id, tour_id, elapsed, start) VALUES (?, ?, ?, ?)",
+                            String.valueOf(effort.getSegmentId()), String.valueOf(effort.getTourId()),
+                            String.valueOf(effort.getElapsed()),
+                            effort.getStart() == null ? null : String.valueOf(effort.getStart().getTime())
+                    );
+                }
+                return null;
+            }
+        });
+    }
+
+    private static final RawRowMapper<Integer> ID_MAPPER = new RawRowMapper<Integer>() {
+        @Override
+        public Integer mapRow(String[] columns, String[] results) {
+            return Integer.parseInt(results[0]);
+        }
+    };
+}
@@ -0,0 +1,231 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.QueryBuilder;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.geo.CellCover;
+import org.knuth.biketrack.geo.CellGrid;
+import org.knuth.biketrack.geo.Corridor;
+import org.knuth.biketrack.geo.GeoRegion;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Answers which tours passed through a given region, without looking at
+ *  any {@code LocationStamp}.</p>
+ * <p>For every tour, the index stores the set of {@link CellGrid}-cells its track
+ *  touches (see {@link TourCell}). A query covers the searched region with cells
+ *  (see {@link CellCover}) and asks the database for the tours in these cell-ranges,
+ *  which is a simple range-scan over the {@code (cell, tour_id)}-index.</p>
+ * <p>The index is exact to the size of one cell (a few hundred meters).</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class SpatialIndex {
+
+    private final DatabaseHelper helper;
+
+    public SpatialIndex(DatabaseHelper helper){
+        this.helper = helper;
+    }
+
+    /**
+     * Find all tours which passed through the given box.
+     */
+    public Set<Integer> queryBoundingBox(BoundingBox box) throws SQLException {
+        return query(box);
+    }
+
+    /**
+     * Find all tours which passed within {@code radius} meters of the given point.
+     */
+    public Set<Integer> queryRadius(double latitude, double longitude, double radius) throws SQLException {
+        return query(Corridor.around(latitude, longitude, radius));
+    }
+
+    /**
+     * Find all tours which passed within {@code radius} meters of the given polyline.
+     */
+    public Set<Integer> queryCorridor(double[] latitudes, double[] longitudes, double radius) throws SQLException {
+        return query(new Corridor(latitudes, longitudes, radius));
+    }
+
+    /**
+     * Find the ids of all tours which passed through the given region.
+     */
+    public Set<Integer> query(final GeoRegion region) throws SQLException {
+        final Set<Integer> tours = new HashSet<Integer>();
+        CellCover cover = CellCover.of(region);
+        if (cover.isEmpty()) return tours;
+        Dao<TourCell, Void> dao = helper.getTourCellDao();
+        // Every tour with a cell completely inside the region is a hit:
+        if (cover.getInnerRanges().length > 0){
+            List<Integer> inner = dao.queryRaw(
+                    "SELECT DISTINCT tour_id FROM tour_cells WHERE " + rangeClause(cover.getInnerRanges()),
+                    new RawRowMapper<Integer>() {
+                        @Override
+                        public Integer mapRow(String[] columns, String[] results) {
+                            return Integer.parseInt(results[0]);
+                        }
+                    }
+            ).getResults();
+            tours.addAll(inner);
+        }
+        // For cells along the border, check every cell again:
+        if (cover.getBorderRanges().length > 0){
+            dao.queryRaw(
+                    "SELECT cell, tour_id FROM tour_cells WHERE " + rangeClause(cover.getBorderRanges()),
+                    new RawRowMapper<Void>() {
+                        @Override
+                        public Void mapRow(String[] columns, String[] results) {
+                            int tour_id = Integer.parseInt(results[1]);
+                            if (tours.contains(tour_id)) return null;
+                            BoundingBox cell = CellGrid.boundsOf(Long.parseLong(results[0]));
+                            GeoRegion.Relation relation = region.classify(
+                                    cell.getMinLatitude(), cell.getMinLongitude(),
+                                    cell.getMaxLatitude(), cell.getMaxLongitude()
+                            );
+                            if (relation != GeoRegion.Relation.OUTSIDE) tours.add(tour_id);
+                            return null;
+                        }
+                    }
+            ).getResults();
+        }
+        return tours;
+    }
+
+    /**
+     * The ranges are computed by us and only contain numbers, so they are inlined.
+     */
+    private static String rangeClause(long[] ranges){
+        StringBuilder clause = new StringBuilder(ranges.length * 20);
+        for (int i = 0; i < ranges.length; i += 2){
+            if (i > 0) clause.append(" OR ");
+            if (ranges[i] == ranges[i + 1]){
+                clause.append("cell = ").append(ranges[i]);
+            } else {
+                clause.append("cell BETWEEN ").append(ranges[i]).append(" AND ").append(ranges[i + 1]);
+            }
+        }
+        return clause.toString();
+    }
+
+    /**
+     * Get a writer, which adds the locations of a currently tracked tour to the index.
+     */
+    public Writer openWriter(Tour tour) throws SQLException {
+        return new Writer(helper.getTourCellDao(), tour.getId());
+    }
+
+    /**
+     * (Re-)Build the index-entries for the given tour from its stored {@code LocationStamp}s.
+     */
+    public void indexTour(final int tour_id) throws SQLException {
+        QueryBuilder<LocationStamp, Void> builder = helper.getLocationStampDao().queryBuilder();
+        builder.selectColumns("latitude", "longitude");
+        builder.where().eq("tour_id", tour_id);
+        builder.orderBy("timestamp", true);
+        final List<LocationStamp> stamps = builder.query();
+        final Dao<TourCell, Void> dao = helper.getTourCellDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                dao.executeRaw("DELETE FROM tour_cells WHERE tour_id = ?", String.valueOf(tour_id));
+                Writer writer = new Writer(dao, tour_id);
+                for (LocationStamp stamp : stamps){
+                    writer.append(stamp.getLatitude(), stamp.getLongitude());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Remove all index-entries of the given tour.
+     */
+    public void remove(int tour_id) throws SQLException {
+        helper.getTourCellDao().executeRaw(
+                "DELETE FROM tour_cells WHERE tour_id = ?", String.valueOf(tour_id)
+        );
+    }
+
+    /**
+     * <p>Index all tours which don't have any entries in the index yet.</p>
+     * <p>This is needed for tours which where recorded before the index existed.</p>
+     * @return the number of indexed tours.
+     */
+    public int indexMissingTours() throws SQLException {
+        List<Integer> missing = helper.getTourCellDao().queryRaw(
+                "SELECT id FROM tours WHERE id NOT IN (SELECT DISTINCT tour_id FROM tour_cells)",
+                new RawRowMapper<Integer>() {
+                    @Override
+                    public Integer mapRow(String[] columns, String[] results) {
+                        return Integer.parseInt(results[0]);
+                    }
+                }
+        ).getResults();
+        for (int tour_id : missing){
+            indexTour(tour_id);
+        }
+        return missing.size();
+    }
+
+    /**
+     * <p>Incrementally adds the cells of a track to the index.</p>
+     * <p>All cells along the straight line between two consecutive locations are added,
+     *  so there are no holes in the index if fixes are far apart.</p>
+     */
+    public static class Writer implements CellGrid.CellVisitor {
+
+        private final Dao<TourCell, Void> dao;
+        private final String tour_id;
+        /** The cells which are already in the index (for this writer) */
+        private final Set<Long> written = new HashSet<Long>();
+
+        private double last_lat = Double.NaN;
+        private double last_lon = Double.NaN;
+        private SQLException error;
+
+        private Writer(Dao<TourCell, Void> dao, int tour_id){
+            this.dao = dao;
+            this.tour_id = String.valueOf(tour_id);
+        }
+
+        /**
+         * Add the next location of the track to the index.
+         */
+        public void append(double latitude, double longitude) throws SQLException {
+            if (Double.isNaN(last_lat)){
+                visit(CellGrid.cellOf(latitude, longitude));
+            } else {
+                CellGrid.walkSegment(last_lat, last_lon, latitude, longitude, this);
+            }
+            last_lat = latitude;
+            last_lon = longitude;
+            if (error != null){
+                SQLException e = error;
+                error = null;
+                throw e;
+            }
+        }
+
+        @Override
+        public void visit(long cell) {
+            if (error != null || !written.add(cell)) return;
+            try {
+                dao.executeRaw("INSERT OR IGNORE INTO tour_cells (cell, tour_id) VALUES (?, ?)",
+                        String.valueOf(cell), tour_id);
+            } catch (SQLException e) {
+                written.remove(cell);
+                error = e;
+            }
+        }
+    }
+}
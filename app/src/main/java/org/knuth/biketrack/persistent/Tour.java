@@ -36,6 +36,9 @@ public class Tour implements Parcelable{
     private int tour_type;
     @DatabaseField
     private String title;
+    /** The id of the group of tours which are the same ride, {@code 0} if not clustered yet */
+    @DatabaseField
+    private int cluster_id;
 
     /** A tour, that goes from point A to point B */
     public static final int TOUR_TYPE_PATH = 0;
@@ -86,6 +89,15 @@ public class Tour implements Parcelable{
         return tour_type;
     }
 
+    /**
+     * The id of the group of tours which are the same ride (e.g. the daily commute). This
+     *  is maintained by {@code RouteClusters}, don't change it directly.
+     * @return the cluster, or {@code 0} if the tour wasn't clustered yet.
+     */
+    public int getClusterId() {
+        return cluster_id;
+    }
+
     public void setFirstLocation(String first_location){
         this.first_location = first_location;
     }
@@ -136,6 +148,7 @@ public class Tour implements Parcelable{
         parcel.writeString(second_location);
         parcel.writeInt(tour_type);
         parcel.writeString(title);
+        parcel.writeInt(cluster_id);
     }
 
     /**
@@ -148,5 +161,6 @@ public class Tour implements Parcelable{
         this.second_location = parcel.readString();
         this.tour_type = parcel.readInt();
         this.title = parcel.readString();
+        this.cluster_id = parcel.readInt();
     }
 }
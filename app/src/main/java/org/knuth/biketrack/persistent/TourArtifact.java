@@ -0,0 +1,53 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * <p>ORMlite mapper class for some precomputed, binary data of a finished tour (like
+ *  its simplified geometry).</p>
+ * <p>There is at most one artifact of every kind per tour. The version of the artifact
+ *  is the version of the calculation which created it.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see ArtifactStore
+ */
+@DatabaseTable(tableName = "tour_artifacts")
+public class TourArtifact {
+
+    @DatabaseField
+    private int tour_id;
+    @DatabaseField
+    private String kind;
+    @DatabaseField
+    private int version;
+    @DatabaseField(dataType = DataType.BYTE_ARRAY)
+    private byte[] data;
+
+    public TourArtifact(){}
+
+    public TourArtifact(int tour_id, String kind, int version, byte[] data){
+        this.tour_id = tour_id;
+        this.kind = kind;
+        this.version = version;
+        this.data = data;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,32 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * <p>ORMlite mapper class for one entry of the spatial index: the tour with the
+ *  given id has at least one {@code LocationStamp} in the given grid-cell.</p>
+ * <p>This table is maintained by the {@link SpatialIndex}, don't write to it directly.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see org.knuth.biketrack.geo.CellGrid
+ */
+@DatabaseTable(tableName = "tour_cells")
+public class TourCell {
+
+    @DatabaseField
+    private long cell;
+    @DatabaseField
+    private int tour_id;
+
+    public TourCell(){}
+
+    public long getCell() {
+        return cell;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+}
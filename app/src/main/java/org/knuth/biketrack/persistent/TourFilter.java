@@ -0,0 +1,186 @@
+package org.knuth.biketrack.persistent;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>The criteria to search tours with, see {@link TourSearch}.</p>
+ * <p>Filters are immutable: every {@code with}-method returns a new filter with the
+ *  additional criterion, so they can be composed and shared freely. All criteria of
+ *  a filter must match.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TourFilter {
+
+    /** The filter which matches all tours */
+    public static final TourFilter ALL = new TourFilter(null, null, null, -1, -1, -1, -1, 0, false);
+
+    /** The format ORMLite uses to store a {@code Date}, which sorts like the dates themselves */
+    private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss.SSSSSS";
+
+    private final String text;
+    private final Date from;
+    private final Date to;
+    private final double min_distance;
+    private final double max_distance;
+    private final long min_duration;
+    private final long max_duration;
+    private final int cluster_id;
+    private final boolean grouped;
+
+    private TourFilter(String text, Date from, Date to, double min_distance, double max_distance,
+                       long min_duration, long max_duration, int cluster_id, boolean grouped){
+        this.text = text;
+        this.from = from;
+        this.to = to;
+        this.min_distance = min_distance;
+        this.max_distance = max_distance;
+        this.min_duration = min_duration;
+        this.max_duration = max_duration;
+        this.cluster_id = cluster_id;
+        this.grouped = grouped;
+    }
+
+    /**
+     * Only tours where every word of the given text is a prefix of a word in the title
+     *  or the locations. Passing an empty text removes this criterion.
+     */
+    public TourFilter withText(String text){
+        String match = toMatch(text);
+        return new TourFilter(match, from, to, min_distance, max_distance, min_duration, max_duration,
+                cluster_id, grouped);
+    }
+
+    /**
+     * Only tours which started in {@code [from, to)}. Either bound may be {@code null}.
+     */
+    public TourFilter withDateRange(Date from, Date to){
+        return new TourFilter(text, from, to, min_distance, max_distance, min_duration, max_duration,
+                cluster_id, grouped);
+    }
+
+    /**
+     * Only tours with a distance (in meters) in {@code [min, max]}. A negative bound is
+     *  ignored. Tours which weren't summarized yet don't match.
+     */
+    public TourFilter withDistance(double min, double max){
+        return new TourFilter(text, from, to, min, max, min_duration, max_duration, cluster_id, grouped);
+    }
+
+    /**
+     * Only tours with a duration (in milliseconds) in {@code [min, max]}. A negative bound
+     *  is ignored. Tours which weren't summarized yet don't match.
+     */
+    public TourFilter withDuration(long min, long max){
+        return new TourFilter(text, from, to, min_distance, max_distance, min, max, cluster_id, grouped);
+    }
+
+    /**
+     * Only the tours in the given cluster of tours which are the same ride. Passing {@code 0}
+     *  removes this criterion.
+     */
+    public TourFilter withCluster(int cluster_id){
+        return new TourFilter(text, from, to, min_distance, max_distance, min_duration, max_duration,
+                cluster_id, grouped);
+    }
+
+    /**
+     * Only the newest tour of every cluster of tours which are the same ride (and all tours
+     *  which aren't clustered), or all tours again.
+     */
+    public TourFilter grouped(boolean grouped){
+        return new TourFilter(text, from, to, min_distance, max_distance, min_duration, max_duration,
+                cluster_id, grouped);
+    }
+
+    /**
+     * Whether only the newest tour of every cluster matches.
+     */
+    public boolean isGrouped() {
+        return grouped;
+    }
+
+    /**
+     * Whether the filter needs the {@link TourSummary} of a tour.
+     */
+    boolean needsSummary(){
+        return min_distance >= 0 || max_distance >= 0 || min_duration >= 0 || max_duration >= 0;
+    }
+
+    /**
+     * Append the criteria to the {@code WHERE}-clause of a query over {@code tours} (and
+     *  {@code tour_summaries}, if {@link #needsSummary() needed}). Every criterion starts
+     *  with {@code AND}.
+     */
+    void appendTo(StringBuilder where, List<String> args){
+        if (text != null){
+            where.append(" AND tours.id IN (SELECT docid FROM tours_fts WHERE tours_fts MATCH ?)");
+            args.add(text);
+        }
+        if (from != null){
+            where.append(" AND tours.date >= ?");
+            args.add(formatDate(from));
+        }
+        if (to != null){
+            where.append(" AND tours.date < ?");
+            args.add(formatDate(to));
+        }
+        if (min_distance >= 0){
+            where.append(" AND tour_summaries.distance >= ?");
+            args.add(String.valueOf(min_distance));
+        }
+        if (max_distance >= 0){
+            where.append(" AND tour_summaries.distance <= ?");
+            args.add(String.valueOf(max_distance));
+        }
+        if (min_duration >= 0){
+            where.append(" AND tour_summaries.duration >= ?");
+            args.add(String.valueOf(min_duration));
+        }
+        if (max_duration >= 0){
+            where.append(" AND tour_summaries.duration <= ?");
+            args.add(String.valueOf(max_duration));
+        }
+        if (cluster_id != 0){
+            where.append(" AND tours.cluster_id = ?");
+            args.add(String.valueOf(cluster_id));
+        }
+        if (grouped){
+            // No newer tour in the same cluster, using the index on (cluster_id, date):
+            where.append(" AND (tours.cluster_id = 0 OR NOT EXISTS (SELECT 1 FROM tours AS newer")
+                    .append(" WHERE newer.cluster_id = tours.cluster_id AND (newer.date > tours.date")
+                    .append(" OR (newer.date = tours.date AND newer.id > tours.id))))");
+        }
+    }
+
+    /**
+     * Format a date like ORMLite stores it in the {@code tours}-table.
+     */
+    static String formatDate(Date date){
+        // SimpleDateFormat isn't thread-safe:
+        DateFormat format = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+        return format.format(date);
+    }
+
+    /**
+     * Turn free text into an FTS-query, which matches all words as prefixes.
+     * @return the query, or {@code null} if the text has no words.
+     */
+    private static String toMatch(String text){
+        if (text == null) return null;
+        StringBuilder match = new StringBuilder();
+        // Everything but letters and digits would be FTS-syntax:
+        for (String word : text.split("[^\\p{L}\\p{N}]+")){
+            if (word.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            // Quoted, so words like OR or NEAR aren't operators. FTS4 wants the prefix-star inside:
+            match.append('"').append(word.replace("\"", "\"\"")).append("*\"");
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Searches the tours with a {@link TourFilter}, newest first.</p>
+ * <p>Titles and locations are searched through a full-text index, which is kept up to date
+ *  by triggers on the {@code tours}-table. The date, distance and duration are indexed too,
+ *  so a search never scans all tours.</p>
+ * <p>Tours which are the same ride can be {@link TourFilter#grouped(boolean) grouped}: only
+ *  the newest tour of every cluster is found, together with the totals of its cluster.</p>
+ * <p>Results are paginated by their key (the date and id of the last tour on a page)
+ *  instead of an offset, so every page costs the same, no matter how deep it is.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TourSearch {
+
+    /** The number of tours on a page, if nothing else is requested */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final Dao<Tour, Integer> dao;
+
+    public TourSearch(DatabaseHelper helper) throws SQLException {
+        this(helper.getTourDao());
+    }
+
+    /**
+     * Search with the given DAO, e.g. of a database which isn't opened by the {@link DatabaseHelper}.
+     */
+    TourSearch(Dao<Tour, Integer> dao){
+        this.dao = dao;
+    }
+
+    /**
+     * Get the first page of tours matching the given filter.
+     */
+    public Page search(TourFilter filter, int page_size) throws SQLException {
+        return search(filter, null, page_size);
+    }
+
+    /**
+     * Get the page of tours matching the given filter, which follows the given key.
+     * @param after the key of the previous page, or {@code null} for the first page.
+     */
+    public Page search(TourFilter filter, Key after, int page_size) throws SQLException {
+        if (filter == null) throw new NullPointerException("filter can't be null!");
+        StringBuilder sql = new StringBuilder("SELECT tours.* FROM tours");
+        if (filter.needsSummary()){
+            sql.append(" INNER JOIN tour_summaries ON tour_summaries.tour_id = tours.id")
+                    .append(" AND tour_summaries.version = ").append(TourSummary.VERSION);
+        }
+        sql.append(" WHERE 1");
+        List<String> args = new ArrayList<String>();
+        filter.appendTo(sql, args);
+        if (after != null){
+            sql.append(" AND (tours.date < ? OR (tours.date = ? AND tours.id < ?))");
+            args.add(after.date);
+            args.add(after.date);
+            args.add(String.valueOf(after.id));
+        }
+        // Fetch one more, to know if there is a next page:
+        sql.append(" ORDER BY tours.date DESC, tours.id DESC LIMIT ").append(page_size + 1);
+
+        GenericRawResults<Tour> results = dao.queryRaw(
+                sql.toString(), dao.getRawRowMapper(), args.toArray(new String[args.size()])
+        );
+        List<Tour> tours = new ArrayList<Tour>(page_size);
+        boolean more = false;
+        CloseableIterator<Tour> iterator = results.closeableIterator();
+        try {
+            while (iterator.hasNext()){
+                Tour tour = iterator.next();
+                if (tours.size() == page_size){
+                    more = true;
+                    break;
+                }
+                tours.add(tour);
+            }
+        } finally {
+            results.close();
+        }
+        Key next = null;
+        if (more){
+            Tour last = tours.get(tours.size() - 1);
+            next = new Key(TourFilter.formatDate(last.getDate()), last.getId());
+        }
+        Map<Integer, Group> groups = filter.isGrouped() ? queryGroups(tours) : Collections.<Integer, Group>emptyMap();
+        return new Page(tours, groups, next);
+    }
+
+    /**
+     * Query the totals of the clusters of the given tours.
+     * @return the groups by their cluster id.
+     */
+    private Map<Integer, Group> queryGroups(List<Tour> tours) throws SQLException {
+        StringBuilder ids = new StringBuilder();
+        for (Tour tour : tours){
+            if (tour.getClusterId() == 0) continue;
+            if (ids.length() > 0) ids.append(", ");
+            ids.append(tour.getClusterId());
+        }
+        Map<Integer, Group> groups = new HashMap<Integer, Group>();
+        if (ids.length() == 0) return groups;
+        GenericRawResults<String[]> results = dao.queryRaw(
+                "SELECT tours.cluster_id, COUNT(*), TOTAL(tour_summaries.distance), MIN(tour_summaries.duration) " +
+                "FROM tours LEFT JOIN tour_summaries ON tour_summaries.tour_id = tours.id " +
+                "AND tour_summaries.version = " + TourSummary.VERSION + " " +
+                "WHERE tours.cluster_id IN (" + ids + ") GROUP BY tours.cluster_id"
+        );
+        try {
+            for (String[] row : results){
+                groups.put(Integer.parseInt(row[0]), new Group(Integer.parseInt(row[1]),
+                        Double.parseDouble(row[2]), row[3] == null ? -1 : Long.parseLong(row[3])
+                ));
+            }
+        } finally {
+            results.close();
+        }
+        return groups;
+    }
+
+    /**
+     * Create the full-text index (and its triggers) and the other indices used for searching.
+     *  Existing tours are added to the full-text index.
+     */
+    static void createIndex(Dao<Tour, Integer> dao) throws SQLException {
+        dao.executeRaw("CREATE VIRTUAL TABLE tours_fts USING fts4 (title, first_location, second_location)");
+        dao.executeRaw("CREATE TRIGGER tours_fts_insert AFTER INSERT ON tours BEGIN " +
+                "INSERT INTO tours_fts (docid, title, first_location, second_location) " +
+                "VALUES (new.id, new.title, new.first_location, new.second_location); END");
+        createUpdateTrigger(dao);
+        dao.executeRaw("CREATE TRIGGER tours_fts_delete AFTER DELETE ON tours BEGIN " +
+                "DELETE FROM tours_fts WHERE docid = old.id; END");
+        dao.executeRaw("INSERT INTO tours_fts (docid, title, first_location, second_location) " +
+                "SELECT id, title, first_location, second_location FROM tours");
+        dao.executeRaw("CREATE INDEX tours_date_idx ON tours (date)");
+    }
+
+    /**
+     * Create the trigger which updates the full-text index. It only fires if the indexed
+     *  columns change, so updating e.g. the clusters of many tours doesn't rewrite the index.
+     */
+    static void createUpdateTrigger(Dao<Tour, Integer> dao) throws SQLException {
+        dao.executeRaw("CREATE TRIGGER tours_fts_update AFTER UPDATE OF title, first_location, second_location " +
+                "ON tours BEGIN " +
+                "DELETE FROM tours_fts WHERE docid = old.id; " +
+                "INSERT INTO tours_fts (docid, title, first_location, second_location) " +
+                "VALUES (new.id, new.title, new.first_location, new.second_location); END");
+    }
+
+    /**
+     * Create the indices on the summarized distance and duration.
+     */
+    static void createSummaryIndex(Dao<TourSummary, Integer> dao) throws SQLException {
+        dao.executeRaw("CREATE INDEX tour_summaries_distance_idx ON tour_summaries (distance)");
+        dao.executeRaw("CREATE INDEX tour_summaries_duration_idx ON tour_summaries (duration)");
+    }
+
+    /**
+     * The position after the last tour of a page.
+     */
+    public static class Key {
+
+        private final String date;
+        private final int id;
+
+        private Key(String date, int id){
+            this.date = date;
+            this.id = id;
+        }
+    }
+
+    /**
+     * One page of tours.
+     */
+    public static class Page {
+
+        /** A page without tours */
+        public static final Page EMPTY = new Page(Collections.<Tour>emptyList(),
+                Collections.<Integer, Group>emptyMap(), null);
+
+        private final List<Tour> tours;
+        private final Map<Integer, Group> groups;
+        private final Key next;
+
+        private Page(List<Tour> tours, Map<Integer, Group> groups, Key next){
+            this.tours = Collections.unmodifiableList(tours);
+            this.groups = Collections.unmodifiableMap(groups);
+            this.next = next;
+        }
+
+        /** The tours on this page, newest first */
+        public List<Tour> getTours() {
+            return tours;
+        }
+
+        /**
+         * The totals of the clusters of the tours on this page, by their cluster id. Only
+         *  filled if the filter is {@link TourFilter#isGrouped() grouped}.
+         */
+        public Map<Integer, Group> getGroups() {
+            return groups;
+        }
+
+        /** The key of the next page, or {@code null} if this is the last one */
+        public Key getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * The totals of all tours in a cluster of tours which are the same ride.
+     */
+    public static class Group {
+
+        private final int count;
+        private final double distance;
+        private final long best_duration;
+
+        private Group(int count, double distance, long best_duration){
+            this.count = count;
+            this.distance = distance;
+            this.best_duration = best_duration;
+        }
+
+        /** The number of tours in the cluster */
+        public int getCount() {
+            return count;
+        }
+
+        /** The summed distance of all (summarized) tours in meters */
+        public double getDistance() {
+            return distance;
+        }
+
+        /** The shortest duration of a tour in milliseconds, or {@code -1} if none is summarized yet */
+        public long getBestDuration() {
+            return best_duration;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.MovingTime;
+import org.knuth.biketrack.track.Track;
+
+import java.util.Date;
+
+/**
+ * <p>ORMlite mapper class for the precomputed summary statistics of a finished tour.</p>
+ * <p>All values are stored in SI-units (meters, meters per second, milliseconds).</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see org.knuth.biketrack.precompute.PrecomputeQueue
+ */
+@DatabaseTable(tableName = "tour_summaries")
+public class TourSummary {
+
+    /** Incremented whenever the calculation changes, so old summaries are calculated again */
+    public static final int VERSION = 4;
+
+    @DatabaseField(id = true)
+    private int tour_id;
+    @DatabaseField
+    private int version;
+    @DatabaseField
+    private double distance;
+    @DatabaseField
+    private long duration;
+    @DatabaseField
+    private long moving_time;
+    @DatabaseField
+    private int pauses;
+    @DatabaseField(dataType = DataType.DATE_LONG)
+    private Date start_time;
+    @DatabaseField(dataType = DataType.DATE_LONG)
+    private Date end_time;
+    @DatabaseField
+    private float top_speed;
+    @DatabaseField
+    private float average_speed;
+    @DatabaseField
+    private double uphill;
+    @DatabaseField
+    private double downhill;
+    @DatabaseField
+    private double flat;
+    @DatabaseField
+    private double ascent;
+    @DatabaseField
+    private double descent;
+    @DatabaseField
+    private double steep_uphill;
+    @DatabaseField
+    private double steep_downhill;
+
+    public TourSummary(){}
+
+    /**
+     * Calculate the summary of the given (non-empty) track.
+     * @throws IllegalArgumentException if the track is empty.
+     */
+    public static TourSummary of(int tour_id, Track track){
+        if (track.isEmpty())
+            throw new IllegalArgumentException("Can't summarize an empty track!");
+        TourSummary summary = new TourSummary();
+        summary.tour_id = tour_id;
+        summary.version = VERSION;
+        long[] times = track.getTimes();
+        summary.start_time = new Date(times[0]);
+        summary.end_time = new Date(times[times.length - 1]);
+        summary.duration = times[times.length - 1] - times[0];
+        summary.distance = track.getLength();
+        // Speed:
+        for (float speed : track.getSpeeds()){
+            if (speed > summary.top_speed) summary.top_speed = speed;
+        }
+        MovingTime moving = MovingTime.of(track);
+        summary.moving_time = moving.getMovingTime();
+        summary.pauses = moving.getPauses().size();
+        summary.average_speed = (float) moving.getAverageSpeed();
+        // Terrain:
+        ElevationProcessor elevation = ElevationProcessor.of(track);
+        summary.ascent = elevation.getAscent();
+        summary.descent = elevation.getDescent();
+        summary.steep_uphill = elevation.getDistance(ElevationProcessor.Gradient.STEEP_UPHILL);
+        summary.uphill = elevation.getDistance(ElevationProcessor.Gradient.UPHILL);
+        summary.flat = elevation.getDistance(ElevationProcessor.Gradient.FLAT);
+        summary.downhill = elevation.getDistance(ElevationProcessor.Gradient.DOWNHILL);
+        summary.steep_downhill = elevation.getDistance(ElevationProcessor.Gradient.STEEP_DOWNHILL);
+        return summary;
+    }
+
+    public int getTourId() {
+        return tour_id;
+    }
+
+    /** Whether this summary was calculated with the current {@link #VERSION}. */
+    public boolean isCurrent(){
+        return version == VERSION;
+    }
+
+    /** The length of the track in meters. */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** The time between the first and the last point in milliseconds. */
+    public long getDuration() {
+        return duration;
+    }
+
+    /** The time spent moving in milliseconds, see {@link MovingTime}. */
+    public long getMovingTime() {
+        return moving_time;
+    }
+
+    /** How often the rider stopped for at least {@link MovingTime#AUTO_PAUSE_DELAY}. */
+    public int getPauses() {
+        return pauses;
+    }
+
+    public Date getStart() {
+        return start_time;
+    }
+
+    public Date getEnd() {
+        return end_time;
+    }
+
+    /** The top speed in meters per second. */
+    public float getTopSpeed() {
+        return top_speed;
+    }
+
+    /** The average speed while moving in meters per second. */
+    public float getAverageSpeed() {
+        return average_speed;
+    }
+
+    /** The distance ridden steeply uphill in meters. */
+    public double getSteepUphill() {
+        return steep_uphill;
+    }
+
+    /** The distance ridden uphill (but not steeply) in meters. */
+    public double getUphill() {
+        return uphill;
+    }
+
+    /** The distance ridden downhill (but not steeply) in meters. */
+    public double getDownhill() {
+        return downhill;
+    }
+
+    /** The distance ridden steeply downhill in meters. */
+    public double getSteepDownhill() {
+        return steep_downhill;
+    }
+
+    /** The distance ridden on flat terrain in meters. */
+    public double getFlat() {
+        return flat;
+    }
+
+    /** The elevation gained in meters, see {@link ElevationProcessor}. */
+    public double getAscent() {
+        return ascent;
+    }
+
+    /** The elevation lost in meters, see {@link ElevationProcessor}. */
+    public double getDescent() {
+        return descent;
+    }
+}
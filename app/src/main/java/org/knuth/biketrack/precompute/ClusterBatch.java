@@ -0,0 +1,328 @@
+package org.knuth.biketrack.precompute;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.misc.TransactionManager;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.geo.RouteDistance;
+import org.knuth.biketrack.geo.RouteSignature;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.RouteBand;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Builds the clusters of all tours which are the same ride from scratch, e.g. after
+ *  tours where deleted and a cluster should have been split.</p>
+ * <p>First, the {@link RouteSignature} of every tour is computed. The bands of all
+ *  signatures are then put into buckets in memory; every pair of tours in the same bucket
+ *  is a candidate and confirmed with the {@link RouteDistance}, unless both are already
+ *  in the same cluster. Both steps run on one background-thread per core. The clusters
+ *  are only stored once all tours are done. Progress is reported on the UI-thread.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ClusterBatch {
+
+    /**
+     * Informed about the progress of the batch, on the UI-thread.
+     */
+    public interface ProgressListener {
+        /** Another step was done. */
+        void onProgress(int done, int total);
+        /**
+         * All tours where clustered and the clusters are stored.
+         * @param clusters the number of clusters with more than one tour, or {@code -1} if
+         *  the clusters couldn't be built.
+         */
+        void onFinished(int clusters);
+    }
+
+    /** The memory (in bytes) for the routes kept between the two steps */
+    private static final int ROUTE_CACHE_SIZE = 8 * 1024 * 1024;
+
+    private final Context context;
+    private final ProgressListener listener;
+    private final Handler handler;
+
+    public ClusterBatch(Context context, ProgressListener listener){
+        if (listener == null) throw new NullPointerException("listener can't be null!");
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Start the batch in the background.
+     */
+    public void start(){
+        Thread coordinator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                int clusters;
+                try {
+                    clusters = clusterAll(helper);
+                } catch (Exception e) {
+                    Log.e(Main.LOG_TAG, "Couldn't cluster the tours", e);
+                    clusters = -1;
+                } finally {
+                    OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                }
+                final int found = clusters;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onFinished(found);
+                    }
+                });
+            }
+        }, "ClusterBatch");
+        coordinator.start();
+    }
+
+    /**
+     * Cluster all tours with stamps and store the clusters.
+     * @return the number of clusters with more than one tour.
+     */
+    private int clusterAll(final DatabaseHelper helper) throws Exception {
+        final PrecomputeQueue queue = PrecomputeQueue.from(context);
+        List<Integer> all = helper.getLocationStampDao().queryRaw(
+                "SELECT DISTINCT tour_id FROM loc_stamp", ID_MAPPER
+        ).getResults();
+        // The tour being tracked is clustered once it's finished:
+        final int[] tours = new int[all.size()];
+        int count = 0;
+        for (int tour_id : all){
+            if (!queue.isTracked(tour_id)) tours[count++] = tour_id;
+        }
+        final int size = count;
+        final int total = 2 * size;
+        final AtomicInteger done = new AtomicInteger();
+        final RouteClusters clusters = new RouteClusters(helper);
+        final LruCache<Integer, double[][]> routes = new LruCache<Integer, double[][]>(ROUTE_CACHE_SIZE){
+            @Override
+            protected int sizeOf(Integer tour_id, double[][] route) {
+                return route[0].length * 16;
+            }
+        };
+        long start = System.currentTimeMillis();
+
+        // Step one, the signatures:
+        final long[][] bands = new long[size][];
+        ExecutorService pool = newPool();
+        for (int i = 0; i < size; i++){
+            final int index = i;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        double[][] route = clusters.loadRoute(tours[index]);
+                        if (route[0].length > 0){
+                            bands[index] = RouteSignature.of(route[0], route[1]).getBands();
+                            routes.put(tours[index], route);
+                        }
+                    } catch (Exception e) {
+                        Log.e(Main.LOG_TAG, "Couldn't sign tour "+tours[index], e);
+                    }
+                    progress(done.incrementAndGet(), total);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        // Step two, the buckets and confirming the candidates:
+        List<Map<Long, List<Integer>>> buckets = new ArrayList<Map<Long, List<Integer>>>(RouteSignature.BANDS);
+        for (int band = 0; band < RouteSignature.BANDS; band++){
+            Map<Long, List<Integer>> bucket = new HashMap<Long, List<Integer>>();
+            for (int i = 0; i < size; i++){
+                if (bands[i] == null) continue;
+                List<Integer> members = bucket.get(bands[i][band]);
+                if (members == null){
+                    members = new ArrayList<Integer>(2);
+                    bucket.put(bands[i][band], members);
+                }
+                members.add(i);
+            }
+            buckets.add(bucket);
+        }
+        final UnionFind union_find = new UnionFind(size);
+        pool = newPool();
+        for (int i = 0; i < size; i++){
+            final int index = i;
+            // Only the candidates after the tour, so every pair is confirmed once:
+            final Set<Integer> candidates = new LinkedHashSet<Integer>();
+            if (bands[i] != null){
+                for (int band = 0; band < RouteSignature.BANDS; band++){
+                    for (int other : buckets.get(band).get(bands[i][band])){
+                        if (other > i) candidates.add(other);
+                    }
+                }
+            }
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int other : candidates){
+                            if (union_find.find(index) == union_find.find(other)) continue;
+                            double[][] route = loadRoute(clusters, routes, tours[index]);
+                            double[][] other_route = loadRoute(clusters, routes, tours[other]);
+                            if (RouteDistance.isWithin(route[0], route[1], other_route[0], other_route[1],
+                                    RouteClusters.MAX_DISTANCE)){
+                                union_find.union(index, other);
+                            }
+                        }
+                    } catch (Exception e) {
+                        Log.e(Main.LOG_TAG, "Couldn't cluster tour "+tours[index], e);
+                    }
+                    progress(done.incrementAndGet(), total);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        // The cluster of a tour is the smallest id in it:
+        final Map<Integer, List<Integer>> members = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < size; i++){
+            if (bands[i] == null) continue;
+            int root = union_find.find(i);
+            List<Integer> cluster = members.get(root);
+            if (cluster == null){
+                cluster = new ArrayList<Integer>(1);
+                members.put(root, cluster);
+            }
+            cluster.add(tours[i]);
+        }
+        final Dao<RouteBand, Void> dao = helper.getRouteBandDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                dao.executeRaw("DELETE FROM route_bands");
+                helper.getTourDao().executeRaw("UPDATE tours SET cluster_id = 0");
+                for (int i = 0; i < size; i++){
+                    if (bands[i] == null) continue;
+                    for (int band = 0; band < RouteSignature.BANDS; band++){
+                        dao.create(new RouteBand(tours[i], band, bands[i][band]));
+                    }
+                }
+                for (List<Integer> cluster : members.values()){
+                    int cluster_id = Integer.MAX_VALUE;
+                    StringBuilder ids = new StringBuilder();
+                    for (int tour_id : cluster){
+                        cluster_id = Math.min(cluster_id, tour_id);
+                        if (ids.length() > 0) ids.append(", ");
+                        ids.append(tour_id);
+                    }
+                    helper.getTourDao().executeRaw("UPDATE tours SET cluster_id = " + cluster_id +
+                            " WHERE id IN (" + ids + ")");
+                }
+                return null;
+            }
+        });
+        int found = 0;
+        for (List<Integer> cluster : members.values()){
+            if (cluster.size() > 1) found++;
+        }
+        Log.v(Main.LOG_TAG, "Clustered "+size+" tours into "+found+" rides in "
+                +(System.currentTimeMillis() - start)+"ms");
+        return found;
+    }
+
+    /**
+     * The route of the given tour, from the cache if it's still there.
+     */
+    private static double[][] loadRoute(RouteClusters clusters, LruCache<Integer, double[][]> routes,
+                                        int tour_id) throws SQLException {
+        double[][] route = routes.get(tour_id);
+        if (route == null){
+            route = clusters.loadRoute(tour_id);
+            routes.put(tour_id, route);
+        }
+        return route;
+    }
+
+    private void progress(final int done, final int total){
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(done, total);
+            }
+        });
+    }
+
+    /**
+     * A pool with one background-thread per core.
+     */
+    private static ExecutorService newPool(){
+        return Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ClusterBatchWorker");
+                    }
+                }
+        );
+    }
+
+    /**
+     * The disjoint sets of the tours (by their index), with path-halving.
+     */
+    private static class UnionFind {
+
+        private final int[] parents;
+
+        private UnionFind(int size){
+            parents = new int[size];
+            for (int i = 0; i < size; i++) parents[i] = i;
+        }
+
+        synchronized int find(int i){
+            while (parents[i] != i){
+                parents[i] = parents[parents[i]];
+                i = parents[i];
+            }
+            return i;
+        }
+
+        synchronized void union(int a, int b){
+            int root_a = find(a), root_b = find(b);
+            if (root_a != root_b) parents[Math.max(root_a, root_b)] = Math.min(root_a, root_b);
+        }
+    }
+
+    private static final RawRowMapper<Integer> ID_MAPPER = new RawRowMapper<Integer>() {
+        @Override
+        public Integer mapRow(String[] columns, String[] results) {
+            return Integer.parseInt(results[0]);
+        }
+    };
+}
@@ -0,0 +1,394 @@
+package org.knuth.biketrack.precompute;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.RawRowMapper;
+import com.j256.ormlite.misc.TransactionManager;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.PrecomputeJob;
+import org.knuth.biketrack.persistent.RecordStore;
+import org.knuth.biketrack.track.Track;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>A persistent, prioritized queue of {@link Task}s to precompute for finished tours.</p>
+ * <p>Jobs are stored as {@link PrecomputeJob}s and only deleted once they're done, so
+ *  they survive the process being killed. All bookkeeping happens on a single dispatcher
+ *  thread, the tasks themselves run on a small pool of background-priority workers. A
+ *  worker takes all pending jobs of one tour, so the track is only loaded once.</p>
+ * <p>Every task runs in one transaction. If the tour was forgotten meanwhile, the
+ *  transaction is rolled back, so no results of the old track are stored.</p>
+ * <p>Interactive loaders should wrap their work in {@link #beginInteractive()} and
+ *  {@link #endInteractive()}; no new tour is started while they run.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class PrecomputeQueue {
+
+    /** For tours which where recorded before the queue existed (or a task changed) */
+    public static final int PRIORITY_BACKFILL = 0;
+    /** For a tour which was just finished */
+    public static final int PRIORITY_FINISHED = 10;
+    /** For a tour which the user is looking at right now */
+    public static final int PRIORITY_OPENED = 20;
+
+    /** Used as the tracked tour, if nothing is being tracked */
+    public static final int NO_TOUR = -1;
+
+    /** The number of worker-threads */
+    private static final int WORKERS = 2;
+    /** How often a job is attempted before it's dropped */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Context context;
+    private final ExecutorService dispatcher;
+    private final ExecutorService workers;
+
+    /** The tours being worked on, only used on the dispatcher */
+    private final Set<Integer> running = new HashSet<Integer>();
+    /** The tours which failed in this process, only used on the dispatcher */
+    private final Set<Integer> failed = new HashSet<Integer>();
+    /** The tour currently being tracked, which must not be precomputed */
+    private volatile int tracked_tour = NO_TOUR;
+    /** How often the tours where forgotten, a worker drops the results of an older generation */
+    private final Map<Integer, Integer> generations = new HashMap<Integer, Integer>();
+
+    private final Object interactive_lock = new Object();
+    private int interactive;
+
+    public PrecomputeQueue(Context context){
+        this.context = context.getApplicationContext();
+        this.dispatcher = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PrecomputeDispatcher"));
+        this.workers = Executors.newFixedThreadPool(WORKERS, new BackgroundThreadFactory("PrecomputeWorker"));
+    }
+
+    /**
+     * Get the queue of the application.
+     */
+    public static PrecomputeQueue from(Context context){
+        return ((Application) context.getApplicationContext()).getPrecomputeQueue();
+    }
+
+    /**
+     * Queue all tours which are missing a (current) result of any task and start working
+     *  on the queue, including the jobs left over from the last process.
+     */
+    public void start(){
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                try {
+                    Dao<PrecomputeJob, Integer> dao = helper.getPrecomputeJobDao();
+                    for (Task task : Task.values()){
+                        dao.executeRaw("INSERT OR IGNORE INTO precompute_jobs (tour_id, task, priority, attempts) " +
+                                "SELECT id, ?, ?, 0 FROM tours WHERE id != ? " +
+                                "AND id IN (SELECT DISTINCT tour_id FROM loc_stamp) " +
+                                "AND id NOT IN (" + task.selectDone() + ")",
+                                task.name(), String.valueOf(PRIORITY_BACKFILL), String.valueOf(tracked_tour)
+                        );
+                    }
+                } catch (Exception e) {
+                    Log.e(Main.LOG_TAG, "Couldn't queue the missing tours", e);
+                } finally {
+                    OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                }
+                schedule();
+            }
+        });
+    }
+
+    /**
+     * Queue all tasks for the given tour. If they're already queued, their priority is raised.
+     */
+    public void enqueue(final int tour_id, final int priority){
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                try {
+                    Dao<PrecomputeJob, Integer> dao = helper.getPrecomputeJobDao();
+                    String id = String.valueOf(tour_id);
+                    String prio = String.valueOf(priority);
+                    for (Task task : Task.values()){
+                        dao.executeRaw("INSERT OR IGNORE INTO precompute_jobs (tour_id, task, priority, attempts) " +
+                                "VALUES (?, ?, ?, 0)", id, task.name(), prio);
+                        dao.executeRaw("UPDATE precompute_jobs SET priority = ?, attempts = 0 " +
+                                "WHERE tour_id = ? AND task = ? AND priority < ?", prio, id, task.name(), prio);
+                    }
+                    failed.remove(tour_id);
+                } catch (Exception e) {
+                    Log.e(Main.LOG_TAG, "Couldn't queue tour "+tour_id, e);
+                } finally {
+                    OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                }
+                schedule();
+            }
+        });
+    }
+
+    /**
+     * <p>Forget all jobs and results of the given tour.</p>
+     * <p>This must be called when the track of a tour changes, or the tour is deleted.</p>
+     * @param keep the kinds of artifacts which don't depend on what changed, and are kept.
+     */
+    public void forgetTour(final int tour_id, final String... keep){
+        // Right away, the worker might be storing results for the tour just now:
+        synchronized (generations){
+            generations.put(tour_id, generationOf(tour_id) + 1);
+        }
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                try {
+                    helper.getPrecomputeJobDao().executeRaw(
+                            "DELETE FROM precompute_jobs WHERE tour_id = ?", String.valueOf(tour_id)
+                    );
+                    new ArtifactStore(helper).forgetTour(tour_id, keep);
+                    new RecordStore(helper).forgetTour(tour_id);
+                    new RouteClusters(helper).forgetTour(tour_id);
+                } catch (Exception e) {
+                    Log.e(Main.LOG_TAG, "Couldn't forget tour "+tour_id, e);
+                } finally {
+                    OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                }
+            }
+        });
+    }
+
+    /**
+     * How often the given tour was forgotten.
+     */
+    private int generationOf(int tour_id){
+        synchronized (generations){
+            Integer generation = generations.get(tour_id);
+            return generation == null ? 0 : generation;
+        }
+    }
+
+    /**
+     * Whether the results of the given tour, calculated from the track of the given
+     *  generation, are outdated.
+     */
+    private boolean isCancelled(int tour_id, int generation){
+        return generation != generationOf(tour_id) || isTracked(tour_id);
+    }
+
+    /**
+     * Set the tour which is currently being tracked (or {@link #NO_TOUR}). It's not
+     *  precomputed until it's finished.
+     */
+    public void setTrackedTour(int tour_id){
+        this.tracked_tour = tour_id;
+    }
+
+    /**
+     * Whether the given tour is currently being tracked, so its results are outdated.
+     */
+    public boolean isTracked(int tour_id){
+        return tracked_tour == tour_id;
+    }
+
+    /**
+     * An interactive loader started working, no new tours are started until it's done.
+     * @see #endInteractive()
+     */
+    public void beginInteractive(){
+        synchronized (interactive_lock){
+            interactive++;
+        }
+    }
+
+    /**
+     * An interactive loader is done. Must be called exactly once for every call to
+     *  {@link #beginInteractive()}, in a {@code finally}-block.
+     */
+    public void endInteractive(){
+        synchronized (interactive_lock){
+            interactive--;
+            if (interactive <= 0) interactive_lock.notifyAll();
+        }
+    }
+
+    private void awaitInteractive() throws InterruptedException {
+        synchronized (interactive_lock){
+            while (interactive > 0) interactive_lock.wait();
+        }
+    }
+
+    /**
+     * Hand the next tours to the workers, while some are idle. Runs on the dispatcher.
+     */
+    private void schedule(){
+        DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+        try {
+            while (running.size() < WORKERS){
+                List<PrecomputeJob> jobs = nextJobs(helper);
+                if (jobs.isEmpty()) break;
+                int tour_id = jobs.get(0).getTourId();
+                running.add(tour_id);
+                workers.execute(new Worker(tour_id, jobs));
+            }
+        } catch (Exception e) {
+            Log.e(Main.LOG_TAG, "Couldn't schedule precompute-jobs", e);
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+        }
+    }
+
+    /**
+     * Get all jobs of the tour with the most important pending job.
+     */
+    private List<PrecomputeJob> nextJobs(DatabaseHelper helper) throws Exception {
+        StringBuilder excluded = new StringBuilder().append(tracked_tour);
+        for (int tour_id : running) excluded.append(", ").append(tour_id);
+        for (int tour_id : failed) excluded.append(", ").append(tour_id);
+        return helper.getPrecomputeJobDao().queryRaw(
+                "SELECT id, tour_id, task, priority, attempts FROM precompute_jobs WHERE tour_id = (" +
+                        "SELECT tour_id FROM precompute_jobs WHERE attempts < " + MAX_ATTEMPTS +
+                        " AND tour_id NOT IN (" + excluded + ") ORDER BY priority DESC, id ASC LIMIT 1" +
+                ") AND attempts < " + MAX_ATTEMPTS,
+                JOB_MAPPER
+        ).getResults();
+    }
+
+    /**
+     * The worker is done with a tour. Runs on the dispatcher.
+     */
+    private void finished(int tour_id, Set<Integer> done, Set<Integer> errors){
+        running.remove(tour_id);
+        if (!errors.isEmpty()) failed.add(tour_id);
+        DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+        try {
+            Dao<PrecomputeJob, Integer> dao = helper.getPrecomputeJobDao();
+            if (!done.isEmpty()) dao.deleteIds(done);
+            for (int job_id : errors){
+                dao.executeRaw("UPDATE precompute_jobs SET attempts = attempts + 1 WHERE id = ?",
+                        String.valueOf(job_id));
+            }
+        } catch (Exception e) {
+            Log.e(Main.LOG_TAG, "Couldn't update the precompute-jobs of tour "+tour_id, e);
+        } finally {
+            OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+        }
+        schedule();
+    }
+
+    /**
+     * Runs all given jobs of one tour.
+     */
+    private class Worker implements Runnable {
+
+        private final int tour_id;
+        private final List<PrecomputeJob> jobs;
+
+        private Worker(int tour_id, List<PrecomputeJob> jobs){
+            this.tour_id = tour_id;
+            this.jobs = jobs;
+        }
+
+        @Override
+        public void run() {
+            final Set<Integer> done = new HashSet<Integer>();
+            final Set<Integer> errors = new HashSet<Integer>();
+            final DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+            try {
+                awaitInteractive();
+                long start = System.currentTimeMillis();
+                final int generation = generationOf(tour_id);
+                // Don't go through the TrackCache, this would evict the tracks the user looks at:
+                final Track track = helper.queryTrack(tour_id);
+                for (PrecomputeJob job : jobs){
+                    // The jobs of a forgotten tour are deleted, a new track is queued again:
+                    if (isCancelled(tour_id, generation)) break;
+                    try {
+                        // A tour without stamps has nothing to precompute:
+                        if (!track.isEmpty()){
+                            final Task task = Task.valueOf(job.getTask());
+                            TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+                                @Override
+                                public Void call() throws Exception {
+                                    task.run(helper, tour_id, track);
+                                    // Forgetting the tour waits for this transaction, or this sees it:
+                                    if (isCancelled(tour_id, generation)) throw new CancellationException();
+                                    return null;
+                                }
+                            });
+                        }
+                        done.add(job.getId());
+                    } catch (Exception e) {
+                        if (isCancelled(tour_id, generation)) break;
+                        Log.e(Main.LOG_TAG, "Couldn't run "+job.getTask()+" for tour "+tour_id, e);
+                        errors.add(job.getId());
+                    }
+                }
+                Log.v(Main.LOG_TAG, "Precomputed "+done.size()+" tasks for tour "+tour_id+" in "
+                        +(System.currentTimeMillis() - start)+"ms");
+            } catch (Exception e) {
+                Log.e(Main.LOG_TAG, "Couldn't precompute tour "+tour_id, e);
+                for (PrecomputeJob job : jobs){
+                    if (!done.contains(job.getId())) errors.add(job.getId());
+                }
+            } finally {
+                OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+            }
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finished(tour_id, done, errors);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates threads, which run with background-priority.
+     */
+    private static class BackgroundThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        private BackgroundThreadFactory(String name){
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name);
+        }
+    }
+
+    private static final RawRowMapper<PrecomputeJob> JOB_MAPPER = new RawRowMapper<PrecomputeJob>() {
+        @Override
+        public PrecomputeJob mapRow(String[] columns, String[] results) {
+            return new PrecomputeJob(
+                    Integer.parseInt(results[0]), Integer.parseInt(results[1]), results[2],
+                    Integer.parseInt(results[3]), Integer.parseInt(results[4])
+            );
+        }
+    };
+}
@@ -0,0 +1,156 @@
+package org.knuth.biketrack.precompute;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.RawRowMapper;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.RecordStore;
+import org.knuth.biketrack.track.BestEfforts;
+import org.knuth.biketrack.track.Track;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Searches all tours for their best efforts again and rebuilds the personal records
+ *  from them, e.g. after the records where lost or to check them.</p>
+ * <p>The tours are searched in parallel, on one background-thread per core. The records
+ *  are only rebuilt once all tours are done. Progress is reported on the UI-thread.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RecordsBatch {
+
+    /**
+     * Informed about the progress of the batch, on the UI-thread.
+     */
+    public interface ProgressListener {
+        /** Another tour was searched. */
+        void onProgress(int done, int total);
+        /**
+         * All tours where searched and the records are rebuilt.
+         * @param failed how many tours couldn't be searched, or {@code -1} if the records
+         *  couldn't be rebuilt at all.
+         */
+        void onFinished(int failed);
+    }
+
+    private final Context context;
+    private final ProgressListener listener;
+    private final Handler handler;
+
+    public RecordsBatch(Context context, ProgressListener listener){
+        if (listener == null) throw new NullPointerException("listener can't be null!");
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Start the batch in the background.
+     */
+    public void start(){
+        Thread coordinator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+                int failed = 0;
+                try {
+                    failed = searchAll(helper);
+                    new RecordStore(helper).rebuildRecords();
+                } catch (Exception e) {
+                    Log.e(Main.LOG_TAG, "Couldn't recalculate the records", e);
+                    failed = -1;
+                } finally {
+                    OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+                }
+                final int failed_tours = failed;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onFinished(failed_tours);
+                    }
+                });
+            }
+        }, "RecordsBatch");
+        coordinator.start();
+    }
+
+    /**
+     * Search all tours with stamps for their best efforts.
+     * @return the number of tours which couldn't be searched.
+     */
+    private int searchAll(final DatabaseHelper helper) throws Exception {
+        final List<Integer> tours = helper.getLocationStampDao().queryRaw(
+                "SELECT DISTINCT tour_id FROM loc_stamp", ID_MAPPER
+        ).getResults();
+        final int total = tours.size();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final PrecomputeQueue queue = PrecomputeQueue.from(context);
+        final RecordStore store = new RecordStore(helper);
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "RecordsBatchWorker");
+                    }
+                }
+        );
+        for (final int tour_id : tours){
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // The tour being tracked is searched once it's finished:
+                        if (!queue.isTracked(tour_id)){
+                            // Don't go through the TrackCache, this would evict the tracks the user looks at:
+                            Track track = helper.queryTrack(tour_id);
+                            store.storeEfforts(tour_id, BestEfforts.find(track), false);
+                        }
+                    } catch (Exception e) {
+                        Log.e(Main.LOG_TAG, "Couldn't search tour "+tour_id+" for its best efforts", e);
+                        failed.incrementAndGet();
+                    }
+                    final int progress = done.incrementAndGet();
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onProgress(progress, total);
+                        }
+                    });
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        Log.v(Main.LOG_TAG, "Searched "+total+" tours for their best efforts in "
+                +(System.currentTimeMillis() - start)+"ms");
+        return failed.get();
+    }
+
+    private static final RawRowMapper<Integer> ID_MAPPER = new RawRowMapper<Integer>() {
+        @Override
+        public Integer mapRow(String[] columns, String[] results) {
+            return Integer.parseInt(results[0]);
+        }
+    };
+}
@@ -0,0 +1,166 @@
+package org.knuth.biketrack.precompute;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.misc.TransactionManager;
+import org.knuth.biketrack.geo.PolylineCodec;
+import org.knuth.biketrack.geo.RouteDistance;
+import org.knuth.biketrack.geo.RouteSignature;
+import org.knuth.biketrack.geo.Simplifier;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.RouteBand;
+import org.knuth.biketrack.track.Track;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Groups tours which are the same ride (e.g. the daily commute) into clusters. The
+ *  cluster of a tour is stored as its {@code cluster_id}, which is the smallest id of all
+ *  tours in the cluster.</p>
+ * <p>The bands of the {@link RouteSignature} of every tour are stored as {@link RouteBand}s.
+ *  A new tour only looks at the few tours which share a band with it (found through an
+ *  index) and confirms them with the {@link RouteDistance}. If it's the same ride as tours
+ *  from multiple clusters, those are merged.</p>
+ * <p>Tours are only ever added to clusters here. When a tour is forgotten, the rest of
+ *  its cluster stays together; the {@link ClusterBatch} builds all clusters from scratch.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RouteClusters {
+
+    /** The maximum distance (in meters) between two routes which are the same ride */
+    public static final double MAX_DISTANCE = 100;
+    /** The maximum number of candidates which are confirmed for a new tour */
+    private static final int MAX_CANDIDATES = 50;
+
+    private final DatabaseHelper helper;
+
+    public RouteClusters(DatabaseHelper helper){
+        this.helper = helper;
+    }
+
+    /**
+     * Load the route of the given tour: the stored {@link Task#GEOMETRY}, or the simplified
+     *  track if there is none yet.
+     * @return the latitudes and longitudes, which are empty if the tour has no stamps.
+     */
+    public double[][] loadRoute(int tour_id) throws SQLException {
+        byte[] geometry = Task.GEOMETRY.load(new ArtifactStore(helper), tour_id);
+        if (geometry != null){
+            return new double[][]{PolylineCodec.decodeLatitudes(geometry), PolylineCodec.decodeLongitudes(geometry)};
+        }
+        return simplify(helper.queryTrack(tour_id));
+    }
+
+    /**
+     * Simplify the given track like the stored geometry.
+     * @return the latitudes and longitudes.
+     */
+    static double[][] simplify(Track track){
+        double[] lat = track.getLatitudes();
+        double[] lon = track.getLongitudes();
+        int[] kept = Simplifier.simplify(lat, lon, 0, track.size(), Task.GEOMETRY_TOLERANCE);
+        double[] route_lat = new double[kept.length];
+        double[] route_lon = new double[kept.length];
+        for (int i = 0; i < kept.length; i++){
+            route_lat[i] = lat[kept[i]];
+            route_lon[i] = lon[kept[i]];
+        }
+        return new double[][]{route_lat, route_lon};
+    }
+
+    /**
+     * Add the given tour to the cluster of the tours which are the same ride, merging
+     *  clusters if needed. The bands of its signature are stored (or replaced).
+     * @param route the (simplified) latitudes and longitudes of the tour.
+     * @return the id of the cluster the tour is in now.
+     */
+    public int cluster(final int tour_id, double[][] route) throws SQLException {
+        final long[] bands = RouteSignature.of(route[0], route[1]).getBands();
+        // Confirm the candidates cluster by cluster, one matching tour is enough:
+        Map<Integer, List<Integer>> candidates = findCandidates(tour_id, bands);
+        final TreeSet<Integer> matched = new TreeSet<Integer>();
+        for (Map.Entry<Integer, List<Integer>> cluster : candidates.entrySet()){
+            for (int candidate : cluster.getValue()){
+                double[][] other = loadRoute(candidate);
+                if (RouteDistance.isWithin(route[0], route[1], other[0], other[1], MAX_DISTANCE)){
+                    matched.add(cluster.getKey());
+                    break;
+                }
+            }
+        }
+        final int cluster_id = matched.isEmpty() ? tour_id : Math.min(tour_id, matched.first());
+        final Dao<RouteBand, Void> dao = helper.getRouteBandDao();
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                dao.executeRaw("DELETE FROM route_bands WHERE tour_id = ?", String.valueOf(tour_id));
+                for (int band = 0; band < bands.length; band++){
+                    dao.create(new RouteBand(tour_id, band, bands[band]));
+                }
+                StringBuilder merged = new StringBuilder();
+                for (int id : matched){
+                    if (merged.length() > 0) merged.append(", ");
+                    merged.append(id);
+                }
+                helper.getTourDao().executeRaw("UPDATE tours SET cluster_id = ? WHERE id = ? " +
+                        "OR cluster_id IN (" + merged + ")", String.valueOf(cluster_id), String.valueOf(tour_id)
+                );
+                return null;
+            }
+        });
+        return cluster_id;
+    }
+
+    /**
+     * Find the tours which share a band with the given bands, the ones sharing the most first.
+     * @return the ids of the candidates by their cluster.
+     */
+    private Map<Integer, List<Integer>> findCandidates(int tour_id, long[] bands) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT route_bands.tour_id, tours.cluster_id FROM route_bands " +
+                "INNER JOIN tours ON tours.id = route_bands.tour_id " +
+                "WHERE route_bands.version = ").append(RouteBand.VERSION).append(" AND route_bands.tour_id != ")
+                .append(tour_id).append(" AND (");
+        for (int band = 0; band < bands.length; band++){
+            if (band > 0) sql.append(" OR ");
+            sql.append("(route_bands.band = ").append(band).append(" AND route_bands.hash = ").append(bands[band]).append(')');
+        }
+        sql.append(") GROUP BY route_bands.tour_id ORDER BY COUNT(*) DESC LIMIT ").append(MAX_CANDIDATES);
+        Map<Integer, List<Integer>> candidates = new LinkedHashMap<Integer, List<Integer>>();
+        GenericRawResults<String[]> results = helper.getRouteBandDao().queryRaw(sql.toString());
+        try {
+            for (String[] row : results){
+                int candidate = Integer.parseInt(row[0]);
+                int cluster_id = Integer.parseInt(row[1]);
+                // Shouldn't happen, the cluster is set with the bands:
+                if (cluster_id == 0) cluster_id = candidate;
+                List<Integer> members = candidates.get(cluster_id);
+                if (members == null){
+                    members = new ArrayList<Integer>();
+                    candidates.put(cluster_id, members);
+                }
+                members.add(candidate);
+            }
+        } finally {
+            results.close();
+        }
+        return candidates;
+    }
+
+    /**
+     * Forget the signature of the given tour and take it out of its cluster.
+     */
+    public void forgetTour(int tour_id) throws SQLException {
+        String id = String.valueOf(tour_id);
+        helper.getRouteBandDao().executeRaw("DELETE FROM route_bands WHERE tour_id = ?", id);
+        helper.getTourDao().executeRaw("UPDATE tours SET cluster_id = 0 WHERE id = ?", id);
+    }
+}
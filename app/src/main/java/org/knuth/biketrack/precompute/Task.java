@@ -0,0 +1,249 @@
+package org.knuth.biketrack.precompute;
+
+import org.knuth.biketrack.adapter.statistic.Units;
+import org.knuth.biketrack.geo.PolylineCodec;
+import org.knuth.biketrack.geo.Simplifier;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.BestEffort;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.RecordStore;
+import org.knuth.biketrack.persistent.RouteBand;
+import org.knuth.biketrack.persistent.TourSummary;
+import org.knuth.biketrack.track.BestEfforts;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.Profile;
+import org.knuth.biketrack.track.Splits;
+import org.knuth.biketrack.track.TimeInZones;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.ZoneHistogram;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * <p>The things that are precomputed for every finished tour.</p>
+ * <p>Every task has a version, which is stored with its result. Incrementing the version
+ *  makes the {@link PrecomputeQueue} run the task again for all tours. Running a task
+ *  twice simply replaces the first result.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public enum Task {
+
+    /** The summary statistics, see {@link TourSummary} */
+    SUMMARY(TourSummary.VERSION){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException {
+            new ArtifactStore(helper).storeSummary(TourSummary.of(tour_id, track));
+        }
+
+        @Override
+        String selectDone() {
+            return "SELECT tour_id FROM tour_summaries WHERE version = " + getVersion();
+        }
+    },
+    /** The speed- and elevation-profile over the distance, see {@link #decodeProfiles(byte[])} */
+    PROFILE(1){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException, IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(PROFILE_POINTS * 16 + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            Profile.speedOverDistance(track).downsample(PROFILE_POINTS).write(out);
+            Profile.elevationOverDistance(track).downsample(PROFILE_POINTS).write(out);
+            out.flush();
+            new ArtifactStore(helper).store(tour_id, name(), getVersion(), bytes.toByteArray());
+        }
+    },
+    /** The simplified track for the map, encoded with the {@link PolylineCodec} */
+    GEOMETRY(1){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException {
+            double[] lat = track.getLatitudes();
+            double[] lon = track.getLongitudes();
+            int[] kept = Simplifier.simplify(lat, lon, 0, track.size(), GEOMETRY_TOLERANCE);
+            new ArtifactStore(helper).store(tour_id, name(), getVersion(), PolylineCodec.encode(lat, lon, kept));
+        }
+    },
+    /** The heavily simplified track for the thumbnail in the tour-list, encoded with the {@link PolylineCodec} */
+    THUMBNAIL(1){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException {
+            double[] lat = track.getLatitudes();
+            double[] lon = track.getLongitudes();
+            int[] kept = Simplifier.simplify(lat, lon, 0, track.size(), GEOMETRY_TOLERANCE, THUMBNAIL_POINTS);
+            new ArtifactStore(helper).store(tour_id, name(), getVersion(), PolylineCodec.encode(lat, lon, kept));
+        }
+    },
+    /** The best efforts of the tour and the personal records, see {@link RecordStore} */
+    RECORDS(BestEffort.VERSION){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException {
+            new RecordStore(helper).storeEfforts(tour_id, BestEfforts.find(track), true);
+        }
+
+        @Override
+        String selectDone() {
+            return "SELECT tour_id FROM best_efforts WHERE kind = '" + BestEfforts.Kind.CLIMB.name() +
+                    "' AND version = " + getVersion();
+        }
+    },
+    /** The climbs detected on the smoothed altitudes, see {@link #decodeClimbs(byte[])} */
+    CLIMBS(1){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException, IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            ElevationProcessor.writeClimbs(ElevationProcessor.of(track).getClimbs(), out);
+            out.flush();
+            new ArtifactStore(helper).store(tour_id, name(), getVersion(), bytes.toByteArray());
+        }
+    },
+    /**
+     * The splits in every system of measurement and the laps, see {@link #decodeSplits(byte[], Units.MeasurementSystem)}
+     *  and {@link #decodeLaps(byte[])}
+     */
+    SPLITS(1){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException, IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Units.MeasurementSystem system : Units.MeasurementSystem.values()){
+                Splits.write(Splits.byDistance(track, system.getUnitLength()), out);
+            }
+            Splits.write(Splits.byTime(track, helper.queryLaps(tour_id)), out);
+            out.flush();
+            new ArtifactStore(helper).store(tour_id, name(), getVersion(), bytes.toByteArray());
+        }
+    },
+    /** The cluster of tours which are the same ride, see {@link RouteClusters} */
+    CLUSTER(RouteBand.VERSION){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException {
+            new RouteClusters(helper).cluster(tour_id, RouteClusters.simplify(track));
+        }
+
+        @Override
+        String selectDone() {
+            return "SELECT DISTINCT tour_id FROM route_bands WHERE version = " + getVersion();
+        }
+    },
+    /** The time spent in the speed- and gradient-zones, see {@link #decodeZones(byte[])} */
+    ZONES(1){
+        @Override
+        void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException, IOException {
+            TimeInZones zones = TimeInZones.of(track);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            zones.getSpeed().write(out);
+            zones.getGradient().write(out);
+            out.flush();
+            new ArtifactStore(helper).store(tour_id, name(), getVersion(), bytes.toByteArray());
+        }
+    };
+
+    /** The number of points in the stored profiles, enough for the widest screens */
+    private static final int PROFILE_POINTS = 1024;
+    /** The maximum distance (in meters) of a dropped point from the simplified track */
+    static final double GEOMETRY_TOLERANCE = 5;
+    /** The maximum number of points for the thumbnail */
+    private static final int THUMBNAIL_POINTS = 64;
+
+    private final int version;
+
+    private Task(int version){
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Calculate and store the result of this task for the given (non-empty) track.
+     */
+    abstract void run(DatabaseHelper helper, int tour_id, Track track) throws SQLException, IOException;
+
+    /**
+     * The SQL-query for the ids of all tours which have a current result of this task.
+     */
+    String selectDone(){
+        return "SELECT tour_id FROM tour_artifacts WHERE kind = '" + name() + "' AND version = " + version;
+    }
+
+    /**
+     * Load the stored result of this task for the given tour.
+     * @return the result, or {@code null} if it wasn't computed (with the current version) yet.
+     */
+    public byte[] load(ArtifactStore store, int tour_id) throws SQLException {
+        return store.load(tour_id, name(), version);
+    }
+
+    /**
+     * Decode the result of {@link #PROFILE}.
+     * @return the speed- and the elevation-profile over the distance.
+     */
+    public static Profile[] decodeProfiles(byte[] data){
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            return new Profile[]{Profile.read(in), Profile.read(in)};
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed profile-data!", e);
+        }
+    }
+
+    /**
+     * Decode the splits in the given system of measurement from the result of {@link #SPLITS}.
+     */
+    public static List<Splits.Split> decodeSplits(byte[] data, Units.MeasurementSystem system){
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            for (int i = 0; i < system.ordinal(); i++) Splits.read(in);
+            return Splits.read(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed split-data!", e);
+        }
+    }
+
+    /**
+     * Decode the laps from the result of {@link #SPLITS}.
+     */
+    public static List<Splits.Split> decodeLaps(byte[] data){
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            for (int i = 0; i < Units.MeasurementSystem.values().length; i++) Splits.read(in);
+            return Splits.read(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed split-data!", e);
+        }
+    }
+
+    /**
+     * Decode the result of {@link #ZONES}.
+     * @return the time spent in the speed- and in the gradient-zones.
+     */
+    public static ZoneHistogram[] decodeZones(byte[] data){
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            return new ZoneHistogram[]{ZoneHistogram.read(in), ZoneHistogram.read(in)};
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed zone-data!", e);
+        }
+    }
+
+    /**
+     * Decode the result of {@link #CLIMBS}.
+     */
+    public static List<ElevationProcessor.Climb> decodeClimbs(byte[] data){
+        try {
+            return ElevationProcessor.readClimbs(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed climb-data!", e);
+        }
+    }
+}
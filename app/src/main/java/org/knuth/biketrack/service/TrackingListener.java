@@ -1,6 +1,10 @@
 package org.knuth.biketrack.service;
 
+import org.knuth.biketrack.geo.RouteFollower;
 import org.knuth.biketrack.persistent.LocationStamp;
+import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.MovingTime;
 
 /**
  * The callback-interface for the {@code TracingBinder}.
@@ -14,6 +18,22 @@ public interface TrackingListener {
      * This method will be called with the generated data provided by the GPS-
      *  module, as soon as it is available.
      * @param data the data from the GPS-module as a {@link LocationStamp}.
+     * @param elevation the processed altitudes of the tour so far.
+     * @param moving the moving time of the tour so far. While it's paused, the locations
+     *  aren't stored.
      */
-    public void update(LocationStamp data);
+    public void update(LocationStamp data, ElevationProcessor elevation, MovingTime moving);
+
+    /**
+     * This method will be called once the route of a followed tour is loaded.
+     * @param route the tour which is followed.
+     * @param follower follows the route, or {@code null} if it couldn't be loaded.
+     */
+    public void routeLoaded(Tour route, RouteFollower follower);
+
+    /**
+     * This method will be called when the rider leaves or joins the followed route, see
+     *  {@link RouteFollower#isOnRoute()}.
+     */
+    public void routeChanged(RouteFollower follower);
 }
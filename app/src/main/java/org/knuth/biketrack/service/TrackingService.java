@@ -7,17 +7,33 @@ import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.AsyncTask;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.SystemClock;
 import android.util.Log;
 import com.j256.ormlite.android.apptools.OrmLiteBaseService;
-import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.UpdateBuilder;
 import org.knuth.biketrack.Main;
+import org.knuth.biketrack.elevation.ElevationService;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.geo.Geodesy;
+import org.knuth.biketrack.geo.RouteFollower;
+import org.knuth.biketrack.heatmap.HeatmapCache;
 import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.persistent.Lap;
 import org.knuth.biketrack.persistent.LocationStamp;
+import org.knuth.biketrack.persistent.SegmentEngine;
+import org.knuth.biketrack.persistent.SpatialIndex;
 import org.knuth.biketrack.persistent.Tour;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.precompute.RouteClusters;
+import org.knuth.biketrack.thumbnail.ThumbnailCache;
+import org.knuth.biketrack.track.ElevationProcessor;
+import org.knuth.biketrack.track.MovingTime;
+import org.knuth.biketrack.track.Track;
+import org.knuth.biketrack.track.TrackCache;
 
 import java.sql.SQLException;
 import java.util.Date;
@@ -32,6 +48,10 @@ public class TrackingService extends OrmLiteBaseService<DatabaseHelper> {
 
     /** The key used to send the current {@code Tour} as an Intent-extra. */
     public static final String TOUR_KEY = "tour";
+    /** The time (in milliseconds) between two location-updates */
+    private static final long UPDATE_INTERVAL = 2000;
+    /** The distance (in meters) from the last position, below which a fix is GPS-jitter */
+    private static final double MIN_DISTANCE = 10;
 
     /** The listener to process the location-changes */
     private LocationListener locationListener;
@@ -41,9 +61,30 @@ public class TrackingService extends OrmLiteBaseService<DatabaseHelper> {
     private long mLastLocationMillis;
     /** The current {@code Tour} we're taking. */
     private Tour current_tour;
+    /** Adds the tracked locations to the spatial index */
+    private SpatialIndex.Writer spatial_index;
+    /** Processes the altitudes of the tracked locations */
+    private ElevationProcessor elevation;
+    /** The distance ridden so far, in meters */
+    private double distance;
+    /** The last tracked position, {@code NaN} if there is none yet */
+    private double last_latitude = Double.NaN;
+    private double last_longitude = Double.NaN;
+    /** Detects when the rider stands still, to pause the recording */
+    private MovingTime moving;
+    /** The last location while paused, which isn't stored yet */
+    private LocationStamp paused_stamp;
+    /** The stored location where the current pause started, {@code null} if not paused */
+    private LocationStamp stored_pause;
+    /** The number of laps marked on the current tour */
+    private int laps;
 
     /** The callback to send updated to the Activity */
     private TrackingListener callback;
+    /** The saved tour which is followed, {@code null} if there is none */
+    private Tour followed_tour;
+    /** Follows the route of the {@code followed_tour}, {@code null} while it's loading */
+    private RouteFollower follower;
 
     // TODO React on GPS being disabled while tracking and end the service.
 
@@ -57,20 +98,44 @@ public class TrackingService extends OrmLiteBaseService<DatabaseHelper> {
                 // TODO Need to handle situations where no speed/altitude is available from GPS receiver!
                 LocationStamp data = null;
                 try {
-                    Dao<LocationStamp, Void> location_dao = getHelper().getLocationStampDao();
                     data = new LocationStamp(
                             location.getLatitude(), location.getLongitude(), location.getAltitude(),
                             new Date(),
                             location.getSpeed(),
                             current_tour);
-                    location_dao.create(data);
+                    // Fixes keep coming while standing still, their jitter doesn't count as distance:
+                    double step = Double.isNaN(last_latitude) ? MIN_DISTANCE : Geodesy.distance(
+                            last_latitude, last_longitude, data.getLatitude(), data.getLongitude()
+                    );
+                    if (step >= MIN_DISTANCE){
+                        if (!Double.isNaN(last_latitude)) distance += step;
+                        last_latitude = data.getLatitude();
+                        last_longitude = data.getLongitude();
+                    }
+                    long time = data.getTimestamp().getTime();
+                    elevation.add(distance, time, data.getAltitude());
+                    moving.add(distance, time, data.getSpeed());
+                    if (follower != null) follower.update(data.getLatitude(), data.getLongitude(), time);
+                    if (moving.isPaused()){
+                        // Standing still, only one location is stored: where the pause started, so it
+                        //  survives the service being killed, then where the pause ended:
+                        if (stored_pause == null){
+                            store(data);
+                            stored_pause = data;
+                        } else {
+                            paused_stamp = data;
+                        }
+                    } else {
+                        endPause();
+                        store(data);
+                    }
                 } catch (SQLException e) {
                     e.printStackTrace();
                 } finally {
                     mLastLocationMillis = SystemClock.elapsedRealtime();
                     if (callback != null){
                         // Send the collected data to the activity:
-                        if (data != null) callback.update(data);
+                        if (data != null) callback.update(data, elevation, moving);
                     }
                 }
             }
@@ -121,14 +186,141 @@ public class TrackingService extends OrmLiteBaseService<DatabaseHelper> {
         if (current_tour == null){
             throw new IllegalStateException("Can't work without a Tour!");
         }
-        // Bind the listeners:
-        LocationManager loc = (LocationManager)this.getSystemService(Context.LOCATION_SERVICE);
-        loc.requestLocationUpdates(LocationManager.GPS_PROVIDER, 2000, 10, locationListener);
-        loc.addGpsStatusListener(gpsListener);
+        // Right away, so nothing is precomputed for the tour while it changes (the deletes run in the background):
+        PrecomputeQueue queue = PrecomputeQueue.from(this);
+        queue.setTrackedTour(current_tour.getId());
+        queue.forgetTour(current_tour.getId());
+        // Reading the track so far takes a while, the location-updates start once it's done:
+        new PrepareTracking(current_tour).execute();
         // Start the service, so it gets recreated when killed.
         return Service.START_STICKY;
     }
 
+    /**
+     * Prepares the database for tracking the tour and reads the track tracked so far, to
+     *  continue its elevation, moving time and distance. Only then the listeners are bound.
+     */
+    private class PrepareTracking extends AsyncTask<Void, Void, Boolean>{
+
+        private final Tour tour;
+        private SpatialIndex.Writer index;
+        private ElevationProcessor tour_elevation;
+        private MovingTime tour_moving;
+        private double tour_distance;
+        private int tour_laps;
+        private double tour_latitude = Double.NaN;
+        private double tour_longitude = Double.NaN;
+
+        private PrepareTracking(Tour tour){
+            this.tour = tour;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... nothing) {
+            try {
+                DatabaseHelper helper = getHelper();
+                index = new SpatialIndex(helper).openWriter(tour);
+                // The track changes, so the tour needs to be matched against all segments again:
+                new SegmentEngine(helper).forgetTour(tour.getId());
+                ThumbnailCache.from(TrackingService.this).invalidate(tour.getId());
+                // The new stamps aren't corrected, so the track would mix both altitudes:
+                ElevationService.from(TrackingService.this).forgetTour(helper, tour.getId());
+                // Continue with the altitudes tracked so far:
+                Track track = TrackCache.from(TrackingService.this).get(helper, tour.getId());
+                tour_elevation = ElevationProcessor.of(track);
+                tour_moving = MovingTime.of(track);
+                tour_distance = track.getLength();
+                tour_laps = helper.queryLaps(tour.getId()).length;
+                if (!track.isEmpty()){
+                    tour_latitude = track.getLatitudes()[track.size() - 1];
+                    tour_longitude = track.getLongitudes()[track.size() - 1];
+                }
+                return true;
+            } catch (Exception e) {
+                Log.e(Main.LOG_TAG, "Can't prepare the database for tracking tour "+tour.getId(), e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean prepared){
+            // The service was stopped in the meantime:
+            if (locationListener == null) return;
+            if (!prepared){
+                TrackingService.this.stopSelf();
+                return;
+            }
+            spatial_index = index;
+            elevation = tour_elevation;
+            moving = tour_moving;
+            distance = tour_distance;
+            laps = tour_laps;
+            last_latitude = tour_latitude;
+            last_longitude = tour_longitude;
+            // Bind the listeners. No minimum distance, the fixes must keep coming while standing
+            //  still, to tell when the pause started and ended (only the last one is stored):
+            LocationManager loc = (LocationManager)getSystemService(Context.LOCATION_SERVICE);
+            loc.requestLocationUpdates(LocationManager.GPS_PROVIDER, UPDATE_INTERVAL, 0, locationListener);
+            loc.addGpsStatusListener(gpsListener);
+        }
+    }
+
+    /**
+     * Informs the activity when the rider leaves or joins the followed route.
+     */
+    private final RouteFollower.Listener route_listener = new RouteFollower.Listener() {
+        @Override
+        public void onLeftRoute(RouteFollower follower) {
+            if (callback != null) callback.routeChanged(follower);
+        }
+
+        @Override
+        public void onJoinedRoute(RouteFollower follower) {
+            if (callback != null) callback.routeChanged(follower);
+        }
+    };
+
+    /**
+     * Loads the route of a saved tour and builds the grid to follow it with.
+     */
+    private class LoadRoute extends AsyncTask<Void, Void, RouteFollower>{
+
+        private final Tour route;
+
+        private LoadRoute(Tour route){
+            this.route = route;
+        }
+
+        @Override
+        protected RouteFollower doInBackground(Void... nothing) {
+            try {
+                // The simplified geometry is plenty to follow and keeps the grid small:
+                double[][] points = new RouteClusters(getHelper()).loadRoute(route.getId());
+                return points[0].length < 2 ? null : new RouteFollower(points[0], points[1]);
+            } catch (Exception e) {
+                Log.e(Main.LOG_TAG, "Couldn't load the route of tour "+route.getId(), e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(RouteFollower loaded){
+            // Another tour might have been picked in the meantime:
+            if (route != followed_tour) return;
+            if (loaded == null){
+                followed_tour = null;
+            } else {
+                follower = loaded;
+                follower.setListener(route_listener);
+                // Start where the rider is now:
+                if (!Double.isNaN(last_latitude)){
+                    follower.update(last_latitude, last_longitude, System.currentTimeMillis());
+                }
+            }
+            if (callback != null) callback.routeLoaded(route, loaded);
+        }
+    }
+
     @Override
     public void onDestroy() {
         LocationManager loc = (LocationManager)this.getSystemService(Context.LOCATION_SERVICE);
@@ -136,10 +328,62 @@ public class TrackingService extends OrmLiteBaseService<DatabaseHelper> {
         loc.removeGpsStatusListener(gpsListener);
         locationListener = null;
         gpsListener = null;
+        followed_tour = null;
+        follower = null;
+        if (current_tour != null){
+            // Stopped while paused, the tour ends where the rider stood:
+            try {
+                endPause();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            // The tour is finished, precompute everything for it:
+            PrecomputeQueue queue = PrecomputeQueue.from(this);
+            queue.setTrackedTour(PrecomputeQueue.NO_TOUR);
+            queue.enqueue(current_tour.getId(), PrecomputeQueue.PRIORITY_FINISHED);
+            // The heatmap is outdated where the tour went:
+            try {
+                BoundingBox bounds = getHelper().queryBounds(current_tour.getId());
+                if (bounds != null) HeatmapCache.from(this).invalidate(bounds);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
         Log.v(Main.LOG_TAG, "Being stopped...");
         super.onDestroy();
     }
 
+    /**
+     * Store the given location of the current tour.
+     */
+    private void store(LocationStamp stamp) throws SQLException {
+        getHelper().getLocationStampDao().create(stamp);
+        spatial_index.append(stamp.getLatitude(), stamp.getLongitude());
+        TrackCache.from(this).invalidate(current_tour.getId());
+    }
+
+    /**
+     * Move the stored location of the current pause to the last location while paused, if
+     *  the rider was paused.
+     */
+    private void endPause() throws SQLException {
+        if (paused_stamp != null){
+            UpdateBuilder<LocationStamp, Void> update = getHelper().getLocationStampDao().updateBuilder();
+            update.updateColumnValue("latitude", paused_stamp.getLatitude());
+            update.updateColumnValue("longitude", paused_stamp.getLongitude());
+            update.updateColumnValue("altitude", paused_stamp.getAltitude());
+            update.updateColumnValue("timestamp", paused_stamp.getTimestamp());
+            update.updateColumnValue("speed", paused_stamp.getSpeed());
+            update.where().eq("tour_id", current_tour.getId())
+                    .and().eq("timestamp", stored_pause.getTimestamp());
+            update.update();
+            spatial_index.append(paused_stamp.getLatitude(), paused_stamp.getLongitude());
+            TrackCache.from(this).invalidate(current_tour.getId());
+        }
+        paused_stamp = null;
+        stored_pause = null;
+    }
+
     /*
         -------------- Binder Stuff.
      */
@@ -185,5 +429,60 @@ public class TrackingService extends OrmLiteBaseService<DatabaseHelper> {
             // TODO Return defensive copy or keep this way (auto-updated)?
             return TrackingService.this.current_tour;
         }
+
+        /**
+         * <p>Follow the route of the given saved tour, instead of any route followed before.</p>
+         * <p>The route is loaded in the background, the callback is informed once it's
+         *  ready. From then on, every new location is matched onto the route.</p>
+         */
+        public void followRoute(Tour route){
+            if (route == null)
+                throw new NullPointerException("[route] can't be null!");
+            followed_tour = route;
+            follower = null;
+            new LoadRoute(route).execute();
+        }
+
+        /**
+         * Stop following the route.
+         */
+        public void stopFollowing(){
+            followed_tour = null;
+            follower = null;
+        }
+
+        /**
+         * The saved tour which is followed, or {@code null} if there is none.
+         */
+        public Tour getFollowedTour(){
+            return followed_tour;
+        }
+
+        /**
+         * Follows the route of the {@link #getFollowedTour()}, or {@code null} if there is
+         *  none or it's still loading.
+         */
+        public RouteFollower getRouteFollower(){
+            return follower;
+        }
+
+        /**
+         * Mark a lap on the current tour: the current lap ends and the next one starts now.
+         * @return the number of the lap which just ended, or {@code 0} if it couldn't be stored
+         *  or the tracking is still being prepared.
+         */
+        public int markLap(){
+            // The laps tracked so far are still being counted:
+            if (spatial_index == null) return 0;
+            try {
+                // While paused, the lap should end where the rider stands:
+                endPause();
+                getHelper().getLapDao().create(new Lap(current_tour.getId(), new Date()));
+                return ++laps;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return 0;
+            }
+        }
     }
 }
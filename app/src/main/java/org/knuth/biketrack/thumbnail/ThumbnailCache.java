@@ -0,0 +1,147 @@
+package org.knuth.biketrack.thumbnail;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.precompute.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>The application-wide two-level cache of rendered track-thumbnails.</p>
+ * <p>Recently shown thumbnails are kept in memory, bounded by their size in bytes. All
+ *  rendered thumbnails are also written to the apps cache-directory, keyed by the tour
+ *  and the version of the {@link Task#THUMBNAIL}-artifact and the {@link ThumbnailRenderer},
+ *  so they survive the process and are replaced once either changes.</p>
+ * <p>Whenever the stamps of a tour change or the tour is deleted, it <b>must</b> be
+ *  {@link #invalidate(int) invalidated}.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ThumbnailCache implements ComponentCallbacks2 {
+
+    /** The part of the apps memory-class which is used for the memory-cache */
+    private static final int MEMORY_FRACTION = 16;
+    private static final String DIRECTORY = "thumbnails";
+
+    private final LruCache<Integer, Bitmap> memory;
+    private final File directory;
+
+    public ThumbnailCache(Context context){
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int budget = manager.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+        this.memory = new LruCache<Integer, Bitmap>(budget){
+            @Override
+            protected int sizeOf(Integer tour_id, Bitmap thumbnail) {
+                return thumbnail.getRowBytes() * thumbnail.getHeight();
+            }
+        };
+        this.directory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * Get the cache of the application.
+     */
+    public static ThumbnailCache from(Context context){
+        return ((Application) context.getApplicationContext()).getThumbnailCache();
+    }
+
+    /**
+     * Get the thumbnail of the given tour from memory. This is cheap enough for the UI-thread.
+     * @return the thumbnail or {@code null} if it's not in memory.
+     */
+    public Bitmap getCached(int tour_id){
+        return memory.get(tour_id);
+    }
+
+    /**
+     * Get the thumbnail of the given tour from memory or from disk. Must not be called
+     *  on the UI-thread.
+     * @return the thumbnail or {@code null} if it wasn't rendered yet.
+     */
+    public Bitmap get(int tour_id){
+        Bitmap thumbnail = memory.get(tour_id);
+        if (thumbnail != null) return thumbnail;
+        File file = fileFor(tour_id);
+        if (!file.exists()) return null;
+        thumbnail = BitmapFactory.decodeFile(file.getPath());
+        if (thumbnail != null) memory.put(tour_id, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Put a freshly rendered thumbnail into memory and on disk. Must not be called on
+     *  the UI-thread.
+     */
+    public void put(int tour_id, Bitmap thumbnail){
+        memory.put(tour_id, thumbnail);
+        if (!directory.exists() && !directory.mkdirs()) return;
+        File file = fileFor(tour_id);
+        // Write to a temporary file first, so a half-written thumbnail is never read:
+        File temp = new File(directory, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) temp.delete();
+        } catch (IOException e) {
+            Log.w(Main.LOG_TAG, "Couldn't store the thumbnail of tour "+tour_id, e);
+            temp.delete();
+        } finally {
+            if (out != null){
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing to do here...
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the thumbnail of the given tour, because its stamps have changed.
+     */
+    public void invalidate(int tour_id){
+        memory.remove(tour_id);
+        fileFor(tour_id).delete();
+    }
+
+    private File fileFor(int tour_id){
+        return new File(directory, tour_id + "_" + Task.THUMBNAIL.getVersion() + "_" + ThumbnailRenderer.VERSION + ".png");
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // Everything is on disk anyways, so give it back early:
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW){
+            memory.evictAll();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN){
+            // LruCache#trimToSize() is only public since API 17, the snapshot is least recently used first:
+            for (Integer tour_id : memory.snapshot().keySet()){
+                if (memory.size() <= memory.maxSize() / 2) break;
+                memory.remove(tour_id);
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        memory.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {}
+}
@@ -0,0 +1,160 @@
+package org.knuth.biketrack.thumbnail;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.R;
+import org.knuth.biketrack.persistent.ArtifactStore;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+import org.knuth.biketrack.precompute.PrecomputeQueue;
+import org.knuth.biketrack.precompute.Task;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Loads track-thumbnails into {@code ImageView}s asynchronously, e.g. for the rows of a list.</p>
+ * <p>Thumbnails in the memory of the {@link ThumbnailCache} are set right away. Everything
+ *  else happens on a background-thread: the thumbnail is read from the disk-cache, or
+ *  rendered from the precomputed {@link Task#THUMBNAIL}-geometry. The stamps of a tour
+ *  are never queried; a tour which wasn't precomputed yet simply has no thumbnail.</p>
+ * <p>When a view is recycled for another tour, its pending request is canceled. All methods
+ *  must be called from the UI-thread.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ThumbnailLoader {
+
+    /** Shared by all loaders, so recreated activities don't leak threads */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ThumbnailLoader");
+        }
+    });
+
+    private final Context context;
+    private final ThumbnailCache cache;
+    private final Handler handler;
+    private final int size;
+    private final int color;
+    private final float stroke_width;
+    /** The pending request of every view */
+    private final Map<ImageView, Request> requests = new WeakHashMap<ImageView, Request>();
+
+    public ThumbnailLoader(Context context){
+        this.context = context.getApplicationContext();
+        this.cache = ThumbnailCache.from(context);
+        this.handler = new Handler(Looper.getMainLooper());
+        Resources res = context.getResources();
+        this.size = res.getDimensionPixelSize(R.dimen.thumbnail_size);
+        this.stroke_width = res.getDimension(R.dimen.thumbnail_strokeWidth);
+        this.color = res.getColor(R.color.thumbnail_track);
+    }
+
+    /**
+     * Show the thumbnail of the given tour in the given view, canceling whatever was
+     *  loaded into it before.
+     */
+    public void load(ImageView view, int tour_id){
+        Request pending = requests.get(view);
+        if (pending != null){
+            if (pending.tour_id == tour_id) return; // Already on its way.
+            pending.cancel();
+            requests.remove(view);
+        }
+        Bitmap cached = cache.getCached(tour_id);
+        if (cached != null){
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        Request request = new Request(view, tour_id);
+        requests.put(view, request);
+        request.future = executor.submit(request);
+    }
+
+    /**
+     * Cancel all pending requests, e.g. when the list is no longer shown.
+     */
+    public void cancelAll(){
+        for (Request request : requests.values()){
+            request.cancel();
+        }
+        requests.clear();
+    }
+
+    /**
+     * Loads (or renders) one thumbnail on a background-thread and hands it to the UI-thread.
+     */
+    private class Request implements Runnable {
+
+        private final ImageView view;
+        private final int tour_id;
+        private volatile boolean canceled;
+        private Future<?> future;
+
+        private Request(ImageView view, int tour_id){
+            this.view = view;
+            this.tour_id = tour_id;
+        }
+
+        private void cancel(){
+            canceled = true;
+            // Don't interrupt, that would close the database-connection:
+            if (future != null) future.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (canceled) return;
+            final Bitmap thumbnail = loadThumbnail();
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled || requests.get(view) != Request.this) return;
+                    requests.remove(view);
+                    if (thumbnail != null) view.setImageBitmap(thumbnail);
+                }
+            });
+        }
+
+        private Bitmap loadThumbnail(){
+            Bitmap thumbnail = cache.get(tour_id);
+            if (thumbnail != null || canceled) return thumbnail;
+            // The geometry of the tour being tracked is outdated:
+            if (PrecomputeQueue.from(context).isTracked(tour_id)) return null;
+            DatabaseHelper helper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
+            try {
+                byte[] geometry = Task.THUMBNAIL.load(new ArtifactStore(helper), tour_id);
+                if (geometry == null || canceled) return null;
+                thumbnail = ThumbnailRenderer.render(geometry, size, color, stroke_width);
+                if (thumbnail != null) cache.put(tour_id, thumbnail);
+                return thumbnail;
+            } catch (Exception e) {
+                Log.e(Main.LOG_TAG, "Couldn't render the thumbnail of tour "+tour_id, e);
+                return null;
+            } finally {
+                OpenHelperManager.releaseHelper(); //Decrease the ref-count!
+            }
+        }
+    }
+}
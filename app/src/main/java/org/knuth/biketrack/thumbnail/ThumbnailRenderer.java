@@ -0,0 +1,88 @@
+package org.knuth.biketrack.thumbnail;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.geo.LocalProjection;
+import org.knuth.biketrack.geo.PolylineCodec;
+
+/**
+ * <p>Static helper-class to draw the silhouette of a (simplified) track into a bitmap.</p>
+ * <p>The track is projected into a plane first, so its shape isn't distorted, and then
+ *  scaled to fit the bitmap. Rendering doesn't touch any views and can (and should) be
+ *  done off the UI-thread.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ThumbnailRenderer {
+
+    // This is a static helper-class!
+    private ThumbnailRenderer(){}
+
+    /** Incremented whenever the look of the thumbnails changes, so cached ones are replaced */
+    public static final int VERSION = 1;
+
+    /**
+     * Render the given encoded polyline.
+     * @param polyline the track, encoded with the {@link PolylineCodec}.
+     * @param size the width and height of the bitmap in pixels.
+     * @param color the color of the track.
+     * @param stroke_width the width of the track in pixels.
+     * @return the rendered bitmap, or {@code null} if the polyline has no points.
+     */
+    public static Bitmap render(byte[] polyline, int size, int color, float stroke_width){
+        double[] lat = PolylineCodec.decodeLatitudes(polyline);
+        double[] lon = PolylineCodec.decodeLongitudes(polyline);
+        if (lat.length == 0) return null;
+        LocalProjection projection = LocalProjection.around(BoundingBox.of(lat, lon, 0, lat.length));
+        double[] x = new double[lat.length];
+        double[] y = new double[lat.length];
+        projection.x(lon, x);
+        projection.y(lat, y);
+        double min_x = x[0], max_x = x[0], min_y = y[0], max_y = y[0];
+        for (int i = 1; i < x.length; i++){
+            min_x = Math.min(min_x, x[i]);
+            max_x = Math.max(max_x, x[i]);
+            min_y = Math.min(min_y, y[i]);
+            max_y = Math.max(max_y, y[i]);
+        }
+        // Fit the longer side into the bitmap (keeping half a stroke free on all sides):
+        float inner = size - stroke_width;
+        double extent = Math.max(max_x - min_x, max_y - min_y);
+        double scale = extent > 0 ? inner / extent : 0;
+        double offset_x = (size - (max_x - min_x) * scale) / 2;
+        double offset_y = (size - (max_y - min_y) * scale) / 2;
+
+        Path path = new Path();
+        for (int i = 0; i < x.length; i++){
+            float px = (float) (offset_x + (x[i] - min_x) * scale);
+            // The y-axis points down on the canvas:
+            float py = (float) (size - offset_y - (y[i] - min_y) * scale);
+            if (i == 0){
+                path.moveTo(px, py);
+            } else {
+                path.lineTo(px, py);
+            }
+        }
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(stroke_width);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        if (x.length == 1){
+            // A single point doesn't make a path:
+            paint.setStyle(Paint.Style.FILL);
+            canvas.drawCircle(size / 2f, size / 2f, stroke_width, paint);
+        } else {
+            canvas.drawPath(path, paint);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,195 @@
+package org.knuth.biketrack.track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Static helper-class to find the best efforts in a {@link Track}: the fastest times
+ *  over fixed distances, the longest climb and the highest speed sustained over a
+ *  fixed time.</p>
+ * <p>All windows are found with two pointers over the cumulative distances and times,
+ *  in a single pass over the track, so finding all efforts is linear in its size.</p>
+ * <p>The climb is measured on the same {@link ElevationProcessor#smooth(double[], double[])
+ *  smoothed} altitudes as the elevation of the tour, since the GPS-noise would otherwise
+ *  end climbs early or add to them.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class BestEfforts {
+
+    // This is a static helper-class!
+    private BestEfforts(){}
+
+    /** How long (in milliseconds) a speed must be held for {@link Kind#SUSTAINED_SPEED} */
+    public static final long SUSTAINED_WINDOW = 5 * 60 * 1000;
+    /** How far (in meters) the altitude may drop below the top, before a climb is over */
+    public static final double CLIMB_TOLERANCE = 10;
+
+    /**
+     * The kinds of efforts.
+     */
+    public enum Kind {
+        DISTANCE_1K(1000), DISTANCE_5K(5000), DISTANCE_10K(10000), DISTANCE_20K(20000), DISTANCE_40K(40000),
+        /** The elevation gained (in meters) on the longest climb */
+        CLIMB(0),
+        /** The highest average speed (in meters per second) over {@link #SUSTAINED_WINDOW} */
+        SUSTAINED_SPEED(0);
+
+        private final double distance;
+
+        private Kind(double distance){
+            this.distance = distance;
+        }
+
+        /**
+         * The distance (in meters) for the fastest time, or {@code 0} if this isn't a
+         *  distance-effort.
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * Whether the value is the time (in milliseconds) needed for {@link #getDistance()}.
+         */
+        public boolean isTime(){
+            return distance > 0;
+        }
+
+        /**
+         * Whether the first value is a better effort than the second one.
+         */
+        public boolean isBetter(double value, double than){
+            return isTime() ? value < than : value > than;
+        }
+    }
+
+    /**
+     * Find the best efforts of every kind in the given track.
+     * @return the efforts. Distances which weren't ridden and a speed which wasn't held for
+     *  long enough are missing, the climb is always there (but may be {@code 0}).
+     */
+    public static List<Effort> find(Track track){
+        List<Effort> efforts = new ArrayList<Effort>(Kind.values().length);
+        if (track.isEmpty()) return efforts;
+        double[] d = track.getDistances();
+        long[] t = track.getTimes();
+        double[] alt = ElevationProcessor.smooth(d, track.getAltitudes());
+        Kind[] kinds = Kind.values();
+        // One window per distance (which are the first kinds):
+        int windows = 0;
+        for (Kind kind : kinds) if (kind.isTime()) windows++;
+        int[] start = new int[windows];
+        long[] best_time = new long[windows];
+        int[] best_start = new int[windows];
+        int[] best_end = new int[windows];
+        for (int w = 0; w < windows; w++) best_time[w] = Long.MAX_VALUE;
+        int speed_start = 0;
+        double best_speed = -1;
+        int best_speed_start = 0, best_speed_end = 0;
+        // The climb:
+        int low = 0, peak = 0;
+        double best_climb = 0;
+        int best_climb_start = 0, best_climb_end = 0;
+
+        for (int j = 0; j < d.length; j++){
+            // Fastest distances: the latest start which still covers the distance.
+            for (int w = 0; w < windows; w++){
+                double distance = kinds[w].getDistance();
+                int i = start[w];
+                while (i < j && d[j] - d[i + 1] >= distance) i++;
+                start[w] = i;
+                if (d[j] - d[i] >= distance && t[j] - t[i] < best_time[w]){
+                    best_time[w] = t[j] - t[i];
+                    best_start[w] = i;
+                    best_end[w] = j;
+                }
+            }
+            // Sustained speed: the latest start which still covers the time.
+            while (speed_start < j && t[j] - t[speed_start + 1] >= SUSTAINED_WINDOW) speed_start++;
+            long elapsed = t[j] - t[speed_start];
+            if (elapsed >= SUSTAINED_WINDOW){
+                double speed = (d[j] - d[speed_start]) / (elapsed / 1000.0);
+                if (speed > best_speed){
+                    best_speed = speed;
+                    best_speed_start = speed_start;
+                    best_speed_end = j;
+                }
+            }
+            // Climb: from the lowest point to the top, until it drops too far below the top.
+            if (alt[j] > alt[peak]){
+                peak = j;
+            } else if (alt[j] < alt[peak] - CLIMB_TOLERANCE || alt[j] < alt[low]){
+                if (alt[peak] - alt[low] > best_climb){
+                    best_climb = alt[peak] - alt[low];
+                    best_climb_start = low;
+                    best_climb_end = peak;
+                }
+                low = j;
+                peak = j;
+            }
+        }
+        if (alt[peak] - alt[low] > best_climb){
+            best_climb = alt[peak] - alt[low];
+            best_climb_start = low;
+            best_climb_end = peak;
+        }
+
+        for (int w = 0; w < windows; w++){
+            if (best_time[w] != Long.MAX_VALUE){
+                efforts.add(new Effort(kinds[w], best_time[w], t[best_start[w]], best_start[w], best_end[w]));
+            }
+        }
+        efforts.add(new Effort(Kind.CLIMB, best_climb, t[best_climb_start], best_climb_start, best_climb_end));
+        if (best_speed >= 0){
+            efforts.add(new Effort(Kind.SUSTAINED_SPEED, best_speed, t[best_speed_start],
+                    best_speed_start, best_speed_end));
+        }
+        return efforts;
+    }
+
+    /**
+     * The best effort of one kind, found in a track.
+     */
+    public static class Effort {
+
+        private final Kind kind;
+        private final double value;
+        private final long start_time;
+        private final int start_index;
+        private final int end_index;
+
+        public Effort(Kind kind, double value, long start_time, int start_index, int end_index){
+            this.kind = kind;
+            this.value = value;
+            this.start_time = start_time;
+            this.start_index = start_index;
+            this.end_index = end_index;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** The time in milliseconds, the climb in meters or the speed in meters per second */
+        public double getValue() {
+            return value;
+        }
+
+        /** When the effort started, in milliseconds since the epoch */
+        public long getStartTime() {
+            return start_time;
+        }
+
+        /** The index in the track where the effort started */
+        public int getStartIndex() {
+            return start_index;
+        }
+
+        /** The index in the track where the effort ended */
+        public int getEndIndex() {
+            return end_index;
+        }
+    }
+}
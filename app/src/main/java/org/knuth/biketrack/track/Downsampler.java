@@ -0,0 +1,80 @@
+package org.knuth.biketrack.track;
+
+/**
+ * <p>Static helper-class to reduce a series of points to a fixed number of points for
+ *  drawing, using the "Largest-Triangle-Three-Buckets" algorithm.</p>
+ * <p>The series is split into equally sized buckets. From every bucket, the point is kept
+ *  which forms the largest triangle with the point kept from the previous bucket and the
+ *  average of the next bucket. This keeps peaks and valleys, which a simple "take every
+ *  n-th point" would lose, in a single linear pass.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ * @see <a href="https://skemman.is/handle/1946/15343">Sveinn Steinarsson, Downsampling Time Series for Visual Representation</a>
+ */
+public class Downsampler {
+
+    // This is a static helper-class!
+    private Downsampler(){}
+
+    /**
+     * Select at most {@code threshold} points from the given series.
+     * @param x the x-values of the series, in ascending order.
+     * @param y the y-values of the series.
+     * @param threshold the maximum number of points to keep (at least 3).
+     * @return the indices of the kept points, in ascending order. The first and last
+     *  point are always kept.
+     * @throws IllegalArgumentException if the threshold is less than 3.
+     */
+    public static int[] largestTriangleThreeBuckets(double[] x, double[] y, int threshold){
+        if (threshold < 3)
+            throw new IllegalArgumentException("[threshold] must be at least 3!");
+        int size = x.length;
+        if (size <= threshold){
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) all[i] = i;
+            return all;
+        }
+        int[] kept = new int[threshold];
+        int count = 0;
+        // The first and last point are always kept, the rest is split into buckets:
+        double bucket_size = (double) (size - 2) / (threshold - 2);
+        int a = 0;
+        kept[count++] = a;
+        for (int bucket = 0; bucket < threshold - 2; bucket++){
+            // The average of the next bucket (or the last point):
+            int next_from = (int) Math.floor((bucket + 1) * bucket_size) + 1;
+            int next_to = Math.min((int) Math.floor((bucket + 2) * bucket_size) + 1, size);
+            double avg_x = 0, avg_y = 0;
+            if (next_from >= size - 1 || bucket == threshold - 3){
+                avg_x = x[size - 1];
+                avg_y = y[size - 1];
+            } else {
+                for (int i = next_from; i < next_to; i++){
+                    avg_x += x[i];
+                    avg_y += y[i];
+                }
+                avg_x /= (next_to - next_from);
+                avg_y /= (next_to - next_from);
+            }
+            // The point of this bucket, which spans the largest triangle:
+            int from = (int) Math.floor(bucket * bucket_size) + 1;
+            int to = Math.min((int) Math.floor((bucket + 1) * bucket_size) + 1, size - 1);
+            double max_area = -1;
+            int max_index = from;
+            for (int i = from; i < to; i++){
+                double area = Math.abs(
+                        (x[a] - avg_x) * (y[i] - y[a]) - (x[a] - x[i]) * (avg_y - y[a])
+                );
+                if (area > max_area){
+                    max_area = area;
+                    max_index = i;
+                }
+            }
+            kept[count++] = max_index;
+            a = max_index;
+        }
+        kept[count++] = size - 1;
+        return kept;
+    }
+}
@@ -0,0 +1,346 @@
+package org.knuth.biketrack.track;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Processes the altitudes of a track point by point, as they're recorded: smooths them,
+ *  sums up the elevation gained and lost, measures how much distance was ridden at which
+ *  {@link Gradient} and detects the {@link Climb}s.</p>
+ * <p>GPS altitudes are noisy, so they're first smoothed over the distance. Since no distance
+ *  is covered while standing still, the drift while waiting at a traffic light is ignored.
+ *  The ascent and descent are only counted once the smoothed altitude changed by more
+ *  than {@link #HYSTERESIS}.</p>
+ * <p>Each point is processed in constant time, so the same processor is used live while
+ *  tracking and for finished tours.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ElevationProcessor {
+
+    /** The distance (in meters) over which the altitude is smoothed */
+    public static final double SMOOTHING_DISTANCE = 100;
+    /** The change in altitude (in meters) needed to count it as ascent or descent */
+    public static final double HYSTERESIS = 5;
+    /** The distance (in meters) over which the gradient is measured */
+    public static final double GRADIENT_DISTANCE = 50;
+    /** How far (in meters) the altitude may drop below the top, before a climb is over */
+    public static final double CLIMB_END_DROP = 10;
+    /** The elevation (in meters) a climb must gain at least */
+    public static final double MIN_CLIMB_GAIN = 20;
+    /** The average gradient a climb must have at least */
+    public static final double MIN_CLIMB_GRADIENT = 0.03;
+
+    /**
+     * The gradients the ridden distance is split into.
+     */
+    public enum Gradient {
+        STEEP_DOWNHILL(Double.NEGATIVE_INFINITY), DOWNHILL(-0.06), FLAT(-0.02), UPHILL(0.02), STEEP_UPHILL(0.06);
+
+        private final double from;
+
+        private Gradient(double from){
+            this.from = from;
+        }
+
+        /**
+         * The lowest gradient of the bucket, {@link Double#NEGATIVE_INFINITY} for the first one.
+         */
+        public double getFrom() {
+            return from;
+        }
+
+        /**
+         * The bucket of the given gradient (e.g. {@code 0.05} for 5%).
+         */
+        public static Gradient of(double gradient){
+            Gradient[] all = values();
+            for (int i = all.length - 1; i > 0; i--){
+                if (gradient >= all[i].from) return all[i];
+            }
+            return all[0];
+        }
+    }
+
+    private boolean started;
+    // The smoothed altitude:
+    private double last_distance;
+    private double altitude;
+    // Hysteresis:
+    private double reference;
+    private double ascent;
+    private double descent;
+    // Gradients, measured between the points at least GRADIENT_DISTANCE apart:
+    private final double[] gradient_distances = new double[Gradient.values().length];
+    private Point section_start;
+    // Climbs:
+    private final List<Climb> climbs = new ArrayList<Climb>();
+    private Point low;
+    private Point start;
+    private Point peak;
+    private double max_gradient;
+    private double peak_max_gradient;
+
+    /**
+     * Process all points of the given track.
+     */
+    public static ElevationProcessor of(Track track){
+        ElevationProcessor processor = new ElevationProcessor();
+        double[] distances = track.getDistances();
+        long[] times = track.getTimes();
+        double[] altitudes = track.getAltitudes();
+        for (int i = 0; i < track.size(); i++){
+            processor.add(distances[i], times[i], altitudes[i]);
+        }
+        return processor;
+    }
+
+    /**
+     * Smooth all altitudes of a track the same way the processor does.
+     * @param distances the cumulative distances of the points.
+     * @return the smoothed altitudes.
+     */
+    public static double[] smooth(double[] distances, double[] altitudes){
+        double[] smoothed = new double[altitudes.length];
+        for (int i = 0; i < altitudes.length; i++){
+            smoothed[i] = i == 0 ? altitudes[0]
+                    : smoothed[i - 1] + (altitudes[i] - smoothed[i - 1]) * weight(distances[i] - distances[i - 1]);
+        }
+        return smoothed;
+    }
+
+    /**
+     * How much a new altitude counts, after the given distance (in meters) was covered.
+     */
+    static double weight(double step){
+        return 1 - Math.exp(-Math.max(0, step) / SMOOTHING_DISTANCE);
+    }
+
+    /**
+     * Process the next point of the track.
+     * @param distance the distance ridden so far, in meters.
+     * @param time the time of the point, in milliseconds since the epoch.
+     * @param raw_altitude the altitude as recorded, in meters.
+     */
+    public void add(double distance, long time, double raw_altitude){
+        if (!started){
+            started = true;
+            last_distance = distance;
+            altitude = raw_altitude;
+            reference = raw_altitude;
+            section_start = new Point(distance, time, raw_altitude);
+            low = section_start;
+            start = section_start;
+            peak = section_start;
+            return;
+        }
+        // Exponential smoothing, weighted by the distance covered since the last point:
+        altitude += (raw_altitude - altitude) * weight(distance - last_distance);
+        last_distance = distance;
+
+        if (altitude - reference >= HYSTERESIS){
+            ascent += altitude - reference;
+            reference = altitude;
+        } else if (reference - altitude >= HYSTERESIS){
+            descent += reference - altitude;
+            reference = altitude;
+        }
+
+        double section = distance - section_start.distance;
+        if (section >= GRADIENT_DISTANCE){
+            Point end = new Point(distance, time, altitude);
+            double gradient = (altitude - section_start.altitude) / section;
+            gradient_distances[Gradient.of(gradient).ordinal()] += section;
+            section_start = end;
+            detectClimb(end, gradient);
+        }
+    }
+
+    /**
+     * A climb starts where the altitude leaves the bottom of the valley, goes to the top and
+     *  is over, once the altitude drops too far below the top.
+     */
+    private void detectClimb(Point point, double gradient){
+        if (point.altitude < peak.altitude - CLIMB_END_DROP || point.altitude < low.altitude){
+            Climb climb = toClimb();
+            if (climb != null) climbs.add(climb);
+            low = point;
+            start = point;
+            peak = point;
+            max_gradient = 0;
+            peak_max_gradient = 0;
+            return;
+        }
+        max_gradient = Math.max(max_gradient, gradient);
+        if (point.altitude > peak.altitude){
+            peak = point;
+            peak_max_gradient = max_gradient;
+        }
+        if (point.altitude <= low.altitude + HYSTERESIS){
+            // Still at the bottom, the climb didn't start yet:
+            start = point;
+            peak = point;
+            max_gradient = 0;
+            peak_max_gradient = 0;
+        }
+    }
+
+    /**
+     * The climb from its start to the current top, or {@code null} if it's too small.
+     */
+    private Climb toClimb(){
+        double gain = peak.altitude - start.altitude;
+        double length = peak.distance - start.distance;
+        if (gain < MIN_CLIMB_GAIN || length <= 0 || gain / length < MIN_CLIMB_GRADIENT) return null;
+        return new Climb(start.distance, peak.distance, start.time, peak.time, gain, peak_max_gradient);
+    }
+
+    /** The elevation gained in meters. */
+    public double getAscent() {
+        return ascent;
+    }
+
+    /** The elevation lost in meters. */
+    public double getDescent() {
+        return descent;
+    }
+
+    /**
+     * The distance (in meters) ridden at the given gradient. The last few meters, which are
+     *  shorter than {@link #GRADIENT_DISTANCE}, aren't measured yet.
+     */
+    public double getDistance(Gradient gradient){
+        return gradient_distances[gradient.ordinal()];
+    }
+
+    /**
+     * All climbs, including the one currently ridden (if it's already big enough).
+     */
+    public List<Climb> getClimbs(){
+        List<Climb> all = new ArrayList<Climb>(climbs.size() + 1);
+        all.addAll(climbs);
+        if (started){
+            Climb current = toClimb();
+            if (current != null) all.add(current);
+        }
+        return all;
+    }
+
+    /**
+     * Write the given climbs to the output.
+     * @see #readClimbs(DataInput)
+     */
+    public static void writeClimbs(List<Climb> climbs, DataOutput out) throws IOException {
+        out.writeInt(climbs.size());
+        for (Climb climb : climbs){
+            out.writeDouble(climb.start_distance);
+            out.writeDouble(climb.end_distance);
+            out.writeLong(climb.start_time);
+            out.writeLong(climb.end_time);
+            out.writeFloat((float) climb.gain);
+            out.writeFloat((float) climb.max_gradient);
+        }
+    }
+
+    /**
+     * Read the climbs written with {@link #writeClimbs(List, DataOutput)}.
+     */
+    public static List<Climb> readClimbs(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<Climb> climbs = new ArrayList<Climb>(size);
+        for (int i = 0; i < size; i++){
+            climbs.add(new Climb(in.readDouble(), in.readDouble(), in.readLong(), in.readLong(),
+                    in.readFloat(), in.readFloat()
+            ));
+        }
+        return climbs;
+    }
+
+    private static class Point {
+        final double distance;
+        final long time;
+        final double altitude;
+
+        Point(double distance, long time, double altitude){
+            this.distance = distance;
+            this.time = time;
+            this.altitude = altitude;
+        }
+    }
+
+    /**
+     * A climb, detected on the smoothed altitudes.
+     */
+    public static class Climb {
+
+        private final double start_distance;
+        private final double end_distance;
+        private final long start_time;
+        private final long end_time;
+        private final double gain;
+        private final double max_gradient;
+
+        public Climb(double start_distance, double end_distance, long start_time, long end_time,
+                     double gain, double max_gradient){
+            this.start_distance = start_distance;
+            this.end_distance = end_distance;
+            this.start_time = start_time;
+            this.end_time = end_time;
+            this.gain = gain;
+            this.max_gradient = max_gradient;
+        }
+
+        /** Where the climb started, in meters from the start of the track */
+        public double getStartDistance() {
+            return start_distance;
+        }
+
+        /** Where the climb ended, in meters from the start of the track */
+        public double getEndDistance() {
+            return end_distance;
+        }
+
+        /** When the climb started, in milliseconds since the epoch */
+        public long getStartTime() {
+            return start_time;
+        }
+
+        /** When the climb ended, in milliseconds since the epoch */
+        public long getEndTime() {
+            return end_time;
+        }
+
+        /** The length of the climb in meters */
+        public double getLength(){
+            return end_distance - start_distance;
+        }
+
+        /** The elevation gained in meters */
+        public double getGain() {
+            return gain;
+        }
+
+        /** The average gradient, e.g. {@code 0.05} for 5% */
+        public double getAverageGradient(){
+            return gain / getLength();
+        }
+
+        /** The steepest gradient, measured over {@link #GRADIENT_DISTANCE} */
+        public double getMaxGradient() {
+            return max_gradient;
+        }
+
+        /**
+         * The "velocita ascensionale media": the elevation gained per hour, in meters.
+         * @return the VAM, or {@code 0} if no time passed.
+         */
+        public double getVam(){
+            long elapsed = end_time - start_time;
+            return elapsed > 0 ? gain / (elapsed / 3600000.0) : 0;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.knuth.biketrack.track;
+
+import org.knuth.biketrack.geo.RouteFollower;
+
+/**
+ * <p>Races a previous tour (the "ghost") over the same route: tells how far ahead or
+ *  behind the rider is, compared to the time the ghost needed to get to the same place.</p>
+ * <p>While tracking, every new fix is matched onto the reference track by a
+ *  {@link RouteFollower}, which takes constant time and follows routes which cross or
+ *  double back on themselves in the right order.</p>
+ * <p>For two finished tours, {@link #compare(Track, Track, double)} aligns both on the
+ *  ridden distance instead.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class GhostRider {
+
+    private final long[] times;
+    private final RouteFollower follower;
+    private long delta;
+
+    /**
+     * A ghost, which rides the given reference track.
+     * @throws IllegalArgumentException if the track has less than two points.
+     */
+    public GhostRider(Track reference){
+        if (reference.size() < 2)
+            throw new IllegalArgumentException("The ghost needs at least two points to ride!");
+        this.times = reference.getTimes();
+        this.follower = new RouteFollower(reference.getLatitudes(), reference.getLongitudes(), reference.getDistances());
+    }
+
+    /**
+     * Match the next fix of the rider to the reference track.
+     * @param elapsed the time (in milliseconds) since the rider started.
+     * @return whether the fix is on the route, so {@link #getDelta()} is current.
+     */
+    public boolean update(double latitude, double longitude, long elapsed){
+        if (!follower.update(latitude, longitude, elapsed)) return false;
+        int segment = follower.getSegment();
+        double fraction = follower.getFraction();
+        long ghost_elapsed = Math.round(times[segment] + (times[segment + 1] - times[segment]) * fraction) - times[0];
+        delta = elapsed - ghost_elapsed;
+        return true;
+    }
+
+    /**
+     * How much later (in milliseconds) than the ghost the rider got to the last matched
+     *  place. Negative, if the rider is ahead.
+     */
+    public long getDelta() {
+        return delta;
+    }
+
+    /**
+     * Where the rider was last matched, in meters from the start of the reference track.
+     */
+    public double getMatchedDistance() {
+        return follower.getProgress();
+    }
+
+    /**
+     * <p>Compare two finished tours over the same route.</p>
+     * <p>Both are resampled onto the same distance axis in a single pass over their
+     *  points, up to the length of the shorter one.</p>
+     * @param step the distance (in meters) between two points of the result.
+     * @return how much later (in seconds) than the reference the tour got to each distance
+     *  (in meters). Negative, where the tour was ahead.
+     */
+    public static Profile compare(Track tour, Track reference, double step){
+        if (step <= 0) throw new IllegalArgumentException("[step] must be positive!");
+        if (tour.size() < 2 || reference.size() < 2) return new Profile(new double[0], new double[0]);
+        int count = (int) (Math.min(tour.getLength(), reference.getLength()) / step) + 1;
+        double[] tour_elapsed = elapsedAt(tour, step, count);
+        double[] reference_elapsed = elapsedAt(reference, step, count);
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++){
+            x[i] = i * step;
+            y[i] = (tour_elapsed[i] - reference_elapsed[i]) / 1000.0;
+        }
+        return new Profile(x, y);
+    }
+
+    /**
+     * The time (in milliseconds) the track needed to get to every multiple of the step.
+     */
+    private static double[] elapsedAt(Track track, double step, int count){
+        double[] distances = track.getDistances();
+        long[] times = track.getTimes();
+        double[] elapsed = new double[count];
+        int i = 1;
+        for (int k = 0; k < count; k++){
+            double distance = distances[0] + k * step;
+            while (i < distances.length - 1 && distances[i] < distance) i++;
+            double covered = distances[i] - distances[i - 1];
+            double fraction = covered > 0 ? Math.min(1, Math.max(0, (distance - distances[i - 1]) / covered)) : 1;
+            elapsed[k] = times[i - 1] + (times[i] - times[i - 1]) * fraction - times[0];
+        }
+        return elapsed;
+    }
+}
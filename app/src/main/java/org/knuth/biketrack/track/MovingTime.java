@@ -0,0 +1,163 @@
+package org.knuth.biketrack.track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Tells the time spent moving from the time spent standing still, point by point, as
+ *  they're recorded.</p>
+ * <p>The time between two points counts as moving, if the distance covered in it was
+ *  fast enough. Since GPS receivers report a speed even when the position barely changes,
+ *  the reported speed only counts between points which are close in time. A long gap
+ *  between two fixes (e.g. because the receiver doesn't report while standing still)
+ *  counts as moving only if the distance was covered.</p>
+ * <p>Stops which last at least {@link #AUTO_PAUSE_DELAY} are reported as {@link Pause}s.
+ *  Each point is processed in constant time, so the same engine is used live while
+ *  tracking (to pause the recording) and for finished tours.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class MovingTime {
+
+    /** The speed (in meters per second) below which the rider is standing still */
+    public static final double MIN_SPEED = 1;
+    /** The time (in milliseconds) between two fixes after which the reported speed is ignored */
+    public static final long MAX_FIX_GAP = 10 * 1000;
+    /** How long (in milliseconds) the rider must stand still for a pause */
+    public static final long AUTO_PAUSE_DELAY = 10 * 1000;
+
+    private boolean started;
+    private long first_time;
+    private long last_time;
+    private double last_distance;
+    private long moving_time;
+    private double moving_distance;
+    /** When the current stop started, or {@code -1} while moving */
+    private long stop_start = -1;
+    private final List<Pause> pauses = new ArrayList<Pause>();
+
+    /**
+     * Process all points of the given track.
+     */
+    public static MovingTime of(Track track){
+        MovingTime moving = new MovingTime();
+        double[] distances = track.getDistances();
+        long[] times = track.getTimes();
+        float[] speeds = track.getSpeeds();
+        for (int i = 0; i < track.size(); i++){
+            moving.add(distances[i], times[i], speeds[i]);
+        }
+        return moving;
+    }
+
+    /**
+     * Process the next point of the track.
+     * @param distance the distance ridden so far, in meters.
+     * @param time the time of the point, in milliseconds since the epoch.
+     * @param speed the speed reported with the point, in meters per second.
+     * @return whether the rider was moving since the last point.
+     */
+    public boolean add(double distance, long time, float speed){
+        if (!started){
+            started = true;
+            first_time = time;
+            last_time = time;
+            last_distance = distance;
+            return false;
+        }
+        long elapsed = time - last_time;
+        double covered = distance - last_distance;
+        last_time = time;
+        last_distance = distance;
+        if (elapsed <= 0) return stop_start < 0;
+
+        boolean moving = covered / (elapsed / 1000.0) >= MIN_SPEED
+                || (elapsed <= MAX_FIX_GAP && speed >= MIN_SPEED);
+        if (moving){
+            moving_time += elapsed;
+            moving_distance += covered;
+            if (stop_start >= 0){
+                Pause pause = toPause(time - elapsed);
+                if (pause != null) pauses.add(pause);
+                stop_start = -1;
+            }
+        } else if (stop_start < 0){
+            stop_start = time - elapsed;
+        }
+        return moving;
+    }
+
+    /**
+     * The current stop until the given time, or {@code null} if it's too short.
+     */
+    private Pause toPause(long until){
+        if (stop_start < 0 || until - stop_start < AUTO_PAUSE_DELAY) return null;
+        return new Pause(stop_start, until);
+    }
+
+    /**
+     * Whether the rider is standing still for at least {@link #AUTO_PAUSE_DELAY} (as of the
+     *  last point).
+     */
+    public boolean isPaused(){
+        return toPause(last_time) != null;
+    }
+
+    /** The time between the first and the last point in milliseconds. */
+    public long getElapsedTime(){
+        return last_time - first_time;
+    }
+
+    /** The time spent moving in milliseconds. */
+    public long getMovingTime() {
+        return moving_time;
+    }
+
+    /**
+     * The average speed while moving (weighted by time) in meters per second.
+     */
+    public double getAverageSpeed(){
+        return moving_time > 0 ? moving_distance / (moving_time / 1000.0) : 0;
+    }
+
+    /**
+     * All pauses, including the current one (if it's already long enough).
+     */
+    public List<Pause> getPauses(){
+        List<Pause> all = new ArrayList<Pause>(pauses.size() + 1);
+        all.addAll(pauses);
+        Pause current = toPause(last_time);
+        if (current != null) all.add(current);
+        return all;
+    }
+
+    /**
+     * An interval in which the rider was standing still.
+     */
+    public static class Pause {
+
+        private final long start;
+        private final long end;
+
+        public Pause(long start, long end){
+            this.start = start;
+            this.end = end;
+        }
+
+        /** When the pause started, in milliseconds since the epoch */
+        public long getStart() {
+            return start;
+        }
+
+        /** When the pause ended, in milliseconds since the epoch */
+        public long getEnd() {
+            return end;
+        }
+
+        /** How long the pause was, in milliseconds */
+        public long getDuration(){
+            return end - start;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.knuth.biketrack.track;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <p>A series of values along a {@link Track}, over either the ridden distance or the
+ *  elapsed time (e.g. the speed over distance).</p>
+ * <p>Use {@link #downsample(int)} to reduce it to the number of points which can
+ *  actually be drawn.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Profile {
+
+    private final double[] x;
+    private final double[] y;
+
+    public Profile(double[] x, double[] y){
+        if (x.length != y.length)
+            throw new IllegalArgumentException("[x] and [y] need to have the same length!");
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * The speed (in m/s) over the distance (in meters).
+     */
+    public static Profile speedOverDistance(Track track){
+        return new Profile(track.getDistances(), toDouble(track.getSpeeds()));
+    }
+
+    /**
+     * The speed (in m/s) over the elapsed time (in seconds).
+     */
+    public static Profile speedOverTime(Track track){
+        return new Profile(elapsedSeconds(track), toDouble(track.getSpeeds()));
+    }
+
+    /**
+     * The altitude (in meters) over the distance (in meters).
+     */
+    public static Profile elevationOverDistance(Track track){
+        return new Profile(track.getDistances(), track.getAltitudes());
+    }
+
+    /**
+     * The altitude (in meters) over the elapsed time (in seconds).
+     */
+    public static Profile elevationOverTime(Track track){
+        return new Profile(elapsedSeconds(track), track.getAltitudes());
+    }
+
+    public int size(){
+        return x.length;
+    }
+
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public double getMinY(){
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : y) if (value < min) min = value;
+        return min;
+    }
+
+    public double getMaxY(){
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : y) if (value > max) max = value;
+        return max;
+    }
+
+    /**
+     * Reduce the profile to at most {@code points} points, keeping its peaks.
+     * @see Downsampler#largestTriangleThreeBuckets(double[], double[], int)
+     */
+    public Profile downsample(int points){
+        if (size() <= points) return this;
+        int[] kept = Downsampler.largestTriangleThreeBuckets(x, y, points);
+        double[] new_x = new double[kept.length];
+        double[] new_y = new double[kept.length];
+        for (int i = 0; i < kept.length; i++){
+            new_x[i] = x[kept[i]];
+            new_y[i] = y[kept[i]];
+        }
+        return new Profile(new_x, new_y);
+    }
+
+    /**
+     * Write the profile (with float-precision) to the given output.
+     * @see #read(DataInput)
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(x.length);
+        for (int i = 0; i < x.length; i++){
+            out.writeFloat((float) x[i]);
+            out.writeFloat((float) y[i]);
+        }
+    }
+
+    /**
+     * Read a profile written with {@link #write(DataOutput)}.
+     */
+    public static Profile read(DataInput in) throws IOException {
+        int size = in.readInt();
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++){
+            x[i] = in.readFloat();
+            y[i] = in.readFloat();
+        }
+        return new Profile(x, y);
+    }
+
+    private static double[] toDouble(float[] values){
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = values[i];
+        return result;
+    }
+
+    private static double[] elapsedSeconds(Track track){
+        long[] times = track.getTimes();
+        double[] seconds = new double[times.length];
+        for (int i = 0; i < times.length; i++) seconds[i] = (times[i] - times[0]) / 1000.0;
+        return seconds;
+    }
+}
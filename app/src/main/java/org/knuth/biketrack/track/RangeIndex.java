@@ -0,0 +1,201 @@
+package org.knuth.biketrack.track;
+
+import java.util.Arrays;
+
+/**
+ * <p>Answers statistics about any part of a {@link Track} (e.g. "that climb"), without
+ *  walking over its points again.</p>
+ * <p>The distance, time and ascent of a range are the difference of two prefix sums and
+ *  are found in constant time. The highest and lowest speed and altitude are kept in
+ *  segment trees, which find them in logarithmic time and only need twice the memory of
+ *  the values (unlike a sparse table).</p>
+ * <p>The index is built lazily by {@link Track#getRangeIndex()} and cached with the track.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RangeIndex {
+
+    private final Track track;
+    /** The ascent (on the smoothed altitudes) from the first point to every point */
+    private final double[] ascent;
+    /** Segment trees: the leafs are at [n, 2n), the parent of i is i/2 */
+    private final float[] max_speed;
+    private final float[] min_speed;
+    private final double[] max_altitude;
+    private final double[] min_altitude;
+
+    RangeIndex(Track track){
+        this.track = track;
+        int n = track.size();
+        double[] smoothed = ElevationProcessor.smooth(track.getDistances(), track.getAltitudes());
+        ascent = new double[n];
+        for (int i = 1; i < n; i++){
+            ascent[i] = ascent[i - 1] + Math.max(0, smoothed[i] - smoothed[i - 1]);
+        }
+        float[] speeds = track.getSpeeds();
+        double[] altitudes = track.getAltitudes();
+        max_speed = new float[2 * n];
+        min_speed = new float[2 * n];
+        max_altitude = new double[2 * n];
+        min_altitude = new double[2 * n];
+        for (int i = 0; i < n; i++){
+            max_speed[n + i] = min_speed[n + i] = speeds[i];
+            max_altitude[n + i] = min_altitude[n + i] = altitudes[i];
+        }
+        for (int i = n - 1; i > 0; i--){
+            max_speed[i] = Math.max(max_speed[2 * i], max_speed[2 * i + 1]);
+            min_speed[i] = Math.min(min_speed[2 * i], min_speed[2 * i + 1]);
+            max_altitude[i] = Math.max(max_altitude[2 * i], max_altitude[2 * i + 1]);
+            min_altitude[i] = Math.min(min_altitude[2 * i], min_altitude[2 * i + 1]);
+        }
+    }
+
+    /**
+     * The statistics between the points at the given times (in milliseconds since the
+     *  epoch). The range is widened to the closest recorded points.
+     * @throws IllegalStateException if the track is empty.
+     */
+    public Range byTime(long from, long to){
+        long[] times = track.getTimes();
+        return get(floor(Arrays.binarySearch(times, from)), ceil(Arrays.binarySearch(times, to)));
+    }
+
+    /**
+     * The statistics between the points at the given distances (in meters from the start).
+     *  The range is widened to the closest recorded points.
+     * @throws IllegalStateException if the track is empty.
+     */
+    public Range byDistance(double from, double to){
+        double[] distances = track.getDistances();
+        return get(floor(Arrays.binarySearch(distances, from)), ceil(Arrays.binarySearch(distances, to)));
+    }
+
+    /** The index of the found point, or of the one before the insertion point */
+    private int floor(int search){
+        return Math.max(0, search >= 0 ? search : -search - 2);
+    }
+
+    /** The index of the found point, or of the one at the insertion point */
+    private int ceil(int search){
+        return Math.min(track.size() - 1, search >= 0 ? search : -search - 1);
+    }
+
+    /**
+     * The statistics between the points with the given indices (both inclusive).
+     * @throws IllegalStateException if the track is empty.
+     */
+    public Range get(int from, int to){
+        if (track.isEmpty())
+            throw new IllegalStateException("An empty track has no ranges!");
+        from = Math.max(0, from);
+        to = Math.min(track.size() - 1, Math.max(from, to));
+        double[] distances = track.getDistances();
+        long[] times = track.getTimes();
+        Range range = new Range(from, to,
+                distances[to] - distances[from], times[to] - times[from], ascent[to] - ascent[from]
+        );
+        // Bottom-up over the segment trees, on the half-open range [l, r):
+        int n = track.size();
+        for (int l = from + n, r = to + 1 + n; l < r; l /= 2, r /= 2){
+            if ((l & 1) == 1){
+                range.include(max_speed[l], min_speed[l], max_altitude[l], min_altitude[l]);
+                l++;
+            }
+            if ((r & 1) == 1){
+                r--;
+                range.include(max_speed[r], min_speed[r], max_altitude[r], min_altitude[r]);
+            }
+        }
+        return range;
+    }
+
+    /**
+     * The estimated memory used by an index over the given number of points in bytes.
+     */
+    static int getByteSize(int size){
+        // ascent (8 bytes), two speed-trees (2 * 2 * 4 bytes) and two altitude-trees (2 * 2 * 8 bytes):
+        return size * (8 + 16 + 32);
+    }
+
+    /**
+     * The statistics of a part of the track.
+     */
+    public static class Range {
+
+        private final int from;
+        private final int to;
+        private final double distance;
+        private final long elapsed;
+        private final double ascent;
+        private float max_speed = Float.NEGATIVE_INFINITY;
+        private float min_speed = Float.POSITIVE_INFINITY;
+        private double max_altitude = Double.NEGATIVE_INFINITY;
+        private double min_altitude = Double.POSITIVE_INFINITY;
+
+        private Range(int from, int to, double distance, long elapsed, double ascent){
+            this.from = from;
+            this.to = to;
+            this.distance = distance;
+            this.elapsed = elapsed;
+            this.ascent = ascent;
+        }
+
+        private void include(float max_speed, float min_speed, double max_altitude, double min_altitude){
+            this.max_speed = Math.max(this.max_speed, max_speed);
+            this.min_speed = Math.min(this.min_speed, min_speed);
+            this.max_altitude = Math.max(this.max_altitude, max_altitude);
+            this.min_altitude = Math.min(this.min_altitude, min_altitude);
+        }
+
+        /** The index of the first point in the range */
+        public int getFrom() {
+            return from;
+        }
+
+        /** The index of the last point in the range */
+        public int getTo() {
+            return to;
+        }
+
+        /** The distance in meters */
+        public double getDistance() {
+            return distance;
+        }
+
+        /** The time in milliseconds */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /** The average speed in meters per second, or {@code 0} if no time passed */
+        public double getAverageSpeed(){
+            return elapsed > 0 ? distance / (elapsed / 1000.0) : 0;
+        }
+
+        /** The elevation gained in meters */
+        public double getAscent() {
+            return ascent;
+        }
+
+        /** The highest speed in meters per second */
+        public float getMaxSpeed() {
+            return max_speed;
+        }
+
+        /** The lowest speed in meters per second */
+        public float getMinSpeed() {
+            return min_speed;
+        }
+
+        /** The highest altitude in meters */
+        public double getMaxAltitude() {
+            return max_altitude;
+        }
+
+        /** The lowest altitude in meters */
+        public double getMinAltitude() {
+            return min_altitude;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.knuth.biketrack.track;
+
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.geo.LocalProjection;
+
+/**
+ * <p>Finds the efforts on a segment (a stretch of road, defined by a polyline)
+ *  in a {@link Track}.</p>
+ * <p>An effort starts when the track comes close to the start of the segment. From
+ *  there, every following point of the track must lie within the corridor around the
+ *  segment, and it may only advance along the segment by a bounded amount per step
+ *  (which bounds the Frechet-distance between both). The effort is complete once the
+ *  track reaches the end of the segment.</p>
+ * <p>Matching is linear in the size of the track and doesn't allocate anything but
+ *  the returned {@link Effort}. Instances are immutable and can be shared between threads.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class SegmentMatcher {
+
+    /** The default width (in meters) of the corridor on either side of the segment */
+    public static final double DEFAULT_CORRIDOR = 35;
+
+    private final LocalProjection projection;
+    private final double[] x;
+    private final double[] y;
+    /** The cumulative distance along the segment for every vertex */
+    private final double[] along;
+    private final double corridor;
+    private final BoundingBox bounds;
+
+    /**
+     * A new matcher for the segment with the given geometry.
+     * @param latitudes the latitudes of the segments points.
+     * @param longitudes the longitudes of the segments points.
+     * @param corridor the maximum distance (in meters) a track may have to the segment.
+     * @throws IllegalArgumentException if the segment has less than two points.
+     */
+    public SegmentMatcher(double[] latitudes, double[] longitudes, double corridor){
+        if (latitudes.length < 2 || latitudes.length != longitudes.length)
+            throw new IllegalArgumentException("A segment needs at least two points!");
+        this.corridor = corridor;
+        BoundingBox box = BoundingBox.of(latitudes, longitudes, 0, latitudes.length);
+        this.bounds = box.expand(corridor);
+        this.projection = LocalProjection.around(box);
+        this.x = new double[latitudes.length];
+        this.y = new double[latitudes.length];
+        projection.x(longitudes, x);
+        projection.y(latitudes, y);
+        this.along = new double[latitudes.length];
+        for (int i = 1; i < along.length; i++){
+            along[i] = along[i - 1] + Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+        }
+    }
+
+    /**
+     * The box containing the segment and its corridor.
+     */
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * The length of the segment in meters.
+     */
+    public double getLength(){
+        return along[along.length - 1];
+    }
+
+    /**
+     * Find the fastest effort on this segment in the given track.
+     * @return the fastest effort or {@code null} if the track never rode the segment.
+     */
+    public Effort match(Track track){
+        if (track.isEmpty() || !bounds.intersects(track.getBounds())) return null;
+        double[] lat = track.getLatitudes();
+        double[] lon = track.getLongitudes();
+        int last = along.length - 1;
+        Effort best = null;
+        int i = 0;
+        while (i < lat.length){
+            double start_distance = distanceToVertex(lat[i], lon[i], 0);
+            if (start_distance > corridor){
+                i++;
+                continue;
+            }
+            // Start from the point of this visit which is closest to the segments start:
+            int start = i;
+            int visit_end = i + 1;
+            while (visit_end < lat.length){
+                double d = distanceToVertex(lat[visit_end], lon[visit_end], 0);
+                if (d > corridor) break;
+                if (d < start_distance){
+                    start_distance = d;
+                    start = visit_end;
+                }
+                visit_end++;
+            }
+            int end = follow(track, start, last);
+            if (end >= 0){
+                long elapsed = track.getTimes()[end] - track.getTimes()[start];
+                if (best == null || elapsed < best.elapsed){
+                    best = new Effort(start, end, track.getTimes()[start], elapsed);
+                }
+                i = end + 1;
+            } else {
+                i = visit_end;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Follow the segment from the given start-index in the track.
+     * @return the index of the point where the segment was finished, or {@code -1}
+     *  if the track left the corridor before.
+     */
+    private int follow(Track track, int start, int last){
+        double[] lat = track.getLatitudes();
+        double[] lon = track.getLongitudes();
+        double[] distances = track.getDistances();
+        double length = along[last];
+        int edge = 0;
+        double progress = 0;
+        for (int j = start + 1; j < lat.length; j++){
+            double px = projection.x(lon[j]);
+            double py = projection.y(lat[j]);
+            // The track may only advance so far along the segment in one step:
+            double reach = progress + (distances[j] - distances[j - 1]) + 2 * corridor;
+            double best_distance = Double.MAX_VALUE;
+            double best_progress = progress;
+            int best_edge = edge;
+            for (int e = edge; e < last && along[e] <= reach; e++){
+                double d = LocalProjection.segmentDistance(px, py, x[e], y[e], x[e + 1], y[e + 1]);
+                if (d < best_distance){
+                    double t = LocalProjection.segmentFraction(px, py, x[e], y[e], x[e + 1], y[e + 1]);
+                    best_distance = d;
+                    best_progress = along[e] + t * (along[e + 1] - along[e]);
+                    best_edge = e;
+                }
+            }
+            if (best_distance > corridor) return -1; // Left the corridor.
+            edge = best_edge;
+            if (best_progress > progress) progress = best_progress;
+            // Reached the end?
+            if (progress >= length - corridor){
+                double end_distance = Math.hypot(px - x[last], py - y[last]);
+                if (end_distance <= corridor){
+                    // Use the point of this visit which is closest to the segments end:
+                    int end = j;
+                    for (int k = j + 1; k < lat.length; k++){
+                        double d = distanceToVertex(lat[k], lon[k], last);
+                        if (d > end_distance) break;
+                        end_distance = d;
+                        end = k;
+                    }
+                    return end;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private double distanceToVertex(double latitude, double longitude, int vertex){
+        return Math.hypot(projection.x(longitude) - x[vertex], projection.y(latitude) - y[vertex]);
+    }
+
+    /**
+     * One ride over the segment, found in a track.
+     */
+    public static class Effort {
+
+        private final int start_index;
+        private final int end_index;
+        private final long start_time;
+        private final long elapsed;
+
+        public Effort(int start_index, int end_index, long start_time, long elapsed){
+            this.start_index = start_index;
+            this.end_index = end_index;
+            this.start_time = start_time;
+            this.elapsed = elapsed;
+        }
+
+        /** The index in the track where the effort started */
+        public int getStartIndex() {
+            return start_index;
+        }
+
+        /** The index in the track where the effort ended */
+        public int getEndIndex() {
+            return end_index;
+        }
+
+        /** When the effort started, in milliseconds since the epoch */
+        public long getStartTime() {
+            return start_time;
+        }
+
+        /** How long the effort took, in milliseconds */
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+}
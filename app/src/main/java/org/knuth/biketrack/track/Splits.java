@@ -0,0 +1,168 @@
+package org.knuth.biketrack.track;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Static helper-class to split a {@link Track} into parts: either of a fixed length
+ *  (e.g. one kilometer or mile) or at the times where the rider marked a lap.</p>
+ * <p>The track is walked once. The boundaries rarely fall on a recorded point, so the
+ *  time, distance and altitude at each boundary are interpolated between the two points
+ *  around it.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Splits {
+
+    // This is a static helper-class!
+    private Splits(){}
+
+    /**
+     * Split the track every {@code length} meters. The last split is shorter, if the track
+     *  doesn't end on a boundary.
+     */
+    public static List<Split> byDistance(Track track, double length){
+        if (length <= 0) throw new IllegalArgumentException("[length] must be positive!");
+        if (track.size() < 2) return new ArrayList<Split>(0);
+        int count = (int) Math.ceil(track.getLength() / length) - 1;
+        double[] boundaries = new double[Math.max(0, count)];
+        for (int i = 0; i < boundaries.length; i++) boundaries[i] = (i + 1) * length;
+        return split(track, track.getDistances(), boundaries);
+    }
+
+    /**
+     * Split the track at the given times (in milliseconds since the epoch, ascending).
+     *  Times outside of the track are ignored.
+     */
+    public static List<Split> byTime(Track track, long[] laps){
+        if (track.size() < 2) return new ArrayList<Split>(0);
+        long[] times = track.getTimes();
+        double[] key = new double[times.length];
+        for (int i = 0; i < times.length; i++) key[i] = times[i];
+        double[] boundaries = new double[laps.length];
+        for (int i = 0; i < laps.length; i++) boundaries[i] = laps[i];
+        return split(track, key, boundaries);
+    }
+
+    /**
+     * Split the track where the (ascending) {@code key} of the points crosses the boundaries.
+     */
+    private static List<Split> split(Track track, double[] key, double[] boundaries){
+        double[] distances = track.getDistances();
+        long[] times = track.getTimes();
+        double[] altitudes = track.getAltitudes();
+        int last = track.size() - 1;
+        List<Split> splits = new ArrayList<Split>(boundaries.length + 1);
+        double start_distance = distances[0];
+        double start_time = times[0];
+        double start_altitude = altitudes[0];
+        int i = 1;
+        for (double boundary : boundaries){
+            if (boundary <= key[0] || boundary >= key[last]) continue;
+            while (key[i] < boundary) i++;
+            // The boundary lies between the points i-1 and i:
+            double fraction = key[i] > key[i - 1] ? (boundary - key[i - 1]) / (key[i] - key[i - 1]) : 1;
+            double distance = interpolate(distances[i - 1], distances[i], fraction);
+            double time = interpolate(times[i - 1], times[i], fraction);
+            double altitude = interpolate(altitudes[i - 1], altitudes[i], fraction);
+            splits.add(new Split(start_distance, distance, Math.round(start_time), Math.round(time),
+                    altitude - start_altitude
+            ));
+            start_distance = distance;
+            start_time = time;
+            start_altitude = altitude;
+        }
+        if (distances[last] > start_distance || times[last] > start_time){
+            splits.add(new Split(start_distance, distances[last], Math.round(start_time), times[last],
+                    altitudes[last] - start_altitude
+            ));
+        }
+        return splits;
+    }
+
+    private static double interpolate(double from, double to, double fraction){
+        return from + (to - from) * fraction;
+    }
+
+    /**
+     * Write the given splits to the output.
+     * @see #read(DataInput)
+     */
+    public static void write(List<Split> splits, DataOutput out) throws IOException {
+        out.writeInt(splits.size());
+        for (Split split : splits){
+            out.writeDouble(split.start_distance);
+            out.writeDouble(split.end_distance);
+            out.writeLong(split.start_time);
+            out.writeLong(split.end_time);
+            out.writeFloat((float) split.elevation);
+        }
+    }
+
+    /**
+     * Read the splits written with {@link #write(List, DataOutput)}.
+     */
+    public static List<Split> read(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<Split> splits = new ArrayList<Split>(size);
+        for (int i = 0; i < size; i++){
+            splits.add(new Split(in.readDouble(), in.readDouble(), in.readLong(), in.readLong(), in.readFloat()));
+        }
+        return splits;
+    }
+
+    /**
+     * One part of a track.
+     */
+    public static class Split {
+
+        private final double start_distance;
+        private final double end_distance;
+        private final long start_time;
+        private final long end_time;
+        private final double elevation;
+
+        public Split(double start_distance, double end_distance, long start_time, long end_time, double elevation){
+            this.start_distance = start_distance;
+            this.end_distance = end_distance;
+            this.start_time = start_time;
+            this.end_time = end_time;
+            this.elevation = elevation;
+        }
+
+        /** Where the split started, in meters from the start of the track */
+        public double getStartDistance() {
+            return start_distance;
+        }
+
+        /** The length of the split in meters */
+        public double getLength(){
+            return end_distance - start_distance;
+        }
+
+        /** When the split started, in milliseconds since the epoch */
+        public long getStartTime() {
+            return start_time;
+        }
+
+        /** The time needed for the split in milliseconds */
+        public long getElapsed(){
+            return end_time - start_time;
+        }
+
+        /** The average speed in meters per second, or {@code 0} if no time passed */
+        public double getSpeed(){
+            long elapsed = getElapsed();
+            return elapsed > 0 ? getLength() / (elapsed / 1000.0) : 0;
+        }
+
+        /** The difference in altitude between the end and the start, in meters */
+        public double getElevation() {
+            return elevation;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.knuth.biketrack.track;
+
+/**
+ * <p>Measures the time spent riding in zones of speed and gradient, point by point, in
+ *  one pass over the track.</p>
+ * <p>Only the time spent moving counts (see {@link MovingTime}). The speed is the one
+ *  between two points, so every fix counts with the time it took. The gradient is
+ *  measured on the smoothed altitudes, over sections of
+ *  {@link ElevationProcessor#GRADIENT_DISTANCE} like the {@link ElevationProcessor}, and
+ *  the time spent in a section counts for its gradient.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TimeInZones {
+
+    /** The default edges (in meters per second) of the speed-zones: 10, 15, 20, 25, 30 and 35 km/h */
+    public static final double[] SPEED_ZONES = {10 / 3.6, 15 / 3.6, 20 / 3.6, 25 / 3.6, 30 / 3.6, 35 / 3.6};
+    /** The default edges of the gradient-zones, the {@link ElevationProcessor.Gradient}s */
+    public static final double[] GRADIENT_ZONES = new double[ElevationProcessor.Gradient.values().length - 1];
+    static {
+        for (int i = 0; i < GRADIENT_ZONES.length; i++){
+            GRADIENT_ZONES[i] = ElevationProcessor.Gradient.values()[i + 1].getFrom();
+        }
+    }
+
+    private final ZoneHistogram speed;
+    private final ZoneHistogram gradient;
+    private final MovingTime moving = new MovingTime();
+    private boolean started;
+    private long last_time;
+    private double last_distance;
+    // The smoothed altitude:
+    private double altitude;
+    // The current gradient-section:
+    private double section_distance;
+    private double section_altitude;
+    private long section_time;
+
+    /**
+     * Measure in the {@link #SPEED_ZONES default speed-} and {@link #GRADIENT_ZONES gradient-zones}.
+     */
+    public TimeInZones(){
+        this(SPEED_ZONES, GRADIENT_ZONES);
+    }
+
+    /**
+     * Measure in the given zones.
+     * @param speed_edges the edges (in meters per second) between the speed-zones.
+     * @param gradient_edges the edges between the gradient-zones (e.g. {@code 0.05} for 5%).
+     */
+    public TimeInZones(double[] speed_edges, double[] gradient_edges){
+        this.speed = new ZoneHistogram(speed_edges);
+        this.gradient = new ZoneHistogram(gradient_edges);
+    }
+
+    /**
+     * Process all points of the given track, in the default zones.
+     */
+    public static TimeInZones of(Track track){
+        TimeInZones zones = new TimeInZones();
+        double[] distances = track.getDistances();
+        long[] times = track.getTimes();
+        double[] altitudes = track.getAltitudes();
+        float[] speeds = track.getSpeeds();
+        for (int i = 0; i < track.size(); i++){
+            zones.add(distances[i], times[i], altitudes[i], speeds[i]);
+        }
+        return zones;
+    }
+
+    /**
+     * Process the next point of the track.
+     * @param distance the distance ridden so far, in meters.
+     * @param time the time of the point, in milliseconds since the epoch.
+     * @param raw_altitude the altitude as recorded, in meters.
+     * @param reported_speed the speed reported with the point, in meters per second.
+     */
+    public void add(double distance, long time, double raw_altitude, float reported_speed){
+        boolean is_moving = moving.add(distance, time, reported_speed);
+        if (!started){
+            started = true;
+            last_time = time;
+            last_distance = distance;
+            altitude = raw_altitude;
+            section_distance = distance;
+            section_altitude = raw_altitude;
+            return;
+        }
+        long elapsed = time - last_time;
+        double covered = distance - last_distance;
+        last_time = time;
+        last_distance = distance;
+        if (is_moving && elapsed > 0){
+            speed.add(covered / (elapsed / 1000.0), elapsed);
+            section_time += elapsed;
+        }
+        altitude += (raw_altitude - altitude) * ElevationProcessor.weight(covered);
+        double section = distance - section_distance;
+        if (section >= ElevationProcessor.GRADIENT_DISTANCE){
+            gradient.add((altitude - section_altitude) / section, section_time);
+            section_distance = distance;
+            section_altitude = altitude;
+            section_time = 0;
+        }
+    }
+
+    /**
+     * The time spent in the speed-zones.
+     */
+    public ZoneHistogram getSpeed() {
+        return speed;
+    }
+
+    /**
+     * The time spent in the gradient-zones. The time in the last section, which is
+     *  shorter than {@link ElevationProcessor#GRADIENT_DISTANCE}, isn't counted yet.
+     */
+    public ZoneHistogram getGradient() {
+        return gradient;
+    }
+}
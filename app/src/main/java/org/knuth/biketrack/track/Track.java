@@ -0,0 +1,146 @@
+package org.knuth.biketrack.track;
+
+import org.knuth.biketrack.geo.BoundingBox;
+import org.knuth.biketrack.geo.Geodesy;
+import org.knuth.biketrack.persistent.LocationStamp;
+
+import java.util.List;
+
+/**
+ * <p>The complete track of a tour, stored as primitive arrays (one entry per
+ *  {@code LocationStamp}, ordered by time).</p>
+ * <p>This is much more compact than a list of {@code LocationStamp}-objects and
+ *  is what all the calculations on a track should work with. The arrays are
+ *  exposed directly for speed, <b>don't modify them!</b></p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class Track {
+
+    /** A track without any points */
+    public static final Track EMPTY = new Track(new double[0], new double[0], new double[0], new long[0], new float[0]);
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final long[] times;
+    private final float[] speeds;
+
+    /** The cumulative distance (in meters) from the first point. Lazily created. */
+    private double[] distances;
+    private BoundingBox bounds;
+    private RangeIndex range_index;
+
+    public Track(double[] latitudes, double[] longitudes, double[] altitudes, long[] times, float[] speeds){
+        int size = latitudes.length;
+        if (longitudes.length != size || altitudes.length != size || times.length != size || speeds.length != size)
+            throw new IllegalArgumentException("All arrays need to have the same length!");
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.altitudes = altitudes;
+        this.times = times;
+        this.speeds = speeds;
+    }
+
+    /**
+     * Create a track from the given stamps, which must be ordered by their timestamp. The
+     *  corrected elevation of a stamp is used instead of its altitude, if there is one.
+     */
+    public static Track of(List<LocationStamp> stamps){
+        int size = stamps.size();
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        double[] altitudes = new double[size];
+        long[] times = new long[size];
+        float[] speeds = new float[size];
+        int i = 0;
+        for (LocationStamp stamp : stamps){
+            latitudes[i] = stamp.getLatitude();
+            longitudes[i] = stamp.getLongitude();
+            altitudes[i] = stamp.getElevation() != null ? stamp.getElevation() : stamp.getAltitude();
+            times[i] = stamp.getTimestamp().getTime();
+            speeds[i] = stamp.getSpeed();
+            i++;
+        }
+        return new Track(latitudes, longitudes, altitudes, times, speeds);
+    }
+
+    public int size(){
+        return latitudes.length;
+    }
+
+    public boolean isEmpty(){
+        return latitudes.length == 0;
+    }
+
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    public double[] getAltitudes() {
+        return altitudes;
+    }
+
+    /** The timestamps in milliseconds since the epoch. */
+    public long[] getTimes() {
+        return times;
+    }
+
+    /** The speeds reported by the GPS-module in meters per second. */
+    public float[] getSpeeds() {
+        return speeds;
+    }
+
+    /**
+     * The cumulative distance (in meters) from the first point to every point.
+     */
+    public synchronized double[] getDistances(){
+        if (distances == null){
+            double[] cumulative = new double[size()];
+            Geodesy.cumulativeDistances(latitudes, longitudes, 0, size(), Geodesy.DEFAULT_MAX_ERROR, cumulative);
+            distances = cumulative;
+        }
+        return distances;
+    }
+
+    /**
+     * The total length of the track in meters.
+     */
+    public double getLength(){
+        return isEmpty() ? 0 : getDistances()[size() - 1];
+    }
+
+    /**
+     * The estimated memory used by this track in bytes.
+     */
+    public int getByteSize(){
+        // lat, lon, alt, time and cumulative distance (8 bytes) and speed (4 bytes):
+        int size = size() * (5 * 8 + 4) + 128;
+        // The range index is built lazily, but it's cached with the track:
+        return size + RangeIndex.getByteSize(size());
+    }
+
+    /**
+     * The index to query statistics about any part of the track, built on first use.
+     */
+    public synchronized RangeIndex getRangeIndex(){
+        if (range_index == null) range_index = new RangeIndex(this);
+        return range_index;
+    }
+
+    /**
+     * The smallest box containing the whole track.
+     * @throws IllegalStateException if the track is empty.
+     */
+    public synchronized BoundingBox getBounds(){
+        if (isEmpty())
+            throw new IllegalStateException("An empty track has no bounds!");
+        if (bounds == null) bounds = BoundingBox.of(latitudes, longitudes, 0, size());
+        return bounds;
+    }
+}
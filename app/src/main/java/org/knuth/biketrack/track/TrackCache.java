@@ -0,0 +1,194 @@
+package org.knuth.biketrack.track;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+import android.util.LruCache;
+import org.knuth.biketrack.Application;
+import org.knuth.biketrack.Main;
+import org.knuth.biketrack.persistent.DatabaseHelper;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>The application-wide cache of loaded {@link Track}s, so all screens showing
+ *  the same tour (statistics, map, raw data) only query its stamps once.</p>
+ * <p>The cache is bounded by the (estimated) size of the tracks in bytes and evicts
+ *  the least recently used track first. It shrinks when the system runs low on
+ *  memory, see {@link #onTrimMemory(int)}.</p>
+ * <p>Whenever the stamps of a tour are appended, deleted or changed, the tour
+ *  <b>must</b> be {@link #invalidate(int) invalidated}.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TrackCache implements ComponentCallbacks2 {
+
+    /** The part of the apps memory-class which is used for the cache */
+    private static final int MEMORY_FRACTION = 8;
+    /** The number of tours which keep their key, see {@link #getKey(int)} */
+    private static final int KEYS = 8;
+
+    private final LruCache<Integer, Track> cache;
+    /** One lock per tour which is currently being loaded, guarded by itself */
+    private final Map<Integer, Loading> loading = new HashMap<Integer, Loading>();
+    /** The keys of the recently used tours, see {@link #getKey(int)} */
+    private final LruCache<Integer, Object> keys = new LruCache<Integer, Object>(KEYS);
+
+    public TrackCache(Context context){
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int budget = manager.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+        this.cache = new LruCache<Integer, Track>(budget){
+            @Override
+            protected int sizeOf(Integer tour_id, Track track) {
+                return track.getByteSize();
+            }
+        };
+    }
+
+    /**
+     * Get the cache of the application.
+     */
+    public static TrackCache from(Context context){
+        return ((Application) context.getApplicationContext()).getTrackCache();
+    }
+
+    /**
+     * Get the track of the given tour, loading it from the database if it's not cached.
+     */
+    public Track get(DatabaseHelper helper, int tour_id) throws SQLException {
+        Track track = cache.get(tour_id);
+        if (track != null) return track;
+        // Make sure the same tour isn't loaded by two threads at once:
+        Loading lock;
+        synchronized (loading){
+            lock = loading.get(tour_id);
+            if (lock == null){
+                lock = new Loading();
+                loading.put(tour_id, lock);
+            }
+            lock.waiting++;
+        }
+        try {
+            synchronized (lock){
+                track = cache.get(tour_id);
+                if (track == null){
+                    int loaded_generation;
+                    synchronized (loading){
+                        loaded_generation = lock.generation;
+                    }
+                    track = helper.queryTrack(tour_id);
+                    synchronized (loading){
+                        if (loaded_generation == lock.generation) cache.put(tour_id, track);
+                    }
+                }
+                return track;
+            }
+        } finally {
+            // The next thread waiting for the lock must find the same one:
+            synchronized (loading){
+                if (--lock.waiting == 0) loading.remove(tour_id);
+            }
+        }
+    }
+
+    /**
+     * <p>Get a key for the current track of the given tour, e.g. to memoize what's calculated
+     *  from it (weakly), without keeping the track itself loaded.</p>
+     * <p>The same key is returned until the tour is {@link #invalidate(int) invalidated}, or
+     *  it wasn't used for a while (only the keys of the recently used tours are kept).</p>
+     */
+    public Object getKey(int tour_id){
+        synchronized (keys){
+            Object key = keys.get(tour_id);
+            if (key == null){
+                key = new Object();
+                keys.put(tour_id, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Remove the track of the given tour, because its stamps have changed.
+     */
+    public void invalidate(int tour_id){
+        synchronized (loading){
+            // A track which is being loaded right now might be stale already:
+            Loading lock = loading.get(tour_id);
+            if (lock != null) lock.generation++;
+            cache.remove(tour_id);
+        }
+        synchronized (keys){
+            keys.remove(tour_id);
+        }
+    }
+
+    /** How often a requested track was in the cache. */
+    public int hitCount(){
+        return cache.hitCount();
+    }
+
+    /** How often a requested track had to be loaded from the database. */
+    public int missCount(){
+        return cache.missCount();
+    }
+
+    /** How many tracks where evicted to stay within the budget. */
+    public int evictionCount(){
+        return cache.evictionCount();
+    }
+
+    /** The estimated size of all cached tracks in bytes. */
+    public int size(){
+        return cache.size();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE){
+            // We're likely to be killed soon, free everything:
+            cache.evictAll();
+            synchronized (keys){
+                keys.evictAll();
+            }
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW){
+            // LruCache#trimToSize() is only public since API 17, the snapshot is least recently used first:
+            for (Integer tour_id : cache.snapshot().keySet()){
+                if (cache.size() <= cache.maxSize() / 2) break;
+                cache.remove(tour_id);
+            }
+        }
+        Log.v(Main.LOG_TAG, "Trimmed track-cache (level "+level+"): "+this);
+    }
+
+    @Override
+    public void onLowMemory() {
+        cache.evictAll();
+        synchronized (keys){
+            keys.evictAll();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {}
+
+    @Override
+    public String toString(){
+        return cache.toString()+", bytes="+cache.size()+", evictions="+cache.evictionCount();
+    }
+
+    /**
+     * The lock of a tour which is being loaded.
+     */
+    private static class Loading {
+        /** The number of threads loading or waiting for the tour */
+        int waiting;
+        /** Incremented when the tour is invalidated, so a track loaded meanwhile isn't cached */
+        int generation;
+    }
+}
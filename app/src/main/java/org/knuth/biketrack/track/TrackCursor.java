@@ -0,0 +1,98 @@
+package org.knuth.biketrack.track;
+
+import java.util.Arrays;
+
+/**
+ * <p>A position on a {@link Track} at any point in time, e.g. to replay it.</p>
+ * <p>The fix before the time is found by a binary search over the timestamps and the
+ *  position is interpolated between it and the next fix. The cursor is moved in place,
+ *  so seeking (e.g. on every frame of an animation) doesn't create any objects.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TrackCursor {
+
+    private final Track track;
+    private long time;
+    private int index;
+    private double fraction;
+
+    /**
+     * A new cursor at the start of the given track.
+     * @throws IllegalArgumentException if the track is empty.
+     */
+    public TrackCursor(Track track){
+        if (track.isEmpty())
+            throw new IllegalArgumentException("Can't move on an empty track!");
+        this.track = track;
+        seek(getStartTime());
+    }
+
+    /**
+     * Move the cursor to the given time (in milliseconds since the epoch), which is clamped
+     *  to the start and end of the track.
+     */
+    public void seek(long time){
+        long[] times = track.getTimes();
+        int last = times.length - 1;
+        this.time = Math.max(times[0], Math.min(times[last], time));
+        int found = Arrays.binarySearch(times, this.time);
+        if (found >= 0){
+            index = found;
+            fraction = 0;
+        } else {
+            // Between the fixes before and after the insertion point:
+            index = -found - 2;
+            fraction = (this.time - times[index]) / (double) (times[index + 1] - times[index]);
+        }
+    }
+
+    public long getStartTime(){
+        return track.getTimes()[0];
+    }
+
+    public long getEndTime(){
+        return track.getTimes()[track.size() - 1];
+    }
+
+    /** The time of the cursor in milliseconds since the epoch */
+    public long getTime() {
+        return time;
+    }
+
+    /** The index of the last fix at or before the cursor */
+    public int getIndex() {
+        return index;
+    }
+
+    public double getLatitude(){
+        return interpolate(track.getLatitudes());
+    }
+
+    public double getLongitude(){
+        return interpolate(track.getLongitudes());
+    }
+
+    /** The altitude in meters */
+    public double getAltitude(){
+        return interpolate(track.getAltitudes());
+    }
+
+    /** The distance from the start of the track in meters */
+    public double getDistance(){
+        return interpolate(track.getDistances());
+    }
+
+    /** The speed in meters per second */
+    public double getSpeed(){
+        float[] speeds = track.getSpeeds();
+        if (fraction == 0) return speeds[index];
+        return speeds[index] + (speeds[index + 1] - speeds[index]) * fraction;
+    }
+
+    private double interpolate(double[] values){
+        if (fraction == 0) return values[index];
+        return values[index] + (values[index + 1] - values[index]) * fraction;
+    }
+}
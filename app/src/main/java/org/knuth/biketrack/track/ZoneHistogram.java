@@ -0,0 +1,121 @@
+package org.knuth.biketrack.track;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>The time spent in zones of a value (e.g. speed or gradient), in fixed buckets.</p>
+ * <p>The zones are given by their edges: {@code n} ascending edges make {@code n + 1}
+ *  zones, the first one below the first edge and the last one from the last edge up. A
+ *  value on an edge belongs to the zone above it.</p>
+ * <p>Histograms with the same edges can be {@link #merge(ZoneHistogram) merged}, e.g. the
+ *  ones of all tours in a month, which only adds up their times.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ZoneHistogram {
+
+    private final double[] edges;
+    /** The time (in milliseconds) spent in every zone */
+    private final long[] times;
+
+    /**
+     * An empty histogram with the given edges between its zones.
+     * @throws IllegalArgumentException if the edges aren't ascending.
+     */
+    public ZoneHistogram(double... edges){
+        for (int i = 1; i < edges.length; i++){
+            if (!(edges[i] > edges[i - 1])) throw new IllegalArgumentException("The edges must be ascending!");
+        }
+        this.edges = edges.clone();
+        this.times = new long[edges.length + 1];
+    }
+
+    /**
+     * The number of zones.
+     */
+    public int size(){
+        return times.length;
+    }
+
+    /**
+     * The zone the given value is in.
+     */
+    public int zoneOf(double value){
+        int zone = 0;
+        while (zone < edges.length && value >= edges[zone]) zone++;
+        return zone;
+    }
+
+    /**
+     * Add the given time (in milliseconds) to the zone of the given value.
+     */
+    public void add(double value, long time){
+        times[zoneOf(value)] += time;
+    }
+
+    /**
+     * Add the times of the given histogram to this one.
+     * @throws IllegalArgumentException if the histogram has other edges.
+     */
+    public void merge(ZoneHistogram other){
+        if (!Arrays.equals(edges, other.edges))
+            throw new IllegalArgumentException("Only histograms with the same edges can be merged!");
+        for (int i = 0; i < times.length; i++){
+            times[i] += other.times[i];
+        }
+    }
+
+    /**
+     * The time (in milliseconds) spent in the given zone.
+     */
+    public long getTime(int zone){
+        return times[zone];
+    }
+
+    /**
+     * The time (in milliseconds) spent in all zones.
+     */
+    public long getTotal(){
+        long total = 0;
+        for (long time : times) total += time;
+        return total;
+    }
+
+    /**
+     * The lower edge of the given zone, {@link Double#NEGATIVE_INFINITY} for the first one.
+     */
+    public double getFrom(int zone){
+        return zone == 0 ? Double.NEGATIVE_INFINITY : edges[zone - 1];
+    }
+
+    /**
+     * The upper edge of the given zone, {@link Double#POSITIVE_INFINITY} for the last one.
+     */
+    public double getTo(int zone){
+        return zone == edges.length ? Double.POSITIVE_INFINITY : edges[zone];
+    }
+
+    /**
+     * Write the histogram with its edges, to be {@link #read(DataInputStream) read} again.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(edges.length);
+        for (double edge : edges) out.writeDouble(edge);
+        for (long time : times) out.writeLong(time);
+    }
+
+    /**
+     * Read a histogram which was {@link #write(DataOutputStream) written} before.
+     */
+    public static ZoneHistogram read(DataInputStream in) throws IOException {
+        double[] edges = new double[in.readInt()];
+        for (int i = 0; i < edges.length; i++) edges[i] = in.readDouble();
+        ZoneHistogram histogram = new ZoneHistogram(edges);
+        for (int i = 0; i < histogram.times.length; i++) histogram.times[i] = in.readLong();
+        return histogram;
+    }
+}
@@ -0,0 +1,203 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link CellCover} of a region contains every cell touching it, and that an
+ *  area-query over it stays fast.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class CellCoverTest {
+
+    @Test
+    public void coversAllPointsInTheBox(){
+        BoundingBox box = new BoundingBox(47.3, 8.4, 47.45, 8.65);
+        CellCover cover = CellCover.of(box);
+        assertFalse(cover.isEmpty());
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++){
+            double lat = box.getMinLatitude() + random.nextDouble() * (box.getMaxLatitude() - box.getMinLatitude());
+            double lon = box.getMinLongitude() + random.nextDouble() * (box.getMaxLongitude() - box.getMinLongitude());
+            long cell = CellGrid.cellOf(lat, lon);
+            assertTrue(contains(cover.getInnerRanges(), cell) || contains(cover.getBorderRanges(), cell));
+        }
+    }
+
+    @Test
+    public void innerCellsAreInside(){
+        BoundingBox box = new BoundingBox(-12.5, 130.1, -10.2, 133.7);
+        CellCover cover = CellCover.of(box);
+        long[] inner = cover.getInnerRanges();
+        assertTrue(inner.length > 0);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++){
+            double lat = -15 + random.nextDouble() * 8;
+            double lon = 128 + random.nextDouble() * 8;
+            long cell = CellGrid.cellOf(lat, lon);
+            if (contains(inner, cell)) assertTrue(box.contains(lat, lon));
+        }
+    }
+
+    @Test
+    public void staysWithinTheBudget(){
+        BoundingBox[] boxes = {
+                new BoundingBox(47.37, 8.54, 47.38, 8.55),
+                new BoundingBox(45, 5, 55, 15),
+                new BoundingBox(-90, -180, 90, 180)
+        };
+        for (BoundingBox box : boxes){
+            CellCover cover = CellCover.of(box);
+            // Every range is at least one cell of the chosen level:
+            assertTrue(cover.getInnerRanges().length / 2 + cover.getBorderRanges().length / 2 <= CellCover.MAX_CELLS);
+            assertFalse(cover.isEmpty());
+        }
+    }
+
+    @Test
+    public void rangesAreSortedAndDisjoint(){
+        CellCover cover = CellCover.of(new BoundingBox(47.3, 8.4, 47.45, 8.65));
+        for (long[] ranges : new long[][]{cover.getInnerRanges(), cover.getBorderRanges()}){
+            assertEquals(0, ranges.length % 2);
+            for (int i = 0; i < ranges.length; i += 2){
+                assertTrue(ranges[i] <= ranges[i + 1]);
+                if (i > 0) assertTrue(ranges[i] > ranges[i - 1] + 1);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheAntimeridian(){
+        CellCover.of(new GeoRegion() {
+            @Override
+            public BoundingBox getBounds() {
+                return new BoundingBox(-20, 170, -10, 179) {
+                    @Override
+                    public double getMaxLongitude() {
+                        return -170; // Across the 180th meridian.
+                    }
+                };
+            }
+
+            @Override
+            public Relation classify(double min_lat, double min_lon, double max_lat, double max_lon) {
+                return Relation.PARTIAL;
+            }
+        });
+    }
+
+    @Test
+    public void areaQueryBenchmark(){
+        // The cells of 2000 tours around Zurich, sorted like the (cell, tour_id)-index:
+        Random random = new Random(42);
+        int tours = 2000;
+        Set<Long> entries = new HashSet<Long>();
+        long[][] tour_cells = new long[tours][];
+        for (int tour = 0; tour < tours; tour++){
+            final Set<Long> cells = new HashSet<Long>();
+            double lat = 47.2 + random.nextDouble() * 0.4;
+            double lon = 8.3 + random.nextDouble() * 0.5;
+            for (int i = 0; i < 200; i++){
+                double next_lat = lat + (random.nextDouble() - 0.5) * 0.004;
+                double next_lon = lon + (random.nextDouble() - 0.5) * 0.006;
+                CellGrid.walkSegment(lat, lon, next_lat, next_lon, new CellGrid.CellVisitor() {
+                    @Override
+                    public void visit(long cell) {
+                        cells.add(cell);
+                    }
+                });
+                lat = next_lat;
+                lon = next_lon;
+            }
+            tour_cells[tour] = new long[cells.size()];
+            int i = 0;
+            for (long cell : cells){
+                tour_cells[tour][i++] = cell;
+                entries.add(cell * tours + tour);
+            }
+        }
+        long[] index = new long[entries.size()];
+        int i = 0;
+        for (long entry : entries) index[i++] = entry;
+        Arrays.sort(index);
+        // Random corridors of 200m to 5km around points in the area:
+        int queries = 1000;
+        Corridor[] regions = new Corridor[queries];
+        for (int q = 0; q < queries; q++){
+            regions[q] = Corridor.around(
+                    47.2 + random.nextDouble() * 0.4, 8.3 + random.nextDouble() * 0.5, 200 + random.nextDouble() * 4800
+            );
+        }
+        // The query must find what checking every cell of every tour finds:
+        for (int q = 0; q < 50; q++){
+            Set<Integer> expected = new HashSet<Integer>();
+            for (int tour = 0; tour < tours; tour++){
+                for (long cell : tour_cells[tour]){
+                    if (touches(regions[q], cell)){
+                        expected.add(tour);
+                        break;
+                    }
+                }
+            }
+            assertEquals(expected, query(index, tours, regions[q]));
+        }
+        for (int q = 0; q < 100; q++) query(index, tours, regions[q]);
+        long start = System.nanoTime();
+        for (Corridor region : regions) query(index, tours, region);
+        double millis = (System.nanoTime() - start) / 1e6 / queries;
+        // Covering plus the range-scan, without the database:
+        assertTrue("Took " + millis + "ms per query", millis < 5);
+    }
+
+    /**
+     * The query of the {@code SpatialIndex}, with a sorted array of {@code cell * tours + tour}
+     *  instead of the database-index.
+     */
+    private static Set<Integer> query(long[] index, int tours, GeoRegion region){
+        Set<Integer> found = new HashSet<Integer>();
+        CellCover cover = CellCover.of(region);
+        long[] inner = cover.getInnerRanges();
+        for (int r = 0; r < inner.length; r += 2){
+            for (int i = lowerBound(index, inner[r] * tours); i < index.length && index[i] / tours <= inner[r + 1]; i++){
+                found.add((int) (index[i] % tours));
+            }
+        }
+        long[] border = cover.getBorderRanges();
+        for (int r = 0; r < border.length; r += 2){
+            for (int i = lowerBound(index, border[r] * tours); i < index.length && index[i] / tours <= border[r + 1]; i++){
+                int tour = (int) (index[i] % tours);
+                if (!found.contains(tour) && touches(region, index[i] / tours)) found.add(tour);
+            }
+        }
+        return found;
+    }
+
+    private static boolean touches(GeoRegion region, long cell){
+        BoundingBox bounds = CellGrid.boundsOf(cell);
+        return region.classify(
+                bounds.getMinLatitude(), bounds.getMinLongitude(), bounds.getMaxLatitude(), bounds.getMaxLongitude()
+        ) != GeoRegion.Relation.OUTSIDE;
+    }
+
+    private static int lowerBound(long[] sorted, long key){
+        int index = Arrays.binarySearch(sorted, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static boolean contains(long[] ranges, long cell){
+        for (int i = 0; i < ranges.length; i += 2){
+            if (cell >= ranges[i] && cell <= ranges[i + 1]) return true;
+        }
+        return false;
+    }
+}
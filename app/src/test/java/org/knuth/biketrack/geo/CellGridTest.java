@@ -0,0 +1,110 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cell-ids and the walking of segments through the {@link CellGrid}.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class CellGridTest {
+
+    @Test
+    public void interleaveRoundTrips(){
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++){
+            int col = random.nextInt(1 << CellGrid.LEVEL);
+            int row = random.nextInt(1 << CellGrid.LEVEL);
+            long cell = CellGrid.interleave(col, row);
+            assertEquals(col, CellGrid.columnOf(cell));
+            assertEquals(row, CellGrid.rowOf(cell));
+        }
+    }
+
+    @Test
+    public void cellContainsItsPoint(){
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++){
+            double lat = random.nextDouble() * 170 - 85;
+            double lon = random.nextDouble() * 358 - 179;
+            BoundingBox bounds = CellGrid.boundsOf(CellGrid.cellOf(lat, lon));
+            assertTrue(bounds + " doesn't contain " + lat + ", " + lon, bounds.contains(lat, lon));
+        }
+    }
+
+    @Test
+    public void pointsOutsideTheWorldAreClamped(){
+        assertEquals(0, CellGrid.column(-200));
+        assertEquals((1 << CellGrid.LEVEL) - 1, CellGrid.column(180));
+        assertEquals(0, CellGrid.row(-91));
+        assertEquals((1 << CellGrid.LEVEL) - 1, CellGrid.row(90));
+    }
+
+    @Test
+    public void coarseCellIsARange(){
+        // All cells of a coarser cell share the prefix, so they're one continuous range:
+        int shift = 3;
+        long first = CellGrid.interleave(8 << shift, 5 << shift);
+        long last = CellGrid.interleave((9 << shift) - 1, (6 << shift) - 1);
+        assertEquals((1L << (2 * shift)) - 1, last - first);
+        for (int col = 8 << shift; col < 9 << shift; col++){
+            for (int row = 5 << shift; row < 6 << shift; row++){
+                long cell = CellGrid.interleave(col, row);
+                assertTrue(cell >= first && cell <= last);
+            }
+        }
+    }
+
+    @Test
+    public void walkVisitsConnectedCells(){
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++){
+            double lat1 = 47 + random.nextDouble() * 0.2;
+            double lon1 = 8 + random.nextDouble() * 0.2;
+            double lat2 = 47 + random.nextDouble() * 0.2;
+            double lon2 = 8 + random.nextDouble() * 0.2;
+            final List<Long> cells = new ArrayList<Long>();
+            CellGrid.walkSegment(lat1, lon1, lat2, lon2, new CellGrid.CellVisitor() {
+                @Override
+                public void visit(long cell) {
+                    cells.add(cell);
+                }
+            });
+            assertEquals(CellGrid.cellOf(lat1, lon1), (long) cells.get(0));
+            assertEquals(CellGrid.cellOf(lat2, lon2), (long) cells.get(cells.size() - 1));
+            // Every step goes to a neighbour, so no cell is skipped:
+            for (int c = 1; c < cells.size(); c++){
+                int d_col = Math.abs(CellGrid.columnOf(cells.get(c)) - CellGrid.columnOf(cells.get(c - 1)));
+                int d_row = Math.abs(CellGrid.rowOf(cells.get(c)) - CellGrid.rowOf(cells.get(c - 1)));
+                assertEquals(1, d_col + d_row);
+            }
+        }
+    }
+
+    @Test
+    public void walkContainsSampledPoints(){
+        double lat1 = 47.1, lon1 = 8.05, lat2 = 47.32, lon2 = 8.61;
+        final Set<Long> cells = new HashSet<Long>();
+        CellGrid.walkSegment(lat1, lon1, lat2, lon2, new CellGrid.CellVisitor() {
+            @Override
+            public void visit(long cell) {
+                cells.add(cell);
+            }
+        });
+        for (int i = 0; i <= 1000; i++){
+            double f = i / 1000.0;
+            long cell = CellGrid.cellOf(lat1 + (lat2 - lat1) * f, lon1 + (lon2 - lon1) * f);
+            assertTrue(cells.contains(cell));
+        }
+    }
+}
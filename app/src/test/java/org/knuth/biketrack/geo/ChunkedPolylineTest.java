@@ -0,0 +1,135 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+import org.knuth.biketrack.track.Tracks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests splitting the {@link ChunkedPolyline} into chunks, its levels of detail and finding
+ *  the chunks in a viewport.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ChunkedPolylineTest {
+
+    private static final double LAT = 47.37;
+    private static final double LON = 8.54;
+    /** Four kilometers east, two north and back west, every five meters */
+    private static final double[][] RIDE = Tracks.walk(LAT, LON,
+            new double[]{0, 4000, 4000, 0}, new double[]{0, 0, 2000, 2000}, 5
+    );
+
+    @Test
+    public void chunksJoinToTheLine(){
+        for (int size : new int[]{1, 2, ChunkedPolyline.CHUNK_SIZE, ChunkedPolyline.CHUNK_SIZE + 1,
+                ChunkedPolyline.CHUNK_SIZE + 2, RIDE[0].length}){
+            double[] lat = new double[size];
+            double[] lon = new double[size];
+            System.arraycopy(RIDE[0], 0, lat, 0, size);
+            System.arraycopy(RIDE[1], 0, lon, 0, size);
+            List<ChunkedPolyline.Chunk> chunks = all(new ChunkedPolyline(lat, lon), 0);
+            List<Double> joined = new ArrayList<Double>(size);
+            for (int i = 0; i < chunks.size(); i++){
+                ChunkedPolyline.Chunk chunk = chunks.get(i);
+                assertEquals(i, chunk.getIndex());
+                assertEquals(0, chunk.getLevel());
+                assertTrue(chunk.getLatitudes().length <= ChunkedPolyline.CHUNK_SIZE + 1);
+                double[] longitudes = chunk.getLongitudes();
+                // Neighbors share their end-points:
+                int first = 0;
+                if (i > 0){
+                    double[] before = chunks.get(i - 1).getLongitudes();
+                    assertEquals(before[before.length - 1], longitudes[0], 0);
+                    first = 1;
+                }
+                for (int j = first; j < longitudes.length; j++) joined.add(longitudes[j]);
+            }
+            assertEquals(size, joined.size());
+            for (int i = 0; i < size; i++) assertEquals(lon[i], joined.get(i), 0);
+        }
+    }
+
+    @Test
+    public void coarserLevelsHaveFewerPoints(){
+        ChunkedPolyline line = new ChunkedPolyline(RIDE[0], RIDE[1]);
+        int before = Integer.MAX_VALUE;
+        for (int level = 0; level <= line.getLevel(Double.MAX_VALUE); level++){
+            List<ChunkedPolyline.Chunk> chunks = all(line, level);
+            int points = 1;
+            for (ChunkedPolyline.Chunk chunk : chunks){
+                assertEquals(level, chunk.getLevel());
+                points += chunk.getLatitudes().length - 1;
+            }
+            assertTrue(points <= before);
+            before = points;
+            // The line still starts and ends where it did:
+            assertEquals(RIDE[1][0], chunks.get(0).getLongitudes()[0], 0);
+            double[] last = chunks.get(chunks.size() - 1).getLongitudes();
+            assertEquals(RIDE[1][RIDE[1].length - 1], last[last.length - 1], 0);
+            if (level == 1){
+                // Only the corners are left of the straight lines:
+                assertEquals(4, points);
+            }
+        }
+    }
+
+    @Test
+    public void picksTheLevelForTheError(){
+        ChunkedPolyline line = new ChunkedPolyline(RIDE[0], RIDE[1]);
+        assertEquals(0, line.getLevel(0));
+        assertEquals(0, line.getLevel(7.9));
+        assertEquals(1, line.getLevel(8));
+        assertEquals(2, line.getLevel(100));
+        assertEquals(line.getLevel(Double.MAX_VALUE), line.getLevel(1e9));
+    }
+
+    @Test
+    public void findsTheChunksInTheViewport(){
+        ChunkedPolyline line = new ChunkedPolyline(RIDE[0], RIDE[1]);
+        BoundingBox bounds = line.getBounds();
+        assertEquals(LAT, bounds.getMinLatitude(), 1e-9);
+        assertEquals(LON, bounds.getMinLongitude(), 1e-9);
+        // The whole line:
+        assertEquals(all(line, 0).size(), line.query(0, bounds.getMinLatitude(), bounds.getMinLongitude(),
+                bounds.getMaxLatitude(), bounds.getMaxLongitude()).size());
+        // Around the middle of the way east:
+        double min_lat = Tracks.latitude(LAT, -100);
+        double max_lat = Tracks.latitude(LAT, 100);
+        double min_lon = Tracks.longitude(LAT, LON, 1900);
+        double max_lon = Tracks.longitude(LAT, LON, 2100);
+        List<ChunkedPolyline.Chunk> found = line.query(0, min_lat, min_lon, max_lat, max_lon);
+        assertFalse(found.isEmpty());
+        assertTrue(found.size() < all(line, 0).size() / 4);
+        for (int i = 0; i < RIDE[0].length; i++){
+            if (RIDE[0][i] < min_lat || RIDE[0][i] > max_lat || RIDE[1][i] < min_lon || RIDE[1][i] > max_lon) continue;
+            assertTrue("Point "+i+" isn't in the chunks found", contains(found, RIDE[0][i], RIDE[1][i]));
+        }
+        // Nowhere near the line:
+        assertTrue(line.query(0, min_lat + 1, min_lon, max_lat + 1, max_lon).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyLineHasNoChunks(){
+        new ChunkedPolyline(new double[0], new double[0]);
+    }
+
+    private static List<ChunkedPolyline.Chunk> all(ChunkedPolyline line, int level){
+        return line.query(level, -90, -180, 90, 180);
+    }
+
+    private static boolean contains(List<ChunkedPolyline.Chunk> chunks, double latitude, double longitude){
+        for (ChunkedPolyline.Chunk chunk : chunks){
+            for (int i = 0; i < chunk.getLatitudes().length; i++){
+                if (chunk.getLatitudes()[i] == latitude && chunk.getLongitudes()[i] == longitude) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the error of the {@link Geodesy.Kernel}s against Vincenty's formula, which is what
+ *  {@code Location#distanceTo} computes, and how fast they are.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class GeodesyTest {
+
+    /** The distances (in meters) the kernels are tested at */
+    private static final double[] DISTANCES = {1, 5, 30, 100, 1000, 10000, 100000};
+
+    @Test
+    public void vincentyMatchesTheReference(){
+        // Flinders Peak to Buninyong, the example of Vincenty's paper:
+        double lat1 = -(37 + 57 / 60.0 + 3.72030 / 3600);
+        double lon1 = 144 + 25 / 60.0 + 29.52440 / 3600;
+        double lat2 = -(37 + 39 / 60.0 + 10.15610 / 3600);
+        double lon2 = 143 + 55 / 60.0 + 35.38390 / 3600;
+        assertEquals(54972.271, Geodesy.Kernel.VINCENTY.distance(lat1, lon1, lat2, lon2), 0.001);
+    }
+
+    @Test
+    public void kernelsStayWithinTheirBounds(){
+        Random random = new Random(42);
+        for (Geodesy.Kernel kernel : Geodesy.Kernel.values()){
+            for (double distance : DISTANCES){
+                double worst = 0;
+                for (int i = 0; i < 1000; i++){
+                    double[] pair = pair(random, distance);
+                    double exact = Geodesy.Kernel.VINCENTY.distance(pair[0], pair[1], pair[2], pair[3]);
+                    double error = Math.abs(kernel.distance(pair[0], pair[1], pair[2], pair[3]) - exact);
+                    worst = Math.max(worst, error);
+                }
+                assertTrue(kernel + " is off by " + worst + "m at " + distance + "m",
+                        worst <= kernel.errorBound(distance) + 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void distanceKeepsTheMaximumError(){
+        Random random = new Random(7);
+        for (double distance : DISTANCES){
+            for (int i = 0; i < 1000; i++){
+                double[] pair = pair(random, distance);
+                double exact = Geodesy.Kernel.VINCENTY.distance(pair[0], pair[1], pair[2], pair[3]);
+                assertEquals(exact, Geodesy.distance(pair[0], pair[1], pair[2], pair[3]),
+                        Geodesy.DEFAULT_MAX_ERROR + 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void selectsTheCheapestKernel(){
+        // A step of a track:
+        assertSame(Geodesy.Kernel.EQUIRECTANGULAR, Geodesy.Kernel.select(10, Geodesy.DEFAULT_MAX_ERROR));
+        assertSame(Geodesy.Kernel.HAVERSINE, Geodesy.Kernel.select(1000000, 10000));
+        assertSame(Geodesy.Kernel.VINCENTY, Geodesy.Kernel.select(100000, 1));
+    }
+
+    @Test
+    public void crossesTheAntimeridian(){
+        double distance = Geodesy.distance(10, 179.9999, 10, -179.9999);
+        assertEquals(Geodesy.Kernel.VINCENTY.distance(10, 179.9999, 10, -179.9999), distance, 0.01);
+        assertTrue(distance < 30);
+    }
+
+    @Test
+    public void cumulativeDistances(){
+        double[] lat = {47, 47.001, 47.002, 47.002};
+        double[] lon = {8, 8, 8.001, 8.002};
+        double[] out = new double[4];
+        Geodesy.cumulativeDistances(lat, lon, 0, 4, Geodesy.DEFAULT_MAX_ERROR, out);
+        assertEquals(0, out[0], 0);
+        for (int i = 1; i < 4; i++){
+            assertEquals(out[i - 1] + Geodesy.Kernel.VINCENTY.distance(lat[i - 1], lon[i - 1], lat[i], lon[i]),
+                    out[i], 0.02);
+        }
+    }
+
+    @Test
+    public void kernelBenchmark(){
+        Random random = new Random(1);
+        int size = 100000;
+        double[][] pairs = new double[size][];
+        for (int i = 0; i < size; i++) pairs[i] = pair(random, 5 + random.nextDouble() * 20);
+        long[] nanos = new long[Geodesy.Kernel.values().length];
+        double sink = 0;
+        for (Geodesy.Kernel kernel : Geodesy.Kernel.values()){
+            for (int warm = 0; warm < 3; warm++) sink += run(kernel, pairs);
+            // The best of a few runs, so a pause of the VM doesn't count:
+            nanos[kernel.ordinal()] = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++){
+                long start = System.nanoTime();
+                sink += run(kernel, pairs);
+                nanos[kernel.ordinal()] = Math.min(nanos[kernel.ordinal()], System.nanoTime() - start);
+            }
+        }
+        assertTrue(sink > 0);
+        // Picking a cheaper kernel for short steps must pay off:
+        long vincenty = nanos[Geodesy.Kernel.VINCENTY.ordinal()];
+        assertTrue(nanos[Geodesy.Kernel.HAVERSINE.ordinal()] < vincenty);
+        assertTrue(nanos[Geodesy.Kernel.EQUIRECTANGULAR.ordinal()] < vincenty);
+    }
+
+    private static double run(Geodesy.Kernel kernel, double[][] pairs){
+        double sum = 0;
+        for (double[] pair : pairs) sum += kernel.distance(pair[0], pair[1], pair[2], pair[3]);
+        return sum;
+    }
+
+    /**
+     * Two random points about the given distance apart, between 80 degrees south and north.
+     */
+    private static double[] pair(Random random, double distance){
+        double lat = random.nextDouble() * 160 - 80;
+        double lon = random.nextDouble() * 360 - 180;
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double d_lat = Math.toDegrees(distance * Math.cos(bearing) / Geodesy.meridionalRadius(lat));
+        double d_lon = Math.toDegrees(distance * Math.sin(bearing)
+                / (Geodesy.primeVerticalRadius(lat) * Math.cos(Math.toRadians(lat))));
+        double lon2 = lon + d_lon;
+        if (lon2 > 180) lon2 -= 360;
+        return new double[]{lat, lon, lat + d_lat, lon2};
+    }
+}
@@ -0,0 +1,181 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests looking up elevations in small fixture-tiles, and how fast it is.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class HgtTileTest {
+
+    /** The fixture-tiles have 11 samples per row, one every tenth of a degree */
+    private static final int SIZE = 11;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void namesOfTiles(){
+        assertEquals("N48E011.hgt", HgtTile.nameOf(48, 11));
+        assertEquals("S09W075.hgt", HgtTile.nameOf(-9, -75));
+        assertEquals("N00E000.hgt", HgtTile.nameOf(0, 0));
+        assertEquals("S90W180.hgt", HgtTile.nameOf(-90, -180));
+    }
+
+    @Test
+    public void interpolatesBetweenTheSamples() throws IOException {
+        HgtTile tile = HgtTile.open(write(47, 8, null), 47, 8);
+        assertEquals(SIZE, tile.getSize());
+        // The terrain is a plane, which bilinear interpolation reproduces exactly:
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++){
+            double lat = 47 + random.nextDouble();
+            double lon = 8 + random.nextDouble();
+            assertEquals(plane(lat, lon), tile.elevation(lat, lon), 1e-6);
+        }
+        // The corners and edges, the northern row comes first in the file:
+        assertEquals(plane(48, 8), tile.elevation(48, 8), 1e-9);
+        assertEquals(plane(47, 9), tile.elevation(47, 9), 1e-9);
+    }
+
+    @Test
+    public void outsideIsClampedToTheEdge() throws IOException {
+        HgtTile tile = HgtTile.open(write(47, 8, null), 47, 8);
+        assertEquals(plane(48, 8.5), tile.elevation(48.3, 8.5), 1e-9);
+        assertEquals(plane(47.5, 8), tile.elevation(47.5, 7.9), 1e-9);
+    }
+
+    @Test
+    public void voidSamplesAreLeftOut() throws IOException {
+        // Everything void, except for the samples in the first two rows and columns:
+        short[] samples = samples(47, 8);
+        for (int row = 0; row < SIZE; row++){
+            for (int col = 0; col < SIZE; col++){
+                if (row > 1 || col > 1) samples[row * SIZE + col] = HgtTile.VOID;
+            }
+        }
+        samples[SIZE + 1] = HgtTile.VOID;
+        HgtTile tile = HgtTile.open(write(47, 8, samples), 47, 8);
+        // Right on the north-west sample:
+        assertEquals(plane(48, 8), tile.elevation(48, 8), 1e-9);
+        // Between the three valid samples, weighted by their share:
+        double elevation = tile.elevation(47.95, 8.05);
+        assertTrue(elevation > plane(47.9, 8) && elevation < plane(48, 8.1));
+        // All four around the point are void:
+        assertTrue(Double.isNaN(tile.elevation(47.5, 8.5)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBrokenFiles() throws IOException {
+        File file = folder.newFile(HgtTile.nameOf(47, 8));
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[SIZE * SIZE * 2 - 1]);
+        } finally {
+            out.close();
+        }
+        HgtTile.open(file, 47, 8);
+    }
+
+    @Test
+    public void modelCombinesTheTiles() throws IOException {
+        write(47, 8, null);
+        write(47, 9, null);
+        TerrainModel model = new TerrainModel(folder.getRoot());
+        // A line from west to east, across both tiles and off the second one:
+        int size = 301;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        for (int i = 0; i < size; i++){
+            lat[i] = 47.25;
+            lon[i] = 8 + i * 0.01;
+        }
+        double[] out = new double[size];
+        assertEquals(201, model.elevations(lat, lon, out));
+        for (int i = 0; i < size; i++){
+            if (i <= 200) assertEquals(plane(lat[i], lon[i]), out[i], 1e-6);
+            else assertTrue(Double.isNaN(out[i]));
+        }
+        assertEquals(plane(47.5, 9.5), model.elevation(47.5, 9.5), 1e-6);
+        assertTrue(Double.isNaN(model.elevation(46.5, 8.5)));
+        // On the northern edge, where the next tile is missing:
+        assertEquals(plane(48, 8.5), model.elevation(48, 8.5), 1e-6);
+    }
+
+    @Test
+    public void fillsTheGaps(){
+        double[] values = {Double.NaN, 10, Double.NaN, Double.NaN, 40, Double.NaN};
+        TerrainModel.fillGaps(values);
+        double[] expected = {10, 10, 20, 30, 40, 40};
+        for (int i = 0; i < values.length; i++) assertEquals(expected[i], values[i], 1e-9);
+        double[] none = {Double.NaN, Double.NaN};
+        TerrainModel.fillGaps(none);
+        assertTrue(Double.isNaN(none[0]) && Double.isNaN(none[1]));
+    }
+
+    @Test
+    public void lookupBenchmark() throws IOException {
+        write(47, 8, null);
+        TerrainModel model = new TerrainModel(folder.getRoot());
+        Random random = new Random(1);
+        int size = 1000000;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        for (int i = 0; i < size; i++){
+            lat[i] = 47 + random.nextDouble();
+            lon[i] = 8 + random.nextDouble();
+        }
+        double[] out = new double[size];
+        for (int warm = 0; warm < 3; warm++) model.elevations(lat, lon, out);
+        long start = System.nanoTime();
+        assertEquals(size, model.elevations(lat, lon, out));
+        System.out.println("TerrainModel: " + size + " lookups in "
+                + String.format("%.1f", (System.nanoTime() - start) / 1e6) + "ms");
+    }
+
+    /** The elevation of the fixture-terrain, a plane rising to the north and east */
+    private static double plane(double lat, double lon){
+        return 200 * lat + 100 * lon;
+    }
+
+    private static short[] samples(int latitude, int longitude){
+        short[] samples = new short[SIZE * SIZE];
+        for (int row = 0; row < SIZE; row++){
+            for (int col = 0; col < SIZE; col++){
+                double lat = latitude + 1 - row / (double) (SIZE - 1);
+                double lon = longitude + col / (double) (SIZE - 1);
+                samples[row * SIZE + col] = (short) Math.round(plane(lat, lon));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Write a fixture-tile into the temporary folder.
+     * @param samples the samples, or {@code null} for the plane.
+     */
+    private File write(int latitude, int longitude, short[] samples) throws IOException {
+        if (samples == null) samples = samples(latitude, longitude);
+        File file = new File(folder.getRoot(), HgtTile.nameOf(latitude, longitude));
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            for (short sample : samples) out.writeShort(sample);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
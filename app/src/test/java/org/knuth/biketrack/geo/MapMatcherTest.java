@@ -0,0 +1,199 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.knuth.biketrack.track.Tracks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading the roads of a small fixture-extract and matching noisy tracks onto them,
+ *  and how fast matching is.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class MapMatcherTest {
+
+    /** The south-west corner of the street-grid in {@code roads.osm} */
+    private static final double LAT = 48.1;
+    private static final double LON = 11.5;
+    /** The distance (in meters) between the streets of the grid */
+    private static final double STEP = 200;
+    /** The number of streets in either direction */
+    private static final int STREETS = 5;
+
+    private RoadGraph graph;
+
+    @Before
+    public void readExtract() throws IOException {
+        Reader in = new InputStreamReader(getClass().getResourceAsStream("roads.osm"), "UTF-8");
+        try {
+            graph = OsmRoadReader.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readsOnlyTheRoads(){
+        // The motorway, the building and their nodes are left out:
+        assertEquals(STREETS * STREETS, graph.getNodeCount());
+        assertEquals(2 * STREETS * (STREETS - 1), graph.getEdgeCount());
+        // The fixture was laid out on a sphere, the lengths are on the ellipsoid:
+        for (int edge = 0; edge < graph.getEdgeCount(); edge++){
+            assertEquals(STEP, graph.getLength(edge), STEP * 0.005);
+        }
+    }
+
+    @Test
+    public void graphRoundTrips() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        graph.write(new DataOutputStream(bytes));
+        RoadGraph read = RoadGraph.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(graph.getNodeCount(), read.getNodeCount());
+        assertEquals(graph.getEdgeCount(), read.getEdgeCount());
+        for (int edge = 0; edge < graph.getEdgeCount(); edge++){
+            assertEquals(graph.getFrom(edge), read.getFrom(edge));
+            assertEquals(graph.getTo(edge), read.getTo(edge));
+        }
+    }
+
+    @Test
+    public void matchesANoisyRide(){
+        // East along the southern street, then north along the eastern one:
+        double[] east = {0, 4 * STEP, 4 * STEP};
+        double[] north = {0, 0, 4 * STEP};
+        double[][] truth = Tracks.walk(LAT, LON, east, north, 5);
+        double[][] ride = noisy(truth, 8, 42);
+        double raw = length(ride);
+        MapMatcher.Result result = new MapMatcher(graph).match(ride[0], ride[1]);
+        assertEquals(ride[0].length, result.getMatched());
+        // The zig-zag of the fixes is gone:
+        assertTrue(raw > 8 * STEP * 1.5);
+        assertEquals(8 * STEP, result.getDistance(), 8 * STEP * 0.03);
+        // Every point is on a street:
+        for (int i = 0; i < ride[0].length; i++){
+            assertTrue(offStreet(result.getLatitudes()[i], result.getLongitudes()[i]) < 1);
+        }
+    }
+
+    @Test
+    public void pointsOffTheRoadsKeepTheirPosition(){
+        double[][] ride = Tracks.walk(LAT, LON, new double[]{0, 4 * STEP}, new double[]{0, 0}, 5);
+        // A few fixes jump a kilometer to the north:
+        for (int i = 60; i < 70; i++) ride[0][i] = Tracks.latitude(ride[0][i], 1000 + 4 * STEP);
+        MapMatcher.Result result = new MapMatcher(graph).match(ride[0], ride[1]);
+        assertEquals(ride[0].length - 10, result.getMatched());
+        for (int i = 60; i < 70; i++){
+            assertEquals(ride[0][i], result.getLatitudes()[i], 0);
+            assertEquals(ride[1][i], result.getLongitudes()[i], 0);
+        }
+    }
+
+    @Test
+    public void resultRoundTrips() throws IOException {
+        double[][] ride = noisy(Tracks.walk(LAT, LON, new double[]{0, 2 * STEP}, new double[]{0, 0}, 5), 5, 7);
+        MapMatcher.Result result = new MapMatcher(graph).match(ride[0], ride[1]);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        result.write(new DataOutputStream(bytes));
+        MapMatcher.Result read = MapMatcher.Result.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(result.getDistance(), read.getDistance(), 0.01);
+        assertEquals(result.getMatched(), read.getMatched());
+        assertArrayEquals(result.getLatitudes(), read.getLatitudes(), 1e-6);
+        assertArrayEquals(result.getLongitudes(), read.getLongitudes(), 1e-6);
+    }
+
+    @Test
+    public void matchBenchmark(){
+        // A city of 100 by 100 streets:
+        int streets = 100;
+        double[] lat = new double[streets * streets];
+        double[] lon = new double[streets * streets];
+        int[] from = new int[2 * streets * (streets - 1)];
+        int[] to = new int[from.length];
+        int edges = 0;
+        for (int row = 0; row < streets; row++){
+            for (int col = 0; col < streets; col++){
+                int node = row * streets + col;
+                lat[node] = Tracks.latitude(LAT, row * STEP);
+                lon[node] = Tracks.longitude(LAT, LON, col * STEP);
+                if (col > 0){ from[edges] = node - 1; to[edges++] = node; }
+                if (row > 0){ from[edges] = node - streets; to[edges++] = node; }
+            }
+        }
+        RoadGraph city = new RoadGraph(lat, lon, from, to);
+        // A random ride through it, with a turn at every third crossing:
+        Random random = new Random(1);
+        int size = 50000;
+        double[] east = new double[size / 40 + 2];
+        double[] north = new double[east.length];
+        int x = streets / 2, y = streets / 2, dx = 1, dy = 0;
+        for (int i = 0; i < east.length; i++){
+            east[i] = x * STEP;
+            north[i] = y * STEP;
+            if (random.nextInt(3) == 0){
+                int t = dx; dx = dy; dy = t;
+                if (random.nextBoolean()){ dx = -dx; dy = -dy; }
+            }
+            if (x + dx < 2 || x + dx > streets - 3) dx = -dx;
+            if (y + dy < 2 || y + dy > streets - 3) dy = -dy;
+            x += dx;
+            y += dy;
+        }
+        double[][] ride = noisy(Tracks.walk(LAT, LON, east, north, 5), 8, 2);
+        MapMatcher matcher = new MapMatcher(city);
+        matcher.match(ride[0], ride[1]);
+        long start = System.nanoTime();
+        MapMatcher.Result result = matcher.match(ride[0], ride[1]);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("MapMatcher: " + ride[0].length + " points in " + String.format("%.0f", seconds * 1000)
+                + "ms (" + String.format("%.0f", ride[0].length / seconds) + " points/s)");
+        assertEquals(ride[0].length, result.getMatched());
+        assertEquals((east.length - 1) * STEP, result.getDistance(), (east.length - 1) * STEP * 0.03);
+    }
+
+    /**
+     * The distance (in meters) of the given point to the nearest street of the fixture.
+     */
+    private static double offStreet(double lat, double lon){
+        double north = (lat - LAT) * Tracks.METERS_PER_DEGREE;
+        double east = (lon - LON) * Tracks.METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT));
+        double to_row = Math.abs(north - Math.round(north / STEP) * STEP);
+        double to_column = Math.abs(east - Math.round(east / STEP) * STEP);
+        return Math.min(to_row, to_column);
+    }
+
+    private static double length(double[][] points){
+        double length = 0;
+        for (int i = 1; i < points[0].length; i++){
+            length += Geodesy.distance(points[0][i - 1], points[1][i - 1], points[0][i], points[1][i]);
+        }
+        return length;
+    }
+
+    /**
+     * Add normally distributed noise with the given deviation (in meters) to every point.
+     */
+    private static double[][] noisy(double[][] points, double sigma, long seed){
+        Random random = new Random(seed);
+        double[] lat = new double[points[0].length];
+        double[] lon = new double[points[0].length];
+        for (int i = 0; i < lat.length; i++){
+            lat[i] = Tracks.latitude(points[0][i], random.nextGaussian() * sigma);
+            lon[i] = Tracks.longitude(points[0][i], points[1][i], random.nextGaussian() * sigma);
+        }
+        return new double[][]{lat, lon};
+    }
+}
@@ -0,0 +1,78 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that polylines survive being encoded, e.g. the simplified geometry the thumbnails
+ *  are drawn from.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class PolylineCodecTest {
+
+    @Test
+    public void roundTripsWithinThePrecision(){
+        Random random = new Random(42);
+        int size = 1000;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        for (int i = 0; i < size; i++){
+            lat[i] = random.nextDouble() * 180 - 90;
+            lon[i] = random.nextDouble() * 360 - 180;
+        }
+        byte[] encoded = PolylineCodec.encode(lat, lon, 0, size);
+        assertEquals(size * 8, encoded.length);
+        assertEquals(size, PolylineCodec.size(encoded));
+        double[] decoded_lat = PolylineCodec.decodeLatitudes(encoded);
+        double[] decoded_lon = PolylineCodec.decodeLongitudes(encoded);
+        for (int i = 0; i < size; i++){
+            assertEquals(lat[i], decoded_lat[i], 0.5e-6);
+            assertEquals(lon[i], decoded_lon[i], 0.5e-6);
+        }
+    }
+
+    @Test
+    public void encodesARange(){
+        double[] lat = {1, 2, 3, 4, 5};
+        double[] lon = {-1, -2, -3, -4, -5};
+        byte[] encoded = PolylineCodec.encode(lat, lon, 1, 4);
+        assertEquals(3, PolylineCodec.size(encoded));
+        assertEquals(2, PolylineCodec.decodeLatitudes(encoded)[0], 0);
+        assertEquals(-4, PolylineCodec.decodeLongitudes(encoded)[2], 0);
+    }
+
+    @Test
+    public void encodesTheSimplifiedPoints(){
+        double[] lat = {47.1, 47.2, 47.3, 47.4};
+        double[] lon = {8.1, 8.2, 8.3, 8.4};
+        byte[] encoded = PolylineCodec.encode(lat, lon, new int[]{0, 3});
+        assertEquals(2, PolylineCodec.size(encoded));
+        assertEquals(47.4, PolylineCodec.decodeLatitudes(encoded)[1], 1e-9);
+        assertEquals(8.1, PolylineCodec.decodeLongitudes(encoded)[0], 1e-9);
+    }
+
+    @Test
+    public void emptyPolyline(){
+        byte[] encoded = PolylineCodec.encode(new double[0], new double[0], 0, 0);
+        assertEquals(0, PolylineCodec.size(encoded));
+        assertEquals(0, PolylineCodec.decodeLatitudes(encoded).length);
+    }
+
+    @Test
+    public void projectionKeepsTheShape(){
+        // A square of 1km, far north where a degree of longitude is short:
+        double lat0 = 64.1, lon0 = -21.9;
+        double d_lat = Math.toDegrees(1000 / Geodesy.meridionalRadius(lat0));
+        double d_lon = Math.toDegrees(1000 / (Geodesy.primeVerticalRadius(lat0) * Math.cos(Math.toRadians(lat0))));
+        LocalProjection projection = LocalProjection.around(new BoundingBox(lat0, lon0, lat0 + d_lat, lon0 + d_lon));
+        double width = projection.x(lon0 + d_lon) - projection.x(lon0);
+        double height = projection.y(lat0 + d_lat) - projection.y(lat0);
+        assertEquals(1, width / height, 0.001);
+        assertEquals(1000, height, 1);
+    }
+}
@@ -0,0 +1,187 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+import org.knuth.biketrack.track.Tracks;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays synthetic traces of a rider against a route and checks what the
+ *  {@link RouteFollower} reports.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RouteFollowerTest {
+
+    private static final double LAT = 47.37;
+    private static final double LON = 8.54;
+    /** Replayed fixes come every two seconds */
+    private static final long INTERVAL = 2000;
+
+    @Test
+    public void followsTheRideToTheEnd(){
+        double[][] route = Tracks.walk(LAT, LON, new double[]{0, 3000, 3000, 5000}, new double[]{0, 0, 2000, 2000}, 25);
+        RouteFollower follower = new RouteFollower(route[0], route[1]);
+        Counter events = new Counter();
+        follower.setListener(events);
+        double[][] ride = noisy(Tracks.walk(LAT, LON, new double[]{0, 3000, 3000, 5000}, new double[]{0, 0, 2000, 2000}, 10), 5, 42);
+        double last = -1;
+        long time = 0;
+        for (int i = 0; i < ride[0].length; i++, time += INTERVAL){
+            assertTrue(follower.update(ride[0][i], ride[1][i], time));
+            // Noise may only pull it back a little:
+            assertTrue(follower.getProgress() > last - 15);
+            last = Math.max(last, follower.getProgress());
+            assertTrue(follower.getOffRouteDistance() < 15);
+        }
+        assertEquals(7000, follower.getLength(), 7000 * 0.005);
+        assertEquals(0, follower.getRemaining(), 15);
+        assertEquals(1, events.joined);
+        assertEquals(0, events.left);
+    }
+
+    @Test
+    public void outAndBackIsFollowedInOrder(){
+        // Out 2km to the east and back on the other side of the road:
+        double[][] route = Tracks.walk(LAT, LON, new double[]{0, 2000, 2000, 0}, new double[]{0, 0, 10, 10}, 20);
+        RouteFollower follower = new RouteFollower(route[0], route[1]);
+        double[][] ride = Tracks.walk(LAT, LON, new double[]{0, 2000, 2000, 0}, new double[]{0, 0, 10, 10}, 10);
+        long time = 0;
+        for (int i = 0; i < ride[0].length; i++, time += INTERVAL){
+            follower.update(ride[0][i], ride[1][i], time);
+            // On the way back, the outbound leg is just as close but behind:
+            if (i > ride[0].length / 2 + 5) assertTrue(follower.getProgress() > 2000);
+        }
+        assertEquals(0, follower.getRemaining(), 15);
+    }
+
+    @Test
+    public void detourLeavesAndRejoins(){
+        double[][] route = Tracks.walk(LAT, LON, new double[]{0, 4000}, new double[]{0, 0}, 25);
+        RouteFollower follower = new RouteFollower(route[0], route[1]);
+        Counter events = new Counter();
+        follower.setListener(events);
+        // Takes a parallel street 150m to the north for a kilometer:
+        double[][] ride = Tracks.walk(LAT, LON,
+                new double[]{0, 1000, 1000, 2000, 2000, 4000}, new double[]{0, 0, 150, 150, 0, 0}, 10);
+        long time = 0;
+        boolean was_off = false;
+        for (int i = 0; i < ride[0].length; i++, time += INTERVAL){
+            follower.update(ride[0][i], ride[1][i], time);
+            if (!follower.isOnRoute()){
+                was_off = true;
+                assertTrue(follower.getOffRouteDistance() > RouteFollower.REJOIN);
+            }
+        }
+        assertTrue(was_off);
+        assertEquals(2, events.joined);
+        assertEquals(1, events.left);
+        assertTrue(follower.isOnRoute());
+        assertEquals(0, follower.getRemaining(), 15);
+    }
+
+    @Test
+    public void edgeOfTheCorridorDoesntFlap(){
+        double[][] route = Tracks.walk(LAT, LON, new double[]{0, 4000}, new double[]{0, 0}, 25);
+        RouteFollower follower = new RouteFollower(route[0], route[1]);
+        Counter events = new Counter();
+        follower.setListener(events);
+        // Rides along the route, jumping between 35 and 55m off it:
+        long time = 0;
+        for (int i = 0; i <= 300; i++, time += INTERVAL){
+            double north = i < 10 ? 0 : (i % 2 == 0 ? 35 : 55);
+            follower.update(Tracks.latitude(LAT, north), Tracks.longitude(LAT, LON, i * 10), time);
+        }
+        assertEquals(1, events.joined);
+        assertEquals(1, events.left);
+    }
+
+    @Test
+    public void shortcutSkipsAhead(){
+        // A loop around a block, the rider cuts straight across:
+        double[][] route = Tracks.walk(LAT, LON,
+                new double[]{0, 1000, 1000, 2000, 2000, 3000}, new double[]{0, 0, 800, 800, 0, 0}, 20);
+        RouteFollower follower = new RouteFollower(route[0], route[1]);
+        double[][] ride = Tracks.walk(LAT, LON, new double[]{0, 3000}, new double[]{0, 0}, 10);
+        long time = 0;
+        for (int i = 0; i < ride[0].length; i++, time += INTERVAL){
+            follower.update(ride[0][i], ride[1][i], time);
+        }
+        assertEquals(0, follower.getRemaining(), 15);
+    }
+
+    @Test
+    public void farAwayIsNotMatched(){
+        double[][] route = Tracks.walk(LAT, LON, new double[]{0, 1000}, new double[]{0, 0}, 25);
+        RouteFollower follower = new RouteFollower(route[0], route[1]);
+        assertFalse(follower.update(LAT + 0.01, LON, 0));
+        assertFalse(follower.isMatched());
+        assertFalse(follower.isOnRoute());
+        assertEquals(Double.POSITIVE_INFINITY, follower.getOffRouteDistance(), 0);
+        // Within the search distance, it tells how far:
+        assertFalse(follower.update(Tracks.latitude(LAT, 200), LON + 0.005, INTERVAL));
+        assertEquals(200, follower.getOffRouteDistance(), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void routeNeedsTwoPoints(){
+        new RouteFollower(new double[]{LAT}, new double[]{LON});
+    }
+
+    @Test
+    public void updateBenchmark(){
+        // A long route of 100k points (about 1000km), zig-zagging:
+        int size = 100000;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        for (int i = 0; i < size; i++){
+            lat[i] = Tracks.latitude(LAT, (i / 1000) % 2 == 0 ? (i % 1000) * 10 : (1000 - i % 1000) * 10);
+            lon[i] = Tracks.longitude(LAT, LON, i / 1000 * 100);
+        }
+        long start = System.nanoTime();
+        RouteFollower follower = new RouteFollower(lat, lon);
+        double build = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        long time = 0;
+        int updates = 0;
+        for (int i = 0; i < size; i += 2, time += INTERVAL, updates++){
+            follower.update(lat[i], lon[i], time);
+        }
+        double per_update = (System.nanoTime() - start) / 1e3 / updates;
+        System.out.println("RouteFollower: built for " + size + " points in " + String.format("%.1f", build)
+                + "ms, " + String.format("%.2f", per_update) + "us per update");
+        assertEquals(0, follower.getRemaining(), 30);
+    }
+
+    /**
+     * Add uniform noise of up to {@code meters} in either direction to every point.
+     */
+    private static double[][] noisy(double[][] points, double meters, long seed){
+        Random random = new Random(seed);
+        for (int i = 0; i < points[0].length; i++){
+            points[0][i] = Tracks.latitude(points[0][i], (random.nextDouble() * 2 - 1) * meters);
+            points[1][i] = Tracks.longitude(points[0][i], points[1][i], (random.nextDouble() * 2 - 1) * meters);
+        }
+        return points;
+    }
+
+    private static class Counter implements RouteFollower.Listener {
+        private int left;
+        private int joined;
+
+        @Override
+        public void onLeftRoute(RouteFollower follower) {
+            left++;
+        }
+
+        @Override
+        public void onJoinedRoute(RouteFollower follower) {
+            joined++;
+        }
+    }
+}
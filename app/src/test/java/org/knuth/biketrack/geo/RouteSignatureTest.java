@@ -0,0 +1,146 @@
+package org.knuth.biketrack.geo;
+
+import org.junit.Test;
+import org.knuth.biketrack.track.Tracks;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests finding the same ride with the {@link RouteSignature} and confirming it with the
+ *  {@link RouteDistance}, like the {@code RouteClusters} do.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RouteSignatureTest {
+
+    private static final double LAT = 47.37;
+    private static final double LON = 8.54;
+    /** The distance the clusters confirm candidates with, in meters */
+    private static final double SAME_RIDE = 100;
+    /** The commute: 6km east, 4km north and 3km east again */
+    private static final double[] EAST = {0, 6000, 6000, 9000};
+    private static final double[] NORTH = {0, 0, 4000, 4000};
+
+    @Test
+    public void sameRideIsACandidate(){
+        double[][] commute = Tracks.walk(LAT, LON, EAST, NORTH, 10);
+        RouteSignature signature = RouteSignature.of(commute[0], commute[1]);
+        assertEquals(1, signature.similarity(RouteSignature.of(commute[0], commute[1])), 0);
+        // The same commute on another day, with another receiver:
+        for (int seed = 0; seed < 10; seed++){
+            double[][] again = noisy(Tracks.walk(LAT, LON, EAST, NORTH, 7), 5, seed);
+            RouteSignature other = RouteSignature.of(again[0], again[1]);
+            assertTrue(signature.similarity(other) > 0.6);
+            assertTrue(shareABand(signature, other));
+            assertTrue(RouteDistance.isWithin(commute[0], commute[1], again[0], again[1], SAME_RIDE));
+        }
+    }
+
+    @Test
+    public void otherRideIsNoCandidate(){
+        double[][] commute = Tracks.walk(LAT, LON, EAST, NORTH, 10);
+        // Starts the same, but turns north two kilometers earlier:
+        double[][] detour = Tracks.walk(LAT, LON, new double[]{0, 4000, 4000, 9000}, NORTH, 10);
+        RouteSignature signature = RouteSignature.of(commute[0], commute[1]);
+        RouteSignature other = RouteSignature.of(detour[0], detour[1]);
+        double similarity = signature.similarity(other);
+        assertTrue(similarity > 0 && similarity < 0.6);
+        assertFalse(RouteDistance.isWithin(commute[0], commute[1], detour[0], detour[1], SAME_RIDE));
+        // Somewhere else entirely:
+        double[][] elsewhere = Tracks.walk(LAT + 0.2, LON, EAST, NORTH, 10);
+        other = RouteSignature.of(elsewhere[0], elsewhere[1]);
+        assertEquals(0, signature.similarity(other), 0);
+        assertFalse(shareABand(signature, other));
+    }
+
+    @Test
+    public void directionCounts(){
+        double[][] commute = Tracks.walk(LAT, LON, EAST, NORTH, 10);
+        double[][] home = reverse(commute);
+        RouteSignature signature = RouteSignature.of(commute[0], commute[1]);
+        RouteSignature back = RouteSignature.of(home[0], home[1]);
+        assertTrue(signature.similarity(back) < 0.2);
+        assertFalse(shareABand(signature, back));
+    }
+
+    @Test
+    public void rarelyCandidatesByChance(){
+        // Random rides around the city, which only share a few streets:
+        Random random = new Random(17);
+        int count = 60;
+        RouteSignature[] signatures = new RouteSignature[count];
+        for (int i = 0; i < count; i++){
+            double[] east = new double[6];
+            double[] north = new double[6];
+            for (int j = 1; j < east.length; j++){
+                east[j] = east[j - 1] + (random.nextDouble() - 0.5) * 8000;
+                north[j] = north[j - 1] + (random.nextDouble() - 0.5) * 8000;
+            }
+            double[][] ride = Tracks.walk(LAT, LON, east, north, 20);
+            signatures[i] = RouteSignature.of(ride[0], ride[1]);
+        }
+        int candidates = 0;
+        for (int i = 0; i < count; i++){
+            for (int j = i + 1; j < count; j++){
+                if (shareABand(signatures[i], signatures[j])) candidates++;
+            }
+        }
+        // Out of 1770 pairs:
+        assertTrue("Found " + candidates + " candidates", candidates < 20);
+    }
+
+    @Test
+    public void bandsAreStable(){
+        double[][] commute = Tracks.walk(LAT, LON, EAST, NORTH, 10);
+        long[] bands = RouteSignature.of(commute[0], commute[1]).getBands();
+        assertEquals(RouteSignature.BANDS, bands.length);
+        // A single point is a route too:
+        assertEquals(RouteSignature.BANDS, RouteSignature.of(new double[]{LAT}, new double[]{LON}).getBands().length);
+        for (int band = 0; band < bands.length; band++){
+            assertEquals(bands[band], RouteSignature.of(commute[0], commute[1]).getBands()[band]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRouteHasNoSignature(){
+        RouteSignature.of(new double[0], new double[0]);
+    }
+
+    private static boolean shareABand(RouteSignature a, RouteSignature b){
+        long[] bands_a = a.getBands();
+        long[] bands_b = b.getBands();
+        for (int band = 0; band < bands_a.length; band++){
+            if (bands_a[band] == bands_b[band]) return true;
+        }
+        return false;
+    }
+
+    private static double[][] reverse(double[][] points){
+        int size = points[0].length;
+        double[][] reversed = new double[2][size];
+        for (int i = 0; i < size; i++){
+            reversed[0][i] = points[0][size - 1 - i];
+            reversed[1][i] = points[1][size - 1 - i];
+        }
+        return reversed;
+    }
+
+    /**
+     * Move every point up to {@code meters} in a random direction.
+     */
+    private static double[][] noisy(double[][] points, double meters, long seed){
+        Random random = new Random(seed);
+        int size = points[0].length;
+        double[][] moved = new double[2][size];
+        for (int i = 0; i < size; i++){
+            moved[0][i] = Tracks.latitude(points[0][i], (random.nextDouble() * 2 - 1) * meters);
+            moved[1][i] = Tracks.longitude(points[0][i], points[1][i], (random.nextDouble() * 2 - 1) * meters);
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,149 @@
+package org.knuth.biketrack.heatmap;
+
+import org.junit.Test;
+import org.knuth.biketrack.geo.BoundingBox;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests rasterizing tracks into a heatmap-tile, and how fast it is.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class HeatmapRasterizerTest {
+
+    private static final int ZOOM = 14;
+    private static final double LAT = 47.37;
+    private static final double LON = 8.54;
+
+    @Test
+    public void worldTile(){
+        BoundingBox world = HeatmapRasterizer.boundsOf(0, 0, 0);
+        assertEquals(-180, world.getMinLongitude(), 1e-9);
+        assertEquals(180, world.getMaxLongitude(), 1e-9);
+        assertEquals(85.0511, world.getMaxLatitude(), 1e-4);
+        assertEquals(-85.0511, world.getMinLatitude(), 1e-4);
+    }
+
+    @Test
+    public void tileContainsItsTrack(){
+        int x = tileX(LON), y = tileY(LAT);
+        assertTrue(HeatmapRasterizer.boundsOf(x, y, ZOOM).contains(LAT, LON));
+        HeatmapRasterizer raster = new HeatmapRasterizer(x, y, ZOOM);
+        assertTrue(raster.isEmpty());
+        raster.add(new double[]{LAT, LAT + 0.001}, new double[]{LON, LON + 0.001});
+        assertFalse(raster.isEmpty());
+        // The neighbouring tile doesn't see it:
+        HeatmapRasterizer other = new HeatmapRasterizer(x + 2, y, ZOOM);
+        other.add(new double[]{LAT, LAT + 0.001}, new double[]{LON, LON + 0.001});
+        assertTrue(other.isEmpty());
+    }
+
+    @Test
+    public void lineAcrossTheTileIsDrawn(){
+        // Both points are far outside, the line between them crosses the tile:
+        int x = tileX(LON), y = tileY(LAT);
+        BoundingBox tile = HeatmapRasterizer.boundsOf(x, y, ZOOM);
+        double mid = (tile.getMinLatitude() + tile.getMaxLatitude()) / 2;
+        HeatmapRasterizer raster = new HeatmapRasterizer(x, y, ZOOM);
+        raster.add(new double[]{mid, mid}, new double[]{LON - 1, LON + 1});
+        int[] colors = raster.toColors();
+        int row = -1;
+        for (int i = 0; i < colors.length && row < 0; i++) if (colors[i] != 0) row = i / HeatmapRasterizer.TILE_SIZE;
+        assertTrue(row >= 0);
+        // Every pixel in that row:
+        for (int col = 0; col < HeatmapRasterizer.TILE_SIZE; col++){
+            assertNotEquals(0, colors[row * HeatmapRasterizer.TILE_SIZE + col]);
+        }
+    }
+
+    @Test
+    public void trackCountsOncePerPixel(){
+        int x = tileX(LON), y = tileY(LAT);
+        BoundingBox tile = HeatmapRasterizer.boundsOf(x, y, ZOOM);
+        double[] lat = {tile.getMinLatitude() + 0.0005, tile.getMaxLatitude() - 0.0005};
+        double[] lon = {tile.getMinLongitude() + 0.0005, tile.getMaxLongitude() - 0.0005};
+        // The same line, once with two fixes and once with (slowly) a thousand:
+        double[] dense_lat = new double[1000];
+        double[] dense_lon = new double[1000];
+        for (int i = 0; i < 1000; i++){
+            dense_lat[i] = lat[0] + (lat[1] - lat[0]) * i / 999;
+            dense_lon[i] = lon[0] + (lon[1] - lon[0]) * i / 999;
+        }
+        HeatmapRasterizer sparse = new HeatmapRasterizer(x, y, ZOOM);
+        sparse.add(lat, lon);
+        HeatmapRasterizer dense = new HeatmapRasterizer(x, y, ZOOM);
+        dense.add(dense_lat, dense_lon);
+        // Every pixel of either is only one track "hot":
+        int one = 0;
+        for (int color : sparse.toColors()) if (color != 0) one = color;
+        assertNotEquals(0, one);
+        for (int color : dense.toColors()) assertTrue(color == 0 || color == one);
+        // A second track makes it hotter:
+        int[] once = sparse.toColors();
+        sparse.add(lat, lon);
+        int[] twice = sparse.toColors();
+        int center = HeatmapRasterizer.TILE_SIZE / 2 * (HeatmapRasterizer.TILE_SIZE + 1);
+        assertNotEquals(0, once[center]);
+        assertNotEquals(once[center], twice[center]);
+    }
+
+    @Test
+    public void untouchedPixelsAreTransparent(){
+        HeatmapRasterizer raster = new HeatmapRasterizer(tileX(LON), tileY(LAT), ZOOM);
+        raster.add(new double[]{LAT}, new double[]{LON});
+        int touched = 0;
+        for (int color : raster.toColors()) if (color != 0) touched++;
+        // A single point is a dot of two by two pixels:
+        assertEquals(4, touched);
+    }
+
+    @Test
+    public void rasterizeBenchmark(){
+        // A hundred tours of 5000 fixes, wandering around the tile:
+        Random random = new Random(1);
+        int tours = 100, size = 5000;
+        double[][] lat = new double[tours][size];
+        double[][] lon = new double[tours][size];
+        for (int t = 0; t < tours; t++){
+            double la = LAT, lo = LON;
+            for (int i = 0; i < size; i++){
+                la += (random.nextDouble() - 0.5) * 0.0004;
+                lo += (random.nextDouble() - 0.5) * 0.0006;
+                lat[t][i] = la;
+                lon[t][i] = lo;
+            }
+        }
+        int x = tileX(LON), y = tileY(LAT);
+        for (int warm = 0; warm < 3; warm++) rasterize(x, y, lat, lon);
+        long start = System.nanoTime();
+        HeatmapRasterizer raster = rasterize(x, y, lat, lon);
+        int[] colors = raster.toColors();
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.println("HeatmapRasterizer: " + tours + " tours of " + size + " fixes into a tile in "
+                + String.format("%.1f", millis) + "ms");
+        assertFalse(raster.isEmpty());
+        assertEquals(HeatmapRasterizer.TILE_SIZE * HeatmapRasterizer.TILE_SIZE, colors.length);
+    }
+
+    private static HeatmapRasterizer rasterize(int x, int y, double[][] lat, double[][] lon){
+        HeatmapRasterizer raster = new HeatmapRasterizer(x, y, ZOOM);
+        for (int t = 0; t < lat.length; t++) raster.add(lat[t], lon[t]);
+        return raster;
+    }
+
+    private static int tileX(double longitude){
+        return (int) Math.floor((longitude + 180) / 360 * (1 << ZOOM));
+    }
+
+    private static int tileY(double latitude){
+        double sin = Math.sin(Math.toRadians(latitude));
+        return (int) Math.floor((0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * (1 << ZOOM));
+    }
+}
@@ -0,0 +1,131 @@
+package org.knuth.biketrack.persistent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@code WHERE}-clause and arguments a {@link TourFilter} builds.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TourFilterTest {
+
+    @Test
+    public void allMatchesEverything(){
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        TourFilter.ALL.appendTo(where, args);
+        assertEquals("", where.toString());
+        assertTrue(args.isEmpty());
+        assertFalse(TourFilter.ALL.needsSummary());
+        assertFalse(TourFilter.ALL.isGrouped());
+    }
+
+    @Test
+    public void textMatchesPrefixesOfAllWords(){
+        List<String> args = new ArrayList<String>();
+        String where = build(TourFilter.ALL.withText("Lake  Zurich"), args);
+        assertTrue(where.contains("tours_fts MATCH ?"));
+        assertEquals(Collections.singletonList("\"Lake*\" \"Zurich*\""), args);
+    }
+
+    @Test
+    public void textCantUseOperators(){
+        // Neither the words nor the punctuation may turn into FTS-syntax:
+        List<String> args = new ArrayList<String>();
+        build(TourFilter.ALL.withText("morning OR -lake NEAR \"col*\" (a:b)"), args);
+        assertEquals(Collections.singletonList(
+                "\"morning*\" \"OR*\" \"lake*\" \"NEAR*\" \"col*\" \"a*\" \"b*\""
+        ), args);
+    }
+
+    @Test
+    public void textKeepsLettersOfAllLanguages(){
+        List<String> args = new ArrayList<String>();
+        build(TourFilter.ALL.withText("Grossglockner-Hochalpenstra\u00dfe \u00e9tape 2"), args);
+        assertEquals(Collections.singletonList(
+                "\"Grossglockner*\" \"Hochalpenstra\u00dfe*\" \"\u00e9tape*\" \"2*\""
+        ), args);
+    }
+
+    @Test
+    public void emptyTextRemovesTheCriterion(){
+        TourFilter filter = TourFilter.ALL.withText("lake").withText(" ,;- ");
+        List<String> args = new ArrayList<String>();
+        assertEquals("", build(filter, args));
+        assertEquals("", build(TourFilter.ALL.withText(null), args));
+        assertTrue(args.isEmpty());
+    }
+
+    @Test
+    public void dateRangeIsHalfOpen(){
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2015, Calendar.JUNE, 1);
+        Date from = calendar.getTime();
+        calendar.set(2015, Calendar.JULY, 1);
+        Date to = calendar.getTime();
+        List<String> args = new ArrayList<String>();
+        String where = build(TourFilter.ALL.withDateRange(from, to), args);
+        assertEquals(" AND tours.date >= ? AND tours.date < ?", where);
+        assertEquals(Arrays.asList("2015-06-01 00:00:00.000000", "2015-07-01 00:00:00.000000"), args);
+        // Only one bound:
+        args.clear();
+        assertEquals(" AND tours.date < ?", build(TourFilter.ALL.withDateRange(null, to), args));
+        assertEquals(1, args.size());
+    }
+
+    @Test
+    public void rangesNeedTheSummary(){
+        TourFilter filter = TourFilter.ALL.withDistance(10000, -1).withDuration(-1, 3600000);
+        assertTrue(filter.needsSummary());
+        List<String> args = new ArrayList<String>();
+        String where = build(filter, args);
+        assertEquals(" AND tour_summaries.distance >= ? AND tour_summaries.duration <= ?", where);
+        assertEquals(Arrays.asList("10000.0", "3600000"), args);
+    }
+
+    @Test
+    public void clusterAndGrouping(){
+        List<String> args = new ArrayList<String>();
+        String where = build(TourFilter.ALL.withCluster(7), args);
+        assertEquals(" AND tours.cluster_id = ?", where);
+        assertEquals(Collections.singletonList("7"), args);
+        TourFilter grouped = TourFilter.ALL.grouped(true);
+        assertTrue(grouped.isGrouped());
+        args.clear();
+        assertTrue(build(grouped, args).contains("NOT EXISTS"));
+        assertTrue(args.isEmpty());
+        assertEquals("", build(grouped.grouped(false), args));
+    }
+
+    @Test
+    public void filtersAreImmutable(){
+        TourFilter lake = TourFilter.ALL.withText("lake");
+        TourFilter both = lake.withCluster(3).withDistance(5000, 20000);
+        List<String> args = new ArrayList<String>();
+        build(lake, args);
+        assertEquals(1, args.size());
+        args.clear();
+        build(both, args);
+        assertEquals(4, args.size());
+        assertFalse(lake.needsSummary());
+    }
+
+    private static String build(TourFilter filter, List<String> args){
+        StringBuilder where = new StringBuilder();
+        filter.appendTo(where, args);
+        return where.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package org.knuth.biketrack.persistent;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.db.SqliteDatabaseType;
+import com.j256.ormlite.field.DataPersister;
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.FieldConverter;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.table.TableUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.knuth.biketrack.track.Tracks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link TourSearch} against an in-memory SQLite database, created like the
+ *  {@link DatabaseHelper} creates it on the device.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TourSearchTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long START = 1420070400000L; // 2015-01-01
+    private static final String[] PLACES = {
+            "Zurich", "Uetliberg", "Winterthur", "Baden", "Zug", "Luzern", "Rapperswil", "Greifensee"
+    };
+
+    private JdbcConnectionSource source;
+    private Dao<Tour, Integer> tours;
+    private Dao<TourSummary, Integer> summaries;
+    private TourSearch search;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        source = new JdbcConnectionSource("jdbc:sqlite::memory:", new AndroidLikeDatabaseType());
+        TableUtils.createTable(source, Tour.class);
+        TableUtils.createTable(source, TourSummary.class);
+        tours = DaoManager.createDao(source, Tour.class);
+        summaries = DaoManager.createDao(source, TourSummary.class);
+        TourSearch.createIndex(tours);
+        TourSearch.createSummaryIndex(summaries);
+        tours.executeRaw("CREATE INDEX tours_cluster_idx ON tours (cluster_id, date)");
+        search = new TourSearch(tours);
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        DaoManager.clearCache();
+        source.close();
+    }
+
+    @Test
+    public void matchesPrefixesOfAllWords() throws SQLException {
+        Tour lake = addTour(START, "Evening ride around the lake", "Zurich", "Rapperswil");
+        Tour hill = addTour(START + DAY, "Up the hill", "Zurich", "Uetliberg");
+        addTour(START + 2 * DAY, "Commute", "Baden", "Brugg");
+
+        assertEquals(ids(hill, lake), ids(search.search(TourFilter.ALL.withText("zur"), 10)));
+        assertEquals(ids(hill), ids(search.search(TourFilter.ALL.withText("Zurich, uetli"), 10)));
+        assertEquals(ids(lake), ids(search.search(TourFilter.ALL.withText("ride rapp"), 10)));
+        // Prefixes only, and operators are words:
+        assertTrue(search.search(TourFilter.ALL.withText("iberg"), 10).getTours().isEmpty());
+        assertTrue(search.search(TourFilter.ALL.withText("hill OR commute"), 10).getTours().isEmpty());
+        // Renaming updates the index:
+        lake.setTitle("Sunday loop");
+        tours.update(lake);
+        assertEquals(ids(lake), ids(search.search(TourFilter.ALL.withText("sun"), 10)));
+        assertTrue(search.search(TourFilter.ALL.withText("evening"), 10).getTours().isEmpty());
+    }
+
+    @Test
+    public void pagesAcrossEqualDates() throws SQLException {
+        // 25 tours on each of 4 days, so pages end in the middle of a day:
+        for (int i = 0; i < 100; i++) addTour(START + (i % 4) * DAY, "Ride " + i, "Zurich", "Zug");
+        List<Tour> found = new ArrayList<Tour>();
+        TourSearch.Page page = search.search(TourFilter.ALL, 7);
+        int pages = 1;
+        while (page.getNext() != null){
+            assertEquals(7, page.getTours().size());
+            found.addAll(page.getTours());
+            page = search.search(TourFilter.ALL, page.getNext(), 7);
+            pages++;
+        }
+        found.addAll(page.getTours());
+        assertEquals(15, pages);
+        assertEquals(100, found.size());
+        Set<Integer> unique = new HashSet<Integer>();
+        for (int i = 0; i < found.size(); i++){
+            assertTrue(unique.add(found.get(i).getId()));
+            if (i == 0) continue;
+            // Newest first, then by descending id:
+            Tour before = found.get(i - 1);
+            Tour tour = found.get(i);
+            assertTrue(before.getDate().after(tour.getDate())
+                    || (before.getDate().equals(tour.getDate()) && before.getId() > tour.getId()));
+        }
+    }
+
+    @Test
+    public void groupsTheClusters() throws SQLException {
+        Tour first = addTour(START, "Lake", "Zurich", "Rapperswil");
+        Tour second = addTour(START + DAY, "Lake", "Zurich", "Rapperswil");
+        Tour newest = addTour(START + 2 * DAY, "Lake", "Zurich", "Rapperswil");
+        // The same day as the newest ride around the lake, with a bigger id:
+        Tour same_day = addTour(START + 2 * DAY, "Hill", "Zurich", "Uetliberg");
+        Tour hill = addTour(START + DAY, "Hill", "Zurich", "Uetliberg");
+        Tour alone = addTour(START + 3 * DAY, "Commute", "Baden", "Brugg");
+        cluster(1, first, second, newest);
+        cluster(2, hill, same_day);
+        summarize(first, 1000);
+        summarize(second, 2000);
+        summarize(newest, 3000);
+
+        TourSearch.Page page = search.search(TourFilter.ALL.grouped(true), 10);
+        assertEquals(ids(alone, same_day, newest), ids(page));
+        Map<Integer, TourSearch.Group> groups = page.getGroups();
+        assertEquals(2, groups.size());
+        TourSearch.Group lake = groups.get(1);
+        assertEquals(3, lake.getCount());
+        assertTrue(lake.getDistance() > 0);
+        assertTrue(lake.getBestDuration() > 0);
+        // Neither tour of the second cluster is summarized:
+        assertEquals(2, groups.get(2).getCount());
+        assertEquals(0, groups.get(2).getDistance(), 0);
+        assertEquals(-1, groups.get(2).getBestDuration());
+
+        // Ungrouped, there are no totals:
+        page = search.search(TourFilter.ALL.withCluster(1), 10);
+        assertEquals(ids(newest, second, first), ids(page));
+        assertTrue(page.getGroups().isEmpty());
+        // Only summarized tours have a distance:
+        page = search.search(TourFilter.ALL.withDistance(0, -1), 10);
+        assertEquals(3, page.getTours().size());
+    }
+
+    @Test
+    public void searchAsYouTypeBenchmark() throws Exception {
+        TransactionManager.callInTransaction(source, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < 10000; i++){
+                    addTour(START + (i / 3) * DAY, "Ride number " + i,
+                            PLACES[i % PLACES.length], PLACES[(i / PLACES.length) % PLACES.length]);
+                }
+                return null;
+            }
+        });
+        String typed = "Greifensee number 12";
+        for (int i = 0; i < 20; i++) search.search(TourFilter.ALL.withText(typed), TourSearch.DEFAULT_PAGE_SIZE);
+        long start = System.nanoTime();
+        TourSearch.Page page = null;
+        for (int length = 1; length <= typed.length(); length++){
+            page = search.search(TourFilter.ALL.withText(typed.substring(0, length)), TourSearch.DEFAULT_PAGE_SIZE);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / typed.length();
+        assertNotNull(page);
+        assertFalse(page.getTours().isEmpty());
+        assertNull(page.getNext());
+        // Every key-stroke searches again, the list must keep up:
+        assertTrue("Took " + millis + "ms per search", millis < 50);
+    }
+
+    private Tour addTour(long date, String title, String from, String to) throws SQLException {
+        Tour tour = new Tour(new Date(date));
+        tour.setTitle(title);
+        tour.setFirstLocation(from);
+        tour.setSecondLocation(to);
+        tours.create(tour);
+        return tour;
+    }
+
+    private void cluster(int cluster_id, Tour... clustered) throws SQLException {
+        for (Tour tour : clustered){
+            tours.executeRaw("UPDATE tours SET cluster_id = ? WHERE id = ?",
+                    String.valueOf(cluster_id), String.valueOf(tour.getId()));
+        }
+    }
+
+    private void summarize(Tour tour, double length) throws SQLException {
+        double[][] points = Tracks.walk(47.37, 8.54, new double[]{0, length}, new double[]{0, 0}, 10);
+        summaries.create(TourSummary.of(tour.getId(), Tracks.of(points, tour.getDate().getTime(), 2000)));
+    }
+
+    private static List<Integer> ids(Tour... expected){
+        List<Integer> ids = new ArrayList<Integer>(expected.length);
+        for (Tour tour : expected) ids.add(tour.getId());
+        return ids;
+    }
+
+    private static List<Integer> ids(TourSearch.Page page){
+        return ids(page.getTours().toArray(new Tour[page.getTours().size()]));
+    }
+
+    /**
+     * Stores dates as text, like ORMLite does on Android. The {@link TourFilter} relies on it.
+     */
+    private static class AndroidLikeDatabaseType extends SqliteDatabaseType {
+        @Override
+        public FieldConverter getFieldConverter(DataPersister persister) {
+            switch (persister.getSqlType()){
+                case DATE:
+                    return DataType.DATE_STRING.getDataPersister();
+                default:
+                    return super.getFieldConverter(persister);
+            }
+        }
+    }
+}
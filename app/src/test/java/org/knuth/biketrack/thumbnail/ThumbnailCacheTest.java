@@ -0,0 +1,123 @@
+package org.knuth.biketrack.thumbnail;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests both levels of the {@link ThumbnailCache}, with a fresh cache standing in for a
+ *  new process.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ThumbnailCacheTest {
+
+    private ThumbnailCache cache;
+
+    @Before
+    public void createCache(){
+        cache = new ThumbnailCache(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void hitsInMemory(){
+        Bitmap thumbnail = render();
+        assertNull(cache.getCached(1));
+        cache.put(1, thumbnail);
+        assertSame(thumbnail, cache.getCached(1));
+        assertSame(thumbnail, cache.get(1));
+        assertNull(cache.getCached(2));
+    }
+
+    @Test
+    public void hitsOnDisk(){
+        cache.put(1, render());
+        assertEquals(1, thumbnailFiles().length);
+        // Like after a restart of the app:
+        ThumbnailCache restarted = new ThumbnailCache(RuntimeEnvironment.application);
+        assertNull(restarted.getCached(1));
+        Bitmap thumbnail = restarted.get(1);
+        assertNotNull(thumbnail);
+        // ... and it's in memory from now on:
+        assertSame(thumbnail, restarted.getCached(1));
+        assertNull(restarted.get(2));
+    }
+
+    @Test
+    public void invalidatesBothLevels(){
+        cache.put(1, render());
+        cache.put(2, render());
+        cache.invalidate(1);
+        assertNull(cache.getCached(1));
+        assertNull(cache.get(1));
+        assertNull(new ThumbnailCache(RuntimeEnvironment.application).get(1));
+        assertEquals(1, thumbnailFiles().length);
+        // The other tour is still there:
+        assertNotNull(cache.getCached(2));
+    }
+
+    @Test
+    public void trimmingKeepsTheDisk(){
+        cache.put(1, render());
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertNull(cache.getCached(1));
+        assertNotNull(cache.get(1));
+    }
+
+    @Test
+    public void hidingTheUiHalvesTheMemory(){
+        // More thumbnails of 64kB than fit into the memory:
+        int count = 1000;
+        ThumbnailCache untrimmed = new ThumbnailCache(RuntimeEnvironment.application);
+        for (int tour_id = 0; tour_id < count; tour_id++){
+            cache.put(tour_id, render(128));
+            untrimmed.put(tour_id, render(128));
+        }
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        int full = countCached(untrimmed, count);
+        int kept = countCached(cache, count);
+        assertTrue(full < count);
+        assertTrue(kept >= full / 2 - 1 && kept <= full / 2);
+        // The most recently used ones are kept:
+        for (int tour_id = count - kept; tour_id < count; tour_id++) assertNotNull(cache.getCached(tour_id));
+    }
+
+    private static int countCached(ThumbnailCache cache, int count){
+        int cached = 0;
+        for (int tour_id = 0; tour_id < count; tour_id++){
+            if (cache.getCached(tour_id) != null) cached++;
+        }
+        return cached;
+    }
+
+    private static Bitmap render(){
+        return render(48);
+    }
+
+    private static Bitmap render(int size){
+        return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    }
+
+    private static File[] thumbnailFiles(){
+        File[] files = new File(RuntimeEnvironment.application.getCacheDir(), "thumbnails").listFiles();
+        assertNotNull(files);
+        for (File file : files) assertTrue(file.getName().endsWith(".png"));
+        return files;
+    }
+}
@@ -0,0 +1,172 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the sliding windows of the {@link BestEfforts} against checking every window, and
+ *  the longest climb on synthetic profiles.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class BestEffortsTest {
+
+    /** The distance (in meters) between the points of the synthetic rides */
+    private static final double STEP = 5;
+
+    @Test
+    public void fastestDistancesMatchEveryWindow(){
+        Track track = randomRide(6000, 42);
+        List<BestEfforts.Effort> efforts = BestEfforts.find(track);
+        double[] d = track.getDistances();
+        long[] t = track.getTimes();
+        for (BestEfforts.Kind kind : BestEfforts.Kind.values()){
+            if (!kind.isTime()) continue;
+            BestEfforts.Effort effort = find(efforts, kind);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < d.length; i++){
+                for (int j = i + 1; j < d.length; j++){
+                    if (d[j] - d[i] >= kind.getDistance()){
+                        best = Math.min(best, t[j] - t[i]);
+                        break;
+                    }
+                }
+            }
+            if (best == Long.MAX_VALUE){
+                // The ride is 30km long:
+                assertTrue(kind.getDistance() > d[d.length - 1]);
+                assertNull(effort);
+                continue;
+            }
+            assertNotNull(kind.toString(), effort);
+            assertEquals(kind.toString(), best, effort.getValue(), 0);
+            assertEquals(t[effort.getEndIndex()] - t[effort.getStartIndex()], best);
+            assertTrue(d[effort.getEndIndex()] - d[effort.getStartIndex()] >= kind.getDistance());
+            assertEquals(t[effort.getStartIndex()], effort.getStartTime());
+        }
+    }
+
+    @Test
+    public void sustainedSpeedMatchesEveryWindow(){
+        Track track = randomRide(6000, 7);
+        double[] d = track.getDistances();
+        long[] t = track.getTimes();
+        // The shortest window ending at every point, which is held for long enough:
+        double best = -1;
+        for (int j = 0; j < d.length; j++){
+            for (int i = j - 1; i >= 0; i--){
+                if (t[j] - t[i] >= BestEfforts.SUSTAINED_WINDOW){
+                    best = Math.max(best, (d[j] - d[i]) / ((t[j] - t[i]) / 1000.0));
+                    break;
+                }
+            }
+        }
+        BestEfforts.Effort effort = find(BestEfforts.find(track), BestEfforts.Kind.SUSTAINED_SPEED);
+        assertNotNull(effort);
+        assertEquals(best, effort.getValue(), 1e-9);
+        assertTrue(t[effort.getEndIndex()] - t[effort.getStartIndex()] >= BestEfforts.SUSTAINED_WINDOW);
+    }
+
+    @Test
+    public void shortRideHasNoSustainedSpeed(){
+        // 4 minutes at 5m/s:
+        Track track = Tracks.east(STEP, intervals(241, 1000), new double[241]);
+        List<BestEfforts.Effort> efforts = BestEfforts.find(track);
+        assertNull(find(efforts, BestEfforts.Kind.SUSTAINED_SPEED));
+        assertNotNull(find(efforts, BestEfforts.Kind.DISTANCE_1K));
+        assertNull(find(efforts, BestEfforts.Kind.DISTANCE_5K));
+        assertEquals(200 * 1000, find(efforts, BestEfforts.Kind.DISTANCE_1K).getValue(), 0);
+    }
+
+    @Test
+    public void dropEndsTheClimb(){
+        // Up 100m, down 30m, up 60m:
+        double[] alt = profile(new double[]{0, 1000, 3000, 3500, 3800, 5000, 6500},
+                new double[]{500, 500, 600, 600, 570, 630, 630});
+        BestEfforts.Effort climb = find(BestEfforts.find(Tracks.east(STEP, intervals(alt.length, 1000), alt)),
+                BestEfforts.Kind.CLIMB);
+        assertNotNull(climb);
+        assertEquals(100, climb.getValue(), 2);
+        // From the valley to the top, where the smoothed altitude stops rising:
+        assertTrue(climb.getStartIndex() * STEP <= 1000);
+        assertEquals(3500, climb.getEndIndex() * STEP, 100);
+    }
+
+    @Test
+    public void smallDipsDontEndTheClimb(){
+        // Up 100m, down 6m, up 50m:
+        double[] alt = profile(new double[]{0, 1000, 3000, 3100, 4000, 5000}, new double[]{500, 500, 600, 594, 644, 644});
+        BestEfforts.Effort climb = find(BestEfforts.find(Tracks.east(STEP, intervals(alt.length, 1000), alt)),
+                BestEfforts.Kind.CLIMB);
+        assertNotNull(climb);
+        assertEquals(144, climb.getValue(), 3);
+    }
+
+    @Test
+    public void noiseIsNoClimb(){
+        Random random = new Random(42);
+        double[] alt = new double[2001];
+        for (int i = 0; i < alt.length; i++) alt[i] = 500 + random.nextGaussian() * 3;
+        BestEfforts.Effort climb = find(BestEfforts.find(Tracks.east(STEP, intervals(alt.length, 1000), alt)),
+                BestEfforts.Kind.CLIMB);
+        assertNotNull(climb);
+        assertTrue(climb.getValue() < BestEfforts.CLIMB_TOLERANCE);
+    }
+
+    @Test
+    public void emptyTrackHasNoEfforts(){
+        assertTrue(BestEfforts.find(Track.EMPTY).isEmpty());
+    }
+
+    /**
+     * A flat ride of the given number of points, changing its speed between 3 and 15m/s
+     *  every few hundred meters.
+     */
+    private static Track randomRide(int size, long seed){
+        Random random = new Random(seed);
+        long[] intervals = new long[size];
+        long interval = 1000;
+        for (int i = 1; i < size; i++){
+            if (random.nextInt(60) == 0) interval = (long) (STEP * 1000 / (3 + random.nextDouble() * 12));
+            intervals[i] = interval;
+        }
+        return Tracks.east(STEP, intervals, new double[size]);
+    }
+
+    private static long[] intervals(int size, long interval){
+        long[] intervals = new long[size];
+        for (int i = 1; i < size; i++) intervals[i] = interval;
+        return intervals;
+    }
+
+    /**
+     * The altitudes of the points of a ride, interpolated between the given distances.
+     */
+    private static double[] profile(double[] distances, double[] altitudes){
+        int size = (int) (distances[distances.length - 1] / STEP) + 1;
+        double[] alt = new double[size];
+        int k = 0;
+        for (int i = 0; i < size; i++){
+            double at = i * STEP;
+            while (k < distances.length - 2 && at > distances[k + 1]) k++;
+            double t = (at - distances[k]) / (distances[k + 1] - distances[k]);
+            alt[i] = altitudes[k] + t * (altitudes[k + 1] - altitudes[k]);
+        }
+        return alt;
+    }
+
+    private static BestEfforts.Effort find(List<BestEfforts.Effort> efforts, BestEfforts.Kind kind){
+        for (BestEfforts.Effort effort : efforts){
+            if (effort.getKind() == kind) return effort;
+        }
+        return null;
+    }
+}
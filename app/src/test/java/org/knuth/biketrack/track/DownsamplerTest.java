@@ -0,0 +1,100 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link Downsampler} keeps the shape of a series, and how fast it is.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class DownsamplerTest {
+
+    @Test
+    public void shortSeriesIsKept(){
+        double[] x = {0, 1, 2, 3};
+        double[] y = {5, 1, 7, 2};
+        assertArrayEquals(new int[]{0, 1, 2, 3}, Downsampler.largestTriangleThreeBuckets(x, y, 10));
+        assertArrayEquals(new int[]{0, 1, 2, 3}, Downsampler.largestTriangleThreeBuckets(x, y, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholdMustBeThree(){
+        Downsampler.largestTriangleThreeBuckets(new double[10], new double[10], 2);
+    }
+
+    @Test
+    public void keepsTheThresholdInOrder(){
+        double[][] series = noise(10007, 42);
+        int[] kept = Downsampler.largestTriangleThreeBuckets(series[0], series[1], 500);
+        assertEquals(500, kept.length);
+        assertEquals(0, kept[0]);
+        assertEquals(10006, kept[kept.length - 1]);
+        for (int i = 1; i < kept.length; i++) assertTrue(kept[i] > kept[i - 1]);
+    }
+
+    @Test
+    public void keepsThePeaks(){
+        double[][] series = noise(100000, 7);
+        int[] peaks = {1234, 25000, 50001, 77777, 99000};
+        for (int peak : peaks) series[1][peak] = peak % 2 == 0 ? 100 : -100;
+        int[] kept = Downsampler.largestTriangleThreeBuckets(series[0], series[1], 300);
+        for (int peak : peaks){
+            boolean found = false;
+            for (int index : kept) found |= index == peak;
+            assertTrue("Lost the peak at " + peak, found);
+        }
+    }
+
+    @Test
+    public void keepsTheRange(){
+        // A climb and descent: the top must survive, even if it's only in one bucket.
+        int size = 50000;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++){
+            x[i] = i * 5;
+            y[i] = 400 + 300 * Math.sin(i * Math.PI / size) + Math.sin(i * 0.37);
+        }
+        int[] kept = Downsampler.largestTriangleThreeBuckets(x, y, 100);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int index : kept) max = Math.max(max, y[index]);
+        double real_max = Double.NEGATIVE_INFINITY;
+        for (double value : y) real_max = Math.max(real_max, value);
+        assertEquals(real_max, max, 2);
+    }
+
+    @Test
+    public void millionPointsBenchmark(){
+        double[][] series = noise(1000000, 1);
+        // Warm up the JIT:
+        for (int i = 0; i < 5; i++) Downsampler.largestTriangleThreeBuckets(series[0], series[1], 1000);
+        int runs = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) Downsampler.largestTriangleThreeBuckets(series[0], series[1], 1000);
+        double millis = (System.nanoTime() - start) / 1e6 / runs;
+        System.out.println("Downsampler: 1M points to 1000 in " + String.format("%.1f", millis) + "ms");
+        // It's a single pass, anything close to a second means something went quadratic:
+        assertTrue(millis < 1000);
+    }
+
+    /**
+     * A series of evenly spaced, noisy values.
+     */
+    private static double[][] noise(int size, long seed){
+        Random random = new Random(seed);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++){
+            x[i] = i;
+            y[i] = random.nextGaussian();
+        }
+        return new double[][]{x, y};
+    }
+}
@@ -0,0 +1,158 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the hysteresis and the detection of climbs of the {@link ElevationProcessor} on
+ *  synthetic profiles, with a point every 5 meters and every second.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class ElevationProcessorTest {
+
+    private static final double STEP = 5;
+
+    @Test
+    public void noiseIsNoAscent(){
+        Random random = new Random(42);
+        ElevationProcessor processor = new ElevationProcessor();
+        double raw_ascent = 0;
+        double last = 500;
+        for (int i = 0; i < 4000; i++){
+            double altitude = 500 + random.nextGaussian() * 3;
+            raw_ascent += Math.max(0, altitude - last);
+            last = altitude;
+            processor.add(i * STEP, i * 1000L, altitude);
+        }
+        // Without smoothing and hysteresis, it would be kilometers:
+        assertTrue(raw_ascent > 5000);
+        assertTrue(processor.getAscent() < 2 * HYSTERESIS);
+        assertTrue(processor.getDescent() < 2 * HYSTERESIS);
+        assertTrue(processor.getClimbs().isEmpty());
+    }
+
+    @Test
+    public void hysteresisIgnoresSmallWaves(){
+        // Rolling by 4m, which is below the hysteresis:
+        ElevationProcessor small = wave(2);
+        assertEquals(0, small.getAscent(), 0);
+        assertEquals(0, small.getDescent(), 0);
+        // Rolling by 20m is counted, in steps of the hysteresis:
+        ElevationProcessor big = wave(10);
+        assertTrue(big.getAscent() >= 10 * HYSTERESIS);
+        assertTrue(big.getAscent() <= 10 * 20);
+        assertEquals(big.getAscent(), big.getDescent(), 2 * HYSTERESIS);
+    }
+
+    @Test
+    public void ascentAndDescentOfAHill(){
+        ElevationProcessor processor = process(new double[]{0, 500, 2500, 3000, 5000, 6000},
+                new double[]{500, 500, 600, 600, 500, 500});
+        assertEquals(100, processor.getAscent(), HYSTERESIS);
+        assertEquals(100, processor.getDescent(), HYSTERESIS);
+        // 5% up and down, the rest is flat:
+        assertEquals(2000, processor.getDistance(ElevationProcessor.Gradient.UPHILL), 300);
+        assertEquals(2000, processor.getDistance(ElevationProcessor.Gradient.DOWNHILL), 300);
+        double total = 0;
+        for (ElevationProcessor.Gradient gradient : ElevationProcessor.Gradient.values()){
+            total += processor.getDistance(gradient);
+        }
+        assertEquals(6000, total, ElevationProcessor.GRADIENT_DISTANCE);
+    }
+
+    @Test
+    public void dropEndsTheClimb(){
+        // Up 100m, down 25m, up 60m:
+        ElevationProcessor processor = process(new double[]{0, 500, 2500, 3000, 3300, 4100, 5100},
+                new double[]{500, 500, 600, 600, 575, 635, 635});
+        List<ElevationProcessor.Climb> climbs = processor.getClimbs();
+        assertEquals(2, climbs.size());
+        ElevationProcessor.Climb first = climbs.get(0);
+        assertEquals(100, first.getGain(), HYSTERESIS + 1);
+        // It starts once the altitude left the valley by the hysteresis:
+        assertTrue(first.getStartDistance() > 500 && first.getStartDistance() < 750);
+        // The top is where the smoothing catches up with the plateau:
+        assertTrue(first.getEndDistance() > 2500 && first.getEndDistance() <= 3000 + STEP);
+        assertEquals(0.05, first.getMaxGradient(), 0.01);
+        assertEquals(first.getStartTime() + (long) (first.getLength() / STEP * 1000), first.getEndTime(), 1000);
+        ElevationProcessor.Climb second = climbs.get(1);
+        assertTrue(second.getStartDistance() >= 3300);
+        assertEquals(60, second.getGain(), 2 * HYSTERESIS);
+    }
+
+    @Test
+    public void smallDropDoesntEndTheClimb(){
+        // Up 100m, down 8m, up 50m:
+        ElevationProcessor processor = process(new double[]{0, 500, 2500, 2800, 3800, 4800},
+                new double[]{500, 500, 600, 592, 642, 642});
+        List<ElevationProcessor.Climb> climbs = processor.getClimbs();
+        assertEquals(1, climbs.size());
+        assertEquals(142, climbs.get(0).getGain(), HYSTERESIS + 1);
+    }
+
+    @Test
+    public void tooSmallOrTooFlatIsNoClimb(){
+        // 15m at 5%:
+        assertTrue(process(new double[]{0, 500, 800, 2000}, new double[]{500, 500, 515, 515}).getClimbs().isEmpty());
+        // 30m at 1.5%:
+        assertTrue(process(new double[]{0, 500, 2500, 3500}, new double[]{500, 500, 530, 530}).getClimbs().isEmpty());
+    }
+
+    @Test
+    public void climbsSurviveBeingStored() throws IOException {
+        List<ElevationProcessor.Climb> climbs = process(new double[]{0, 500, 2500, 3000, 3300, 4100, 5100},
+                new double[]{500, 500, 600, 600, 575, 635, 635}).getClimbs();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ElevationProcessor.writeClimbs(climbs, new DataOutputStream(bytes));
+        List<ElevationProcessor.Climb> read = ElevationProcessor.readClimbs(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(climbs.size(), read.size());
+        for (int i = 0; i < climbs.size(); i++){
+            assertEquals(climbs.get(i).getStartDistance(), read.get(i).getStartDistance(), 0);
+            assertEquals(climbs.get(i).getEndTime(), read.get(i).getEndTime());
+            assertEquals(climbs.get(i).getGain(), read.get(i).getGain(), 0.001);
+        }
+    }
+
+    private static final double HYSTERESIS = ElevationProcessor.HYSTERESIS;
+
+    /**
+     * Ride 20km, rolling up and down by the given amplitude, every kilometer.
+     */
+    private static ElevationProcessor wave(double amplitude){
+        ElevationProcessor processor = new ElevationProcessor();
+        for (int i = 0; i < 4001; i++){
+            double distance = i * STEP;
+            processor.add(distance, i * 1000L, 500 + amplitude * Math.sin(distance / 2000 * 2 * Math.PI));
+        }
+        return processor;
+    }
+
+    /**
+     * Ride the profile, with the altitudes interpolated between the given distances.
+     */
+    private static ElevationProcessor process(double[] distances, double[] altitudes){
+        ElevationProcessor processor = new ElevationProcessor();
+        int size = (int) (distances[distances.length - 1] / STEP) + 1;
+        int k = 0;
+        for (int i = 0; i < size; i++){
+            double at = i * STEP;
+            while (k < distances.length - 2 && at > distances[k + 1]) k++;
+            double t = (at - distances[k]) / (distances[k + 1] - distances[k]);
+            processor.add(at, i * 1000L, altitudes[k] + t * (altitudes[k + 1] - altitudes[k]));
+        }
+        return processor;
+    }
+}
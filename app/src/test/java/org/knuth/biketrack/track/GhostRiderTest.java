@@ -0,0 +1,135 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests racing the {@link GhostRider} while tracking and comparing two finished tours.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class GhostRiderTest {
+
+    private static final double LAT = 47.37;
+    private static final double LON = 8.54;
+
+    @Test
+    public void riderAheadOfTheGhost(){
+        Track ghost = ride(301, 10, 5);
+        Track rider = ride(301, 10, 6);
+        GhostRider race = new GhostRider(ghost);
+        double[] distances = ghost.getDistances();
+        for (int i = 0; i < rider.size(); i++){
+            assertTrue(race.update(rider.getLatitudes()[i], rider.getLongitudes()[i], rider.getTimes()[i]));
+            assertEquals(distances[i], race.getMatchedDistance(), 1);
+            // A sixth faster, so the lead grows by a sixth of the ghosts time:
+            assertEquals(-ghost.getTimes()[i] / 6.0, race.getDelta(), 250);
+        }
+        assertTrue(race.getDelta() < -80000);
+    }
+
+    @Test
+    public void offTheRouteKeepsTheDelta(){
+        Track ghost = ride(101, 10, 5);
+        GhostRider race = new GhostRider(ghost);
+        for (int i = 0; i <= 50; i++){
+            assertTrue(race.update(LAT, Tracks.longitude(LAT, LON, i * 10), i * 2200L));
+        }
+        assertEquals(10000, race.getDelta(), 250);
+        // A kilometer north of the route:
+        assertFalse(race.update(Tracks.latitude(LAT, 1000), Tracks.longitude(LAT, LON, 600), 130000));
+        assertEquals(10000, race.getDelta(), 250);
+        assertEquals(ghost.getDistances()[50], race.getMatchedDistance(), 1);
+    }
+
+    @Test
+    public void followsTheWayBack(){
+        // One kilometer east and back on the other side of the road, at 5m/s:
+        int size = 201;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++){
+            lat[i] = i <= 100 ? LAT : Tracks.latitude(LAT, 8);
+            lon[i] = Tracks.longitude(LAT, LON, i <= 100 ? i * 10 : (200 - i) * 10);
+            times[i] = i * 2000L;
+        }
+        Track ghost = Tracks.of(lat, lon, new double[size], times);
+        GhostRider race = new GhostRider(ghost);
+        for (int i = 0; i < size; i++){
+            // The rider takes a second longer for every 100m:
+            assertTrue(race.update(lat[i], lon[i], i * 2100L));
+            assertEquals(ghost.getDistances()[i], race.getMatchedDistance(), 1);
+            assertEquals(i * 100L, race.getDelta(), 250);
+        }
+    }
+
+    @Test
+    public void comparesFinishedTours(){
+        Track reference = ride(301, 10, 5);
+        // Faster, but only rode two thirds of the way:
+        Track tour = ride(201, 10, 6);
+        Profile profile = GhostRider.compare(tour, reference, 100);
+        double[] x = profile.getX();
+        double[] y = profile.getY();
+        assertEquals((int) (tour.getLength() / 100) + 1, profile.size());
+        double tour_speed = speedOf(tour);
+        double reference_speed = speedOf(reference);
+        for (int i = 0; i < profile.size(); i++){
+            assertEquals(i * 100, x[i], 0);
+            assertEquals(x[i] / tour_speed - x[i] / reference_speed, y[i], 0.01);
+        }
+        // Against itself, there's no difference:
+        profile = GhostRider.compare(reference, reference, 33);
+        for (double delta : profile.getY()) assertEquals(0, delta, 1e-9);
+    }
+
+    @Test
+    public void comparesAcrossAStop(){
+        // The reference stands for a minute at 500m, the tour rides through:
+        long[] intervals = new long[101];
+        for (int i = 1; i < intervals.length; i++) intervals[i] = i == 51 ? 62000 : 2000;
+        Track reference = Tracks.east(10, intervals, new double[intervals.length]);
+        Track tour = ride(101, 10, 5);
+        double[] y = GhostRider.compare(tour, reference, 50).getY();
+        for (int i = 0; i < y.length; i++){
+            // Behind the stop, the tour is a minute ahead:
+            assertEquals(i <= 10 ? 0 : -60, y[i], i == 11 ? 60 : 0.1);
+        }
+    }
+
+    @Test
+    public void shortToursHaveNoComparison(){
+        Track single = Tracks.east(10, new long[]{0}, new double[1]);
+        assertEquals(0, GhostRider.compare(single, ride(11, 10, 5), 10).size());
+        assertEquals(0, GhostRider.compare(ride(11, 10, 5), Track.EMPTY, 10).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stepMustBePositive(){
+        GhostRider.compare(ride(11, 10, 5), ride(11, 10, 5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ghostNeedsTwoPoints(){
+        new GhostRider(Tracks.east(10, new long[]{0}, new double[1]));
+    }
+
+    /** The average speed in meters per second */
+    private static double speedOf(Track track){
+        return track.getLength() / (track.getTimes()[track.size() - 1] / 1000.0);
+    }
+
+    /**
+     * A ride to the east with a point every {@code step} meters, at the given speed.
+     */
+    private static Track ride(int size, double step, double speed){
+        long[] intervals = new long[size];
+        for (int i = 1; i < size; i++) intervals[i] = Math.round(step / speed * 1000);
+        return Tracks.east(step, intervals, new double[size]);
+    }
+}
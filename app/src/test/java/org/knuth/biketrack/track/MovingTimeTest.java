@@ -0,0 +1,110 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests telling the moving time from stops with the {@link MovingTime}, point by point.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class MovingTimeTest {
+
+    @Test
+    public void steadyRideIsMoving(){
+        MovingTime moving = new MovingTime();
+        ride(moving, 0, 0, 600, 5);
+        assertEquals(599 * 1000, moving.getElapsedTime());
+        assertEquals(599 * 1000, moving.getMovingTime());
+        assertEquals(5, moving.getAverageSpeed(), 1e-9);
+        assertTrue(moving.getPauses().isEmpty());
+        assertFalse(moving.isPaused());
+    }
+
+    @Test
+    public void longFixGapWhileStandingIsAPause(){
+        MovingTime moving = new MovingTime();
+        double distance = ride(moving, 0, 0, 101, 5);
+        // The receiver didn't report for 5 minutes, the last speed it reports is stale:
+        assertFalse(moving.add(distance + 3, 400 * 1000, 4));
+        assertTrue(moving.isPaused());
+        ride(moving, distance + 3, 400 * 1000, 101, 5);
+        assertEquals(200 * 1000, moving.getMovingTime());
+        List<MovingTime.Pause> pauses = moving.getPauses();
+        assertEquals(1, pauses.size());
+        assertEquals(100 * 1000, pauses.get(0).getStart());
+        assertEquals(400 * 1000, pauses.get(0).getEnd());
+        assertEquals(5, moving.getAverageSpeed(), 0.01);
+    }
+
+    @Test
+    public void longFixGapCoveringTheDistanceIsMoving(){
+        MovingTime moving = new MovingTime();
+        double distance = ride(moving, 0, 0, 101, 5);
+        // Lost the fix in a tunnel for a minute, but rode on:
+        assertTrue(moving.add(distance + 300, 160 * 1000, 0));
+        assertEquals(160 * 1000, moving.getMovingTime());
+        assertTrue(moving.getPauses().isEmpty());
+    }
+
+    @Test
+    public void shortStopIsNoPause(){
+        MovingTime moving = new MovingTime();
+        double distance = ride(moving, 0, 0, 101, 5);
+        // Standing for 5 seconds, the position jitters a bit:
+        for (int i = 1; i <= 5; i++) assertFalse(moving.add(distance + i * 0.1, (100 + i) * 1000, 0.1f));
+        assertFalse(moving.isPaused());
+        ride(moving, distance + 0.5, 105 * 1000, 101, 5);
+        assertEquals(200 * 1000, moving.getMovingTime());
+        assertTrue(moving.getPauses().isEmpty());
+    }
+
+    @Test
+    public void standingStillPausesAfterTheDelay(){
+        MovingTime moving = new MovingTime();
+        double distance = ride(moving, 0, 0, 101, 5);
+        long delay = MovingTime.AUTO_PAUSE_DELAY / 1000;
+        for (int i = 1; i <= 2 * delay; i++){
+            moving.add(distance, (100 + i) * 1000, 0);
+            assertEquals(i >= delay, moving.isPaused());
+        }
+        // The pause which is still going on:
+        List<MovingTime.Pause> pauses = moving.getPauses();
+        assertEquals(1, pauses.size());
+        assertEquals(2 * delay * 1000, pauses.get(0).getDuration());
+    }
+
+    @Test
+    public void reportedSpeedCountsBetweenCloseFixes(){
+        MovingTime moving = new MovingTime();
+        moving.add(0, 0, 0);
+        // Barely moved between the fixes, but the receiver says we're riding:
+        assertTrue(moving.add(0.5, 1000, 4));
+        assertEquals(1000, moving.getMovingTime());
+    }
+
+    @Test
+    public void fixesAtTheSameTimeChangeNothing(){
+        MovingTime moving = new MovingTime();
+        double distance = ride(moving, 0, 0, 11, 5);
+        assertTrue(moving.add(distance + 5, 10 * 1000, 5));
+        assertEquals(10 * 1000, moving.getMovingTime());
+    }
+
+    /**
+     * Ride at the given speed, with a fix every second.
+     * @return the distance at the last point.
+     */
+    private static double ride(MovingTime moving, double distance, long time, int points, double speed){
+        for (int i = 0; i < points; i++){
+            moving.add(distance + i * speed, time + i * 1000, (float) speed);
+        }
+        return distance + (points - 1) * speed;
+    }
+}
@@ -0,0 +1,127 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the segment-trees of the {@link RangeIndex} against walking over the points of the
+ *  range, on tracks of all the sizes which aren't a power of two.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class RangeIndexTest {
+
+    @Test
+    public void allRangesOfSmallTracks(){
+        Random random = new Random(3);
+        for (int size = 1; size <= 33; size++){
+            Track track = random(random, size);
+            RangeIndex index = track.getRangeIndex();
+            for (int from = 0; from < size; from++){
+                for (int to = from; to < size; to++){
+                    assertRange(track, from, to, index.get(from, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void randomRangesOfALongTrack(){
+        Random random = new Random(11);
+        Track track = random(random, 5003);
+        RangeIndex index = track.getRangeIndex();
+        for (int i = 0; i < 2000; i++){
+            int from = random.nextInt(track.size());
+            int to = from + random.nextInt(track.size() - from);
+            assertRange(track, from, to, index.get(from, to));
+        }
+    }
+
+    @Test
+    public void clampsTheIndices(){
+        Track track = random(new Random(5), 100);
+        RangeIndex index = track.getRangeIndex();
+        assertRange(track, 0, 99, index.get(-10, 1000));
+        // An empty range is the single point:
+        assertRange(track, 40, 40, index.get(40, 20));
+    }
+
+    @Test
+    public void widensToTheRecordedPoints(){
+        Track track = random(new Random(9), 100);
+        RangeIndex index = track.getRangeIndex();
+        long[] times = track.getTimes();
+        RangeIndex.Range range = index.byTime(times[10] + 1, times[20] - 1);
+        assertEquals(10, range.getFrom());
+        assertEquals(20, range.getTo());
+        range = index.byTime(times[10], times[20]);
+        assertEquals(10, range.getFrom());
+        assertEquals(20, range.getTo());
+        double[] distances = track.getDistances();
+        range = index.byDistance(distances[30] + 0.1, distances[50] - 0.1);
+        assertEquals(30, range.getFrom());
+        assertEquals(50, range.getTo());
+        // Beyond the track:
+        range = index.byDistance(-100, distances[99] + 100);
+        assertEquals(0, range.getFrom());
+        assertEquals(99, range.getTo());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyTrackHasNoRanges(){
+        Track.EMPTY.getRangeIndex().get(0, 0);
+    }
+
+    private static void assertRange(Track track, int from, int to, RangeIndex.Range range){
+        float[] speeds = track.getSpeeds();
+        double[] altitudes = track.getAltitudes();
+        double[] smoothed = ElevationProcessor.smooth(track.getDistances(), altitudes);
+        float max_speed = Float.NEGATIVE_INFINITY;
+        float min_speed = Float.POSITIVE_INFINITY;
+        double max_altitude = Double.NEGATIVE_INFINITY;
+        double min_altitude = Double.POSITIVE_INFINITY;
+        double ascent = 0;
+        for (int i = from; i <= to; i++){
+            max_speed = Math.max(max_speed, speeds[i]);
+            min_speed = Math.min(min_speed, speeds[i]);
+            max_altitude = Math.max(max_altitude, altitudes[i]);
+            min_altitude = Math.min(min_altitude, altitudes[i]);
+            if (i > from) ascent += Math.max(0, smoothed[i] - smoothed[i - 1]);
+        }
+        String message = from + ".." + to + " of " + track.size();
+        assertEquals(message, from, range.getFrom());
+        assertEquals(message, to, range.getTo());
+        assertEquals(message, max_speed, range.getMaxSpeed(), 0);
+        assertEquals(message, min_speed, range.getMinSpeed(), 0);
+        assertEquals(message, max_altitude, range.getMaxAltitude(), 0);
+        assertEquals(message, min_altitude, range.getMinAltitude(), 0);
+        assertEquals(message, ascent, range.getAscent(), 1e-6);
+        assertEquals(message, track.getDistances()[to] - track.getDistances()[from], range.getDistance(), 1e-9);
+        assertEquals(message, track.getTimes()[to] - track.getTimes()[from], range.getElapsed());
+    }
+
+    /**
+     * A ride to the east at random speeds and altitudes, with a point every second.
+     */
+    private static Track random(Random random, int size){
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        double[] alt = new double[size];
+        long[] times = new long[size];
+        float[] speeds = new float[size];
+        double east = 0;
+        for (int i = 0; i < size; i++){
+            speeds[i] = random.nextFloat() * 15;
+            east += speeds[i];
+            lat[i] = 47.37;
+            lon[i] = Tracks.longitude(47.37, 8.54, east);
+            alt[i] = 400 + random.nextGaussian() * 50;
+            times[i] = i * 1000L;
+        }
+        return new Track(lat, lon, alt, times, speeds);
+    }
+}
@@ -0,0 +1,136 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests finding the efforts on a segment in synthetic tracks.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class SegmentMatcherTest {
+
+    private static final double LAT = 47.37;
+    private static final double LON = 8.54;
+    /** An L-shaped segment: 1km east, then 500m north */
+    private static final double[] EAST = {0, 1000, 1000};
+    private static final double[] NORTH = {0, 0, 500};
+
+    private final double[][] segment = Tracks.walk(LAT, LON, EAST, NORTH, 250);
+    private final SegmentMatcher matcher = new SegmentMatcher(segment[0], segment[1], SegmentMatcher.DEFAULT_CORRIDOR);
+
+    @Test
+    public void lengthOfTheSegment(){
+        // The tests walk on a sphere, the projection uses the ellipsoid:
+        assertEquals(1500, matcher.getLength(), 1500 * 0.005);
+    }
+
+    @Test
+    public void findsTheRide(){
+        // Lead in from the west, ride the segment and ride on to the north:
+        double[][] points = Tracks.walk(LAT, LON, new double[]{-500, 1000, 1000}, new double[]{0, 0, 1000}, 10);
+        Track track = Tracks.of(points, 0, 2000);
+        SegmentMatcher.Effort effort = matcher.match(track);
+        assertNotNull(effort);
+        // 1500m at 10m every 2 seconds:
+        assertEquals(300000, effort.getElapsed(), 2 * 2000);
+        assertEquals(track.getTimes()[effort.getStartIndex()], effort.getStartTime());
+        assertTrue(effort.getEndIndex() > effort.getStartIndex());
+    }
+
+    @Test
+    public void findsTheFastestRide(){
+        double[][] slow = Tracks.walk(LAT, LON, EAST, NORTH, 5);
+        double[][] back = Tracks.walk(LAT, LON, new double[]{1000, 1000, 0}, new double[]{500, 800, 800}, 10);
+        double[][] fast = Tracks.walk(LAT, LON, new double[]{0, 0, 1000, 1000}, new double[]{800, 0, 0, 500}, 20);
+        Track track = Tracks.of(Tracks.join(slow, back, fast), 0, 2000);
+        SegmentMatcher.Effort effort = matcher.match(track);
+        assertNotNull(effort);
+        assertEquals(150000, effort.getElapsed(), 2 * 2000);
+        assertTrue(effort.getStartIndex() > slow[0].length);
+    }
+
+    @Test
+    public void toleratesGpsNoise(){
+        double[][] points = Tracks.walk(LAT, LON, EAST, NORTH, 10);
+        Random random = new Random(42);
+        for (int i = 0; i < points[0].length; i++){
+            points[0][i] += (random.nextDouble() - 0.5) * 20 / Tracks.METERS_PER_DEGREE;
+            points[1][i] += (random.nextDouble() - 0.5) * 20 / Tracks.METERS_PER_DEGREE;
+        }
+        assertNotNull(matcher.match(Tracks.of(points, 0, 2000)));
+    }
+
+    @Test
+    public void parallelRoadIsNoEffort(){
+        double[][] points = Tracks.walk(LAT, LON, new double[]{0, 1100, 1100}, new double[]{-100, -100, 500}, 10);
+        assertNull(matcher.match(Tracks.of(points, 0, 2000)));
+    }
+
+    @Test
+    public void reverseRideIsNoEffort(){
+        double[][] points = Tracks.walk(LAT, LON, new double[]{1000, 1000, 0}, new double[]{500, 0, 0}, 10);
+        assertNull(matcher.match(Tracks.of(points, 0, 2000)));
+    }
+
+    @Test
+    public void shortcutIsNoEffort(){
+        // Starts on the segment, but cuts the corner:
+        double[][] points = Tracks.walk(LAT, LON, new double[]{0, 500, 1000}, new double[]{0, 0, 500}, 10);
+        assertNull(matcher.match(Tracks.of(points, 0, 2000)));
+    }
+
+    @Test
+    public void farAwayTrackIsNoEffort(){
+        double[][] points = Tracks.walk(LAT + 1, LON, EAST, NORTH, 10);
+        assertNull(matcher.match(Tracks.of(points, 0, 2000)));
+        assertNull(matcher.match(Track.EMPTY));
+    }
+
+    @Test
+    public void fiveHundredSegmentsBenchmark(){
+        // A 60km ride back and forth across a 5km wide area, a fix every 5 meters:
+        int legs = 12;
+        double[] east = new double[legs * 2];
+        double[] north = new double[legs * 2];
+        for (int leg = 0; leg < legs; leg++){
+            east[leg * 2] = leg % 2 == 0 ? 0 : 5000;
+            east[leg * 2 + 1] = leg % 2 == 0 ? 5000 : 0;
+            north[leg * 2] = leg * 300;
+            north[leg * 2 + 1] = leg * 300;
+        }
+        double[][] points = Tracks.walk(LAT, LON, east, north, 5);
+        Track track = Tracks.of(points, 0, 1000);
+        // Segments of 1 to 3km along the ride, with a point every 20 meters:
+        Random random = new Random(42);
+        int count = 500;
+        SegmentMatcher[] segments = new SegmentMatcher[count];
+        for (int i = 0; i < count; i++){
+            int length = 200 + random.nextInt(400);
+            int from = random.nextInt(points[0].length - length);
+            double[] lat = new double[length / 4 + 1];
+            double[] lon = new double[lat.length];
+            for (int p = 0; p < lat.length; p++){
+                lat[p] = points[0][from + p * 4];
+                lon[p] = points[1][from + p * 4];
+            }
+            segments[i] = new SegmentMatcher(lat, lon, SegmentMatcher.DEFAULT_CORRIDOR);
+        }
+        for (int i = 0; i < 50; i++) segments[i].match(track);
+        long start = System.nanoTime();
+        SegmentMatcher.Effort[] efforts = new SegmentMatcher.Effort[count];
+        for (int i = 0; i < count; i++) efforts[i] = segments[i].match(track);
+        double millis = (System.nanoTime() - start) / 1e6;
+        // Every segment was ridden:
+        assertEquals(-1, Arrays.asList(efforts).indexOf(null));
+        assertTrue("Took " + millis + "ms", millis < 1000);
+    }
+}
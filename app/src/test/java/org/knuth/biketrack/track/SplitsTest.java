@@ -0,0 +1,135 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the interpolation at the boundaries of the {@link Splits} and the last, partial split.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class SplitsTest {
+
+    /** Ten points 350m apart, riding slower on every stretch, climbing 10m per stretch */
+    private static final Track RIDE = Tracks.east(350,
+            new long[]{0, 50000, 60000, 70000, 80000, 90000, 100000, 110000, 120000, 130000},
+            new double[]{400, 410, 420, 430, 440, 450, 460, 470, 480, 490}
+    );
+
+    @Test
+    public void interpolatesAtTheBoundaries(){
+        List<Splits.Split> splits = Splits.byDistance(RIDE, 1000);
+        double[] distances = RIDE.getDistances();
+        long[] times = RIDE.getTimes();
+        // The first kilometer ends between the points 2 and 3, the second between 5 and 6:
+        double fraction = (1000 - distances[2]) / (distances[3] - distances[2]);
+        assertEquals(times[2] + fraction * (times[3] - times[2]), splits.get(0).getElapsed(), 1);
+        assertEquals(20 + fraction * 10, splits.get(0).getElevation(), 1e-6);
+        fraction = (2000 - distances[5]) / (distances[6] - distances[5]);
+        long end = Math.round(times[5] + fraction * (times[6] - times[5]));
+        assertEquals(end, splits.get(2).getStartTime(), 1);
+        for (int i = 0; i < 3; i++){
+            assertEquals(i * 1000, splits.get(i).getStartDistance(), 1e-6);
+            assertEquals(1000, splits.get(i).getLength(), 1e-6);
+        }
+    }
+
+    @Test
+    public void lastSplitIsPartial(){
+        List<Splits.Split> splits = Splits.byDistance(RIDE, 1000);
+        assertEquals(4, splits.size());
+        Splits.Split last = splits.get(3);
+        assertEquals(RIDE.getLength() - 3000, last.getLength(), 1e-6);
+        assertTrue(last.getLength() > 0 && last.getLength() < 1000);
+        assertEquals(RIDE.getTimes()[9], last.getStartTime() + last.getElapsed());
+        // Just riding a bit slower than on the stretch before:
+        assertTrue(last.getSpeed() < splits.get(2).getSpeed());
+        // Longer than the track, there is just the partial split:
+        splits = Splits.byDistance(RIDE, 5000);
+        assertEquals(1, splits.size());
+        assertEquals(RIDE.getLength(), splits.get(0).getLength(), 1e-6);
+    }
+
+    @Test
+    public void splitsAddUpToTheTrack(){
+        for (double length : new double[]{100, 333, 700, 1609.344}){
+            double distance = 0;
+            long elapsed = 0;
+            double elevation = 0;
+            long time = RIDE.getTimes()[0];
+            for (Splits.Split split : Splits.byDistance(RIDE, length)){
+                assertEquals(distance, split.getStartDistance(), 1e-6);
+                assertEquals(time, split.getStartTime());
+                distance += split.getLength();
+                elapsed += split.getElapsed();
+                elevation += split.getElevation();
+                time = split.getStartTime() + split.getElapsed();
+            }
+            assertEquals(RIDE.getLength(), distance, 1e-6);
+            assertEquals(RIDE.getTimes()[9], elapsed);
+            assertEquals(90, elevation, 1e-6);
+        }
+    }
+
+    @Test
+    public void splitsAtTheLaps(){
+        long[] times = RIDE.getTimes();
+        // Before the start and after the end are ignored, as are laps on the first point:
+        long lap = (times[4] + times[5]) / 2;
+        List<Splits.Split> splits = Splits.byTime(RIDE, new long[]{-1000, 0, lap, times[9] + 1000});
+        assertEquals(2, splits.size());
+        assertEquals(lap, splits.get(0).getElapsed());
+        assertEquals(lap, splits.get(1).getStartTime());
+        double[] distances = RIDE.getDistances();
+        assertEquals((distances[4] + distances[5]) / 2, splits.get(0).getLength(), 1e-6);
+        assertEquals(45, splits.get(0).getElevation(), 1e-6);
+        // A lap on a recorded point:
+        splits = Splits.byTime(RIDE, new long[]{times[3]});
+        assertEquals(distances[3], splits.get(0).getLength(), 1e-9);
+        assertEquals(30, splits.get(0).getElevation(), 1e-9);
+    }
+
+    @Test
+    public void shortTracksHaveNoSplits(){
+        assertTrue(Splits.byDistance(Track.EMPTY, 1000).isEmpty());
+        Track single = Tracks.east(10, new long[]{0}, new double[]{0});
+        assertTrue(Splits.byDistance(single, 1000).isEmpty());
+        assertTrue(Splits.byTime(single, new long[]{0}).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengthMustBePositive(){
+        Splits.byDistance(RIDE, 0);
+    }
+
+    @Test
+    public void survivesBeingStored() throws IOException {
+        List<Splits.Split> splits = Splits.byDistance(RIDE, 1000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Splits.write(splits, new DataOutputStream(bytes));
+        List<Splits.Split> read = Splits.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(splits.size(), read.size());
+        for (int i = 0; i < splits.size(); i++){
+            Splits.Split split = splits.get(i);
+            Splits.Split stored = read.get(i);
+            assertEquals(split.getStartDistance(), stored.getStartDistance(), 0);
+            assertEquals(split.getLength(), stored.getLength(), 0);
+            assertEquals(split.getStartTime(), stored.getStartTime());
+            assertEquals(split.getElapsed(), stored.getElapsed());
+            // The elevation is stored as a float:
+            assertEquals(split.getElevation(), stored.getElevation(), 1e-4);
+        }
+        // No splits at all:
+        assertEquals(0, Splits.read(new DataInputStream(new ByteArrayInputStream(new byte[4]))).size());
+    }
+}
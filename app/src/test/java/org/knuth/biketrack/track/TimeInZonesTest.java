@@ -0,0 +1,181 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link ZoneHistogram}s and the time in zones measured on synthetic tracks.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TimeInZonesTest {
+
+    @Test
+    public void zonesOfTheEdges(){
+        ZoneHistogram histogram = new ZoneHistogram(1, 2, 3);
+        assertEquals(4, histogram.size());
+        assertEquals(0, histogram.zoneOf(0.5));
+        // A value on an edge belongs to the zone above:
+        assertEquals(1, histogram.zoneOf(1));
+        assertEquals(3, histogram.zoneOf(100));
+        assertEquals(Double.NEGATIVE_INFINITY, histogram.getFrom(0), 0);
+        assertEquals(3, histogram.getFrom(3), 0);
+        assertEquals(Double.POSITIVE_INFINITY, histogram.getTo(3), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void edgesMustBeAscending(){
+        new ZoneHistogram(1, 1, 2);
+    }
+
+    @Test
+    public void mergeAddsTheTimes() throws IOException {
+        ZoneHistogram a = new ZoneHistogram(1, 2);
+        a.add(0, 1000);
+        a.add(1.5, 2000);
+        ZoneHistogram b = new ZoneHistogram(1, 2);
+        b.add(1.5, 500);
+        b.add(5, 4000);
+        a.merge(b);
+        assertEquals(1000, a.getTime(0));
+        assertEquals(2500, a.getTime(1));
+        assertEquals(4000, a.getTime(2));
+        assertEquals(7500, a.getTotal());
+        // ... and survives being stored:
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.write(new DataOutputStream(bytes));
+        ZoneHistogram read = ZoneHistogram.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(a.size(), read.size());
+        for (int zone = 0; zone < a.size(); zone++) assertEquals(a.getTime(zone), read.getTime(zone));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeNeedsTheSameEdges(){
+        new ZoneHistogram(1, 2).merge(new ZoneHistogram(1, 3));
+    }
+
+    @Test
+    public void speedZonesOfAFlatRide(){
+        // 10 minutes at 18km/h (5m every second), then 10 minutes at 27km/h:
+        int size = 1201;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        double east = 0;
+        for (int i = 0; i < size; i++){
+            if (i > 0) east += i <= 600 ? 5 : 7.5;
+            lat[i] = 47.37;
+            lon[i] = Tracks.longitude(47.37, 8.54, east);
+        }
+        TimeInZones zones = TimeInZones.of(Tracks.of(lat, lon, new double[size], 0, 1000));
+        ZoneHistogram speed = zones.getSpeed();
+        assertEquals(1200 * 1000, speed.getTotal());
+        assertEquals(600 * 1000, speed.getTime(speed.zoneOf(18 / 3.6)), 2000);
+        assertEquals(600 * 1000, speed.getTime(speed.zoneOf(27 / 3.6)), 2000);
+        // Flat all the way:
+        ZoneHistogram gradient = zones.getGradient();
+        int flat = gradient.zoneOf(0);
+        assertEquals(gradient.getTotal(), gradient.getTime(flat));
+    }
+
+    @Test
+    public void standingStillDoesntCount(){
+        int size = 400;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        double east = 0;
+        for (int i = 0; i < size; i++){
+            // Waits from the 100th to the 300th second:
+            if (i > 0 && (i <= 100 || i > 300)) east += 5;
+            lat[i] = 47.37;
+            lon[i] = Tracks.longitude(47.37, 8.54, east);
+        }
+        TimeInZones zones = TimeInZones.of(Tracks.of(lat, lon, new double[size], 0, 1000));
+        assertEquals(199 * 1000, zones.getSpeed().getTotal(), 2000);
+    }
+
+    @Test
+    public void gradientZonesOfAClimb(){
+        // 2km at 4% up and 2km at 4% down, with GPS-noise on the altitudes:
+        Random random = new Random(42);
+        int size = 801;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        double[] alt = new double[size];
+        for (int i = 0; i < size; i++){
+            double east = i * 5;
+            lat[i] = 47.37;
+            lon[i] = Tracks.longitude(47.37, 8.54, east);
+            alt[i] = 500 + 0.04 * Math.min(east, 4000 - east) + random.nextGaussian() * 3;
+        }
+        TimeInZones zones = TimeInZones.of(Tracks.of(lat, lon, alt, 0, 1000));
+        ZoneHistogram gradient = zones.getGradient();
+        long up = gradient.getTime(gradient.zoneOf(0.04));
+        long down = gradient.getTime(gradient.zoneOf(-0.04));
+        // The smoothing lags behind a bit at the top and the start:
+        assertTrue(up > 0.8 * 400 * 1000);
+        assertTrue(down > 0.8 * 400 * 1000);
+        assertTrue(up + down > 0.85 * gradient.getTotal());
+    }
+
+    @Test
+    public void mergeThousandToursBenchmark() throws IOException {
+        // The stored zones of 1000 tours, like the precomputation writes them:
+        Random random = new Random(42);
+        int tours = 1000;
+        byte[][] stored = new byte[tours][];
+        long[] speed_expected = new long[TimeInZones.SPEED_ZONES.length + 1];
+        for (int tour = 0; tour < tours; tour++){
+            ZoneHistogram speed = new ZoneHistogram(TimeInZones.SPEED_ZONES);
+            ZoneHistogram gradient = new ZoneHistogram(TimeInZones.GRADIENT_ZONES);
+            for (int i = 0; i < 50; i++){
+                double value = random.nextDouble() * 15;
+                long time = random.nextInt(60000);
+                speed.add(value, time);
+                speed_expected[speed.zoneOf(value)] += time;
+                gradient.add((random.nextDouble() - 0.5) * 0.3, time);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            speed.write(out);
+            gradient.write(out);
+            out.flush();
+            stored[tour] = bytes.toByteArray();
+        }
+        for (int i = 0; i < 20; i++) mergeAll(stored);
+        int runs = 20;
+        ZoneHistogram[] merged = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) merged = mergeAll(stored);
+        double millis = (System.nanoTime() - start) / 1e6 / runs;
+        for (int zone = 0; zone < speed_expected.length; zone++){
+            assertEquals(speed_expected[zone], merged[0].getTime(zone));
+        }
+        assertEquals(merged[0].getTotal(), merged[1].getTotal());
+        // The dashboard merges a year of tours while it opens:
+        assertTrue("Took " + millis + "ms", millis < 50);
+    }
+
+    /**
+     * Read and merge the stored zones, like the dashboard does.
+     */
+    private static ZoneHistogram[] mergeAll(byte[][] stored) throws IOException {
+        ZoneHistogram speed = new ZoneHistogram(TimeInZones.SPEED_ZONES);
+        ZoneHistogram gradient = new ZoneHistogram(TimeInZones.GRADIENT_ZONES);
+        for (byte[] tour : stored){
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(tour));
+            speed.merge(ZoneHistogram.read(in));
+            gradient.merge(ZoneHistogram.read(in));
+        }
+        return new ZoneHistogram[]{speed, gradient};
+    }
+}
@@ -0,0 +1,93 @@
+package org.knuth.biketrack.track;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests seeking the {@link TrackCursor} to fixes, between them and beyond the track.
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public class TrackCursorTest {
+
+    /** 100m east every 10 seconds, then 100m in 40 seconds, climbing on the way */
+    private static final Track RIDE = Tracks.east(100,
+            new long[]{0, 10000, 10000, 40000}, new double[]{400, 410, 420, 460}
+    );
+
+    @Test
+    public void startsAtTheFirstFix(){
+        TrackCursor cursor = new TrackCursor(RIDE);
+        assertEquals(0, cursor.getTime());
+        assertEquals(0, cursor.getIndex());
+        assertEquals(RIDE.getLatitudes()[0], cursor.getLatitude(), 0);
+        assertEquals(RIDE.getLongitudes()[0], cursor.getLongitude(), 0);
+        assertEquals(0, cursor.getDistance(), 0);
+        assertEquals(0, cursor.getStartTime());
+        assertEquals(60000, cursor.getEndTime());
+    }
+
+    @Test
+    public void standsOnTheFixes(){
+        TrackCursor cursor = new TrackCursor(RIDE);
+        long[] times = RIDE.getTimes();
+        for (int i = times.length - 1; i >= 0; i--){
+            cursor.seek(times[i]);
+            assertEquals(i, cursor.getIndex());
+            assertEquals(RIDE.getLongitudes()[i], cursor.getLongitude(), 0);
+            assertEquals(RIDE.getAltitudes()[i], cursor.getAltitude(), 0);
+            assertEquals(RIDE.getDistances()[i], cursor.getDistance(), 0);
+            assertEquals(RIDE.getSpeeds()[i], cursor.getSpeed(), 0);
+        }
+    }
+
+    @Test
+    public void interpolatesBetweenTheFixes(){
+        TrackCursor cursor = new TrackCursor(RIDE);
+        // A quarter of the way through the slow, last stretch:
+        cursor.seek(30000);
+        assertEquals(2, cursor.getIndex());
+        double[] distances = RIDE.getDistances();
+        assertEquals(distances[2] + (distances[3] - distances[2]) / 4, cursor.getDistance(), 1e-9);
+        assertEquals(430, cursor.getAltitude(), 1e-9);
+        double[] longitudes = RIDE.getLongitudes();
+        assertEquals(longitudes[2] + (longitudes[3] - longitudes[2]) / 4, cursor.getLongitude(), 1e-12);
+        assertEquals(RIDE.getLatitudes()[2], cursor.getLatitude(), 1e-12);
+        float[] speeds = RIDE.getSpeeds();
+        assertEquals(speeds[2] + (speeds[3] - speeds[2]) / 4, cursor.getSpeed(), 1e-6);
+        // Halfway through the first stretch:
+        cursor.seek(5000);
+        assertEquals(0, cursor.getIndex());
+        assertEquals(405, cursor.getAltitude(), 1e-9);
+    }
+
+    @Test
+    public void clampsToTheTrack(){
+        TrackCursor cursor = new TrackCursor(RIDE);
+        cursor.seek(-5000);
+        assertEquals(0, cursor.getTime());
+        assertEquals(0, cursor.getIndex());
+        assertEquals(400, cursor.getAltitude(), 0);
+        cursor.seek(100000);
+        assertEquals(60000, cursor.getTime());
+        assertEquals(3, cursor.getIndex());
+        assertEquals(460, cursor.getAltitude(), 0);
+        assertEquals(RIDE.getLength(), cursor.getDistance(), 0);
+    }
+
+    @Test
+    public void singleFix(){
+        Track single = Tracks.east(0, new long[]{0}, new double[]{500});
+        TrackCursor cursor = new TrackCursor(single);
+        cursor.seek(1000);
+        assertEquals(0, cursor.getIndex());
+        assertEquals(500, cursor.getAltitude(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyTrackHasNoCursor(){
+        new TrackCursor(Track.EMPTY);
+    }
+}
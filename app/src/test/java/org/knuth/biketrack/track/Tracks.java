@@ -0,0 +1,131 @@
+package org.knuth.biketrack.track;
+
+import org.knuth.biketrack.geo.Geodesy;
+
+/**
+ * <p>Static helper-class to build synthetic tracks for the tests.</p>
+ * <p>Routes are given in meters east and north of an origin and walked in steps of a
+ *  fixed distance, which is good enough for the few kilometers the tests ride.</p>
+ *
+ * @author Lukas Knuth
+ * @version 1.0
+ */
+public final class Tracks {
+
+    // This is a static helper-class!
+    private Tracks(){}
+
+    /** The length of a degree of latitude, in meters */
+    public static final double METERS_PER_DEGREE = Geodesy.MEAN_RADIUS * Math.PI / 180;
+
+    /**
+     * Walk the polyline through the given points, in steps of the given length.
+     * @param east the points, in meters east of the origin.
+     * @param north the points, in meters north of the origin.
+     * @return the latitudes and longitudes of the steps, including the first and last point.
+     */
+    public static double[][] walk(double lat0, double lon0, double[] east, double[] north, double step){
+        double length = 0;
+        for (int i = 1; i < east.length; i++) length += Math.hypot(east[i] - east[i - 1], north[i] - north[i - 1]);
+        int size = (int) Math.ceil(length / step) + 1;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        int edge = 0;
+        double edge_start = 0;
+        for (int p = 0; p < size; p++){
+            double at = Math.min(p * step, length);
+            double edge_length = Math.hypot(east[edge + 1] - east[edge], north[edge + 1] - north[edge]);
+            while (edge < east.length - 2 && at > edge_start + edge_length){
+                edge_start += edge_length;
+                edge++;
+                edge_length = Math.hypot(east[edge + 1] - east[edge], north[edge + 1] - north[edge]);
+            }
+            double t = edge_length > 0 ? Math.min(1, (at - edge_start) / edge_length) : 0;
+            lat[p] = latitude(lat0, north[edge] + t * (north[edge + 1] - north[edge]));
+            lon[p] = longitude(lat0, lon0, east[edge] + t * (east[edge + 1] - east[edge]));
+        }
+        return new double[][]{lat, lon};
+    }
+
+    /** The latitude the given number of meters north of the origin. */
+    public static double latitude(double lat0, double north){
+        return lat0 + north / METERS_PER_DEGREE;
+    }
+
+    /** The longitude the given number of meters east of the origin. */
+    public static double longitude(double lat0, double lon0, double east){
+        return lon0 + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat0)));
+    }
+
+    /**
+     * A flat track through the given points, one point every {@code interval} milliseconds.
+     */
+    public static Track of(double[][] points, long start, long interval){
+        return of(points[0], points[1], new double[points[0].length], start, interval);
+    }
+
+    /**
+     * A track through the given points, one point every {@code interval} milliseconds. The
+     *  speed of every point is the one since the point before.
+     */
+    public static Track of(double[] lat, double[] lon, double[] alt, long start, long interval){
+        long[] times = new long[lat.length];
+        float[] speeds = new float[lat.length];
+        for (int i = 0; i < lat.length; i++){
+            times[i] = start + i * interval;
+            if (i > 0){
+                speeds[i] = (float) (Geodesy.distance(lat[i - 1], lon[i - 1], lat[i], lon[i]) / (interval / 1000.0));
+            }
+        }
+        return new Track(lat, lon, alt, times, speeds);
+    }
+
+    /**
+     * A track through the given points at the given times. The speed of every point is the
+     *  one since the point before.
+     */
+    public static Track of(double[] lat, double[] lon, double[] alt, long[] times){
+        float[] speeds = new float[lat.length];
+        for (int i = 1; i < lat.length; i++){
+            long elapsed = times[i] - times[i - 1];
+            if (elapsed > 0){
+                speeds[i] = (float) (Geodesy.distance(lat[i - 1], lon[i - 1], lat[i], lon[i]) / (elapsed / 1000.0));
+            }
+        }
+        return new Track(lat, lon, alt, times, speeds);
+    }
+
+    /**
+     * A ride to the east at the given altitudes, with a point every {@code step} meters, which
+     *  each took the given number of milliseconds since the point before.
+     */
+    public static Track east(double step, long[] intervals, double[] alt){
+        int size = intervals.length;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++){
+            lat[i] = 47.37;
+            lon[i] = longitude(47.37, 8.54, i * step);
+            times[i] = i == 0 ? 0 : times[i - 1] + intervals[i];
+        }
+        return of(lat, lon, alt, times);
+    }
+
+    /**
+     * Join the points of the given tracks into one, in their order.
+     */
+    public static double[][] join(double[][]... parts){
+        int size = 0;
+        for (double[][] part : parts) size += part[0].length;
+        double[] lat = new double[size];
+        double[] lon = new double[size];
+        int at = 0;
+        for (double[][] part : parts){
+            System.arraycopy(part[0], 0, lat, at, part[0].length);
+            System.arraycopy(part[1], 0, lon, at, part[1].length);
+            at += part[0].length;
+        }
+        return new double[][]{lat, lon};
+    }
+}